@@ -0,0 +1,82 @@
+#!/usr/bin/env bash
+#
+# Compare the user endpoints over HTTP/1.1 and (cleartext) HTTP/2, the way
+# the client uses them: lots of small requests in parallel. For each
+# endpoint this runs `h2load` (from nghttp2) twice against a server started
+# with `HTTP2=true`:
+#
+#   - `http/1.1`: CLIENTS connections, one request at a time on each
+#   - `h2c`: CLIENTS connections, up to STREAMS requests in flight on each
+#
+# and prints the requests per second and the mean time per request.
+#
+# The rate limits are raised for the run (otherwise most of the requests
+# would be 429s), and any other settings (e.g., `JETTY_SELECTORS` or
+# `IDLE_TIMEOUT_MILLIS`) are passed through to the server. Like the server
+# itself, this needs Mongo running (see `MONGO_ADDR` and `MONGO_DB`).
+#
+# Usage: scripts/benchmark-http2.sh [REQUESTS] [CLIENTS] [STREAMS]
+#        (from the `server` directory, after `./gradlew installDist`)
+
+set -euo pipefail
+
+requests="${1:-20000}"
+clients="${2:-8}"
+streams="${3:-16}"
+port=4567
+base_url="http://localhost:$port"
+server="build/install/server/bin/server"
+endpoints=(
+  "/api/users?limit=20"
+  "/api/users?company=OHMNET&sortby=age"
+  "/api/users/count"
+  "/api/usersByCompany?limit=20"
+)
+
+if ! command -v h2load > /dev/null; then
+  echo "This needs h2load (e.g., apt install nghttp2-client)" >&2
+  exit 1
+fi
+if [[ ! -x "$server" ]]; then
+  echo "No installed server; run ./gradlew installDist first" >&2
+  exit 1
+fi
+
+HTTP2=true \
+  RATE_LIMIT_PER_SECOND=1000000 RATE_LIMIT_BURST=1000000 \
+  EXPENSIVE_RATE_LIMIT_PER_SECOND=1000000 EXPENSIVE_RATE_LIMIT_BURST=1000000 \
+  "$server" > /dev/null 2>&1 &
+pid=$!
+trap 'kill "$pid" 2> /dev/null || true; wait "$pid" 2> /dev/null || true' EXIT
+
+until curl --silent --fail --output /dev/null "$base_url/api/health/ready"; do
+  if ! kill -0 "$pid" 2> /dev/null; then
+    echo "The server exited before it was ready" >&2
+    exit 1
+  fi
+  sleep 0.1
+done
+
+# Run h2load with the given options and print "<requests/s> <mean ms>"
+# from its summary (along with how many requests failed, if any did).
+load() {
+  local output
+  output=$(h2load --requests="$requests" --clients="$clients" "$@")
+  awk '
+    /^finished in/ { rps = $4 }
+    /^requests:/ { failed = $10; errored = $12 }
+    /^time for request:/ { mean = $6 }
+    END {
+      printf "%10.0f req/s   mean %8s", rps, mean
+      if (failed + errored > 0) printf "   (%d failed, %d errored)", failed, errored
+      printf "\n"
+    }' <<< "$output"
+}
+
+for endpoint in "${endpoints[@]}"; do
+  echo "$endpoint"
+  printf "  %-9s" "http/1.1"
+  load --h1 "$base_url$endpoint"
+  printf "  %-9s" "h2c"
+  load --max-concurrent-streams="$streams" "$base_url$endpoint"
+done
@@ -0,0 +1,76 @@
+#!/usr/bin/env bash
+#
+# Measure how long the server takes to become ready, and how much memory
+# (resident set size) it's using once it is, for each of the ways we can
+# launch it:
+#
+#   - `jvm`: the plain installed server (`./gradlew installDist`)
+#   - `cds`: the installed server with its AppCDS archive (`./gradlew cdsArchive`)
+#   - `native`: the GraalVM native image (`./gradlew -Pnative nativeCompile`)
+#
+# Launch modes whose files haven't been built are skipped. Like the server
+# itself, this needs Mongo running (see `MONGO_ADDR` and `MONGO_DB`).
+#
+# Usage: scripts/measure-startup.sh [RUNS]   (from the `server` directory)
+
+set -euo pipefail
+
+runs="${1:-5}"
+port=4567
+ready_url="http://localhost:$port/api/health/ready"
+install_dir="build/install/server"
+cds_archive="$install_dir/lib/server.jsa"
+native_binary="build/native/nativeCompile/server"
+
+# Milliseconds since the epoch
+now_ms() {
+  date +%s%3N
+}
+
+# Start the server with the given command, wait until it reports itself ready,
+# and print the time that took (in ms) and its RSS (in KB) at that point.
+measure() {
+  local start pid rss
+  start=$(now_ms)
+  "$@" > /dev/null 2>&1 &
+  pid=$!
+  until curl --silent --fail --output /dev/null "$ready_url"; do
+    if ! kill -0 "$pid" 2> /dev/null; then
+      echo "The server exited before it was ready" >&2
+      return 1
+    fi
+    sleep 0.01
+  done
+  local elapsed=$(( $(now_ms) - start ))
+  rss=$(awk '/VmRSS/ { print $2 }' "/proc/$pid/status")
+  kill "$pid"
+  wait "$pid" 2> /dev/null || true
+  echo "$elapsed $rss"
+}
+
+# Measure one launch mode `runs` times and print the averages.
+report() {
+  local name=$1
+  shift
+  local total_ms=0 total_kb=0 result
+  for _ in $(seq "$runs"); do
+    result=$(measure "$@")
+    total_ms=$(( total_ms + ${result% *} ))
+    total_kb=$(( total_kb + ${result#* } ))
+  done
+  printf "%-8s ready in %6d ms   RSS %8d KB   (average of %d runs)\n" \
+    "$name" $(( total_ms / runs )) $(( total_kb / runs )) "$runs"
+}
+
+if [[ -x "$install_dir/bin/server" ]]; then
+  report jvm "$install_dir/bin/server"
+  if [[ -f "$cds_archive" ]]; then
+    report cds env "JAVA_OPTS=-XX:SharedArchiveFile=$cds_archive" "$install_dir/bin/server"
+  fi
+else
+  echo "No installed server; run ./gradlew installDist (and ./gradlew cdsArchive) first" >&2
+fi
+
+if [[ -x "$native_binary" ]]; then
+  report native "$native_binary"
+fi
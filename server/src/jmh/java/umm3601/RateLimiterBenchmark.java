@@ -0,0 +1,60 @@
+package umm3601;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Microbenchmarks for the per-request cost of `TokenBuckets`, which
+ * should stay well under a microsecond even with many threads hitting
+ * the same bucket.
+ *
+ * Run these with `./gradlew jmh -PjmhIncludes=RateLimiterBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RateLimiterBenchmark {
+
+  // How many different clients the requests come from.
+  @Param({"1", "10000"})
+  private int clients;
+
+  private TokenBuckets buckets;
+  private String[] keys;
+
+  /**
+   * Create buckets generous enough that requests are never turned away,
+   * so we're measuring the normal path.
+   */
+  @Setup
+  public void setup() {
+    buckets = new TokenBuckets(1e9, Integer.MAX_VALUE / 2, System.nanoTime());
+    keys = new String[clients];
+    for (int i = 0; i < clients; i++) {
+      keys[i] = "ip:10.0." + (i / 256) + "." + (i % 256);
+    }
+  }
+
+  /**
+   * Take a token for a (pseudo-)random client.
+   *
+   * @return 0 (the request is allowed)
+   */
+  @Benchmark
+  @Threads(4)
+  public long tryAcquire() {
+    String key = keys[ThreadLocalRandom.current().nextInt(clients)];
+    return buckets.tryAcquire(key, System.nanoTime());
+  }
+}
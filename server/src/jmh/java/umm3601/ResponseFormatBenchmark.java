@@ -0,0 +1,93 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.user.ResultLimits;
+import umm3601.user.User;
+import umm3601.user.ResultArrayWriter;
+
+/**
+ * Microbenchmarks comparing the formats `getUsers` can respond in (see
+ * `ResponseFormat`): how many pages of users a second each format can
+ * write (the way `getUsers` does) and read back (the way a client would).
+ * How big each format's pages are is checked by `ResponseFormatSpec`.
+ *
+ * Run these with `./gradlew jmh -PjmhIncludes=ResponseFormatBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseFormatBenchmark {
+
+  @Param({"JSON", "SMILE", "CBOR", "MESSAGE_PACK"})
+  private ResponseFormat format;
+
+  @Param({"100"})
+  private int userCount;
+
+  private ObjectMapper mapper;
+  private List<User> users;
+  private byte[] bytes;
+
+  /**
+   * Create the mapper for the format being measured, and the users (and
+   * their encoding) to write and read.
+   *
+   * @throws IOException if the users can't be written
+   */
+  @Setup
+  public void setup() throws IOException {
+    mapper = ResponseFormat.createMappers(ObjectMappers.createObjectMapper()).get(format);
+    users = new ArrayList<>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      User user = new User();
+      user._id = String.format("%024x", i);
+      user.name = "User " + i;
+      user.age = 20 + i % 50;
+      user.company = "Company " + i % 10;
+      user.email = "user" + i + "@example.com";
+      user.role = "viewer";
+      user.avatar = "https://gravatar.com/avatar/" + i + "?d=identicon";
+      users.add(user);
+    }
+    bytes = serialize();
+  }
+
+  /**
+   * Write the users through a `ResultArrayWriter`, as `getUsers` does.
+   *
+   * @return the encoded users
+   */
+  @Benchmark
+  public byte[] serialize() {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, ResultLimits.DEFAULT, "");
+    users.forEach(writer::add);
+    return writer.toByteArray();
+  }
+
+  /**
+   * Read the users back, as a client of `getUsers` would.
+   *
+   * @return the users read back
+   * @throws IOException if the users can't be read
+   */
+  @Benchmark
+  public User[] deserialize() throws IOException {
+    return mapper.readValue(bytes, User[].class);
+  }
+}
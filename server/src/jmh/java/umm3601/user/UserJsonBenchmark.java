@@ -0,0 +1,105 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.ObjectMappers;
+
+/**
+ * Microbenchmarks comparing a default Jackson `ObjectMapper` (what Javalin
+ * and MongoJack each built for themselves) with the shared mapper from
+ * `ObjectMappers`, serializing and deserializing lists of `User`s.
+ *
+ * Run these with `./gradlew jmh -PjmhIncludes=UserJsonBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserJsonBenchmark {
+
+  private static final TypeReference<List<User>> USER_LIST = new TypeReference<>() { };
+
+  @Param({"default", "shared"})
+  private String mapperKind;
+
+  @Param({"100"})
+  private int userCount;
+
+  private ObjectMapper mapper;
+  private List<User> users;
+  private byte[] json;
+
+  /**
+   * Create the mapper being measured, along with the users (and their
+   * JSON) to read and write.
+   *
+   * @throws IOException if the users can't be written as JSON
+   */
+  @Setup
+  public void setup() throws IOException {
+    mapper = "shared".equals(mapperKind) ? ObjectMappers.createObjectMapper() : new ObjectMapper();
+    users = new ArrayList<>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      User user = new User();
+      user._id = String.format("%024x", i);
+      user.name = "User " + i;
+      user.age = 20 + i % 50;
+      user.company = "Company " + i % 10;
+      user.email = "user" + i + "@example.com";
+      user.role = "viewer";
+      user.avatar = "https://gravatar.com/avatar/" + i + "?d=identicon";
+      users.add(user);
+    }
+    json = mapper.writeValueAsBytes(users);
+  }
+
+  /**
+   * Write the users as a single JSON array, all at once.
+   *
+   * @return the JSON bytes
+   * @throws IOException if the users can't be written
+   */
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    return mapper.writeValueAsBytes(users);
+  }
+
+  /**
+   * Write the users as JSON one at a time through a `ResultArrayWriter`, as
+   * `getUsers` does, to see what checking the size limits costs.
+   *
+   * @return the JSON bytes
+   */
+  @Benchmark
+  public byte[] serializeStreaming() {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, ResultLimits.DEFAULT, "");
+    users.forEach(writer::add);
+    return writer.toByteArray();
+  }
+
+  /**
+   * Read the users back from JSON, as bulk creation does.
+   *
+   * @return the users read from the JSON
+   * @throws IOException if the JSON can't be read
+   */
+  @Benchmark
+  public List<User> deserialize() throws IOException {
+    return mapper.readValue(json, USER_LIST);
+  }
+}
@@ -0,0 +1,181 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Microbenchmarks comparing the ways we can answer `getUsers`-style queries:
+ * the bitmap-indexed `UserSnapshot` (`snapshot`), the map-based
+ * `InMemoryUserRepository` (`memory`), and MongoDB itself (`mongo`).
+ *
+ * The `mongo` benchmarks need a running `mongod` (at `MONGO_ADDR`, or
+ * `localhost`), and replace the `users` collection in its `benchmark` database.
+ *
+ * Run these with `./gradlew jmh -PjmhIncludes=UserQueryBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserQueryBenchmark {
+
+  private static final String[] ROLES = {"admin", "editor", "viewer"};
+
+  @Param({"snapshot", "memory", "mongo"})
+  private String backend;
+
+  @Param({"10000"})
+  private int userCount;
+
+  private MongoClient mongoClient;
+  private UserRepository repository;
+  private UserQuery roleAndCompany;
+  private UserQuery allThree;
+  private UserQuery pageByAge;
+
+  /**
+   * Fill the chosen backend with `userCount` users spread over 50
+   * companies, the three roles, and ages 18 through 77.
+   */
+  @Setup
+  public void setup() {
+    List<User> users = new ArrayList<>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      User user = new User();
+      user._id = new ObjectId().toHexString();
+      user.name = "User " + i;
+      user.age = 18 + i % 60;
+      user.company = "Company " + i % 50;
+      user.email = "user" + i + "@example.com";
+      user.role = ROLES[i % ROLES.length];
+      users.add(user);
+    }
+
+    switch (backend) {
+      case "snapshot" -> repository = new SnapshotUserRepository();
+      case "memory" -> repository = new InMemoryUserRepository();
+      default -> repository = mongoRepository();
+    }
+    repository.saveAll(users);
+
+    roleAndCompany = new UserQuery();
+    roleAndCompany.role = "editor";
+    roleAndCompany.company = "company 1";
+
+    allThree = new UserQuery();
+    allThree.role = "viewer";
+    allThree.company = "Company 7";
+    allThree.age = 25;
+
+    pageByAge = new UserQuery();
+    pageByAge.role = "admin";
+    pageByAge.sortBy = "age";
+    pageByAge.descending = true;
+    pageByAge.offset = 40;
+    pageByAge.limit = 20;
+  }
+
+  /**
+   * Connect to Mongo and start with an empty `users` collection.
+   */
+  private UserRepository mongoRepository() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    mongoClient = MongoClients.create(MongoClientSettings.builder()
+      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .build());
+    MongoCollection<User> collection = mongoClient.getDatabase("benchmark")
+      .getCollection("users", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(MongoClientSettings.getDefaultCodecRegistry()));
+    collection.drop();
+    // The planner hints these indexes, so they have to exist.
+    UserQueryPlanner.createIndexes(collection);
+    // Users are saved one at a time, which is slow; inserting them all at once is much quicker.
+    return new MongoUserRepository(collection) {
+      @Override
+      public void saveAll(Iterable<User> users) {
+        List<User> list = new ArrayList<>();
+        users.forEach(list::add);
+        collection.insertMany(list);
+      }
+    };
+  }
+
+  /**
+   * Disconnect from Mongo (if we connected).
+   */
+  @TearDown
+  public void tearDown() {
+    if (mongoClient != null) {
+      mongoClient.close();
+    }
+  }
+
+  /**
+   * Find the editors at any company containing "company 1".
+   *
+   * @return the matching users
+   */
+  @Benchmark
+  public List<User> findByRoleAndCompany() {
+    return repository.find(roleAndCompany);
+  }
+
+  /**
+   * Find the users matching all three filters.
+   *
+   * @return the matching users
+   */
+  @Benchmark
+  public List<User> findByAllThree() {
+    return repository.find(allThree);
+  }
+
+  /**
+   * Get the third page (of 20) of admins, oldest first.
+   *
+   * @return the users on that page
+   */
+  @Benchmark
+  public List<User> pageSortedByAge() {
+    return repository.find(pageByAge);
+  }
+
+  /**
+   * Count the editors at any company containing "company 1".
+   *
+   * @return the number of matching users
+   */
+  @Benchmark
+  public long countByRoleAndCompany() {
+    return repository.count(roleAndCompany);
+  }
+
+  /**
+   * Count everyone by role and by company.
+   *
+   * @return the counts
+   */
+  @Benchmark
+  public UserFacets facets() {
+    return repository.facets(new UserQuery());
+  }
+}
@@ -0,0 +1,76 @@
+package umm3601.user;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Microbenchmarks comparing the `UserValidator` with the per-call
+ * `String.matches()` checks that `addNewUser` used to make.
+ *
+ * Run these with `./gradlew jmh -PjmhIncludes=UserValidatorBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserValidatorBenchmark {
+
+  // The regex `addNewUser` used to check roles before we had `UserRole`.
+  private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
+
+  private UserValidator validator;
+  private User user;
+
+  /**
+   * Create the validator and a legal user to check.
+   */
+  @Setup
+  public void setup() {
+    validator = new UserValidator();
+    user = new User();
+    user.name = "Connie Stewart";
+    user.age = 25;
+    user.company = "OHMNET";
+    user.email = "conniestewart@ohmnet.com";
+    user.role = "admin";
+  }
+
+  /**
+   * The email and role checks the way `addNewUser` used to make them,
+   * compiling a new `Pattern` for each call to `matches()`.
+   *
+   * @return whether the email and role are legal
+   */
+  @Benchmark
+  public boolean stringMatches() {
+    return user.email.matches(UserController.EMAIL_REGEX) && user.role.matches(ROLE_REGEX);
+  }
+
+  /**
+   * The same checks using the `UserValidator`'s precompiled pattern
+   * and `UserRole` lookup.
+   *
+   * @return whether the email and role are legal
+   */
+  @Benchmark
+  public boolean validatorChecks() {
+    return validator.isLegalEmail(user.email) && validator.isLegalRole(user.role);
+  }
+
+  /**
+   * A full validation of a legal user, as done for every new user.
+   *
+   * @return whether the user is legal
+   */
+  @Benchmark
+  public boolean validateUser() {
+    return validator.validate(user).isEmpty();
+  }
+}
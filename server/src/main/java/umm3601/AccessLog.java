@@ -0,0 +1,118 @@
+package umm3601;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+/**
+ * Structured (JSON) access logging: one line per request, with its route,
+ * status, latency, time spent in Mongo, and response size.
+ *
+ * `Server` calls `log` from Javalin's request logger once each response is
+ * done. All this does on the request thread is build an `AccessLogEvent`
+ * and hand it to the `AccessLogWriter`, which formats and writes it from
+ * its own thread, so logging never holds up a request.
+ *
+ * To cut down the volume on busy servers, only a sample (`sampleRate`) of
+ * the successful requests are logged; errors (4xx and 5xx) always are.
+ */
+public class AccessLog implements RequestInterceptor, AutoCloseable {
+
+  // The default fraction of successful requests to log.
+  public static final double DEFAULT_SAMPLE_RATE = 1.0;
+
+  // The lowest HTTP status that's an error (and so is always logged).
+  private static final int HTTP_CLIENT_ERROR = 400;
+
+  private final AccessLogWriter writer;
+  private final MongoCommandTimer mongoTimer;
+  private final double sampleRate;
+
+  /**
+   * Construct an access log.
+   *
+   * @param writer where the events go
+   * @param mongoTimer keeps track of the time each request spends in Mongo
+   *   (this must be registered with the `MongoClient`)
+   * @param sampleRate the fraction (from 0 to 1) of successful requests to log
+   */
+  public AccessLog(AccessLogWriter writer, MongoCommandTimer mongoTimer, double sampleRate) {
+    this.writer = writer;
+    this.mongoTimer = mongoTimer;
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * Add a handler that starts each request's Mongo time from zero.
+   *
+   * @param server the Javalin server
+   */
+  @Override
+  public void register(Javalin server) {
+    server.before(ctx -> mongoTimer.reset());
+  }
+
+  /**
+   * Log a finished request (if it's sampled).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param executionTimeMillis how long the request took, in milliseconds
+   */
+  public void log(Context ctx, Float executionTimeMillis) {
+    int status = ctx.statusCode();
+    if (status < HTTP_CLIENT_ERROR && !sampled()) {
+      return;
+    }
+    writer.append(new AccessLogEvent(
+      System.currentTimeMillis(),
+      ctx.method().name(),
+      route(ctx),
+      status,
+      executionTimeMillis,
+      mongoTimer.elapsedNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1),
+      responseBytes(ctx)));
+  }
+
+  /**
+   * Stop logging, once the events already logged have been written.
+   */
+  @Override
+  public void close() {
+    writer.close();
+  }
+
+  private boolean sampled() {
+    return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  /**
+   * The route that handled the request, e.g., `/api/users/{id}`, so all the
+   * requests for a route are logged the same way. Requests that didn't match
+   * a route (or were turned away by a `before` handler, before they got to
+   * one) are logged with their path. `RequestTracer` names its spans the
+   * same way.
+   */
+  static String route(Context ctx) {
+    try {
+      String route = ctx.endpointHandlerPath();
+      return route.isEmpty() ? ctx.path() : route;
+    } catch (IllegalStateException e) {
+      return ctx.path();
+    }
+  }
+
+  /**
+   * The number of bytes written for the response body, which Jetty keeps
+   * track of as it writes.
+   */
+  private static long responseBytes(Context ctx) {
+    if (ctx.res() instanceof Response response) {
+      return response.getHttpChannel().getBytesWritten();
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,22 @@
+package umm3601;
+
+/**
+ * One line of the access log: what a single request was, and how it went.
+ *
+ * @param timestampMillis when the request finished (milliseconds since the epoch)
+ * @param method the HTTP method, e.g., `GET`
+ * @param route the route that handled the request, e.g., `/api/users/{id}`
+ * @param status the HTTP status of the response
+ * @param latencyMillis how long the request took in total
+ * @param mongoMillis how much of that was spent waiting on Mongo
+ * @param responseBytes the size of the response body, or -1 if we don't know
+ */
+public record AccessLogEvent(
+    long timestampMillis,
+    String method,
+    String route,
+    int status,
+    double latencyMillis,
+    double mongoMillis,
+    long responseBytes) {
+}
@@ -0,0 +1,152 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes access log events as JSON lines from a background thread.
+ *
+ * Request threads just drop their event into a fixed-size ring buffer
+ * (`append`), which never blocks: if the buffer is full because the log
+ * can't keep up, the event is dropped and counted rather than making the
+ * request wait. The writer thread takes events off the buffer in batches,
+ * writes each as a line of JSON, and flushes once per batch. If events were
+ * dropped, it writes a `{"dropped": N}` line saying how many.
+ */
+public class AccessLogWriter implements Runnable, AutoCloseable {
+
+  // The default number of events the buffer can hold.
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  // The most events we write before flushing.
+  private static final int BATCH_SIZE = 256;
+  // How long (in milliseconds) the writer waits for an event before checking
+  // whether it's been closed.
+  private static final long POLL_MILLIS = 100;
+  // How long (in milliseconds) `close` waits for the writer to finish.
+  private static final long CLOSE_MILLIS = 5_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AccessLogWriter.class);
+
+  private final ArrayBlockingQueue<AccessLogEvent> buffer;
+  private final JsonGenerator json;
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile boolean running;
+  private Thread thread;
+
+  /**
+   * Construct a writer. Nothing is written until it's `start`ed.
+   *
+   * @param out where to write the log
+   * @param capacity how many events the buffer can hold
+   * @throws IOException if we can't write to `out`
+   */
+  public AccessLogWriter(Writer out, int capacity) throws IOException {
+    buffer = new ArrayBlockingQueue<>(capacity);
+    json = new JsonFactory().createGenerator(out);
+    // Each event is a line of its own, so we add the newlines ourselves
+    json.setRootValueSeparator(null);
+  }
+
+  /**
+   * Start the background thread that writes the log.
+   */
+  public synchronized void start() {
+    running = true;
+    thread = new Thread(this, "access-log-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Add an event to the log, unless the buffer is full.
+   *
+   * @param event the event to log
+   * @return whether the event was added
+   */
+  public boolean append(AccessLogEvent event) {
+    if (buffer.offer(event)) {
+      return true;
+    }
+    dropped.incrementAndGet();
+    return false;
+  }
+
+  @Override
+  public void run() {
+    List<AccessLogEvent> batch = new ArrayList<>(BATCH_SIZE);
+    try {
+      while (running || !buffer.isEmpty()) {
+        AccessLogEvent first = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          buffer.drainTo(batch, BATCH_SIZE - 1);
+          write(batch);
+          batch.clear();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Write a batch of events (and the number dropped, if any), and flush.
+   */
+  void write(List<AccessLogEvent> batch) {
+    try {
+      for (AccessLogEvent event : batch) {
+        json.writeStartObject();
+        json.writeNumberField("timestamp", event.timestampMillis());
+        json.writeStringField("method", event.method());
+        json.writeStringField("route", event.route());
+        json.writeNumberField("status", event.status());
+        json.writeNumberField("latencyMs", event.latencyMillis());
+        json.writeNumberField("mongoMs", event.mongoMillis());
+        json.writeNumberField("responseBytes", event.responseBytes());
+        json.writeEndObject();
+        json.writeRaw('\n');
+      }
+      long droppedCount = dropped.getAndSet(0);
+      if (droppedCount > 0) {
+        json.writeStartObject();
+        json.writeNumberField("dropped", droppedCount);
+        json.writeEndObject();
+        json.writeRaw('\n');
+      }
+      json.flush();
+    } catch (IOException e) {
+      LOGGER.warn("Couldn't write to the access log", e);
+    }
+  }
+
+  /**
+   * Stop the writer once it has written the events already in the buffer.
+   */
+  @Override
+  public void close() {
+    running = false;
+    Thread writerThread;
+    synchronized (this) {
+      writerThread = thread;
+    }
+    if (writerThread != null) {
+      try {
+        writerThread.join(CLOSE_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
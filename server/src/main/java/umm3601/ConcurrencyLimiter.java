@@ -0,0 +1,130 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An adaptive limit on the number of requests being handled at once.
+ *
+ * By Little's law, the number of requests in flight is the throughput
+ * times the latency. Once the server is saturated, letting more requests
+ * in doesn't raise the throughput, it only raises the latency: the extra
+ * requests just wait in line. So the limit is adjusted by comparing the
+ * recent latency (`shortRtt`) with the latency over a much longer period
+ * (`longRtt`, which stands in for the latency without any queueing):
+ *
+ *   newLimit = limit * (longRtt / shortRtt) + sqrt(limit)
+ *
+ * While latencies are steady the ratio (the "gradient") is 1 and the limit
+ * creeps up by `sqrt(limit)`, leaving room for a little queueing. When
+ * latencies rise the gradient drops below 1 and the limit shrinks in
+ * proportion. The gradient never goes below 1/2, and changes are smoothed,
+ * so one slow request can't collapse the limit.
+ *
+ * Acquiring and releasing permits is lock-free; only the limit update
+ * (once per finished request) is synchronized.
+ */
+public class ConcurrencyLimiter {
+
+  // How many samples the short- and long-term latency averages cover (roughly).
+  private static final double SHORT_WINDOW = 10;
+  private static final double LONG_WINDOW = 600;
+  // How much of each new limit estimate we take on at a time.
+  private static final double SMOOTHING = 0.2;
+  // The smallest gradient we'll apply, so the limit at most halves per update.
+  private static final double MIN_GRADIENT = 0.5;
+  // If the long-term average gets this far above the short-term one (e.g.,
+  // after a slow spell), it's pulled down quicker so the limit can recover.
+  private static final double DRIFT_RATIO = 2;
+  private static final double DRIFT_DECAY = 0.95;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  // Written under `this` lock, but read without it by `tryAcquire`.
+  private volatile double limit;
+  private double shortRtt;
+  private double longRtt;
+
+  /**
+   * Construct a limiter.
+   *
+   * @param initialLimit the limit to start with
+   * @param minLimit the smallest the limit can get
+   * @param maxLimit the largest the limit can get
+   */
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+    }
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * Try to start a request.
+   *
+   * @return `true` if the request can go ahead (and `release` must be called
+   *   when it's done), or `false` if too many requests are already in flight
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= (int) limit) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Finish a request started by a successful `tryAcquire`, and use how
+   * long it took to update the limit.
+   *
+   * @param rttNanos how long the request took, in nanoseconds
+   */
+  public void release(long rttNanos) {
+    int wasInFlight = inFlight.getAndDecrement();
+    update(rttNanos, wasInFlight);
+  }
+
+  private synchronized void update(long rttNanos, int wasInFlight) {
+    if (longRtt == 0) {
+      shortRtt = rttNanos;
+      longRtt = rttNanos;
+    } else {
+      shortRtt += (rttNanos - shortRtt) / SHORT_WINDOW;
+      longRtt += (rttNanos - longRtt) / LONG_WINDOW;
+    }
+    if (longRtt > DRIFT_RATIO * shortRtt) {
+      longRtt *= DRIFT_DECAY;
+    }
+
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRtt / shortRtt));
+    if (gradient == 1.0 && wasInFlight < limit / 2) {
+      // We're nowhere near the limit, so these samples say nothing about
+      // whether a higher limit would help; don't let it grow without bound.
+      return;
+    }
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+
+  /**
+   * @return the current limit on requests in flight
+   */
+  public int limit() {
+    return (int) limit;
+  }
+
+  /**
+   * @return the number of requests currently in flight
+   */
+  public int inFlight() {
+    return inFlight.get();
+  }
+}
@@ -21,7 +21,7 @@ import io.javalin.Javalin;
  * Note that this interface definition is _complete_ and you shouldn't need to
  * add anything to it. You just need to make sure that any new controllers
  * you implement also implement this interface, providing their own `addRoutes()`
- * method.
+ * method (and, if they like, their own `warmUp()` and `close()` methods).
  */
 public interface Controller {
   /**
@@ -35,4 +35,31 @@ public interface Controller {
    * @param server The Javalin server to add routes to
    */
   void addRoutes(Javalin server);
+
+  /**
+   * Exercise the controller's main code paths before the server starts
+   * taking requests.
+   *
+   * The first few requests to a freshly started server are slow: classes
+   * are still being loaded, nothing has been compiled by the JIT yet, and
+   * database connections haven't been opened. Doing that work here means
+   * real users don't have to wait for it. This must not change any data,
+   * and should stop once `timeLimitMillis` is up, even if it hasn't done
+   * all its rounds, since the server isn't ready until it's done.
+   * By default there's nothing to warm up.
+   *
+   * @param rounds how many times to run through the main code paths
+   * @param timeLimitMillis the longest (in milliseconds) warming up should take
+   */
+  default void warmUp(int rounds, long timeLimitMillis) {
+  }
+
+  /**
+   * Stop anything the controller runs in the background (e.g., threads
+   * keeping a copy of the data up to date). `Server` calls this while
+   * shutting down, once the requests in flight have finished, but before
+   * the database connection is closed. By default there's nothing to stop.
+   */
+  default void close() {
+  }
 }
@@ -0,0 +1,107 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+/**
+ * Writes finished spans as JSON lines, for looking at traces offline
+ * (e.g., with `jq`) without running a collector.
+ *
+ * Each line is one span, with its trace and span IDs, its parent's span
+ * ID (if it has one), name, kind, start time (in nanoseconds since the
+ * epoch), duration (in microseconds), status, and attributes. The spans of a
+ * request all have the same `traceId`.
+ */
+public class FileSpanExporter implements SpanExporter {
+
+  private final Writer out;
+  private final JsonGenerator json;
+
+  /**
+   * Construct an exporter.
+   *
+   * @param out where to write the spans; this is closed when the exporter is shut down
+   * @throws IOException if we can't write to `out`
+   */
+  public FileSpanExporter(Writer out) throws IOException {
+    this.out = out;
+    json = new JsonFactory().createGenerator(out);
+    // Each span is a line of its own, so we add the newlines ourselves
+    json.setRootValueSeparator(null);
+  }
+
+  @Override
+  public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+    try {
+      for (SpanData span : spans) {
+        json.writeStartObject();
+        json.writeStringField("traceId", span.getTraceId());
+        json.writeStringField("spanId", span.getSpanId());
+        if (span.getParentSpanContext().isValid()) {
+          json.writeStringField("parentSpanId", span.getParentSpanId());
+        }
+        json.writeStringField("name", span.getName());
+        json.writeStringField("kind", span.getKind().name());
+        json.writeNumberField("startNanos", span.getStartEpochNanos());
+        json.writeNumberField("durationMicros",
+          TimeUnit.NANOSECONDS.toMicros(span.getEndEpochNanos() - span.getStartEpochNanos()));
+        json.writeStringField("status", span.getStatus().getStatusCode().name());
+        writeAttributes(span.getAttributes());
+        json.writeEndObject();
+        json.writeRaw('\n');
+      }
+      json.flush();
+      return CompletableResultCode.ofSuccess();
+    } catch (IOException e) {
+      return CompletableResultCode.ofFailure();
+    }
+  }
+
+  private void writeAttributes(Attributes attributes) throws IOException {
+    json.writeObjectFieldStart("attributes");
+    for (Map.Entry<AttributeKey<?>, Object> entry : attributes.asMap().entrySet()) {
+      AttributeKey<?> key = entry.getKey();
+      Object value = entry.getValue();
+      switch (key.getType()) {
+        case LONG -> json.writeNumberField(key.getKey(), (Long) value);
+        case DOUBLE -> json.writeNumberField(key.getKey(), (Double) value);
+        case BOOLEAN -> json.writeBooleanField(key.getKey(), (Boolean) value);
+        default -> json.writeStringField(key.getKey(), String.valueOf(value));
+      }
+    }
+    json.writeEndObject();
+  }
+
+  @Override
+  public synchronized CompletableResultCode flush() {
+    try {
+      json.flush();
+      return CompletableResultCode.ofSuccess();
+    } catch (IOException e) {
+      return CompletableResultCode.ofFailure();
+    }
+  }
+
+  @Override
+  public synchronized CompletableResultCode shutdown() {
+    try {
+      json.flush();
+      out.close();
+      return CompletableResultCode.ofSuccess();
+    } catch (IOException e) {
+      return CompletableResultCode.ofFailure();
+    }
+  }
+}
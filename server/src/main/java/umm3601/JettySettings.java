@@ -0,0 +1,92 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.ServerConnector;
+
+import io.javalin.config.JettyConfig;
+
+/**
+ * How the server's Jetty connector is set up: which protocols it speaks,
+ * how many threads accept and select connections, and how long idle
+ * (kept-alive) connections stay open.
+ *
+ * The client makes lots of small requests in parallel (e.g., users,
+ * companies, and profiles all at once). Over HTTP/1.1 each of those needs
+ * a connection of its own; with `http2` on, they're multiplexed as streams
+ * on a single connection instead. This is cleartext HTTP/2 ("h2c"), both
+ * with prior knowledge and as an upgrade from HTTP/1.1, which is enough for
+ * local testing and for running behind a proxy that terminates TLS. Plain
+ * HTTP/1.1 requests still work either way.
+ *
+ * @param http2 whether to speak h2c as well as HTTP/1.1
+ * @param maxConcurrentStreams the most requests an HTTP/2 connection can have in flight
+ * @param acceptors the number of threads accepting connections, or -1 to let Jetty pick
+ * @param selectors the number of threads selecting on connections, or -1 to let Jetty pick
+ * @param idleTimeoutMillis how long a connection can be idle before it's closed
+ * @param outputBufferSize the size (in bytes) of each response's output buffer;
+ *   responses that fit aren't chunked
+ */
+public record JettySettings(
+    boolean http2,
+    int maxConcurrentStreams,
+    int acceptors,
+    int selectors,
+    long idleTimeoutMillis,
+    int outputBufferSize) {
+
+  public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 128;
+
+  // Jetty's own defaults
+  public static final int DEFAULT_ACCEPTORS = -1;
+  public static final int DEFAULT_SELECTORS = -1;
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+  public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 32 * 1024;
+
+  // HTTP/1.1 only, with Jetty's defaults, which is what Javalin does by itself.
+  public static final JettySettings DEFAULT = new JettySettings(false, DEFAULT_MAX_CONCURRENT_STREAMS,
+    DEFAULT_ACCEPTORS, DEFAULT_SELECTORS, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_OUTPUT_BUFFER_SIZE);
+
+  /**
+   * Have Javalin use a connector with these settings, listening on `port`,
+   * rather than its default one.
+   *
+   * @param jetty Javalin's Jetty configuration
+   * @param port the port to listen on
+   */
+  public void apply(JettyConfig jetty, int port) {
+    jetty.defaultPort = port;
+    jetty.modifyHttpConfiguration(httpConfig -> httpConfig.setOutputBufferSize(outputBufferSize));
+    jetty.addConnector((server, httpConfig) -> {
+      ServerConnector connector = new ServerConnector(server, acceptors, selectors,
+        connectionFactories(httpConfig).toArray(ConnectionFactory[]::new));
+      connector.setPort(port);
+      connector.setIdleTimeout(idleTimeoutMillis);
+      return connector;
+    });
+  }
+
+  /**
+   * The protocols the connector speaks, in order. HTTP/1.1 comes first so
+   * it's what clients get unless they ask for h2c.
+   *
+   * @param httpConfig the HTTP configuration shared by the protocols
+   * @return the connection factories for the connector
+   */
+  List<ConnectionFactory> connectionFactories(HttpConfiguration httpConfig) {
+    List<ConnectionFactory> factories = new ArrayList<>();
+    factories.add(new HttpConnectionFactory(httpConfig));
+    if (http2) {
+      HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+      h2c.setMaxConcurrentStreams(maxConcurrentStreams);
+      h2c.setStreamIdleTimeout(idleTimeoutMillis);
+      factories.add(h2c);
+    }
+    return factories;
+  }
+}
@@ -0,0 +1,118 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.health.HealthController;
+
+/**
+ * Admission control for the server's routes.
+ *
+ * Each route (e.g., `GET /api/usersByCompany`) gets its own
+ * `ConcurrencyLimiter`, so a pile-up of slow requests on one route can't
+ * starve the others. A request that arrives when its route is at the
+ * limit is turned away straight away with a 503 and a `Retry-After`
+ * header, rather than waiting in line and making everything slower.
+ *
+ * Every request also gets a `RequestDeadline`, which the database calls
+ * use to limit how long Mongo can work on the request. Health checks
+ * (see `HealthController`) are always let through.
+ */
+public class LoadShedder implements RequestInterceptor {
+
+  // The defaults for the limiters and the request deadline.
+  public static final int DEFAULT_INITIAL_LIMIT = 20;
+  public static final int DEFAULT_MAX_LIMIT = 200;
+  public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
+
+  // How long (in seconds) we ask rejected clients to wait before trying again.
+  static final int RETRY_AFTER_SECONDS = 1;
+
+  // The names of the request attributes used to pass state to `after`.
+  private static final String LIMITER_ATTRIBUTE = "loadShedder.limiter";
+  private static final String START_ATTRIBUTE = "loadShedder.start";
+
+  private final int initialLimit;
+  private final int maxLimit;
+  private final long requestTimeoutMillis;
+  private final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a load shedder.
+   *
+   * @param initialLimit the concurrency limit each route starts with
+   * @param maxLimit the largest each route's limit can grow to
+   * @param requestTimeoutMillis how long each request has before its
+   *   database calls are cut off, in milliseconds
+   */
+  public LoadShedder(int initialLimit, int maxLimit, long requestTimeoutMillis) {
+    this.initialLimit = initialLimit;
+    this.maxLimit = maxLimit;
+    this.requestTimeoutMillis = requestTimeoutMillis;
+  }
+
+  /**
+   * Add the load shedding handlers to `server`.
+   *
+   * The permit is taken in a `beforeMatched` handler, since that's where
+   * we know which route the request is for, and given back in an `after`
+   * handler, since those run even if the route's handler throws.
+   *
+   * @param server the Javalin server
+   */
+  @Override
+  public void register(Javalin server) {
+    server.beforeMatched(this::admit);
+    server.after(this::finish);
+  }
+
+  /**
+   * Let the request in (and start its deadline) if its route is under its
+   * limit, otherwise reject it.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ServiceUnavailableResponse if the route is at its limit
+   */
+  void admit(Context ctx) {
+    if (ctx.endpointHandlerPath().startsWith(HealthController.API_HEALTH)) {
+      // Health checks are cheap, and must keep answering when we're busy
+      return;
+    }
+    ConcurrencyLimiter limiter = limiterFor(ctx.method() + " " + ctx.endpointHandlerPath());
+    if (!limiter.tryAcquire()) {
+      ctx.header("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+      throw new ServiceUnavailableResponse("The server is too busy; please try again shortly");
+    }
+    ctx.attribute(LIMITER_ATTRIBUTE, limiter);
+    ctx.attribute(START_ATTRIBUTE, System.nanoTime());
+    RequestDeadline.start(requestTimeoutMillis);
+  }
+
+  /**
+   * Release the request's permit (if it got one) and clear its deadline.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  void finish(Context ctx) {
+    ConcurrencyLimiter limiter = ctx.attribute(LIMITER_ATTRIBUTE);
+    if (limiter != null) {
+      long start = ctx.attribute(START_ATTRIBUTE);
+      limiter.release(System.nanoTime() - start);
+      ctx.attribute(LIMITER_ATTRIBUTE, null);
+    }
+    RequestDeadline.clear();
+  }
+
+  /**
+   * Get the limiter for a route, creating it if this is the route's first request.
+   *
+   * @param route the route's method and path, e.g., `GET /api/users/{id}`
+   * @return the route's limiter
+   */
+  ConcurrencyLimiter limiterFor(String route) {
+    return limiters.computeIfAbsent(route, key -> new ConcurrencyLimiter(initialLimit, 1, maxLimit));
+  }
+}
@@ -1,33 +1,159 @@
 package umm3601;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+
+import umm3601.slowquery.SlowQueryController;
+import umm3601.slowquery.SlowQueryLog;
+import umm3601.user.InMemoryUserRepository;
+import umm3601.user.ResultLimits;
+import umm3601.user.SnapshotUserRepository;
+import umm3601.user.UserBulkController;
+import umm3601.user.UserChangesController;
+import umm3601.user.User;
+import umm3601.user.UserCodec;
 import umm3601.user.UserController;
+import umm3601.user.UserReadMode;
+import umm3601.user.UserRepository;
+import umm3601.user.UserSnapshotRefresher;
 
 public class Main {
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     // Get the MongoDB address and database name from environment variables and
     // if they aren't set, use the defaults of "localhost" and "dev".
     String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
     String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
+    // The largest request body (in bytes) we'll accept for bulk requests like
+    // adding many users at once.
+    long maxBulkBodyBytes = Long.parseLong(Main.getEnvOrDefault("MAX_BULK_BODY_BYTES",
+      String.valueOf(UserBulkController.DEFAULT_MAX_BULK_BODY_BYTES)));
+    // How `getUsers` turns documents into JSON: `JACKSON` (the default), `CODEC`, or `RAW`.
+    UserReadMode userReadMode = UserReadMode.valueOf(Main.getEnvOrDefault("USER_READ_MODE", "JACKSON"));
+    // Where user reads are served from: `mongo` (the default) reads straight from
+    // the database, while `memory` keeps an in-memory copy of the users (kept up to
+    // date with every write) and answers reads from that. `snapshot` is like `memory`
+    // but uses a compact, column-oriented `UserSnapshot` that is also refreshed
+    // whenever the collection changes.
+    String userBackend = Main.getEnvOrDefault("USER_BACKEND", "mongo");
+
+    // Admission control: each route's concurrency limit starts at `INITIAL_CONCURRENCY_LIMIT`
+    // and adapts (up to `MAX_CONCURRENCY_LIMIT`) to how quickly requests are being handled.
+    // Each request's database calls are cut off after `REQUEST_TIMEOUT_MILLIS`.
+    LoadShedder loadShedder = new LoadShedder(
+      Integer.parseInt(Main.getEnvOrDefault("INITIAL_CONCURRENCY_LIMIT",
+        String.valueOf(LoadShedder.DEFAULT_INITIAL_LIMIT))),
+      Integer.parseInt(Main.getEnvOrDefault("MAX_CONCURRENCY_LIMIT",
+        String.valueOf(LoadShedder.DEFAULT_MAX_LIMIT))),
+      Long.parseLong(Main.getEnvOrDefault("REQUEST_TIMEOUT_MILLIS",
+        String.valueOf(LoadShedder.DEFAULT_REQUEST_TIMEOUT_MILLIS))));
+
+    // Per-client rate limits: each client can make `RATE_LIMIT_PER_SECOND` requests a second
+    // (with bursts of up to `RATE_LIMIT_BURST`), and has a separate, smaller budget for the
+    // expensive `/api/usersByCompany` aggregation. Clients are told apart by their IP
+    // address, or by their `X-API-Key` header if it's one of the (comma-separated) `API_KEYS`.
+    // Requests from the (comma-separated) addresses or CIDR blocks in `TRUSTED_PROXIES` (e.g.,
+    // the Caddy server in front of us) are counted against the client address they forward.
+    long now = System.nanoTime();
+    RateLimiter rateLimiter = new RateLimiter(
+      new TokenBuckets(
+        Double.parseDouble(Main.getEnvOrDefault("RATE_LIMIT_PER_SECOND",
+          String.valueOf(RateLimiter.DEFAULT_REQUESTS_PER_SECOND))),
+        Integer.parseInt(Main.getEnvOrDefault("RATE_LIMIT_BURST",
+          String.valueOf(RateLimiter.DEFAULT_BURST))),
+        now),
+      new TokenBuckets(
+        Double.parseDouble(Main.getEnvOrDefault("EXPENSIVE_RATE_LIMIT_PER_SECOND",
+          String.valueOf(RateLimiter.DEFAULT_EXPENSIVE_REQUESTS_PER_SECOND))),
+        Integer.parseInt(Main.getEnvOrDefault("EXPENSIVE_RATE_LIMIT_BURST",
+          String.valueOf(RateLimiter.DEFAULT_EXPENSIVE_BURST))),
+        now),
+      Set.of("/api/usersByCompany"),
+      RateLimiter.parseApiKeys(Main.getEnvOrDefault("API_KEYS", "")),
+      TrustedProxies.parse(Main.getEnvOrDefault("TRUSTED_PROXIES", "")));
 
-    // Set up the MongoDB client
-    MongoClient mongoClient = Server.configureDatabase(mongoAddr);
+    // When the server is asked to stop, it reports that it isn't ready and keeps serving
+    // requests for `SHUTDOWN_READINESS_DELAY_MS` (so load balancers can stop sending it
+    // traffic). Then it turns new requests away, and waits up to `SHUTDOWN_DRAIN_MILLIS`
+    // for the requests in flight to finish before it closes the database connection.
+    RequestDrainer requestDrainer = new RequestDrainer(
+      Long.parseLong(Main.getEnvOrDefault("SHUTDOWN_READINESS_DELAY_MS",
+        String.valueOf(RequestDrainer.DEFAULT_READINESS_DELAY_MILLIS))),
+      Long.parseLong(Main.getEnvOrDefault("SHUTDOWN_DRAIN_MILLIS",
+        String.valueOf(RequestDrainer.DEFAULT_DRAIN_MILLIS))));
+
+    // Structured access logs, written to stdout as JSON lines. Only
+    // `ACCESS_LOG_SAMPLE_RATE` (from 0 to 1) of the successful requests are logged.
+    MongoCommandTimer mongoTimer = new MongoCommandTimer();
+    AccessLogWriter accessLogWriter = new AccessLogWriter(
+      new OutputStreamWriter(System.out, StandardCharsets.UTF_8), AccessLogWriter.DEFAULT_CAPACITY);
+    accessLogWriter.start();
+    AccessLog accessLog = new AccessLog(accessLogWriter, mongoTimer,
+      Double.parseDouble(Main.getEnvOrDefault("ACCESS_LOG_SAMPLE_RATE",
+        String.valueOf(AccessLog.DEFAULT_SAMPLE_RATE))));
+
+    // Tracing: `TRACE_EXPORTER` says where spans go: `none` (the default) turns
+    // tracing off, `otlp` sends them to the OpenTelemetry collector at `OTLP_ENDPOINT`,
+    // and `file` appends them to `TRACE_FILE`. `TRACE_SAMPLE_RATE` (from 0 to 1)
+    // of the requests are traced.
+    OpenTelemetrySdk openTelemetry = Tracing.create(
+      Main.getEnvOrDefault("TRACE_EXPORTER", "none"),
+      Main.getEnvOrDefault("OTLP_ENDPOINT", Tracing.DEFAULT_OTLP_ENDPOINT),
+      Main.getEnvOrDefault("TRACE_FILE", Tracing.DEFAULT_TRACE_FILE),
+      Double.parseDouble(Main.getEnvOrDefault("TRACE_SAMPLE_RATE", String.valueOf(Tracing.DEFAULT_SAMPLE_RATE))));
+    Tracer tracer = openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME);
+
+    // Set up the MongoDB client (timing every command for the access log, and tracing it)
+    MongoClient mongoClient = Server.configureDatabase(mongoAddr, mongoTimer, new MongoCommandTracer(tracer));
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
+    // The Jackson mapper shared by the server and the controllers
+    ObjectMapper objectMapper = ObjectMappers.createObjectMapper();
+
     // The implementations of `Controller` used for the server. These will presumably
     // be one or more controllers, each of which implements the `Controller` interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+    final Controller[] controllers = Main.getControllers(database, objectMapper, maxBulkBodyBytes,
+      userReadMode, userBackend);
+
+    // Jetty's connector: `HTTP2` turns on cleartext HTTP/2 (h2c) alongside HTTP/1.1,
+    // with up to `HTTP2_MAX_STREAMS` requests in flight on each connection. The
+    // rest tune the connector, and default to Jetty's own defaults.
+    JettySettings jettySettings = new JettySettings(
+      Boolean.parseBoolean(Main.getEnvOrDefault("HTTP2", "false")),
+      Integer.parseInt(Main.getEnvOrDefault("HTTP2_MAX_STREAMS",
+        String.valueOf(JettySettings.DEFAULT_MAX_CONCURRENT_STREAMS))),
+      Integer.parseInt(Main.getEnvOrDefault("JETTY_ACCEPTORS", String.valueOf(JettySettings.DEFAULT_ACCEPTORS))),
+      Integer.parseInt(Main.getEnvOrDefault("JETTY_SELECTORS", String.valueOf(JettySettings.DEFAULT_SELECTORS))),
+      Long.parseLong(Main.getEnvOrDefault("IDLE_TIMEOUT_MILLIS",
+        String.valueOf(JettySettings.DEFAULT_IDLE_TIMEOUT_MILLIS))),
+      Integer.parseInt(Main.getEnvOrDefault("OUTPUT_BUFFER_SIZE",
+        String.valueOf(JettySettings.DEFAULT_OUTPUT_BUFFER_SIZE))));
 
     // Construct the server
-    Server server = new Server(mongoClient, controllers);
+    Server server = new Server(mongoClient, controllers, new TracingJsonMapper(objectMapper, tracer),
+      requestDrainer, accessLog, new RequestInterceptor[] {new RequestTracer(openTelemetry), rateLimiter, loadShedder},
+      jettySettings);
 
     // Start the server
     server.startServer();
+
+    // For training runs (e.g., building a class-data sharing archive with
+    // `./gradlew cdsArchive`), stop as soon as the server has warmed up and started.
+    if (Boolean.parseBoolean(Main.getEnvOrDefault("EXIT_AFTER_STARTUP", "false"))) {
+      System.exit(0);
+    }
   }
 
   /**
@@ -51,18 +177,72 @@ public class Main {
    *
    * @param database The MongoDB database object used by the controllers
    *               to access the database.
+   * @param objectMapper The Jackson mapper the controllers should use.
+   * @param maxBulkBodyBytes The largest request body (in bytes) the controllers
+   *               should accept for bulk requests.
+   * @param userReadMode How the user controller should read users for `getUsers`.
+   * @param userBackend Where the user controller should read users from (`mongo`, `memory` or `snapshot`).
    * @return An array of implementations of `Controller` for the server.
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(MongoDatabase database, ObjectMapper objectMapper, long maxBulkBodyBytes,
+      UserReadMode userReadMode, String userBackend) {
+    UserRepository userReadRepository = switch (userBackend) {
+      case "mongo" -> null;
+      case "memory" -> new InMemoryUserRepository();
+      case "snapshot" -> snapshotRepository(database);
+      default -> throw new IllegalArgumentException("Unknown user backend: " + userBackend);
+    };
+    // User queries that take longer than `SLOW_QUERY_MILLIS` are recorded, and
+    // `SLOW_QUERY_EXPLAIN_RATE` (from 0 to 1) of them are explained. They can be
+    // seen at `/api/admin/slowQueries`, which needs an `X-Admin-Token` header
+    // matching `ADMIN_TOKEN` if that's set.
+    SlowQueryLog slowQueryLog = new SlowQueryLog(
+      Long.parseLong(Main.getEnvOrDefault("SLOW_QUERY_MILLIS",
+        String.valueOf(SlowQueryLog.DEFAULT_THRESHOLD_MILLIS))),
+      Double.parseDouble(Main.getEnvOrDefault("SLOW_QUERY_EXPLAIN_RATE",
+        String.valueOf(SlowQueryLog.DEFAULT_EXPLAIN_SAMPLE_RATE))),
+      SlowQueryLog.DEFAULT_CAPACITY);
+    // List endpoints answer `413 Content Too Large` rather than send more than
+    // `MAX_RESULTS` users (or companies), or more than `MAX_RESPONSE_BYTES` of JSON.
+    ResultLimits resultLimits = new ResultLimits(
+      Integer.parseInt(Main.getEnvOrDefault("MAX_RESULTS", String.valueOf(ResultLimits.DEFAULT_MAX_RESULTS))),
+      Long.parseLong(Main.getEnvOrDefault("MAX_RESPONSE_BYTES", String.valueOf(ResultLimits.DEFAULT_MAX_BYTES))));
+    UserController userController = new UserController(database, objectMapper, userReadMode, userReadRepository,
+      slowQueryLog, resultLimits);
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
-      // You can also remove this UserController once you don't need it.
-      new UserController(database)
+      // You can also remove these user controllers once you don't need them.
+      // The changes feed comes first, so that `/api/users/changes` isn't
+      // treated as a request for the user with the ID `changes`.
+      new UserChangesController(database, resultLimits),
+      userController,
+      new UserBulkController(database, objectMapper, maxBulkBodyBytes, userReadRepository,
+        userController::generateAvatar),
+      new SlowQueryController(slowQueryLog, Main.getEnvOrDefault("ADMIN_TOKEN", null))
     };
     return controllers;
   }
 
+  /**
+   * Create a `SnapshotUserRepository` holding the users in `database`, and
+   * start a `UserSnapshotRefresher` to keep it up to date. The refresher
+   * loads the users (so `UserController` doesn't have to), and is stopped
+   * when the server shuts down and closes the controllers.
+   *
+   * @param database The MongoDB database holding the users
+   * @return The repository
+   */
+  static SnapshotUserRepository snapshotRepository(MongoDatabase database) {
+    // How often to reload the snapshot if the database doesn't support change streams.
+    long pollMillis = Long.parseLong(Main.getEnvOrDefault("USER_SNAPSHOT_POLL_MILLIS", "5000"));
+    SnapshotUserRepository repository = new SnapshotUserRepository();
+    MongoCollection<User> userCollection = database.getCollection("users", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(database.getCodecRegistry()));
+    new UserSnapshotRefresher(userCollection, repository, pollMillis).start();
+    return repository;
+  }
+
 }
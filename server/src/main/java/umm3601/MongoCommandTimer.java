@@ -0,0 +1,47 @@
+package umm3601;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+
+/**
+ * Adds up how long the current thread has spent waiting on Mongo commands.
+ *
+ * The synchronous Mongo driver runs each command (and tells its listeners
+ * about it) on the thread that asked for it, so the total for a request
+ * thread is the time that request spent in the database. `AccessLog`
+ * resets the total at the start of each request and reads it at the end.
+ */
+public class MongoCommandTimer implements CommandListener {
+
+  // The total (in nanoseconds) for each thread, in a one-element array so
+  // adding to it doesn't allocate.
+  private final ThreadLocal<long[]> totalNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+  /**
+   * Start counting from zero for the current thread.
+   */
+  public void reset() {
+    totalNanos.get()[0] = 0;
+  }
+
+  /**
+   * @return the time (in nanoseconds) the current thread has spent on
+   *   Mongo commands since it was last `reset`
+   */
+  public long elapsedNanos() {
+    return totalNanos.get()[0];
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    totalNanos.get()[0] += event.getElapsedTime(TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    totalNanos.get()[0] += event.getElapsedTime(TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,91 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.BsonValue;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+
+/**
+ * Adds a tracing span for each database command (`find`, `aggregate`,
+ * `insert`, `delete`, ...) a traced request runs.
+ *
+ * The synchronous Mongo driver tells its listeners about a command on the
+ * thread that runs it, so the request's span (see `RequestTracer`) is still
+ * current when the command starts, and the command's span becomes its child.
+ * Commands run outside of a request (e.g., warming up or refreshing a
+ * snapshot) aren't traced. The spans only record which command it was and
+ * on which collection, not the command itself, which could hold user data.
+ */
+public class MongoCommandTracer implements CommandListener {
+
+  private final Tracer tracer;
+
+  // The spans of the commands that haven't finished yet, by the driver's
+  // request ID (which is unique to each command).
+  private final Map<Integer, Span> spans = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a command tracer.
+   *
+   * @param tracer the tracer to make spans with
+   */
+  public MongoCommandTracer(Tracer tracer) {
+    this.tracer = tracer;
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    if (!Span.current().getSpanContext().isValid()) {
+      return;
+    }
+    String commandName = event.getCommandName();
+    // Most commands name their collection, e.g., `{"find": "users", ...}`
+    BsonValue collection = event.getCommand().get(commandName);
+    String collectionName = collection != null && collection.isString() ? collection.asString().getValue() : null;
+    SpanBuilder span = tracer.spanBuilder(collectionName == null ? commandName : commandName + " " + collectionName)
+      .setSpanKind(SpanKind.CLIENT)
+      .setAttribute("db.system", "mongodb")
+      .setAttribute("db.namespace", event.getDatabaseName())
+      .setAttribute("db.operation.name", commandName);
+    if (collectionName != null) {
+      span.setAttribute("db.collection.name", collectionName);
+    }
+    spans.put(event.getRequestId(), span.startSpan());
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    Span span = spans.remove(event.getRequestId());
+    if (span != null) {
+      span.end();
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    Span span = spans.remove(event.getRequestId());
+    if (span != null) {
+      span.recordException(event.getThrowable());
+      span.setStatus(StatusCode.ERROR);
+      span.end();
+    }
+  }
+
+  /**
+   * @return the number of commands that have started but not finished
+   */
+  int inFlight() {
+    return spans.size();
+  }
+}
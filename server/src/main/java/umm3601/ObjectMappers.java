@@ -0,0 +1,75 @@
+package umm3601;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+/**
+ * The one place where we configure how Jackson maps between Java objects
+ * and JSON.
+ *
+ * Building an `ObjectMapper` is expensive, and each one keeps its own caches
+ * of (de)serializers, so `Main` creates a single mapper with `createObjectMapper()`
+ * and hands it to both the Javalin server (for `ctx.json()` and friends) and
+ * the controllers (for MongoJack and for parsing request bodies).
+ */
+public final class ObjectMappers {
+
+  // GraalVM sets this system property when running (or building) a native image.
+  private static final String NATIVE_IMAGE_PROPERTY = "org.graalvm.nativeimage.imagecode";
+
+  private ObjectMappers() {
+  }
+
+  /**
+   * Create the `ObjectMapper` shared by the server and the controllers.
+   *
+   * This mapper:
+   *   - Uses the Blackbird module, which replaces Jackson's reflection-based
+   *     field and method access with generated lambdas, making reading and
+   *     writing `User`s (and friends) noticeably faster. Native images can't
+   *     generate classes at run time, so there we stick with reflection.
+   *   - Doesn't intern field names. All our objects have a handful of fixed
+   *     field names, which Jackson already canonicalizes, so interning just
+   *     adds work (and is a bad idea for names chosen by clients).
+   *   - Doesn't fail when asked to serialize objects with no properties.
+   *
+   * @return a newly configured `ObjectMapper`
+   */
+  public static ObjectMapper createObjectMapper() {
+    JsonFactory jsonFactory = JsonFactory.builder()
+      .disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+      .build();
+    JsonMapper.Builder builder = JsonMapper.builder(jsonFactory)
+      .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+    if (!isNativeImage()) {
+      builder.addModule(new BlackbirdModule());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Create an `ObjectMapper` for one of the binary formats we can send
+   * instead of JSON (see `ResponseFormat`), configured like the shared one.
+   *
+   * @param factory the factory for the format (e.g., a `CBORFactory`)
+   * @return a newly configured `ObjectMapper` for that format
+   */
+  public static ObjectMapper createObjectMapper(JsonFactory factory) {
+    ObjectMapper mapper = new ObjectMapper(factory)
+      .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+    if (!isNativeImage()) {
+      mapper.registerModule(new BlackbirdModule());
+    }
+    return mapper;
+  }
+
+  /**
+   * @return whether we're running as a GraalVM native image
+   */
+  static boolean isNativeImage() {
+    return System.getProperty(NATIVE_IMAGE_PROPERTY) != null;
+  }
+}
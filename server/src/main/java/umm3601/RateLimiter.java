@@ -0,0 +1,130 @@
+package umm3601;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import umm3601.health.HealthController;
+
+/**
+ * Per-client rate limiting for the server's routes.
+ *
+ * Each client (identified by its `X-API-Key` header if it sends one of the
+ * keys we were given, and by its IP address otherwise) gets a token bucket,
+ * and each request takes a token. Clients that run out get a 429 ("Too Many Requests") with a
+ * `Retry-After` header saying when they'll have a token again.
+ *
+ * Expensive routes (like `/api/usersByCompany`, which aggregates the whole
+ * collection) draw from a separate, smaller budget, so a client hammering
+ * one of them doesn't use up its budget for everything else and vice versa.
+ *
+ * When we're behind a reverse proxy, every request comes from the proxy's
+ * address, so the client's address comes from the proxy's forwarding
+ * headers instead (see `TrustedProxies`). We only look at those headers for
+ * requests from the proxies we were told to trust; otherwise any client
+ * could pick a new address for each request.
+ *
+ * Health checks (see `HealthController`) aren't limited. Keys we don't know
+ * are ignored, since otherwise a client could get a fresh budget just by
+ * sending a new key with each request.
+ */
+public class RateLimiter implements RequestInterceptor {
+
+  // The header clients can use to identify themselves.
+  public static final String API_KEY_HEADER = "X-API-Key";
+
+  // The defaults for the normal and expensive budgets.
+  public static final double DEFAULT_REQUESTS_PER_SECOND = 50;
+  public static final int DEFAULT_BURST = 100;
+  public static final double DEFAULT_EXPENSIVE_REQUESTS_PER_SECOND = 2;
+  public static final int DEFAULT_EXPENSIVE_BURST = 5;
+
+  private final TokenBuckets buckets;
+  private final TokenBuckets expensiveBuckets;
+  private final Set<String> expensivePaths;
+  private final Set<String> apiKeys;
+  private final TrustedProxies trustedProxies;
+
+  /**
+   * Construct a rate limiter.
+   *
+   * @param buckets the budgets for most routes
+   * @param expensiveBuckets the budgets for the expensive routes
+   * @param expensivePaths the paths of the expensive routes, as they're
+   *   declared (e.g., `/api/users/{id}`)
+   * @param apiKeys the API keys clients can identify themselves with
+   * @param trustedProxies the reverse proxies whose forwarding headers we
+   *   believe
+   */
+  public RateLimiter(TokenBuckets buckets, TokenBuckets expensiveBuckets, Set<String> expensivePaths,
+      Set<String> apiKeys, TrustedProxies trustedProxies) {
+    this.buckets = buckets;
+    this.expensiveBuckets = expensiveBuckets;
+    this.expensivePaths = Set.copyOf(expensivePaths);
+    this.apiKeys = Set.copyOf(apiKeys);
+    this.trustedProxies = trustedProxies;
+  }
+
+  /**
+   * Parse a comma-separated list of API keys, e.g., from the `API_KEYS`
+   * environment variable.
+   *
+   * @param keys the keys, separated by commas
+   * @return the (non-blank) keys
+   */
+  public static Set<String> parseApiKeys(String keys) {
+    return Arrays.stream(keys.split(","))
+      .map(String::trim)
+      .filter(key -> !key.isEmpty())
+      .collect(Collectors.toSet());
+  }
+
+  /**
+   * Add the rate limiting handler to `server`.
+   *
+   * This is a `beforeMatched` handler, since that's where we know which
+   * route the request is for (`ctx.path()` is just what the client sent, so
+   * e.g. `/api/usersByCompany/` would slip past the expensive budget).
+   * Requests for routes that don't exist aren't limited, but they don't
+   * get any further than a 404 either.
+   *
+   * @param server the Javalin server
+   */
+  @Override
+  public void register(Javalin server) {
+    server.beforeMatched(this::limit);
+  }
+
+  /**
+   * Take a token from the client's bucket for this request's route, or
+   * reject the request if there isn't one.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws HttpResponseException (429) if the client is over its budget
+   */
+  void limit(Context ctx) {
+    String path = ctx.endpointHandlerPath();
+    if (path.startsWith(HealthController.API_HEALTH)) {
+      // Health checks are never limited
+      return;
+    }
+    String apiKey = ctx.header(API_KEY_HEADER);
+    String client = apiKey != null && apiKeys.contains(apiKey) ? "key:" + apiKey
+      : "ip:" + trustedProxies.clientAddress(ctx);
+    TokenBuckets budget = expensivePaths.contains(path) ? expensiveBuckets : buckets;
+
+    long waitNanos = budget.tryAcquire(client, System.nanoTime());
+    if (waitNanos > 0) {
+      // Round up, so clients that wait as long as we say will get in.
+      long retryAfterSeconds = TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1;
+      ctx.header("Retry-After", String.valueOf(retryAfterSeconds));
+      throw new HttpResponseException(HttpStatus.TOO_MANY_REQUESTS.getCode(),
+        "Too many requests; please slow down");
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package umm3601;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent loads of the same key so they share one fetch.
+ *
+ * If a request for a key arrives while another request for that same
+ * key is already being loaded (e.g., from the database), the second
+ * request waits for, and then returns, the result of the first rather
+ * than doing its own fetch. Nothing is cached once the load completes,
+ * so later requests always see fresh data.
+ *
+ * @param <K> the type of the keys being loaded
+ * @param <V> the type of the values being loaded
+ */
+public class RequestCoalescer<K, V> {
+
+  // The loads currently in progress, keyed by what they're loading.
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Load the value for `key`, sharing the result with any concurrent
+   * callers asking for the same key.
+   *
+   * If `loader` throws a `RuntimeException`, that same exception is
+   * thrown to every caller waiting on that load.
+   *
+   * @param key the key to load
+   * @param loader the function that actually fetches the value for a key
+   * @return the loaded value (which may be `null`)
+   */
+  public V load(K key, Function<K, V> loader) {
+    CompletableFuture<V> ours = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, ours);
+    if (existing != null) {
+      return await(existing);
+    }
+    try {
+      V value = loader.apply(key);
+      ours.complete(value);
+      return value;
+    } catch (RuntimeException e) {
+      ours.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, ours);
+    }
+  }
+
+  /**
+   * The number of loads currently in progress.
+   *
+   * @return the number of distinct keys currently being loaded
+   */
+  public int inFlightCount() {
+    return inFlight.size();
+  }
+
+  /**
+   * Wait for someone else's load to finish, unwrapping any exception
+   * it failed with so waiting callers see the original exception.
+   *
+   * @param load the load to wait for
+   * @return the loaded value
+   */
+  private V await(CompletableFuture<V> load) {
+    try {
+      return load.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package umm3601;
+
+import java.util.concurrent.TimeUnit;
+
+import io.javalin.http.GatewayTimeoutResponse;
+
+/**
+ * The deadline for the request being handled by the current thread.
+ *
+ * `LoadShedder` starts the clock when a request comes in, and database
+ * calls ask for `maxTimeMillis` so Mongo gives up on their work once the
+ * request has run out of time (e.g., because the client has long since
+ * stopped waiting), rather than carrying on for a response nobody reads.
+ * Code running outside a request (e.g., at startup) has no deadline.
+ */
+public final class RequestDeadline {
+
+  // When (in `System.nanoTime()` terms) the current thread's request is due.
+  private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+  private RequestDeadline() {
+  }
+
+  /**
+   * Start a deadline for the current thread's request.
+   *
+   * @param timeoutMillis how long the request has, in milliseconds
+   */
+  public static void start(long timeoutMillis) {
+    DEADLINE.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+  }
+
+  /**
+   * Forget the current thread's deadline (when its request is done).
+   */
+  public static void clear() {
+    DEADLINE.remove();
+  }
+
+  /**
+   * How long a database call may run for: `capMillis`, or whatever's left
+   * of the current request's time if that's less.
+   *
+   * @param capMillis the longest the call should ever run for, in milliseconds
+   * @return the time the call may take, in milliseconds
+   * @throws GatewayTimeoutResponse if the request has already run out of time
+   */
+  public static long maxTimeMillis(long capMillis) {
+    Long deadline = DEADLINE.get();
+    if (deadline == null) {
+      return capMillis;
+    }
+    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    if (remainingMillis <= 0) {
+      throw new GatewayTimeoutResponse("The request took too long");
+    }
+    return Math.min(capMillis, remainingMillis);
+  }
+}
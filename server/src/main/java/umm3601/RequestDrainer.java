@@ -0,0 +1,172 @@
+package umm3601;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.health.HealthController;
+
+/**
+ * Keeps track of the requests in flight, so the server can finish them
+ * before shutting down.
+ *
+ * When the server is asked to stop (e.g., during a rolling deploy), it first
+ * reports that it isn't ready and keeps serving requests as usual for the
+ * readiness delay (see `awaitReadinessDelay`), so the load balancer has time
+ * to notice and stop sending it traffic. Then `drain` turns away any new
+ * requests that still arrive with a 503 (so the load balancer retries them
+ * elsewhere) and waits for the ones already in flight, like a bulk insert
+ * part way through its batches, to finish. Only then does the server stop
+ * and close its database connection, so no request is cut off mid-write.
+ *
+ * Health checks (see `HealthController`) keep working while draining, so
+ * `/api/health/ready` can report that the server is going away.
+ */
+public class RequestDrainer implements RequestInterceptor {
+
+  // The default for how long (in milliseconds) we wait for requests to finish.
+  public static final long DEFAULT_DRAIN_MILLIS = 30_000;
+
+  // The default for how long (in milliseconds) we keep serving requests after
+  // reporting that we aren't ready; a little longer than load balancers
+  // usually take to check readiness.
+  public static final long DEFAULT_READINESS_DELAY_MILLIS = 5_000;
+
+  // The request attribute marking requests we're counting.
+  private static final String COUNTED_ATTRIBUTE = "requestDrainer.counted";
+
+  private final long readinessDelayMillis;
+  private final long drainMillis;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile boolean draining;
+
+  /**
+   * Construct a drainer with no readiness delay.
+   *
+   * @param drainMillis the longest (in milliseconds) `drain` waits for
+   *   requests in flight to finish
+   */
+  public RequestDrainer(long drainMillis) {
+    this(0, drainMillis);
+  }
+
+  /**
+   * Construct a drainer.
+   *
+   * @param readinessDelayMillis how long (in milliseconds) `awaitReadinessDelay`
+   *   waits before we start turning requests away
+   * @param drainMillis the longest (in milliseconds) `drain` waits for
+   *   requests in flight to finish
+   */
+  public RequestDrainer(long readinessDelayMillis, long drainMillis) {
+    this.readinessDelayMillis = readinessDelayMillis;
+    this.drainMillis = drainMillis;
+  }
+
+  /**
+   * Add the handlers that count the requests in flight to `server`.
+   *
+   * @param server the Javalin server
+   */
+  @Override
+  public void register(Javalin server) {
+    server.before(this::start);
+    server.after(this::finish);
+  }
+
+  /**
+   * Count a new request, or reject it if we're draining.
+   *
+   * The request is counted before checking whether we're draining, so a
+   * `drain` that starts at the same moment either sees the request (and
+   * waits for it) or the request sees the drain (and is rejected).
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws ServiceUnavailableResponse if the server is shutting down
+   */
+  void start(Context ctx) {
+    if (ctx.path().startsWith(HealthController.API_HEALTH)) {
+      return;
+    }
+    inFlight.incrementAndGet();
+    if (draining) {
+      release();
+      ctx.header("Connection", "close");
+      throw new ServiceUnavailableResponse("The server is shutting down");
+    }
+    ctx.attribute(COUNTED_ATTRIBUTE, true);
+  }
+
+  /**
+   * Stop counting a request (if we were counting it).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  void finish(Context ctx) {
+    if (ctx.attribute(COUNTED_ATTRIBUTE) != null) {
+      ctx.attribute(COUNTED_ATTRIBUTE, null);
+      release();
+    }
+  }
+
+  private void release() {
+    if (inFlight.decrementAndGet() == 0 && draining) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Wait out the readiness delay, once the server has reported that it isn't
+   * ready. Requests keep being served as usual in the meantime: turning them
+   * away before the load balancer has stopped sending them to us would just
+   * fail them.
+   *
+   * @throws InterruptedException if we're interrupted while waiting
+   */
+  public void awaitReadinessDelay() throws InterruptedException {
+    if (readinessDelayMillis > 0) {
+      Thread.sleep(readinessDelayMillis);
+    }
+  }
+
+  /**
+   * Stop taking new requests, and wait (for at most the drain deadline)
+   * for the requests in flight to finish.
+   *
+   * @return `true` if all the requests finished, or `false` if some were
+   *   still running when the deadline passed
+   * @throws InterruptedException if we're interrupted while waiting
+   */
+  public boolean drain() throws InterruptedException {
+    draining = true;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+    synchronized (this) {
+      while (inFlight.get() > 0) {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        wait(remainingMillis);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return whether we've stopped taking new requests
+   */
+  public boolean isDraining() {
+    return draining;
+  }
+
+  /**
+   * @return the number of requests in flight
+   */
+  public int inFlight() {
+    return inFlight.get();
+  }
+}
@@ -0,0 +1,28 @@
+package umm3601;
+
+import io.javalin.Javalin;
+
+/**
+ * Something that needs to see every request, rather than just the requests
+ * to particular routes, e.g., rate limiting or load shedding.
+ *
+ * Interceptors add their `before` and `after` handlers in `register`, and
+ * `Server` registers them in order, so an earlier interceptor's `before`
+ * handlers run before a later one's (and can turn the request away before
+ * the later ones ever see it).
+ */
+public interface RequestInterceptor {
+  /**
+   * Add this interceptor's handlers to the server.
+   *
+   * @param server The Javalin server to add the handlers to
+   */
+  void register(Javalin server);
+
+  /**
+   * Release anything this interceptor holds on to (e.g., flush what it has
+   * buffered). `Server` calls this once the server has stopped.
+   */
+  default void close() {
+  }
+}
@@ -0,0 +1,129 @@
+package umm3601;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import umm3601.health.HealthController;
+
+/**
+ * Starts a tracing span for each request, and ends it once the request has
+ * been handled.
+ *
+ * The span is "current" while the request is handled, so the spans for its
+ * database commands (see `MongoCommandTracer`) and JSON serialization (see
+ * `TracingJsonMapper`) are its children. Requests with a W3C `traceparent`
+ * header are added to the caller's trace.
+ *
+ * Spans are named after the route that handled the request, e.g.,
+ * `GET /api/users/{id}`, and record its status. Health checks (see
+ * `HealthController`) aren't traced.
+ */
+public class RequestTracer implements RequestInterceptor {
+
+  // The context attributes we keep the request's span (and the scope
+  // that makes it current) in.
+  private static final String SPAN_ATTRIBUTE = "tracing.span";
+  private static final String SCOPE_ATTRIBUTE = "tracing.scope";
+
+  // The lowest HTTP status that's a server error.
+  private static final int HTTP_SERVER_ERROR = 500;
+
+  // Reads trace headers (e.g., `traceparent`) from a request.
+  private static final TextMapGetter<Context> HEADERS = new TextMapGetter<>() {
+    @Override
+    public Iterable<String> keys(Context ctx) {
+      return ctx.headerMap().keySet();
+    }
+
+    @Override
+    public String get(Context ctx, String key) {
+      return ctx == null ? null : ctx.header(key);
+    }
+  };
+
+  private final OpenTelemetrySdk openTelemetry;
+  private final Tracer tracer;
+  private final TextMapPropagator propagator;
+
+  /**
+   * Construct a request tracer.
+   *
+   * @param openTelemetry the OpenTelemetry SDK (see `Tracing`); this is
+   *   closed (exporting any buffered spans) when the tracer is
+   */
+  public RequestTracer(OpenTelemetrySdk openTelemetry) {
+    this.openTelemetry = openTelemetry;
+    this.tracer = openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME);
+    this.propagator = openTelemetry.getPropagators().getTextMapPropagator();
+  }
+
+  /**
+   * Add the handlers that start and end each request's span.
+   *
+   * @param server the Javalin server
+   */
+  @Override
+  public void register(Javalin server) {
+    server.before(this::start);
+    server.after(this::finish);
+  }
+
+  /**
+   * Start the request's span, and make it current.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  void start(Context ctx) {
+    if (ctx.path().startsWith(HealthController.API_HEALTH)) {
+      return;
+    }
+    String method = ctx.method().name();
+    Span span = tracer.spanBuilder(method)
+      .setParent(propagator.extract(io.opentelemetry.context.Context.root(), ctx, HEADERS))
+      .setSpanKind(SpanKind.SERVER)
+      .setAttribute("http.request.method", method)
+      .setAttribute("url.path", ctx.path())
+      .startSpan();
+    ctx.attribute(SPAN_ATTRIBUTE, span);
+    ctx.attribute(SCOPE_ATTRIBUTE, span.makeCurrent());
+  }
+
+  /**
+   * Name the request's span after its route, record its status, and end it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  void finish(Context ctx) {
+    Span span = ctx.attribute(SPAN_ATTRIBUTE);
+    if (span == null) {
+      return;
+    }
+    Scope scope = ctx.attribute(SCOPE_ATTRIBUTE);
+    scope.close();
+
+    String route = AccessLog.route(ctx);
+    int status = ctx.statusCode();
+    span.updateName(ctx.method().name() + " " + route);
+    span.setAttribute("http.route", route);
+    span.setAttribute("http.response.status_code", status);
+    if (status >= HTTP_SERVER_ERROR) {
+      span.setStatus(StatusCode.ERROR);
+    }
+    span.end();
+  }
+
+  /**
+   * Export any spans that haven't been exported yet, and stop tracing.
+   */
+  @Override
+  public void close() {
+    openTelemetry.close();
+  }
+}
@@ -0,0 +1,130 @@
+package umm3601;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The formats the read endpoints can send their responses in, chosen by
+ * the request's `Accept` header (see `negotiate`).
+ *
+ * JSON is the default, and what browsers (and so the client) always get.
+ * Other services that read lots of users can ask for one of the binary
+ * formats instead, which are smaller and cheaper to write and read: they
+ * don't quote field names or print numbers as text, and Smile even writes
+ * each repeated field name (like `"company"` in a list of users) only once.
+ */
+public enum ResponseFormat {
+  JSON(List.of("application/json")),
+  SMILE(List.of("application/x-jackson-smile")),
+  CBOR(List.of("application/cbor")),
+  // MessagePack has never had an official media type, so accept the common ones.
+  MESSAGE_PACK(List.of("application/msgpack", "application/x-msgpack", "application/vnd.msgpack"));
+
+  private final List<String> mediaTypes;
+
+  ResponseFormat(List<String> mediaTypes) {
+    this.mediaTypes = mediaTypes;
+  }
+
+  /**
+   * @return the `Content-Type` of responses in this format
+   */
+  public String contentType() {
+    return mediaTypes.get(0);
+  }
+
+  /**
+   * Create a Jackson mapper for each format. JSON uses `jsonMapper` (the
+   * one shared with the server), and the binary formats get mappers of
+   * their own, configured the same way (see `ObjectMappers`).
+   *
+   * @param jsonMapper the mapper to use for JSON
+   * @return a mapper for each format
+   */
+  public static Map<ResponseFormat, ObjectMapper> createMappers(ObjectMapper jsonMapper) {
+    Map<ResponseFormat, ObjectMapper> mappers = new EnumMap<>(ResponseFormat.class);
+    mappers.put(JSON, jsonMapper);
+    mappers.put(SMILE, ObjectMappers.createObjectMapper(
+      SmileFactory.builder().disable(JsonFactory.Feature.INTERN_FIELD_NAMES).build()));
+    mappers.put(CBOR, ObjectMappers.createObjectMapper(
+      CBORFactory.builder().disable(JsonFactory.Feature.INTERN_FIELD_NAMES).build()));
+    MessagePackFactory messagePackFactory = new MessagePackFactory();
+    messagePackFactory.disable(JsonFactory.Feature.INTERN_FIELD_NAMES);
+    mappers.put(MESSAGE_PACK, ObjectMappers.createObjectMapper(messagePackFactory));
+    return mappers;
+  }
+
+  /**
+   * Pick the format to respond in from an `Accept` header, e.g.,
+   * `application/cbor, application/json;q=0.5`.
+   *
+   * This is the format the client prefers most (by `q` value, and then by
+   * the order they're listed in). Wildcards (e.g., `application/*`), and no
+   * header at all, mean JSON. So does a header that doesn't list any of our formats,
+   * since JSON is the one thing every client can cope with.
+   *
+   * @param accept the `Accept` header, or `null` if there isn't one
+   * @return the format to respond in
+   */
+  public static ResponseFormat negotiate(String accept) {
+    if (accept == null) {
+      return JSON;
+    }
+    ResponseFormat best = JSON;
+    double bestQuality = 0;
+    for (String mediaRange : accept.split(",")) {
+      String[] parts = mediaRange.split(";");
+      ResponseFormat format = forMediaType(parts[0].trim().toLowerCase(Locale.ROOT));
+      double quality = quality(parts);
+      if (format != null && quality > bestQuality) {
+        best = format;
+        bestQuality = quality;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @param mediaType a media type (or range) from an `Accept` header, in lower case
+   * @return the format for that media type, or `null` if it isn't one of ours
+   */
+  private static ResponseFormat forMediaType(String mediaType) {
+    if (mediaType.equals("*/*") || mediaType.equals("application/*")) {
+      return JSON;
+    }
+    for (ResponseFormat format : values()) {
+      if (format.mediaTypes.contains(mediaType)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param parts a media range from an `Accept` header, split on `;`
+   * @return its `q` parameter (from 0 to 1), which defaults to 1
+   */
+  private static double quality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException e) {
+          // A malformed `q` doesn't rule the format out
+          return 1;
+        }
+      }
+    }
+    return 1;
+  }
+}
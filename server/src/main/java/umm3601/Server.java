@@ -1,16 +1,26 @@
 package umm3601;
 
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoOperationTimeoutException;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
 
 import org.bson.UuidRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.javalin.Javalin;
+import io.javalin.http.GatewayTimeoutResponse;
 import io.javalin.http.InternalServerErrorResponse;
+import io.javalin.json.JsonMapper;
+import umm3601.health.HealthController;
+import umm3601.user.UserCodec;
 
 /**
  * The class used to configure and start a Javalin server.
@@ -20,6 +30,14 @@ public class Server {
   // The port that the server should run on.
   private static final int SERVER_PORT = 4567;
 
+  // How many times the controllers run through their main code paths
+  // (see `Controller#warmUp`) before the server starts, and the longest
+  // (in milliseconds) that's allowed to take, however big the database is.
+  private static final int WARM_UP_ROUNDS = 200;
+  private static final long WARM_UP_TIME_LIMIT_MILLIS = 10_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Server.class);
+
   // The `mongoClient` field is used to access the MongoDB
   private final MongoClient mongoClient;
 
@@ -27,15 +45,50 @@ public class Server {
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // What Javalin uses to read and write JSON. This wraps the same Jackson
+  // mapper the controllers use, so it's only configured in one place.
+  private final JsonMapper jsonMapper;
+
+  // Tracks the requests in flight, so they can finish before we shut down.
+  private final RequestDrainer requestDrainer;
+
+  // Logs every (sampled) request.
+  private final AccessLog accessLog;
+
+  // The other things that see every request (e.g., tracing, rate limiting,
+  // and load shedding), in the order their handlers should run.
+  private final RequestInterceptor[] interceptors;
+
+  // How Jetty's connector is set up (e.g., whether it speaks HTTP/2).
+  private final JettySettings jettySettings;
+
+  // The health checks, which say whether the server is ready for traffic.
+  private final HealthController healthController = new HealthController();
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
    * and start the server.
    *
    * @param mongoClient The MongoDB client object used to access to the database
    * @param controllers The implementations of `Controller` used for this server
+   * @param jsonMapper The mapper used for JSON requests and responses (e.g.,
+   *   a `TracingJsonMapper`)
+   * @param requestDrainer Tracks the requests in flight, so they can finish
+   *   when the server shuts down
+   * @param accessLog The access log
+   * @param interceptors The other `RequestInterceptor`s (e.g., the `RequestTracer`,
+   *   `RateLimiter`, and `LoadShedder`), in the order they should see requests
+   * @param jettySettings How Jetty's connector should be set up
    */
-  public Server(MongoClient mongoClient, Controller[] controllers) {
+  public Server(MongoClient mongoClient, Controller[] controllers, JsonMapper jsonMapper,
+      RequestDrainer requestDrainer, AccessLog accessLog, RequestInterceptor[] interceptors,
+      JettySettings jettySettings) {
     this.mongoClient = mongoClient;
+    this.jettySettings = jettySettings;
+    this.jsonMapper = jsonMapper;
+    this.requestDrainer = requestDrainer;
+    this.accessLog = accessLog;
+    this.interceptors = Arrays.copyOf(interceptors, interceptors.length);
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
@@ -56,10 +109,12 @@ public class Server {
    * This sets both the `mongoClient` and `database` fields
    * so they can be used when setting up the Javalin server.
    * @param mongoAddr The address of the MongoDB server
+   * @param commandListeners Listeners to tell about every database command
+   *   (e.g., the `MongoCommandTimer` the access log uses)
    *
    * @return The MongoDB client object
    */
-  static MongoClient configureDatabase(String mongoAddr) {
+  static MongoClient configureDatabase(String mongoAddr, CommandListener... commandListeners) {
     // Setup the MongoDB client object with the information we set earlier
     MongoClient mongoClient = MongoClients.create(MongoClientSettings
       .builder()
@@ -68,6 +123,10 @@ public class Server {
       // a non-standard way. This option says to use the standard encoding.
       // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
       .uuidRepresentation(UuidRepresentation.STANDARD)
+      // Add our hand-written codec for `User`s to the default codecs, so collections
+      // of `User`s can be read and written without going through MongoJack.
+      .codecRegistry(UserCodec.withUserCodec(MongoClientSettings.getDefaultCodecRegistry()))
+      .commandListenerList(Arrays.asList(commandListeners))
       .build());
 
     return mongoClient;
@@ -79,11 +138,32 @@ public class Server {
    * This configures and starts the Javalin server, which will start listening for HTTP requests.
    * It also sets up the server to shut down gracefully if it's killed or if the
    * JVM is shut down.
+   *
+   * Before the server starts listening, the controllers are warmed up (see
+   * `warmUp()`), and the server only reports itself as ready (via
+   * `/api/health/ready`) once it has started.
    */
   void startServer() {
     Javalin javalin = configureJavalin();
     setupRoutes(javalin);
-    javalin.start(SERVER_PORT);
+    warmUp();
+    // The port is set on the connector (see `JettySettings`)
+    javalin.start();
+    healthController.setReady(true);
+  }
+
+  /**
+   * Warm up the controllers, so the first real requests don't pay for
+   * opening database connections, loading classes, and JIT compilation.
+   * The controllers share `WARM_UP_TIME_LIMIT_MILLIS` between them.
+   */
+  private void warmUp() {
+    long start = System.nanoTime();
+    for (Controller controller : controllers) {
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      controller.warmUp(WARM_UP_ROUNDS, Math.max(0, WARM_UP_TIME_LIMIT_MILLIS - elapsedMillis));
+    }
+    LOGGER.info("Warmed up in {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
   }
 
   /**
@@ -93,6 +173,12 @@ public class Server {
    *   are available.
    * - Setting it up to shut down gracefully if it's killed or if the
    *   JVM is shut down.
+   * - Setting up Jetty's connector (e.g., to speak HTTP/2 as well as
+   *   HTTP/1.1) with the `jettySettings`.
+   * - Adding the access log, and the `RequestInterceptor`s such as
+   *   per-client rate limits (so one client can't hog the server) and
+   *   load shedding (so each route turns requests away with a 503 rather
+   *   than letting them pile up when it's overloaded).
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    *   error.
    *
@@ -112,14 +198,43 @@ public class Server {
      * `http://localhost:4567/api` shows all of the available endpoints and
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
+     *
+     * `jsonMapper(...)` tells Javalin to use our `jsonMapper` (and so our
+     * shared Jackson mapper) rather than building its own default one.
      */
-    Javalin server = Javalin.create(config ->
-      config.bundledPlugins.enableRouteOverview("/api")
-    );
+    Javalin server = Javalin.create(config -> {
+      config.bundledPlugins.enableRouteOverview("/api");
+      config.jsonMapper(jsonMapper);
+      jettySettings.apply(config.jetty, SERVER_PORT);
+      // Javalin calls this once each response has been sent
+      config.requestLogger.http(accessLog::log);
+    });
 
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
 
+    // Start timing each request's database work for the access log.
+    accessLog.register(server);
+
+    // Keep track of the requests in flight (and turn new ones away once we're shutting down).
+    requestDrainer.register(server);
+
+    // Add the rest of the interceptors (e.g., tracing, rate limiting, and then load shedding).
+    for (RequestInterceptor interceptor : interceptors) {
+      interceptor.register(server);
+    }
+
+    // A query that ran out of time (see `RequestDeadline`) is a 504 ("Gateway
+    // Timeout"), since the server was waiting on the database, not broken.
+    // Mongo reports that for queries, and the driver for writes that were
+    // given a time limit (see `UserQueryPlanner.withDeadline`).
+    server.exception(MongoExecutionTimeoutException.class, (e, ctx) -> {
+      throw new GatewayTimeoutResponse("The database took too long to respond");
+    });
+    server.exception(MongoOperationTimeoutException.class, (e, ctx) -> {
+      throw new GatewayTimeoutResponse("The database took too long to respond");
+    });
+
     // This catches any uncaught exceptions thrown in the server
     // code and turns them into a 500 response ("Internal Server
     // Error Response"). In general you'll like to *never* actually
@@ -145,9 +260,10 @@ public class Server {
   private void configureShutdowns(Javalin server) {
     /*
      * We want the server to shut down gracefully if we kill it
-     * or if the JVM dies for some reason.
+     * or if the JVM dies for some reason. See `shutDown` for
+     * how we let the requests in flight finish first.
      */
-    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> shutDown(server)));
     /*
      * We want to shut the `mongoClient` down if the server either
      * fails to start, or when it's shutting down for whatever reason.
@@ -161,6 +277,42 @@ public class Server {
     });
   }
 
+  /**
+   * Shut the server down without cutting off the requests in flight.
+   *
+   *   1. Report that we're no longer ready (via `/api/health/ready`), and
+   *      keep serving requests for the readiness delay, so load balancers
+   *      have time to notice and stop sending us traffic.
+   *   2. Turn away new requests, and wait (for up to the drain deadline)
+   *      for the requests in flight to finish (see `RequestDrainer`).
+   *   3. Stop anything the controllers run in the background (e.g., the
+   *      `UserSnapshotRefresher` of the `snapshot` user backend).
+   *   4. Stop the server, which in turn closes the `mongoClient`, and then
+   *      write out whatever is left of the access log (and anything the
+   *      interceptors have buffered, like trace spans).
+   *
+   * @param server The Javalin server instance
+   */
+  private void shutDown(Javalin server) {
+    healthController.setReady(false);
+    try {
+      requestDrainer.awaitReadinessDelay();
+      if (!requestDrainer.drain()) {
+        LOGGER.warn("Stopping the server with {} requests still in flight", requestDrainer.inFlight());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Controller controller : controllers) {
+      controller.close();
+    }
+    server.stop();
+    accessLog.close();
+    for (RequestInterceptor interceptor : interceptors) {
+      interceptor.close();
+    }
+  }
+
   /**
    * Setup routes for the server.
    *
@@ -172,5 +324,7 @@ public class Server {
     for (Controller controller : controllers) {
       controller.addRoutes(server);
     }
+    // The health checks are always there, whatever the controllers are.
+    healthController.addRoutes(server);
   }
 }
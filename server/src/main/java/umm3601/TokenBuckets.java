@@ -0,0 +1,108 @@
+package umm3601;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of token buckets, one per client, all with the same rate and size.
+ *
+ * Each bucket is a single `AtomicLong` holding the time at which the bucket
+ * will be full again (the "theoretical arrival time" of the generic cell rate
+ * algorithm). Taking a token pushes that time back by one token's worth, and
+ * a request is turned away if that would put it more than a full bucket
+ * ahead of now. This behaves exactly like a token bucket, but taking a token
+ * is just a read and a compare-and-set, with no locks and no timer thread
+ * refilling the buckets.
+ *
+ * A bucket whose full-again time has passed is indistinguishable from a new
+ * one, so idle buckets are dropped every so often (by whichever request
+ * happens to notice it's time) to keep the map from growing forever.
+ */
+public class TokenBuckets {
+
+  // How often (in nanoseconds) we sweep out the buckets that are full again.
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  // How long (in nanoseconds) it takes to earn one token.
+  private final long nanosPerToken;
+  // How far (in nanoseconds) a bucket's full-again time can get ahead of now.
+  private final long burstNanos;
+  private final ConcurrentHashMap<String, AtomicLong> fullAt = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep;
+
+  /**
+   * Construct a set of token buckets.
+   *
+   * @param tokensPerSecond how quickly each bucket refills
+   * @param burst how many tokens each bucket holds, i.e., how many requests
+   *   a client can make at once after being idle for a while
+   * @param nowNanos the current time (from `System.nanoTime()`)
+   */
+  public TokenBuckets(double tokensPerSecond, int burst, long nowNanos) {
+    if (tokensPerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("The rate and burst size must be positive");
+    }
+    this.nanosPerToken = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+    this.burstNanos = nanosPerToken * burst;
+    this.nextSweep = new AtomicLong(nowNanos + SWEEP_INTERVAL_NANOS);
+  }
+
+  /**
+   * Try to take a token from `key`'s bucket.
+   *
+   * @param key who the request is from
+   * @param nowNanos the current time (from `System.nanoTime()`)
+   * @return 0 if the request can go ahead, or how long (in nanoseconds)
+   *   until the bucket will have a token again if it can't
+   */
+  public long tryAcquire(String key, long nowNanos) {
+    maybeSweep(nowNanos);
+    AtomicLong bucket = fullAt.get(key);
+    if (bucket == null) {
+      bucket = fullAt.computeIfAbsent(key, k -> new AtomicLong(nowNanos));
+    }
+    while (true) {
+      long current = bucket.get();
+      long next = Math.max(current, nowNanos) + nanosPerToken;
+      long ahead = next - nowNanos;
+      if (ahead > burstNanos) {
+        return ahead - burstNanos;
+      }
+      if (bucket.compareAndSet(current, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Drop the buckets that are full again, if it's been long enough since
+   * the last sweep and nobody else is already doing it.
+   *
+   * A request racing with the sweep may take a token from a bucket just as
+   * it's dropped; the worst that can happen is that client gets one extra
+   * request in.
+   */
+  private void maybeSweep(long nowNanos) {
+    long sweepAt = nextSweep.get();
+    if (nowNanos - sweepAt >= 0 && nextSweep.compareAndSet(sweepAt, nowNanos + SWEEP_INTERVAL_NANOS)) {
+      evictIdle(nowNanos);
+    }
+  }
+
+  /**
+   * Drop all the buckets that are full again.
+   *
+   * @param nowNanos the current time (from `System.nanoTime()`)
+   */
+  void evictIdle(long nowNanos) {
+    fullAt.values().removeIf(bucket -> bucket.get() - nowNanos <= 0);
+  }
+
+  /**
+   * @return the number of clients with a (non-full) bucket
+   */
+  public int size() {
+    return fullAt.size();
+  }
+}
@@ -0,0 +1,95 @@
+package umm3601;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+
+/**
+ * Sets up OpenTelemetry tracing for the server.
+ *
+ * Each request gets a span (see `RequestTracer`), with child spans for
+ * each database command it runs (see `MongoCommandTracer`) and for turning
+ * its response into JSON (see `TracingJsonMapper`). Where the finished
+ * spans go depends on the exporter:
+ *   - `none` turns tracing off (every span is a cheap no-op).
+ *   - `otlp` sends them to an OpenTelemetry collector (e.g., Jaeger) over
+ *     OTLP/HTTP.
+ *   - `file` appends them to a file as JSON lines (see `FileSpanExporter`),
+ *     for looking at later without running a collector.
+ *
+ * Requests that come with a W3C `traceparent` header join the caller's
+ * trace (and sampling decision); otherwise a `sampleRate` fraction of
+ * requests are traced.
+ */
+public final class Tracing {
+
+  // The name our spans are reported under.
+  public static final String INSTRUMENTATION_NAME = "umm3601";
+
+  // Where a local OpenTelemetry collector listens for OTLP/HTTP spans.
+  public static final String DEFAULT_OTLP_ENDPOINT = "http://localhost:4318/v1/traces";
+
+  // The file spans are written to by the `file` exporter.
+  public static final String DEFAULT_TRACE_FILE = "traces.jsonl";
+
+  // The default fraction of requests to trace.
+  public static final double DEFAULT_SAMPLE_RATE = 1.0;
+
+  // The name the server's spans are reported with.
+  private static final String SERVICE_NAME = "umm3601-server";
+
+  private Tracing() {
+  }
+
+  /**
+   * Create the OpenTelemetry SDK for the server. Close it to export any
+   * spans that are still buffered.
+   *
+   * @param exporter where spans go: `none`, `otlp`, or `file`
+   * @param otlpEndpoint the collector's OTLP/HTTP endpoint (for `otlp`)
+   * @param traceFile the file to write spans to (for `file`)
+   * @param sampleRate the fraction (from 0 to 1) of requests to trace
+   * @return the configured SDK
+   * @throws IOException if the trace file can't be opened
+   */
+  public static OpenTelemetrySdk create(String exporter, String otlpEndpoint, String traceFile, double sampleRate)
+      throws IOException {
+    SdkTracerProviderBuilder tracerProvider = SdkTracerProvider.builder()
+      .setResource(Resource.getDefault().merge(
+        Resource.create(Attributes.of(AttributeKey.stringKey("service.name"), SERVICE_NAME))));
+    SpanExporter spanExporter = switch (exporter) {
+      case "none" -> null;
+      case "otlp" -> OtlpHttpSpanExporter.builder().setEndpoint(otlpEndpoint).build();
+      case "file" -> new FileSpanExporter(Files.newBufferedWriter(Path.of(traceFile), StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+      default -> throw new IllegalArgumentException("Unknown trace exporter: " + exporter);
+    };
+    if (spanExporter == null) {
+      tracerProvider.setSampler(Sampler.alwaysOff());
+    } else {
+      tracerProvider
+        .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(sampleRate)))
+        // Spans are exported in batches from a background thread, never on the request thread
+        .addSpanProcessor(BatchSpanProcessor.builder(spanExporter).build());
+    }
+    return OpenTelemetrySdk.builder()
+      .setTracerProvider(tracerProvider.build())
+      .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+      .build();
+  }
+}
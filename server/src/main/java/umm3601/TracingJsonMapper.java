@@ -0,0 +1,135 @@
+package umm3601;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+
+/**
+ * Javalin's Jackson `JsonMapper`, with a tracing span for each response
+ * it turns into JSON.
+ *
+ * Javalin normally writes JSON responses a bit at a time, from another
+ * thread, as they're sent, which would leave the span measuring nothing.
+ * So for traced requests this serializes the whole response up front,
+ * inside the span. Requests that aren't traced (including all of them
+ * when tracing is off) are handled exactly as Javalin would.
+ *
+ * Responses that are written some other way can still get the same kind
+ * of span with `traced`.
+ */
+public class TracingJsonMapper implements JsonMapper {
+
+  private final ObjectMapper objectMapper;
+  private final JavalinJackson delegate;
+  private final Tracer tracer;
+
+  /**
+   * Construct a JSON mapper.
+   *
+   * @param objectMapper the Jackson mapper to read and write JSON with
+   * @param tracer the tracer to make spans with
+   */
+  public TracingJsonMapper(ObjectMapper objectMapper, Tracer tracer) {
+    this.objectMapper = objectMapper;
+    this.delegate = new JavalinJackson(objectMapper, false);
+    this.tracer = tracer;
+  }
+
+  @Override
+  public String toJsonString(Object obj, Type type) {
+    if (!Span.current().isRecording()) {
+      return delegate.toJsonString(obj, type);
+    }
+    Span span = startSpan(obj);
+    try (Scope scope = span.makeCurrent()) {
+      return delegate.toJsonString(obj, type);
+    } finally {
+      span.end();
+    }
+  }
+
+  @Override
+  public InputStream toJsonStream(Object obj, Type type) {
+    if (!Span.current().isRecording()) {
+      return delegate.toJsonStream(obj, type);
+    }
+    Span span = startSpan(obj);
+    try (Scope scope = span.makeCurrent()) {
+      byte[] json = objectMapper.writerFor(objectMapper.constructType(type)).writeValueAsBytes(obj);
+      span.setAttribute("json.bytes", json.length);
+      return new ByteArrayInputStream(json);
+    } catch (JsonProcessingException e) {
+      span.recordException(e);
+      throw new UncheckedIOException(e);
+    } finally {
+      span.end();
+    }
+  }
+
+  @Override
+  public void writeToOutputStream(Stream<?> stream, OutputStream outputStream) {
+    if (!Span.current().isRecording()) {
+      delegate.writeToOutputStream(stream, outputStream);
+      return;
+    }
+    Span span = startSpan(stream);
+    try (Scope scope = span.makeCurrent()) {
+      delegate.writeToOutputStream(stream, outputStream);
+    } finally {
+      span.end();
+    }
+  }
+
+  /**
+   * Run `write`, which writes a response body without going through this
+   * mapper (e.g., a `ResultArrayWriter` writing results as they're read), in
+   * the same kind of span this mapper makes for the responses it writes.
+   *
+   * @param name what's being written, for the span's name (e.g., `User[]`)
+   * @param write writes the body
+   * @return the body
+   */
+  public byte[] traced(String name, Supplier<byte[]> write) {
+    if (!Span.current().isRecording()) {
+      return write.get();
+    }
+    Span span = tracer.spanBuilder("serialize " + name).startSpan();
+    try (Scope scope = span.makeCurrent()) {
+      byte[] body = write.get();
+      span.setAttribute("json.bytes", body.length);
+      return body;
+    } catch (RuntimeException e) {
+      span.recordException(e);
+      throw e;
+    } finally {
+      span.end();
+    }
+  }
+
+  @Override
+  public <T> T fromJsonString(String json, Type targetType) {
+    return delegate.fromJsonString(json, targetType);
+  }
+
+  @Override
+  public <T> T fromJsonStream(InputStream json, Type targetType) {
+    return delegate.fromJsonStream(json, targetType);
+  }
+
+  private Span startSpan(Object obj) {
+    return tracer.spanBuilder("serialize " + obj.getClass().getSimpleName()).startSpan();
+  }
+}
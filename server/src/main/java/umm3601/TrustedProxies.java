@@ -0,0 +1,175 @@
+package umm3601;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.javalin.http.Context;
+
+/**
+ * The reverse proxies (like the Caddy server in front of us in production)
+ * we trust to tell us who their clients are.
+ *
+ * A request that comes straight from a client only has the client's address,
+ * but one that comes through a proxy has the proxy's address, so every
+ * client behind the proxy would look the same. Proxies pass the client's
+ * address along in the `X-Forwarded-For` (or `X-Real-IP`) header, but
+ * anyone can send those headers, so we only believe them when the request
+ * actually came from one of the proxies we were told about.
+ *
+ * Proxies are given as addresses (`10.0.0.5`) or CIDR blocks
+ * (`172.16.0.0/12`), since a proxy in a container may not have a fixed
+ * address.
+ */
+public final class TrustedProxies {
+
+  public static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+  public static final String REAL_IP_HEADER = "X-Real-IP";
+
+  private static final int BITS_PER_BYTE = 8;
+  private static final int BYTE_MASK = 0xff;
+  private static final String HEX_DIGITS = "0123456789abcdefABCDEF";
+
+  /**
+   * A block of addresses: the first `prefixLength` bits of `network`.
+   */
+  private record Block(byte[] network, int prefixLength) {
+    boolean contains(byte[] address) {
+      if (address.length != network.length) {
+        return false;
+      }
+      int fullBytes = prefixLength / BITS_PER_BYTE;
+      for (int i = 0; i < fullBytes; i++) {
+        if (address[i] != network[i]) {
+          return false;
+        }
+      }
+      int remainingBits = prefixLength % BITS_PER_BYTE;
+      if (remainingBits == 0) {
+        return true;
+      }
+      int mask = (BYTE_MASK << (BITS_PER_BYTE - remainingBits)) & BYTE_MASK;
+      return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+    }
+  }
+
+  private final List<Block> blocks;
+
+  private TrustedProxies(List<Block> blocks) {
+    this.blocks = List.copyOf(blocks);
+  }
+
+  /**
+   * Parse a comma-separated list of proxy addresses and CIDR blocks, e.g.,
+   * from the `TRUSTED_PROXIES` environment variable.
+   *
+   * @param proxies the addresses and blocks, separated by commas
+   * @return the trusted proxies (none, if `proxies` is blank)
+   * @throws IllegalArgumentException if one of them isn't an IP address or
+   *   CIDR block
+   */
+  public static TrustedProxies parse(String proxies) {
+    List<Block> blocks = new ArrayList<>();
+    for (String proxy : proxies.split(",")) {
+      String trimmed = proxy.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      int slash = trimmed.indexOf('/');
+      byte[] network = addressBytes(slash < 0 ? trimmed : trimmed.substring(0, slash));
+      if (network == null) {
+        throw new IllegalArgumentException("Not an IP address or CIDR block: " + trimmed);
+      }
+      int maxPrefix = network.length * BITS_PER_BYTE;
+      int prefixLength;
+      try {
+        prefixLength = slash < 0 ? maxPrefix : Integer.parseInt(trimmed.substring(slash + 1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Not an IP address or CIDR block: " + trimmed, e);
+      }
+      if (prefixLength < 0 || prefixLength > maxPrefix) {
+        throw new IllegalArgumentException("Not an IP address or CIDR block: " + trimmed);
+      }
+      blocks.add(new Block(network, prefixLength));
+    }
+    return new TrustedProxies(blocks);
+  }
+
+  /**
+   * Is `address` one of the trusted proxies?
+   *
+   * @param address an IP address
+   * @return true if it's in one of the trusted blocks
+   */
+  public boolean isTrusted(String address) {
+    byte[] bytes = addressBytes(address);
+    if (bytes == null) {
+      return false;
+    }
+    for (Block block : blocks) {
+      if (block.contains(bytes)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The address of the client that made this request.
+   *
+   * That's the address the request came from, unless that's a trusted
+   * proxy. Then it's the last address in `X-Forwarded-For` that isn't a
+   * trusted proxy (each proxy appends the address it got the request from,
+   * so anything before that could have been made up by the client), or
+   * `X-Real-IP` if there's no `X-Forwarded-For`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the client's IP address
+   */
+  public String clientAddress(Context ctx) {
+    String address = ctx.ip();
+    if (!isTrusted(address)) {
+      return address;
+    }
+    String forwardedFor = ctx.header(FORWARDED_FOR_HEADER);
+    if (forwardedFor != null) {
+      String[] hops = forwardedFor.split(",");
+      for (int i = hops.length - 1; i >= 0; i--) {
+        String hop = hops[i].trim();
+        if (addressBytes(hop) == null) {
+          // Garbage; don't believe anything before it either
+          return address;
+        }
+        address = hop;
+        if (!isTrusted(hop)) {
+          return hop;
+        }
+      }
+      return address;
+    }
+    String realIp = ctx.header(REAL_IP_HEADER);
+    return realIp != null && addressBytes(realIp.trim()) != null ? realIp.trim() : address;
+  }
+
+  /**
+   * The bytes of an IP address literal, without ever looking anything up in
+   * DNS (the headers we get these from are up to the client).
+   *
+   * @param address an IPv4 or IPv6 address
+   * @return its bytes, or null if it isn't an IP address
+   */
+  private static byte[] addressBytes(String address) {
+    boolean ipv4 = !address.isEmpty() && address.chars().allMatch(c -> c == '.' || (c >= '0' && c <= '9'));
+    boolean ipv6 = address.indexOf(':') >= 0
+      && address.chars().allMatch(c -> c == ':' || c == '.' || HEX_DIGITS.indexOf(c) >= 0);
+    if (!ipv4 && !ipv6) {
+      return null;
+    }
+    try {
+      return InetAddress.getByName(address).getAddress();
+    } catch (UnknownHostException e) {
+      return null;
+    }
+  }
+}
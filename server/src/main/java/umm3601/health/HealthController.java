@@ -0,0 +1,93 @@
+package umm3601.health;
+
+import java.util.Map;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+
+/**
+ * Controller for the health checks load balancers (and orchestrators
+ * like Kubernetes) use to decide what to do with this server.
+ *
+ *   - `GET /api/health/live` says whether the process is running at all;
+ *     it always succeeds, so a failure means the server should be restarted.
+ *   - `GET /api/health/ready` says whether the server should be sent
+ *     traffic. It fails (with a 503) until the server has warmed up and
+ *     started, so requests are only routed to it once it can serve them
+ *     quickly.
+ *
+ * Health checks aren't rate limited or shed under load (see `RateLimiter`
+ * and `LoadShedder`), so a busy server isn't mistaken for a dead one.
+ */
+public class HealthController implements Controller {
+
+  // All the health check routes start with this.
+  public static final String API_HEALTH = "/api/health/";
+  static final String API_HEALTH_LIVE = API_HEALTH + "live";
+  static final String API_HEALTH_READY = API_HEALTH + "ready";
+
+  // Whether the server is ready for traffic. This is set by `Server`, and
+  // read by the request threads.
+  private volatile boolean ready;
+
+  /**
+   * @return whether the server is ready for traffic
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Set whether the server is ready for traffic.
+   *
+   * @param ready `true` once the server can serve requests
+   */
+  public void setReady(boolean ready) {
+    this.ready = ready;
+  }
+
+  /**
+   * Respond that the server is alive, i.e., `{"status": "live"}`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getLive(Context ctx) {
+    ctx.json(Map.of("status", "live"));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Respond with whether the server is ready for traffic: a 200 with
+   * `{"status": "ready"}` if it is, and a 503 with `{"status": "unavailable"}`
+   * if it isn't.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getReady(Context ctx) {
+    if (ready) {
+      ctx.json(Map.of("status", "ready"));
+      ctx.status(HttpStatus.OK);
+    } else {
+      ctx.json(Map.of("status", "unavailable"));
+      ctx.status(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+  }
+
+  /**
+   * Sets up the health check routes.
+   *
+   *   - `GET /api/health/live`
+   *       - Whether the server is running
+   *   - `GET /api/health/ready`
+   *       - Whether the server is ready for traffic
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_HEALTH_LIVE, this::getLive);
+    server.get(API_HEALTH_READY, this::getReady);
+  }
+}
@@ -0,0 +1,44 @@
+package umm3601.slowquery;
+
+import java.util.List;
+
+/**
+ * A database query that took longer than the `SlowQueryLog`'s threshold,
+ * and (if it was explained) how Mongo ran it.
+ *
+ * The interesting part is usually `plan`: `COLLSCAN` means Mongo read
+ * every document in the collection, which is what we want to find and
+ * fix (e.g., with an index); `IXSCAN` means it used the index in `index`.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class SlowQuery {
+  // When the query finished, in milliseconds since the epoch.
+  public long timestamp;
+  // What kind of query it was, e.g., `find`, `count`, or `aggregate`.
+  public String operation;
+  // The filter and sort the query used, as (extended) JSON.
+  public String filter;
+  public String sort;
+  // How long the query took (or ran for, before it failed).
+  public long durationMillis;
+  // Whether the query failed (e.g., because it ran out of time) rather than
+  // finishing, and what went wrong.
+  public boolean failed;
+  public String error;
+
+  // The rest is from `explain("executionStats")`, and is only there if the
+  // query was one of the ones sampled for explaining.
+  public boolean explained;
+  // `COLLSCAN` if Mongo scanned the whole collection, `IXSCAN` if it used an
+  // index, or otherwise the top stage of the winning plan.
+  public String plan;
+  // All the stages of the winning plan, e.g., `["FETCH", "IXSCAN"]`.
+  public List<String> stages;
+  // The index the plan used, if any.
+  public String index;
+  public Long docsExamined;
+  public Long keysExamined;
+  public Long returned;
+  // Why the query couldn't be explained, if it couldn't.
+  public String explainError;
+}
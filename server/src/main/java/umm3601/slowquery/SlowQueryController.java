@@ -0,0 +1,87 @@
+package umm3601.slowquery;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.UnauthorizedResponse;
+import umm3601.Controller;
+
+/**
+ * Controller for looking at (and clearing) the `SlowQueryLog`.
+ *
+ * The slow queries include the filters people searched with, so if the
+ * controller is given an admin token, requests have to include it in an
+ * `X-Admin-Token` header.
+ */
+public class SlowQueryController implements Controller {
+
+  static final String API_SLOW_QUERIES = "/api/admin/slowQueries";
+  static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+  private final SlowQueryLog slowQueryLog;
+  private final byte[] adminToken;
+
+  /**
+   * Construct a controller for the slow query log.
+   *
+   * @param slowQueryLog the log to show
+   * @param adminToken the token requests must include, or `null` if they don't need one
+   */
+  public SlowQueryController(SlowQueryLog slowQueryLog, String adminToken) {
+    this.slowQueryLog = slowQueryLog;
+    this.adminToken = adminToken == null ? null : adminToken.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Set the JSON body of the response to be the recent slow queries
+   * (see `SlowQuery`), most recent first.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getSlowQueries(Context ctx) {
+    checkToken(ctx);
+    ctx.json(slowQueryLog.recent());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Forget the recent slow queries, e.g., after adding an index.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void clearSlowQueries(Context ctx) {
+    checkToken(ctx);
+    slowQueryLog.clear();
+    ctx.status(HttpStatus.NO_CONTENT);
+  }
+
+  private void checkToken(Context ctx) {
+    if (adminToken == null) {
+      return;
+    }
+    String token = ctx.header(ADMIN_TOKEN_HEADER);
+    // Compare in constant time, so the token can't be guessed a character at a time
+    if (token == null || !MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8))) {
+      throw new UnauthorizedResponse("This needs a valid " + ADMIN_TOKEN_HEADER + " header");
+    }
+  }
+
+  /**
+   * Sets up the slow query routes.
+   *
+   *   - `GET /api/admin/slowQueries`
+   *       - The recent slow queries
+   *   - `DELETE /api/admin/slowQueries`
+   *       - Forget the recent slow queries
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_SLOW_QUERIES, this::getSlowQueries);
+    server.delete(API_SLOW_QUERIES, this::clearSlowQueries);
+  }
+}
@@ -0,0 +1,314 @@
+package umm3601.slowquery;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoException;
+
+/**
+ * Keeps track of the database queries that take longer than a threshold,
+ * so we can find out which filter and sort combinations need an index.
+ *
+ * The data layer runs its queries through `time`. Queries that are quick
+ * cost nothing more than reading the clock. Slow ones are recorded (their
+ * filter, sort, and how long they took), and a sample of those is also
+ * run again with `explain("executionStats")` to see whether Mongo used an
+ * index (`IXSCAN`) or read the whole collection (`COLLSCAN`).
+ *
+ * Explaining a query runs it again, so that's done in the background, one
+ * at a time, and is skipped if too many are waiting. Only the most recent
+ * slow queries are kept (in a fixed-size ring), so a flood of them can't use
+ * up memory; see them at `/api/admin/slowQueries` (see `SlowQueryController`).
+ */
+public class SlowQueryLog {
+
+  // The default for how long (in milliseconds) a query has to take to be slow.
+  public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+
+  // The default fraction of slow queries that are explained.
+  public static final double DEFAULT_EXPLAIN_SAMPLE_RATE = 0.1;
+
+  // The default number of slow queries we keep.
+  public static final int DEFAULT_CAPACITY = 100;
+
+  private final long thresholdNanos;
+  private final double explainSampleRate;
+  private final int capacity;
+  private final Executor explainExecutor;
+
+  // The most recent slow queries, oldest first.
+  private final ArrayDeque<SlowQuery> queries;
+
+  /**
+   * Construct a slow query log that explains queries on a background thread.
+   *
+   * @param thresholdMillis how long (in milliseconds) a query has to take to be slow
+   * @param explainSampleRate the fraction (from 0 to 1) of slow queries to explain
+   * @param capacity the number of slow queries to keep
+   */
+  public SlowQueryLog(long thresholdMillis, double explainSampleRate, int capacity) {
+    this(thresholdMillis, explainSampleRate, capacity, explainExecutor(capacity));
+  }
+
+  /**
+   * Construct a slow query log.
+   *
+   * @param thresholdMillis how long (in milliseconds) a query has to take to be slow
+   * @param explainSampleRate the fraction (from 0 to 1) of slow queries to explain
+   * @param capacity the number of slow queries to keep
+   * @param explainExecutor runs the `explain`s
+   */
+  public SlowQueryLog(long thresholdMillis, double explainSampleRate, int capacity, Executor explainExecutor) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.explainSampleRate = explainSampleRate;
+    this.capacity = capacity;
+    this.explainExecutor = explainExecutor;
+    this.queries = new ArrayDeque<>(capacity);
+  }
+
+  /**
+   * @return a log that never records anything, for when we don't need one
+   */
+  public static SlowQueryLog disabled() {
+    return new SlowQueryLog(Long.MAX_VALUE, 0, 0, Runnable::run);
+  }
+
+  /**
+   * A single background thread, with room for `capacity` waiting `explain`s;
+   * any more than that are dropped.
+   */
+  private static Executor explainExecutor(int capacity) {
+    return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(Math.max(capacity, 1)),
+      runnable -> {
+        Thread thread = new Thread(runnable, "slow-query-explain");
+        thread.setDaemon(true);
+        return thread;
+      },
+      new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  /**
+   * Run a query, and record it if it's slow. Queries that fail (e.g., by
+   * running out of time) are recorded too, marked as `failed`, and the
+   * exception is passed on.
+   *
+   * @param <T> the type of the query's results
+   * @param operation what kind of query it is, e.g., `find`
+   * @param filter the query's filter
+   * @param sort the query's sort order, or `null` if it isn't sorted
+   * @param query runs the query (all of it, e.g., reading all the results)
+   * @param explain runs `explain("executionStats")` on the same query
+   * @return the query's results
+   */
+  public <T> T time(String operation, Bson filter, Bson sort, Supplier<T> query, Supplier<Document> explain) {
+    long start = System.nanoTime();
+    RuntimeException failure = null;
+    try {
+      return query.get();
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      record(operation, filter, sort, System.nanoTime() - start, failure, explain);
+    }
+  }
+
+  /**
+   * Run a query that hands its results to `action` one at a time, as it
+   * reads them, and record it if it's slow (or fails, see `time`).
+   *
+   * Only reading the results counts towards how long the query took: the
+   * time spent in `action` (e.g., writing each result out as JSON) is left
+   * out, since no index would make that any quicker. For the same reason,
+   * the query isn't marked as `failed` if it's `action` that throws.
+   *
+   * @param <T> the type of the query's results
+   * @param operation what kind of query it is, e.g., `find`
+   * @param filter the query's filter
+   * @param sort the query's sort order, or `null` if it isn't sorted
+   * @param query runs the query, handing each result to the consumer it's given
+   * @param action what to do with each result
+   * @param explain runs `explain("executionStats")` on the same query
+   */
+  public <T> void timeEach(String operation, Bson filter, Bson sort, Consumer<Consumer<T>> query,
+      Consumer<? super T> action, Supplier<Document> explain) {
+    long[] actionNanos = {0};
+    RuntimeException[] actionFailure = {null};
+    long start = System.nanoTime();
+    RuntimeException failure = null;
+    try {
+      query.accept(result -> {
+        long actionStart = System.nanoTime();
+        try {
+          action.accept(result);
+        } catch (RuntimeException e) {
+          actionFailure[0] = e;
+          throw e;
+        } finally {
+          actionNanos[0] += System.nanoTime() - actionStart;
+        }
+      });
+    } catch (RuntimeException e) {
+      if (e != actionFailure[0]) {
+        failure = e;
+      }
+      throw e;
+    } finally {
+      record(operation, filter, sort, System.nanoTime() - start - actionNanos[0], failure, explain);
+    }
+  }
+
+  /**
+   * Record a query (and maybe explain it) if it took at least the threshold.
+   */
+  private void record(String operation, Bson filter, Bson sort, long elapsed, RuntimeException failure,
+      Supplier<Document> explain) {
+    if (elapsed < thresholdNanos) {
+      return;
+    }
+    SlowQuery slowQuery = new SlowQuery();
+    slowQuery.timestamp = System.currentTimeMillis();
+    slowQuery.operation = operation;
+    slowQuery.filter = filter.toBsonDocument().toJson();
+    slowQuery.sort = sort == null ? null : sort.toBsonDocument().toJson();
+    slowQuery.durationMillis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+    if (failure != null) {
+      slowQuery.failed = true;
+      slowQuery.error = failure.getMessage();
+    }
+    if (ThreadLocalRandom.current().nextDouble() < explainSampleRate) {
+      explainExecutor.execute(() -> {
+        try {
+          describePlan(slowQuery, explain.get());
+        } catch (MongoException e) {
+          slowQuery.explainError = e.getMessage();
+        }
+        add(slowQuery);
+      });
+    } else {
+      add(slowQuery);
+    }
+  }
+
+  private synchronized void add(SlowQuery slowQuery) {
+    if (capacity == 0) {
+      return;
+    }
+    if (queries.size() == capacity) {
+      queries.removeFirst();
+    }
+    queries.addLast(slowQuery);
+  }
+
+  /**
+   * @return the slow queries we've kept, most recent first
+   */
+  public synchronized List<SlowQuery> recent() {
+    List<SlowQuery> recent = new ArrayList<>(queries.size());
+    queries.descendingIterator().forEachRemaining(recent::add);
+    return recent;
+  }
+
+  /**
+   * Forget all the slow queries we've kept.
+   */
+  public synchronized void clear() {
+    queries.clear();
+  }
+
+  /**
+   * Fill in how Mongo ran `slowQuery` from the output of `explain`.
+   *
+   * The shape of that output depends on the kind of query and the version
+   * of Mongo, so we look for the parts we want (the winning plan and the
+   * execution stats) wherever they are.
+   *
+   * @param slowQuery the query to describe
+   * @param explain the output of `explain("executionStats")`
+   */
+  static void describePlan(SlowQuery slowQuery, Document explain) {
+    slowQuery.explained = true;
+    slowQuery.stages = new ArrayList<>();
+    Document winningPlan = find(explain, "winningPlan");
+    if (winningPlan != null) {
+      collectStages(winningPlan, slowQuery);
+    }
+    if (slowQuery.stages.contains("COLLSCAN")) {
+      slowQuery.plan = "COLLSCAN";
+    } else if (slowQuery.stages.contains("IXSCAN")) {
+      slowQuery.plan = "IXSCAN";
+    } else if (!slowQuery.stages.isEmpty()) {
+      slowQuery.plan = slowQuery.stages.get(0);
+    }
+    Document stats = find(explain, "executionStats");
+    if (stats != null) {
+      slowQuery.docsExamined = longValue(stats.get("totalDocsExamined"));
+      slowQuery.keysExamined = longValue(stats.get("totalKeysExamined"));
+      slowQuery.returned = longValue(stats.get("nReturned"));
+    }
+  }
+
+  /**
+   * Find the first document under `key` anywhere in `node`.
+   */
+  private static Document find(Object node, String key) {
+    if (node instanceof Document document) {
+      if (document.get(key) instanceof Document found) {
+        return found;
+      }
+      for (Object value : document.values()) {
+        Document found = find(value, key);
+        if (found != null) {
+          return found;
+        }
+      }
+    } else if (node instanceof List<?> list) {
+      for (Object value : list) {
+        Document found = find(value, key);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Add the `stage` of every step of a plan (and the first index it uses)
+   * to `slowQuery`, top stage first.
+   */
+  private static void collectStages(Object node, SlowQuery slowQuery) {
+    if (node instanceof Document document) {
+      if (document.get("stage") instanceof String stage) {
+        slowQuery.stages.add(stage);
+      }
+      if (slowQuery.index == null && document.get("indexName") instanceof String indexName) {
+        slowQuery.index = indexName;
+      }
+      for (Map.Entry<String, Object> entry : document.entrySet()) {
+        collectStages(entry.getValue(), slowQuery);
+      }
+    } else if (node instanceof List<?> list) {
+      for (Object value : list) {
+        collectStages(value, slowQuery);
+      }
+    }
+  }
+
+  private static Long longValue(Object value) {
+    return value instanceof Number number ? number.longValue() : null;
+  }
+}
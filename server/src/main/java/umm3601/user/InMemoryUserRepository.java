@@ -0,0 +1,235 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A `UserRepository` that keeps all the users in memory.
+ *
+ * Users are stored in a concurrent map keyed by ID, along with secondary
+ * indexes (sets of IDs) for each role, age, and company. A query starts with
+ * the smallest set of candidates the indexes give it, and then checks each
+ * candidate against the whole query. That final check is what keeps queries
+ * correct while other threads are saving or deleting users, since the
+ * indexes and the main map aren't updated as a single atomic step.
+ *
+ * Filtering and sorting follow the same rules as `MongoUserRepository`, so the
+ * two can be used interchangeably.
+ *
+ * The repository keeps its own copies of the users it's given, but the users
+ * it returns are the ones it has stored, so callers shouldn't modify them.
+ */
+public class InMemoryUserRepository implements UserRepository {
+
+  // The fields we know how to sort by, and how to get them from a `User`.
+  // Like Mongo, we put missing (`null`) values first and compare strings by
+  // their characters (i.e., case matters).
+  private static final Map<String, Comparator<User>> SORT_ORDERS = Map.of(
+    "_id", stringOrder(user -> user._id),
+    "name", stringOrder(user -> user.name),
+    "age", Comparator.comparingInt(user -> user.age),
+    "company", stringOrder(user -> user.company),
+    "email", stringOrder(user -> user.email),
+    "avatar", stringOrder(user -> user.avatar),
+    "role", stringOrder(user -> user.role));
+
+  private final ConcurrentHashMap<String, User> usersById = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Set<String>> idsByRole = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Integer, Set<String>> idsByAge = new ConcurrentHashMap<>();
+  // Keyed by the lowercase company name, since company filters ignore case.
+  private final ConcurrentHashMap<String, Set<String>> idsByCompany = new ConcurrentHashMap<>();
+
+  @Override
+  public User findById(String id) {
+    return usersById.get(id);
+  }
+
+  @Override
+  public List<User> findByIds(Collection<String> ids) {
+    List<User> users = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      User user = usersById.get(id);
+      if (user != null) {
+        users.add(user);
+      }
+    }
+    return users;
+  }
+
+  @Override
+  public List<User> find(UserQuery query) {
+    List<User> users = new ArrayList<>();
+    for (String id : candidateIds(query)) {
+      User user = usersById.get(id);
+      if (user != null && matches(query, user)) {
+        users.add(user);
+      }
+    }
+    Comparator<User> order = SORT_ORDERS.get(query.sortBy);
+    // Mongo treats every user as having a missing value for fields that don't
+    // exist, which leaves them in no particular order, so we don't sort either.
+    if (order != null) {
+      users.sort(query.descending ? order.reversed() : order);
+    }
+    return query.page(users);
+  }
+
+  @Override
+  public long count(UserQuery query) {
+    long count = 0;
+    for (String id : candidateIds(query)) {
+      User user = usersById.get(id);
+      if (user != null && matches(query, user)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public UserFacets facets(UserQuery query) {
+    UserFacets facets = new UserFacets();
+    facets.roles = new TreeMap<>();
+    facets.companies = new TreeMap<>();
+    for (String id : candidateIds(query)) {
+      User user = usersById.get(id);
+      if (user != null && matches(query, user)) {
+        facets.total++;
+        if (user.role != null) {
+          facets.roles.merge(user.role, 1L, Long::sum);
+        }
+        if (user.company != null) {
+          facets.companies.merge(user.company, 1L, Long::sum);
+        }
+      }
+    }
+    return facets;
+  }
+
+  @Override
+  public void save(User user) {
+    User copy = copyOf(user);
+    usersById.compute(copy._id, (id, old) -> {
+      if (old != null) {
+        unindex(old);
+      }
+      index(copy);
+      return copy;
+    });
+  }
+
+  @Override
+  public void deleteByIds(Collection<String> ids) {
+    for (String id : ids) {
+      usersById.computeIfPresent(id, (key, old) -> {
+        unindex(old);
+        return null;
+      });
+    }
+  }
+
+  /**
+   * Get the IDs of the users that might match `query`, using whichever
+   * of the indexes narrows things down the most.
+   *
+   * @param query the query being answered
+   * @return the IDs of (a superset of) the users matching `query`
+   */
+  private Collection<String> candidateIds(UserQuery query) {
+    Collection<String> candidates = usersById.keySet();
+    if (query.age != null) {
+      candidates = smaller(candidates, idsByAge.getOrDefault(query.age, Set.of()));
+    }
+    if (query.role != null) {
+      candidates = smaller(candidates, idsByRole.getOrDefault(query.role, Set.of()));
+    }
+    if (query.company != null) {
+      // Company filters match any company containing the given text, so we
+      // gather the IDs for every company name that does.
+      String company = query.company.toLowerCase(Locale.ROOT);
+      List<String> companyIds = new ArrayList<>();
+      idsByCompany.forEach((name, ids) -> {
+        if (name.contains(company)) {
+          companyIds.addAll(ids);
+        }
+      });
+      candidates = smaller(candidates, companyIds);
+    }
+    return candidates;
+  }
+
+  private static Collection<String> smaller(Collection<String> first, Collection<String> second) {
+    return first.size() <= second.size() ? first : second;
+  }
+
+  private static boolean matches(UserQuery query, User user) {
+    return (query.age == null || query.age == user.age)
+      && (query.role == null || query.role.equals(user.role))
+      && (query.company == null
+        || (user.company != null
+          && user.company.toLowerCase(Locale.ROOT).contains(query.company.toLowerCase(Locale.ROOT))));
+  }
+
+  private void index(User user) {
+    addToIndex(idsByAge, user.age, user._id);
+    if (user.role != null) {
+      addToIndex(idsByRole, user.role, user._id);
+    }
+    if (user.company != null) {
+      addToIndex(idsByCompany, user.company.toLowerCase(Locale.ROOT), user._id);
+    }
+  }
+
+  private void unindex(User user) {
+    removeFromIndex(idsByAge, user.age, user._id);
+    if (user.role != null) {
+      removeFromIndex(idsByRole, user.role, user._id);
+    }
+    if (user.company != null) {
+      removeFromIndex(idsByCompany, user.company.toLowerCase(Locale.ROOT), user._id);
+    }
+  }
+
+  private static <K> void addToIndex(ConcurrentHashMap<K, Set<String>> index, K key, String id) {
+    // Adding inside `compute` means we can't add to a set that
+    // `removeFromIndex` is dropping at the same time.
+    index.compute(key, (k, ids) -> {
+      Set<String> result = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+      result.add(id);
+      return result;
+    });
+  }
+
+  private static <K> void removeFromIndex(ConcurrentHashMap<K, Set<String>> index, K key, String id) {
+    // Drop the set entirely once it's empty, so indexes for values nobody
+    // has any more don't build up.
+    index.computeIfPresent(key, (k, ids) -> {
+      ids.remove(id);
+      return ids.isEmpty() ? null : ids;
+    });
+  }
+
+  private static Comparator<User> stringOrder(Function<User, String> field) {
+    return Comparator.comparing(field, Comparator.nullsFirst(Comparator.naturalOrder()));
+  }
+
+  private static User copyOf(User user) {
+    User copy = new User();
+    copy._id = user._id;
+    copy.name = user.name;
+    copy.age = user.age;
+    copy.company = user.company;
+    copy.email = user.email;
+    copy.avatar = user.avatar;
+    copy.role = user.role;
+    return copy;
+  }
+}
@@ -0,0 +1,253 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.regex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+
+import umm3601.slowquery.SlowQueryLog;
+
+/**
+ * A `UserRepository` backed by a MongoDB collection.
+ *
+ * The queries for `find`, `count`, and `facets` are timed, and the slow
+ * ones recorded (and sometimes explained) in a `SlowQueryLog`. Every query,
+ * including the lookups by ID, is limited to the current request's time
+ * (see `UserQueryPlanner.maxTimeMillis`).
+ */
+public class MongoUserRepository implements UserRepository {
+
+  private final MongoCollection<User> userCollection;
+  private final SlowQueryLog slowQueryLog;
+
+  /**
+   * Construct a repository for the users in `userCollection`, without
+   * keeping track of slow queries.
+   *
+   * @param userCollection the collection the users are stored in
+   */
+  public MongoUserRepository(MongoCollection<User> userCollection) {
+    this(userCollection, SlowQueryLog.disabled());
+  }
+
+  /**
+   * Construct a repository for the users in `userCollection`.
+   *
+   * @param userCollection the collection the users are stored in
+   * @param slowQueryLog where to record slow queries
+   */
+  public MongoUserRepository(MongoCollection<User> userCollection, SlowQueryLog slowQueryLog) {
+    this.userCollection = userCollection;
+    this.slowQueryLog = slowQueryLog;
+  }
+
+  /**
+   * Construct a Bson filter document matching the users `query` asks for.
+   *
+   * @param query the query to convert
+   * @return a filter document that can be used in the `find` method
+   */
+  public static Bson filter(UserQuery query) {
+    List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
+
+    if (query.age != null) {
+      filters.add(eq(UserController.AGE_KEY, query.age));
+    }
+    if (query.company != null) {
+      Pattern pattern = Pattern.compile(Pattern.quote(query.company), Pattern.CASE_INSENSITIVE);
+      filters.add(regex(UserController.COMPANY_KEY, pattern));
+    }
+    if (query.role != null) {
+      filters.add(eq(UserController.ROLE_KEY, query.role));
+    }
+
+    // Combine the list of filters into a single filtering document.
+    return filters.isEmpty() ? new Document() : and(filters);
+  }
+
+  /**
+   * Construct a Bson filter document matching the users `query` selects
+   * exactly, for deleting them: it's like `filter`, except that `company`
+   * has to match the whole company name (ignoring case), not just part of it.
+   *
+   * @param query the query to convert
+   * @return a filter document for exactly the users `query` selects
+   */
+  public static Bson exactFilter(UserQuery query) {
+    List<Bson> filters = new ArrayList<>();
+
+    if (query.age != null) {
+      filters.add(eq(UserController.AGE_KEY, query.age));
+    }
+    if (query.company != null) {
+      Pattern pattern = Pattern.compile("^" + Pattern.quote(query.company) + "$", Pattern.CASE_INSENSITIVE);
+      filters.add(regex(UserController.COMPANY_KEY, pattern));
+    }
+    if (query.role != null) {
+      filters.add(eq(UserController.ROLE_KEY, query.role));
+    }
+
+    return filters.isEmpty() ? new Document() : and(filters);
+  }
+
+  /**
+   * Construct a Bson sorting document for the order `query` asks for.
+   *
+   * @param query the query to convert
+   * @return a sorting document that can be used in the `sort` method
+   */
+  public static Bson sort(UserQuery query) {
+    return query.descending ? Sorts.descending(query.sortBy) : Sorts.ascending(query.sortBy);
+  }
+
+  /**
+   * Apply the paging (`offset` and `limit`) from `query` to `results`.
+   *
+   * @param <T> the type of the results
+   * @param results the results of a `find`
+   * @param query the query with the page to use
+   * @return `results`, limited to the requested page
+   */
+  public static <T> FindIterable<T> page(FindIterable<T> results, UserQuery query) {
+    results.skip(query.offset);
+    if (query.limit != null) {
+      results.limit(query.limit);
+    }
+    return results;
+  }
+
+  @Override
+  public User findById(String id) {
+    return userCollection.find(eq("_id", new ObjectId(id)))
+      .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS)
+      .first();
+  }
+
+  @Override
+  public List<User> findByIds(Collection<String> ids) {
+    return userCollection.find(in("_id", toObjectIds(ids)))
+      .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>());
+  }
+
+  @Override
+  public List<User> find(UserQuery query) {
+    // All three of the find, sort, and into steps happen "in parallel" inside the
+    // database system. So MongoDB is going to find the users with the specified
+    // properties, return those sorted in the specified manner, and put the
+    // results into an initially empty ArrayList.
+    // `UserQueryPlanner` makes sure the sort uses an index and that the query
+    // can't run for too long.
+    Bson filter = filter(query);
+    return slowQueryLog.time("find", filter, sort(query),
+      () -> UserQueryPlanner.plan(userCollection.find(filter), query).into(new ArrayList<>()),
+      () -> UserQueryPlanner.plan(userCollection.find(filter), query).explain(ExplainVerbosity.EXECUTION_STATS));
+  }
+
+  /**
+   * Hand each matching user to `action` straight from the cursor, so the
+   * users are never all in memory at once. The cursor is closed (and no
+   * more users are read) if `action` throws.
+   */
+  @Override
+  public void forEach(UserQuery query, Consumer<? super User> action) {
+    Bson filter = filter(query);
+    slowQueryLog.timeEach("find", filter, sort(query),
+      users -> UserQueryPlanner.plan(userCollection.find(filter), query).forEach(users),
+      action,
+      () -> UserQueryPlanner.plan(userCollection.find(filter), query).explain(ExplainVerbosity.EXECUTION_STATS));
+  }
+
+  @Override
+  public long count(UserQuery query) {
+    return count(filter(query));
+  }
+
+  /**
+   * Count the users matching `filter`. Counts are aggregations, but how
+   * quick they are comes down to how Mongo finds the matching users, so
+   * that's what we explain if the count is slow.
+   */
+  private long count(Bson filter) {
+    return slowQueryLog.time("count", filter, null,
+      () -> userCollection.countDocuments(filter, UserQueryPlanner.countOptions()),
+      () -> userCollection.find(filter).explain(ExplainVerbosity.EXECUTION_STATS));
+  }
+
+  @Override
+  public UserFacets facets(UserQuery query) {
+    Bson filter = filter(query);
+    UserFacets facets = new UserFacets();
+    facets.total = count(filter);
+    facets.roles = countBy(filter, UserController.ROLE_KEY);
+    facets.companies = countBy(filter, UserController.COMPANY_KEY);
+    return facets;
+  }
+
+  /**
+   * Count the users matching `filter` for each value of `field`.
+   *
+   * @param filter the filter for the users to count
+   * @param field the field to group the users by
+   * @return the number of users with each (non-null) value of `field`
+   */
+  private Map<String, Long> countBy(Bson filter, String field) {
+    Map<String, Long> counts = new TreeMap<>();
+    List<Bson> pipeline = List.of(
+      Aggregates.match(filter),
+      Aggregates.group("$" + field, Accumulators.sum("count", 1)));
+    AggregateIterable<Document> groups = userCollection.aggregate(pipeline, Document.class)
+      .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS);
+    return slowQueryLog.time("aggregate", filter, null,
+      () -> {
+        for (Document group : groups) {
+          Object value = group.get("_id");
+          if (value != null) {
+            counts.put(value.toString(), group.get("count", Number.class).longValue());
+          }
+        }
+        return counts;
+      },
+      () -> userCollection.aggregate(pipeline, Document.class).explain(ExplainVerbosity.EXECUTION_STATS));
+  }
+
+  @Override
+  public void save(User user) {
+    userCollection.replaceOne(eq("_id", new ObjectId(user._id)), user, new ReplaceOptions().upsert(true));
+  }
+
+  @Override
+  public void deleteByIds(Collection<String> ids) {
+    userCollection.deleteMany(in("_id", toObjectIds(ids)));
+  }
+
+  private static List<ObjectId> toObjectIds(Collection<String> ids) {
+    List<ObjectId> objectIds = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      objectIds.add(new ObjectId(id));
+    }
+    return objectIds;
+  }
+}
@@ -0,0 +1,187 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Writes an array of results (e.g., users) for a response, one result at
+ * a time, as they're read from the database. The array is written in
+ * whatever format `mapper` is for: JSON, or one of the binary formats from
+ * `ResponseFormat`.
+ *
+ * This is the other half of `UserJsonReader`: a request for every user can
+ * otherwise produce hundreds of megabytes of JSON (and all the objects that
+ * go with it). So the array has a budget, and as soon as it would hold more
+ * than `maxResults` results or `maxBytes` bytes we give up with a 413,
+ * telling the client to ask for a page at a time. Since we check as each
+ * result is written, we never read more than one result past the limit,
+ * and the buffer the array is written to never grows past `maxBytes`.
+ *
+ * The array is buffered (rather than written straight to the response) so
+ * that a response that turns out to be too large can still be a 413: once
+ * we'd started sending a 200 it would be too late to change our minds.
+ */
+public class ResultArrayWriter {
+
+  // How big a buffer we start with; enough for a typical page of users.
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+  // The biggest array the JVM will reliably allocate.
+  private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+  private final ObjectMapper mapper;
+  private final ResultLimits limits;
+  private final String pagingHint;
+  // The array so far, in `buffer[0 .. size)`.
+  private byte[] buffer;
+  private int size;
+  private final JsonGenerator json;
+  private int results;
+
+  /**
+   * Start a JSON array.
+   *
+   * @param mapper the Jackson mapper used to turn results into JSON (or
+   *   another format)
+   * @param limits the largest array we'll write
+   * @param pagingHint how the client can ask for fewer results, for the 413
+   */
+  public ResultArrayWriter(ObjectMapper mapper, ResultLimits limits, String pagingHint) {
+    this.mapper = mapper;
+    this.limits = limits;
+    this.pagingHint = pagingHint;
+    this.buffer = new byte[capped(INITIAL_BUFFER_SIZE)];
+    try {
+      json = mapper.getFactory().createGenerator(new LimitedOutputStream());
+      json.writeStartArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Add a result to the array.
+   *
+   * @param result the result to add
+   * @throws HttpResponseException (413) if the array is now too large
+   */
+  public void add(Object result) {
+    countResult();
+    try {
+      mapper.writeValue(json, result);
+    } catch (ResponseTooLargeException e) {
+      throw tooLarge();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Add a result that's already JSON to the array. This only makes sense
+   * if the array is JSON too.
+   *
+   * @param resultJson the JSON for the result
+   * @throws HttpResponseException (413) if the array is now too large
+   */
+  public void addRaw(String resultJson) {
+    countResult();
+    try {
+      json.writeRawValue(resultJson);
+      // Raw values aren't flushed for us, so flush to check the size
+      json.flush();
+    } catch (ResponseTooLargeException e) {
+      throw tooLarge();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Finish the array.
+   *
+   * @return the JSON array
+   * @throws HttpResponseException (413) if the array is too large
+   */
+  public byte[] toByteArray() {
+    try {
+      json.writeEndArray();
+      json.close();
+    } catch (ResponseTooLargeException e) {
+      throw tooLarge();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Arrays.copyOf(buffer, size);
+  }
+
+  private void countResult() {
+    results++;
+    if (results > limits.maxResults()) {
+      throw tooLarge();
+    }
+  }
+
+  private HttpResponseException tooLarge() {
+    return new HttpResponseException(HttpStatus.CONTENT_TOO_LARGE.getCode(),
+      "The response would be too large: " + pagingHint,
+      Map.of(
+        "maxResults", String.valueOf(limits.maxResults()),
+        "maxBytes", String.valueOf(limits.maxBytes())));
+  }
+
+  /**
+   * Thrown when the array gets too large. This is an `IOException` (rather
+   * than, e.g., an `HttpResponseException`) because Jackson passes
+   * `IOException`s from the underlying stream through unchanged, but wraps
+   * most others.
+   */
+  private static final class ResponseTooLargeException extends IOException {
+  }
+
+  /**
+   * @param bufferSize a size we'd like the buffer to be
+   * @return that size, but no more than `maxBytes` (or than an array can hold)
+   */
+  private int capped(long bufferSize) {
+    return (int) Math.min(bufferSize, Math.min(limits.maxBytes(), MAX_BUFFER_SIZE));
+  }
+
+  /**
+   * An output stream into `buffer` that fails (with a
+   * `ResponseTooLargeException`) once more than `maxBytes` have been
+   * written to it. The buffer doubles in size as it fills up, but never
+   * past `maxBytes`.
+   */
+  private final class LimitedOutputStream extends OutputStream {
+    @Override
+    public void write(int b) throws IOException {
+      makeRoom(1);
+      buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      makeRoom(length);
+      System.arraycopy(bytes, offset, buffer, size, length);
+      size += length;
+    }
+
+    private void makeRoom(int n) throws ResponseTooLargeException {
+      long needed = size + (long) n;
+      if (needed > limits.maxBytes()) {
+        throw new ResponseTooLargeException();
+      }
+      if (needed > buffer.length) {
+        buffer = Arrays.copyOf(buffer, capped(Math.max(2L * buffer.length, needed)));
+      }
+    }
+  }
+}
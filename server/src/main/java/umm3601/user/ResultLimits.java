@@ -0,0 +1,19 @@
+package umm3601.user;
+
+/**
+ * The most results (and bytes of JSON) a single response from one of the
+ * user list endpoints can hold (see `ResultArrayWriter`).
+ *
+ * @param maxResults the most results (e.g., users) in a response
+ * @param maxBytes the most bytes of JSON in a response
+ */
+public record ResultLimits(int maxResults, long maxBytes) {
+
+  // Enough for any page the client asks for, but well short of the whole collection.
+  public static final int DEFAULT_MAX_RESULTS = 10_000;
+
+  public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+  // The limits we use unless we're told otherwise.
+  public static final ResultLimits DEFAULT = new ResultLimits(DEFAULT_MAX_RESULTS, DEFAULT_MAX_BYTES);
+}
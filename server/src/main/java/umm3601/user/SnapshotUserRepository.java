@@ -0,0 +1,159 @@
+package umm3601.user;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A `UserRepository` that answers queries from an in-memory `UserSnapshot`.
+ *
+ * Reads just use whatever the current snapshot is, so they never wait on
+ * writers. Changes (either mirrored writes from `UserController` or a full
+ * `replaceAll` from a `UserSnapshotRefresher`) build a new snapshot and swap
+ * it in. A mirrored write only has to merge the users it changes into the
+ * existing snapshot (see `UserSnapshot.withChanges`), but that still makes
+ * each change cost time proportional to the number of users, which is fine
+ * for a modestly sized, read-heavy collection like ours.
+ */
+public class SnapshotUserRepository implements UserRepository {
+
+  private volatile UserSnapshot snapshot = UserSnapshot.of(List.of());
+
+  // How many writes have been mirrored into the repository. A reload compares
+  // this with what it was before it started reading, so it can tell if the
+  // users it read might be older than one of those writes.
+  private long version;
+
+  // The refresher keeping the repository up to date, if there is one.
+  private volatile UserSnapshotRefresher refresher;
+
+  /**
+   * @return the snapshot queries are currently answered from
+   */
+  public UserSnapshot snapshot() {
+    return snapshot;
+  }
+
+  /**
+   * @return how many writes have been made to the repository so far; pass
+   *   this to `replaceAll` along with the users read after getting it
+   */
+  public synchronized long version() {
+    return version;
+  }
+
+  /**
+   * Replace everything in the repository with the given users.
+   *
+   * @param users the users the repository should hold
+   */
+  public void replaceAll(Iterable<User> users) {
+    UserSnapshot replacement = snapshotOf(users);
+    synchronized (this) {
+      snapshot = replacement;
+    }
+  }
+
+  /**
+   * Replace everything in the repository with the given users, unless a
+   * write has been made since `readVersion`. The users might have been read
+   * before that write made it to Mongo, in which case swapping them in would
+   * undo it.
+   *
+   * @param users the users the repository should hold
+   * @param readVersion the `version()` from before the users were read
+   * @return whether the users were swapped in
+   */
+  public boolean replaceAll(Iterable<User> users, long readVersion) {
+    UserSnapshot replacement = snapshotOf(users);
+    synchronized (this) {
+      if (version != readVersion) {
+        return false;
+      }
+      snapshot = replacement;
+      return true;
+    }
+  }
+
+  private static UserSnapshot snapshotOf(Iterable<User> users) {
+    Map<String, User> usersById = new LinkedHashMap<>();
+    for (User user : users) {
+      usersById.put(user._id, user);
+    }
+    return UserSnapshot.of(usersById.values());
+  }
+
+  /**
+   * Remember that `snapshotRefresher` is keeping this repository up to
+   * date, so it can be stopped when the repository is closed.
+   *
+   * @param snapshotRefresher the refresher
+   */
+  void refreshedBy(UserSnapshotRefresher snapshotRefresher) {
+    refresher = snapshotRefresher;
+  }
+
+  @Override
+  public boolean refreshesItself() {
+    return refresher != null;
+  }
+
+  @Override
+  public User findById(String id) {
+    return snapshot.findById(id);
+  }
+
+  @Override
+  public List<User> findByIds(Collection<String> ids) {
+    UserSnapshot current = snapshot;
+    return ids.stream().map(current::findById).filter(user -> user != null).toList();
+  }
+
+  @Override
+  public List<User> find(UserQuery query) {
+    return snapshot.find(query);
+  }
+
+  @Override
+  public long count(UserQuery query) {
+    return snapshot.count(query);
+  }
+
+  @Override
+  public UserFacets facets(UserQuery query) {
+    return snapshot.facets(query);
+  }
+
+  @Override
+  public void save(User user) {
+    saveAll(List.of(user));
+  }
+
+  @Override
+  public synchronized void saveAll(Iterable<User> users) {
+    Map<String, User> usersById = new LinkedHashMap<>();
+    for (User user : users) {
+      usersById.put(user._id, user);
+    }
+    snapshot = snapshot.withChanges(usersById.values(), List.of());
+    version++;
+  }
+
+  @Override
+  public synchronized void deleteByIds(Collection<String> ids) {
+    snapshot = snapshot.withChanges(List.of(), ids);
+    version++;
+  }
+
+  /**
+   * Stop the refresher keeping this repository up to date, if there is one.
+   */
+  @Override
+  public void close() {
+    UserSnapshotRefresher current = refresher;
+    if (current != null) {
+      current.close();
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package umm3601.user;
+
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class UserBatchResult {
+  // Ignore Checkstyle warning about the identifier name.
+  @SuppressWarnings("checkstyle:membername")
+  public String _id;
+  // Whether a user with this ID was found
+  public boolean found;
+  // The user with this ID, or `null` if there wasn't one
+  public User user;
+}
@@ -0,0 +1,315 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.in;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.result.DeleteResult;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+
+/**
+ * Controller for adding and deleting many users at once.
+ *
+ * These requests can each touch thousands of users, so they work through
+ * them in batches, and read their (possibly large) request bodies as
+ * streams. Like `UserController`, they report every change they make to
+ * the `UserChangeLog`.
+ */
+public class UserBulkController implements Controller {
+
+  static final String API_USERS = "/api/users";
+  static final String API_USERS_BULK = "/api/users/bulk";
+  static final String API_USERS_BULK_DELETE = "/api/users/bulkDelete";
+
+  static final int MAX_BULK_DELETE_SIZE = 10_000;
+  static final int DELETE_BATCH_SIZE = 500;
+  static final int MAX_BULK_CREATE_SIZE = 10_000;
+  static final int INSERT_BATCH_SIZE = 500;
+  // The default for the largest body we'll accept for a bulk request (10MB)
+  public static final long DEFAULT_MAX_BULK_BODY_BYTES = 10L * 1024 * 1024;
+
+  private final JacksonMongoCollection<User> userCollection;
+
+  // The same collection, for the deletes, since (unlike MongoJack's) it
+  // can be given a time limit (see `UserQueryPlanner.withDeadline`).
+  private final MongoCollection<User> codecUserCollection;
+
+  // Checks the user data we're sent (the same way `UserController` does).
+  private final UserValidator userValidator = new UserValidator();
+
+  // Reads bulk lists of users from request bodies without buffering the whole body.
+  private final UserJsonReader userJsonReader;
+
+  // Where every insert and deletion is recorded (and mirrored).
+  private final UserChangeLog changeLog;
+
+  // Works out the avatar for a new user from their email (see `UserController.generateAvatar`).
+  private final UnaryOperator<String> avatars;
+
+  /**
+   * Construct a controller for bulk changes to the users.
+   *
+   * @param database the database containing user data
+   * @param objectMapper the Jackson mapper shared with the server
+   * @param maxBulkBodyBytes the largest body (in bytes) we'll accept for
+   *   a bulk request like `addNewUsers`
+   * @param readRepository the separate copy of the users that reads come
+   *   from (see `UserController`), or `null` if they come from Mongo
+   * @param avatars works out the avatar for a new user from their email
+   */
+  public UserBulkController(MongoDatabase database, ObjectMapper objectMapper, long maxBulkBodyBytes,
+      UserRepository readRepository, UnaryOperator<String> avatars) {
+    userCollection = UserController.userCollection(database, objectMapper);
+    codecUserCollection = database.getCollection("users", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(database.getCodecRegistry()));
+    userJsonReader = new UserJsonReader(objectMapper, maxBulkBodyBytes);
+    changeLog = new UserChangeLog(database, readRepository);
+    this.avatars = avatars;
+  }
+
+  /**
+   * Add many new users at once, from a JSON array of users in the body
+   * of the request.
+   *
+   * The body is parsed as a stream (see `UserJsonReader`), and each user is
+   * checked by the same `UserValidator` as `addNewUser` as soon as it's been
+   * read. If any user is illegal, nobody is added and the response lists
+   * the problems with that user (under the key `REQUEST_BODY[i]` for the
+   * `i`th user). Bodies larger than the configured maximum get a 413, and
+   * at most `MAX_BULK_CREATE_SIZE` users can be added at once.
+   *
+   * The users are inserted `INSERT_BATCH_SIZE` at a time. Users whose email is
+   * already in use aren't added; the JSON body of the response has the new
+   * `ids` (in the same order as the request, with `null` for users that
+   * weren't added) and the positions of the users that were `duplicates`.
+   *
+   * @param ctx a Javalin HTTP context that provides the users
+   *  in the JSON body of the request
+   */
+  public void addNewUsers(Context ctx) {
+    userJsonReader.checkContentLength(ctx.contentLength());
+
+    List<User> newUsers = new ArrayList<>();
+    userJsonReader.readUsers(ctx.bodyInputStream(), user -> {
+      if (newUsers.size() >= MAX_BULK_CREATE_SIZE) {
+        throw new BadRequestResponse("At most " + MAX_BULK_CREATE_SIZE + " users can be added at once");
+      }
+      newUsers.add(userValidator.requireValid(user, UserValidator.REQUEST_BODY_KEY + "[" + newUsers.size() + "]"));
+    });
+    if (newUsers.isEmpty()) {
+      throw new BadRequestResponse("The request must include at least one user to add");
+    }
+
+    List<String> ids = new ArrayList<>(newUsers.size());
+    List<Integer> duplicates = new ArrayList<>();
+    for (int start = 0; start < newUsers.size(); start += INSERT_BATCH_SIZE) {
+      List<User> batch = newUsers.subList(start, Math.min(start + INSERT_BATCH_SIZE, newUsers.size()));
+      Set<Integer> failed = insertBatch(batch);
+      for (int i = 0; i < batch.size(); i++) {
+        if (failed.contains(i)) {
+          ids.add(null);
+          duplicates.add(start + i);
+        } else {
+          ids.add(batch.get(i)._id);
+        }
+      }
+    }
+
+    ctx.json(Map.of("ids", ids, "duplicates", duplicates));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Insert a batch of (already validated) new users, skipping any
+   * whose emails are already in use.
+   *
+   * @param batch the users to insert
+   * @return the positions (in `batch`) of the users that weren't
+   *   inserted because their email was already in use
+   */
+  private Set<Integer> insertBatch(List<User> batch) {
+    for (User user : batch) {
+      // Setting the IDs ourselves means we know them even if some of
+      // the inserts fail.
+      user._id = new ObjectId().toHexString();
+      user.avatar = avatars.apply(user.email);
+    }
+    Set<Integer> failed = new HashSet<>();
+    try {
+      // An unordered insert carries on past users that fail (i.e.,
+      // duplicate emails) and tells us about all of them at the end.
+      userCollection.insertMany(batch, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError error : e.getWriteErrors()) {
+        if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+          throw e;
+        }
+        failed.add(error.getIndex());
+      }
+    }
+    List<User> inserted = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      if (!failed.contains(i)) {
+        inserted.add(batch.get(i));
+      }
+    }
+    changeLog.inserted(inserted);
+    return failed;
+  }
+
+  /**
+   * Delete all the users matching the filters in the query parameters
+   * (`age`, `company`, and `role`, with the same meaning as in `getUsers`).
+   *
+   * At least one filter is required, so a request can't accidentally
+   * delete every user. Unlike in `getUsers`, `company` has to match the
+   * whole company name (ignoring case), so deleting `OHM` doesn't also
+   * delete everyone at `OHMNET`. The JSON body of the response is the number
+   * of users deleted, e.g., `{"deleted": 12}`.
+   *
+   * @param ctx a Javalin HTTP context that provides the query parameters
+   *   used to select the users to delete
+   */
+  public void deleteUsers(Context ctx) {
+    UserQuery query = UserController.constructFilters(ctx, userValidator);
+    if (!query.hasFilters()) {
+      throw new BadRequestResponse("Deleting users requires at least one of `age`, `company`, or `role`.");
+    }
+
+    ctx.json(Map.of("deleted", deleteInBatches(MongoUserRepository.exactFilter(query))));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Delete all the users with the IDs listed in the JSON body of the
+   * request (e.g., `{"ids": ["...", "..."]}`).
+   *
+   * At most `MAX_BULK_DELETE_SIZE` IDs can be deleted at once, and every ID
+   * must be a legal Mongo Object ID. IDs that don't match any user are
+   * ignored. The JSON body of the response is the number of users
+   * deleted, e.g., `{"deleted": 12}`.
+   *
+   * @param ctx a Javalin HTTP context that provides the IDs
+   *   in the JSON body of the request
+   */
+  public void deleteUsersByIds(Context ctx) {
+    List<ObjectId> ids = UserController.parseUserIds(ctx.bodyAsClass(UserIdList.class), MAX_BULK_DELETE_SIZE);
+
+    ctx.json(Map.of("deleted", deleteInBatches(in("_id", ids))));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Delete all the users matching `filter`, `DELETE_BATCH_SIZE` users at a time.
+   *
+   * Deleting in batches keeps each `deleteMany` (and the matching entries
+   * in the `userChanges` log) small, so a large delete doesn't hold up
+   * other requests for a long time.
+   *
+   * Finding the users and each batch's delete are limited to the time the
+   * request has left (see `RequestDeadline`). If that runs out part way
+   * through, the batches that were already deleted stay deleted (and are
+   * in the log), and the client gets a 504, so it can repeat the request
+   * to delete the rest.
+   *
+   * @param filter the filter selecting which users to delete
+   * @return the number of users that were deleted
+   */
+  private long deleteInBatches(Bson filter) {
+    long deletedCount = 0;
+    List<ObjectId> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+    FindIterable<User> matching = userCollection.find(filter)
+      .projection(Projections.include("_id"))
+      .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS);
+    for (User user : matching) {
+      batch.add(new ObjectId(user._id));
+      if (batch.size() == DELETE_BATCH_SIZE) {
+        deletedCount += deleteBatch(batch, filter);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      deletedCount += deleteBatch(batch, filter);
+    }
+    return deletedCount;
+  }
+
+  /**
+   * Delete the users with the given IDs (as long as they still match
+   * `filter`), and record those deletions in the `UserChangeLog`.
+   *
+   * @param ids the IDs of the users to delete
+   * @param filter the filter the users were selected with
+   * @return the number of users that were deleted
+   */
+  private long deleteBatch(List<ObjectId> ids, Bson filter) {
+    DeleteResult deleteResult = UserQueryPlanner.withDeadline(codecUserCollection)
+      .deleteMany(and(in("_id", ids), filter));
+    Set<ObjectId> deleted = new LinkedHashSet<>(ids);
+    if (deleteResult.getDeletedCount() < ids.size()) {
+      // Some of the users changed (so they no longer match) or were deleted by
+      // someone else since we found them. Only the ones that are gone were deleted.
+      FindIterable<User> remaining = userCollection.find(in("_id", ids))
+        .projection(Projections.include("_id"))
+        .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS);
+      for (User user : remaining) {
+        deleted.remove(new ObjectId(user._id));
+      }
+    }
+    changeLog.deleted(deleted.stream().map(ObjectId::toHexString).toList());
+    return deleteResult.getDeletedCount();
+  }
+
+  /**
+   * Sets up the routes for bulk changes to the users.
+   *
+   *   - `POST /api/users/bulk`
+   *      - Create many new users at once
+   *      - The users are a JSON array in the body of the HTTP request
+   *   - `DELETE /api/users?age=NUMBER&company=STRING&role=STRING`
+   *      - Delete all the users matching the filters (at least one is required)
+   *   - `POST /api/users/bulkDelete`
+   *      - Delete several users at once; the IDs are in the JSON body of the request
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    // Add many new users with the users being a JSON array in
+    // the body of the HTTP request
+    server.post(API_USERS_BULK, this::addNewUsers);
+
+    // Delete all the users matching the filters in the query parameters
+    server.delete(API_USERS, this::deleteUsers);
+
+    // Delete several users by ID with the IDs in the JSON body of the
+    // HTTP request
+    server.post(API_USERS_BULK_DELETE, this::deleteUsersByIds);
+  }
+}
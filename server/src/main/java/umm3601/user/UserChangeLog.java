@@ -0,0 +1,186 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * The record of every change made to the users through the API.
+ *
+ * Each insert, update, and deletion is logged in the `userChanges`
+ * collection, which is what lets `UserChangesController` tell clients what
+ * has changed since they last synced. If reads come from a separate copy of
+ * the users (see `UserRepository`), each change is made to that copy too,
+ * so the controllers that write users (`UserController` and
+ * `UserBulkController`) just report what they've done here.
+ */
+public class UserChangeLog {
+
+  // The operations we record in the `userChanges` collection.
+  static final String CHANGE_OP_INSERT = "insert";
+  static final String CHANGE_OP_DELETE = "delete";
+  static final String CHANGE_OP_UPDATE = "update";
+  // How long entries stay in the `userChanges` collection. Clients that
+  // haven't synced for longer than this have to start again with a full sync.
+  static final long CHANGE_LOG_TTL_DAYS = 30;
+
+  // A log of inserts, updates, and deletions in the `users` collection. Each
+  // entry's `ts` is filled in by Mongo as it's written, so the entries are
+  // ordered by the server's clock, which is what makes the delta sync in
+  // `UserChangesController` work.
+  private final MongoCollection<Document> changeCollection;
+
+  // The database, which `latest` asks for the time.
+  private final MongoDatabase database;
+
+  // The users, for reloading updated users into `mirror`.
+  private final MongoCollection<User> userCollection;
+
+  // The separate copy of the users that reads come from, or `null` if
+  // they come straight from Mongo.
+  private final UserRepository mirror;
+
+  /**
+   * Construct a change log.
+   *
+   * @param database the database containing user data
+   * @param mirror the separate copy of the users that reads come from
+   *   (which is kept up to date with every change), or `null` if reads
+   *   come from Mongo
+   */
+  public UserChangeLog(MongoDatabase database, UserRepository mirror) {
+    this.database = database;
+    this.mirror = mirror;
+    changeCollection = database.getCollection("userChanges");
+    userCollection = database.getCollection("users", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(database.getCodecRegistry()));
+  }
+
+  /**
+   * Create the indexes the log relies on (if they don't already exist): an
+   * index on the `ts` of the entries, which are read in that order, and a
+   * TTL index so the entries are forgotten after `CHANGE_LOG_TTL_DAYS`.
+   */
+  public void createIndexes() {
+    changeCollection.createIndex(Indexes.ascending("ts"));
+    changeCollection.createIndex(Indexes.ascending("changedAt"),
+      new IndexOptions().expireAfter(CHANGE_LOG_TTL_DAYS, TimeUnit.DAYS));
+  }
+
+  /**
+   * Record that some users have been added.
+   *
+   * @param users the new users
+   */
+  public void inserted(List<User> users) {
+    if (users.isEmpty()) {
+      return;
+    }
+    List<Document> changes = new ArrayList<>(users.size());
+    for (User user : users) {
+      changes.add(changeDocument(user._id, CHANGE_OP_INSERT));
+    }
+    changeCollection.insertMany(changes);
+    if (mirror != null) {
+      mirror.saveAll(users);
+    }
+  }
+
+  /**
+   * Record that a user has been updated.
+   *
+   * @param userId the ID of the user that changed
+   */
+  public void updated(String userId) {
+    changeCollection.insertOne(changeDocument(userId, CHANGE_OP_UPDATE));
+    if (mirror != null) {
+      // Reload the whole user, since an update only tells us what changed.
+      User user = userCollection.find(eq("_id", new ObjectId(userId))).first();
+      if (user != null) {
+        mirror.save(user);
+      }
+    }
+  }
+
+  /**
+   * Record that some users have been deleted.
+   *
+   * @param userIds the IDs of the deleted users
+   */
+  public void deleted(List<String> userIds) {
+    if (userIds.isEmpty()) {
+      return;
+    }
+    List<Document> changes = new ArrayList<>(userIds.size());
+    for (String userId : userIds) {
+      changes.add(changeDocument(userId, CHANGE_OP_DELETE));
+    }
+    changeCollection.insertMany(changes);
+    if (mirror != null) {
+      mirror.deleteByIds(userIds);
+    }
+  }
+
+  /**
+   * @param since the timestamp of the last change a client has seen
+   * @return the entries after `since`, oldest first (limited to the time
+   *   the current request has left, like the user queries)
+   */
+  public FindIterable<Document> changesSince(BsonTimestamp since) {
+    return changeCollection.find(gt("ts", since))
+      .sort(Sorts.ascending("ts"))
+      .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The timestamp of the newest entry in the log or, if there aren't any,
+   * the database server's current time (so a token for it still only
+   * covers the changes from now on).
+   *
+   * @return the timestamp a full sync is up to date with
+   */
+  public BsonTimestamp latest() {
+    Document newest = changeCollection.find().sort(Sorts.descending("ts")).first();
+    if (newest != null) {
+      return newest.get("ts", BsonTimestamp.class);
+    }
+    Date serverTime = database.runCommand(new Document("hello", 1)).getDate("localTime");
+    return new BsonTimestamp((int) TimeUnit.MILLISECONDS.toSeconds(serverTime.getTime()), 0);
+  }
+
+  /**
+   * Construct an entry for the `userChanges` log.
+   *
+   * The `ts` is an empty timestamp, which Mongo replaces with its current
+   * timestamp when the entry is inserted. Those are unique and increasing,
+   * whichever instance of the server writes the entry. The `changedAt` date
+   * is only used to expire old entries (see `createIndexes`).
+   *
+   * @param userId the ID of the user that changed
+   * @param op the kind of change (e.g., `CHANGE_OP_DELETE`)
+   * @return the document to add to the `userChanges` collection
+   */
+  private static Document changeDocument(String userId, String op) {
+    // Mongo only fills in empty timestamps in top-level fields, so `ts` has to stay at the top.
+    return new Document("_id", new ObjectId())
+      .append("ts", new BsonTimestamp())
+      .append("userId", userId)
+      .append("op", op)
+      .append("changedAt", new Date());
+  }
+}
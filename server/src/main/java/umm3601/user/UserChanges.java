@@ -0,0 +1,18 @@
+package umm3601.user;
+
+import java.util.List;
+
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class UserChanges {
+  // The users added since the `since` token in the request
+  public List<User> inserted;
+  // The users changed (in their current state) since the `since` token in the request
+  public List<User> updated;
+  // The IDs of the users deleted since the `since` token in the request
+  public List<String> deleted;
+  // The token to send as `since` in the next request
+  public String token;
+  // In a full sync, what to send as `cursor` to get the next page of users
+  // (`null` on the last page)
+  public String cursor;
+}
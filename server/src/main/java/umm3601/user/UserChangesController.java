@@ -0,0 +1,259 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+
+/**
+ * Controller for the feed of changes to the users (see `UserChangeLog`),
+ * which lets clients that keep their own copy of the users keep it up to
+ * date without fetching every user each time.
+ */
+public class UserChangesController implements Controller {
+
+  static final String API_USER_CHANGES = "/api/users/changes";
+  static final String SINCE_KEY = "since";
+  static final String CURSOR_KEY = "cursor";
+  // The most users in each page of a full sync (fewer if `resultLimits` are lower).
+  static final int FULL_SYNC_PAGE_SIZE = 1_000;
+
+  private final MongoCollection<User> userCollection;
+  private final UserChangeLog changeLog;
+  private final ResultLimits resultLimits;
+
+  /**
+   * Construct a controller for the changes to the users, with the default
+   * `ResultLimits`.
+   *
+   * @param database the database containing user data
+   */
+  public UserChangesController(MongoDatabase database) {
+    this(database, ResultLimits.DEFAULT);
+  }
+
+  /**
+   * Construct a controller for the changes to the users.
+   *
+   * @param database the database containing user data
+   * @param resultLimits the most users a page of a full sync can have
+   */
+  public UserChangesController(MongoDatabase database, ResultLimits resultLimits) {
+    this.resultLimits = resultLimits;
+    userCollection = database.getCollection("users", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(database.getCodecRegistry()));
+    // This controller only reads the log, so there's nothing to mirror changes to.
+    changeLog = new UserChangeLog(database, null);
+  }
+
+  /**
+   * Set the JSON body of the response to be the users that have been inserted,
+   * updated, or deleted since the `since` token provided in the request.
+   *
+   * Clients that keep a local copy of the user list can call this instead of
+   * `getUsers` and apply the (usually small) set of changes to their copy, so
+   * the amount of data sent is proportional to the number of changes rather
+   * than the size of the collection. Each response includes a new `token`
+   * that the client should send as `since` the next time it syncs.
+   *
+   * If there is no `since` token, this is a full sync: every user is returned
+   * as inserted along with a token for subsequent calls. The users come a page
+   * at a time (see `getFullSyncPage`), and the client keeps asking for pages
+   * with the `cursor` from each response until there isn't one.
+   *
+   * Every insert, update, and deletion made through the API is recorded in
+   * the `UserChangeLog` with a `ts` that Mongo itself fills in, so the
+   * entries are ordered by the server's clock rather than by the clocks of
+   * whichever instances wrote them. Tokens are those timestamps, and an
+   * incremental sync reads the entries after its token. (Users added to the
+   * database directly, rather than through the API, only show up in full
+   * syncs.)
+   *
+   * The entries are only kept for `CHANGE_LOG_TTL_DAYS`, so an older token
+   * is rejected with a 410 ("Gone"), and the client has to do a full sync.
+   *
+   * Like the other user queries, reading the log and the users is limited
+   * to the time the request has left (see `RequestDeadline`).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserChanges(Context ctx) {
+    String since = ctx.queryParam(SINCE_KEY);
+    if (since == null || since.isEmpty()) {
+      getFullSyncPage(ctx);
+      return;
+    }
+    BsonTimestamp sinceTime = parseChangeToken(SINCE_KEY, since);
+
+    BsonTimestamp latest = sinceTime;
+    Set<String> insertedIds = new LinkedHashSet<>();
+    Set<String> updatedIds = new LinkedHashSet<>();
+    Set<String> deletedIds = new LinkedHashSet<>();
+    for (Document entry : changeLog.changesSince(sinceTime)) {
+      String userId = entry.getString("userId");
+      switch (entry.getString("op")) {
+        case UserChangeLog.CHANGE_OP_INSERT -> insertedIds.add(userId);
+        case UserChangeLog.CHANGE_OP_DELETE -> deletedIds.add(userId);
+        default -> updatedIds.add(userId);
+      }
+      latest = entry.get("ts", BsonTimestamp.class);
+    }
+    // Newly inserted users are already being sent in their current state,
+    // and there's no point sending users that are now gone.
+    updatedIds.removeAll(insertedIds);
+    updatedIds.removeAll(deletedIds);
+    insertedIds.removeAll(deletedIds);
+
+    UserChanges changes = new UserChanges();
+    changes.inserted = findByIds(insertedIds);
+    changes.updated = findByIds(updatedIds);
+    changes.deleted = new ArrayList<>(deletedIds);
+    changes.token = changeToken(latest);
+
+    ctx.json(changes);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be a page of a full sync: the next
+   * `FULL_SYNC_PAGE_SIZE` users (in order of their IDs) after the `cursor`
+   * in the request, or the first page if there isn't one.
+   *
+   * Every page has the token from the start of the sync, which is taken
+   * before any users are read, so anything that changes while the client is
+   * reading the pages is reported (again) by the next sync. All but the last
+   * page also have a `cursor` for the next page, which is that token and the
+   * ID of the last user on the page, so the pages don't skip or repeat any
+   * users that are added or deleted in the meantime.
+   *
+   * The users are read from Mongo, like the change log, rather than from a
+   * separate copy of them, which might not yet have the changes the token
+   * says the client has seen.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws BadRequestResponse if the cursor isn't legal
+   * @throws HttpResponseException (410) if the cursor's token has expired
+   */
+  private void getFullSyncPage(Context ctx) {
+    String cursor = ctx.queryParam(CURSOR_KEY);
+    BsonTimestamp token;
+    Bson filter;
+    if (cursor == null || cursor.isEmpty()) {
+      token = changeLog.latest();
+      filter = new Document();
+    } else {
+      String[] parts = cursor.split(":", -1);
+      if (parts.length != 2 || !ObjectId.isValid(parts[1])) {
+        throw new BadRequestResponse("The `cursor` wasn't a legal full sync cursor; you provided " + cursor);
+      }
+      token = parseChangeToken(CURSOR_KEY, parts[0]);
+      filter = gt("_id", new ObjectId(parts[1]));
+    }
+
+    // Ask for one more user than fits on the page, to find out if there's another page.
+    int pageSize = Math.min(FULL_SYNC_PAGE_SIZE, resultLimits.maxResults());
+    List<User> users = userCollection.find(filter)
+      .sort(Sorts.ascending("_id"))
+      .limit(pageSize + 1)
+      .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>());
+
+    UserChanges changes = new UserChanges();
+    changes.token = changeToken(token);
+    if (users.size() > pageSize) {
+      users = users.subList(0, pageSize);
+      changes.cursor = changes.token + ":" + users.get(pageSize - 1)._id;
+    }
+    changes.inserted = users;
+    changes.updated = new ArrayList<>();
+    changes.deleted = new ArrayList<>();
+    ctx.json(changes);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Turn a change token from `getUserChanges` back into a timestamp.
+   *
+   * @param param the query parameter the token came from, for error messages
+   * @param token the token
+   * @return the timestamp of the last change the client has seen
+   * @throws BadRequestResponse if the token isn't legal
+   * @throws HttpResponseException (410) if the token is older than the
+   *   entries we keep in the `userChanges` collection
+   */
+  private static BsonTimestamp parseChangeToken(String param, String token) {
+    BsonTimestamp timestamp;
+    try {
+      timestamp = new BsonTimestamp(Long.parseLong(token));
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("The change token in `" + param + "` wasn't legal; you provided " + token);
+    }
+    long oldestKeptSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())
+      - TimeUnit.DAYS.toSeconds(UserChangeLog.CHANGE_LOG_TTL_DAYS);
+    if (timestamp.getTime() < oldestKeptSeconds) {
+      throw new HttpResponseException(HttpStatus.GONE.getCode(),
+        "The change token in `" + param + "` has expired; sync again without one to get all the users");
+    }
+    return timestamp;
+  }
+
+  /**
+   * @param timestamp the timestamp of the last change a client has seen
+   * @return the token to send the client for that timestamp
+   */
+  private static String changeToken(BsonTimestamp timestamp) {
+    return String.valueOf(timestamp.getValue());
+  }
+
+  /**
+   * @param ids the IDs (as hex strings) of some users
+   * @return those users (that still exist), in order of their IDs
+   */
+  private ArrayList<User> findByIds(Set<String> ids) {
+    if (ids.isEmpty()) {
+      return new ArrayList<>();
+    }
+    return userCollection
+      .find(in("_id", ids.stream().map(ObjectId::new).toList()))
+      .sort(Sorts.ascending("_id"))
+      .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>());
+  }
+
+  /**
+   * Sets up the route for the changes to the users.
+   *
+   *   - `GET /api/users/changes?since=TOKEN`
+   *       - Get the users inserted, updated, or deleted since `TOKEN`, and a new token
+   *       - Without `since`, get a page of all the users; `cursor=CURSOR` gets the next page
+   *
+   * This has to be added before `UserController`'s routes, so that
+   * `changes` isn't treated as a user ID by `GET /api/users/{id}`.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_USER_CHANGES, this::getUserChanges);
+  }
+}
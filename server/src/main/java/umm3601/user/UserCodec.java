@@ -0,0 +1,91 @@
+package umm3601.user;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+/**
+ * A hand-written BSON `Codec` for `User`s.
+ *
+ * MongoJack reads documents by first turning the BSON into Jackson tokens
+ * and then mapping those onto a `User`. This codec reads and writes the BSON
+ * fields directly, skipping Jackson entirely, which is quite a bit cheaper
+ * for a class as simple as `User`.
+ *
+ * The BSON this reads and writes is the same as what MongoJack produces, so
+ * both can be used on the same collection.
+ */
+public class UserCodec implements Codec<User> {
+
+  /**
+   * Create a codec registry that uses this codec for `User`s, and
+   * `baseRegistry` for everything else.
+   *
+   * @param baseRegistry the registry to use for everything other than `User`s
+   * @return a registry that knows about `UserCodec`
+   */
+  public static CodecRegistry withUserCodec(CodecRegistry baseRegistry) {
+    return CodecRegistries.fromRegistries(
+      CodecRegistries.fromCodecs(new UserCodec()),
+      baseRegistry);
+  }
+
+  @Override
+  public void encode(BsonWriter writer, User user, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    if (user._id != null) {
+      writer.writeObjectId("_id", new ObjectId(user._id));
+    }
+    writeString(writer, "name", user.name);
+    writer.writeInt32("age", user.age);
+    writeString(writer, "company", user.company);
+    writeString(writer, "email", user.email);
+    writeString(writer, "avatar", user.avatar);
+    writeString(writer, "role", user.role);
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public User decode(BsonReader reader, DecoderContext decoderContext) {
+    User user = new User();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String fieldName = reader.readName();
+      if (reader.getCurrentBsonType() == BsonType.NULL) {
+        reader.readNull();
+        continue;
+      }
+      switch (fieldName) {
+        case "_id" -> user._id = reader.readObjectId().toHexString();
+        case "name" -> user.name = reader.readString();
+        case "age" -> user.age = reader.readInt32();
+        case "company" -> user.company = reader.readString();
+        case "email" -> user.email = reader.readString();
+        case "avatar" -> user.avatar = reader.readString();
+        case "role" -> user.role = reader.readString();
+        // Ignore any fields that aren't part of a `User`
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return user;
+  }
+
+  @Override
+  public Class<User> getEncoderClass() {
+    return User.class;
+  }
+
+  // MongoJack leaves `null` fields out of the document, so we do the same.
+  private static void writeString(BsonWriter writer, String name, String value) {
+    if (value != null) {
+      writer.writeString(name, value);
+    }
+  }
+}
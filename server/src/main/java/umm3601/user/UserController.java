@@ -1,34 +1,64 @@
 package umm3601.user;
 
-import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.regex;
 
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
+import org.mongojack.ObjectMapperConfigurer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.ErrorCategory;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import umm3601.Controller;
+import umm3601.ObjectMappers;
+import umm3601.ResponseFormat;
+import umm3601.RequestCoalescer;
+import umm3601.TracingJsonMapper;
+import umm3601.slowquery.SlowQueryLog;
 
 /**
  * Controller that manages requests for info about users.
@@ -37,145 +67,544 @@ public class UserController implements Controller {
 
   private static final String API_USERS = "/api/users";
   private static final String API_USER_BY_ID = "/api/users/{id}";
+  private static final String API_USERS_COUNT = "/api/users/count";
+  private static final String API_USERS_FACETS = "/api/users/facets";
+  private static final String API_USERS_BATCH_GET = "/api/users/batchGet";
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
   static final String ROLE_KEY = "role";
   static final String SORT_ORDER_KEY = "sortorder";
+  static final String LIMIT_KEY = "limit";
+  static final String OFFSET_KEY = "offset";
 
-  private static final int REASONABLE_AGE_LIMIT = 150;
-  private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
+  // What we tell clients to do when a list they ask for is too large to send.
+  static final String USERS_PAGING_HINT =
+    "ask for fewer users at a time with the `limit` and `offset` parameters (or add filters)";
+  static final String COMPANIES_PAGING_HINT =
+    "ask for fewer companies at a time with the `limit` and `offset` parameters";
+  static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+  static final int MAX_BATCH_SIZE = 100;
+  static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+  // How many users each of the `warmUp` queries asks for, and how many of
+  // its rounds include the queries that read every user (facets and the
+  // grouping by company), which are too slow to run every round.
+  static final int WARM_UP_PAGE_SIZE = 20;
+  static final int WARM_UP_FULL_SCAN_ROUNDS = 3;
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
 
+  // Emails are compared case-insensitively, both by the unique index on
+  // `email` and by the queries that look users up by email (which need
+  // the same collation to be able to use that index).
+  static final Collation EMAIL_COLLATION = Collation.builder()
+    .locale("en")
+    .collationStrength(CollationStrength.SECONDARY)
+    .build();
+
+  // How raw BSON documents are written as JSON in `UserReadMode.RAW`. Object IDs
+  // are written as plain hex strings (rather than `{"$oid": ...}`) and numbers as
+  // plain numbers, so the JSON is the same as what Jackson writes for a `User`.
+  static final JsonWriterSettings RAW_JSON_SETTINGS = JsonWriterSettings.builder()
+    .outputMode(JsonMode.RELAXED)
+    .objectIdConverter((value, writer) -> writer.writeString(value.toHexString()))
+    .build();
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UserController.class);
+
   private final JacksonMongoCollection<User> userCollection;
 
+  // The same `users` collection, but read with the hand-written `UserCodec`
+  // instead of MongoJack, and as raw BSON. Which of these (if any) `getUsers`
+  // uses is determined by `readMode`. The updates and deletes also go through
+  // the codec collection, since (unlike MongoJack's) it can be given a time
+  // limit (see `UserQueryPlanner.withDeadline`).
+  private final MongoCollection<User> codecUserCollection;
+  private final MongoCollection<RawBsonDocument> rawUserCollection;
+  private final UserReadMode readMode;
+
+  // Where `getUser`, `getUsersByIds`, and `getUsers` read users from. By
+  // default this is a `MongoUserRepository` using the same collection as
+  // everything else, but it can also be a separate (e.g., in-memory) copy of
+  // the users, in which case the `changeLog` keeps that copy up to date
+  // with every change we (or `UserBulkController`) make in Mongo.
+  private final UserRepository userRepository;
+
+  // Where every insert, update, and deletion is recorded (and mirrored to
+  // `userRepository`, if that's a separate copy of the users).
+  private final UserChangeLog changeLog;
+
+  // The `addNewUser` requests that had an `Idempotency-Key` header, and their
+  // outcomes, so retries of the same request don't add the user twice.
+  private final UserIdempotencyKeys idempotencyKeys;
+
+  // Checks the user data we're sent; this is shared by all the endpoints that accept users.
+  private final UserValidator userValidator = new UserValidator();
+
+  // Concurrent `getUser` requests for the same ID share a single database fetch.
+  private final RequestCoalescer<ObjectId, User> userFetches = new RequestCoalescer<>();
+
+  // The shared mapper, used to warm up the JSON serialization of users.
+  private final ObjectMapper objectMapper;
+
+  // The mappers for each format clients can ask for (see `ResponseFormat`).
+  private final Map<ResponseFormat, ObjectMapper> responseMappers;
+
+  // Where the slow user queries are recorded (see `SlowQueryLog`).
+  private final SlowQueryLog slowQueryLog;
+
+  // The largest lists of users (or companies) we'll send (see `ResultArrayWriter`).
+  private final ResultLimits resultLimits;
+
   /**
    * Construct a controller for users.
    *
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
-    userCollection = JacksonMongoCollection.builder().build(
+    this(database, ObjectMappers.createObjectMapper());
+  }
+
+  /**
+   * Construct a controller for users.
+   *
+   * @param database the database containing user data
+   * @param objectMapper the Jackson mapper shared with the server
+   */
+  public UserController(MongoDatabase database, ObjectMapper objectMapper) {
+    this(database, objectMapper, UserReadMode.JACKSON);
+  }
+
+  /**
+   * Construct a controller for users.
+   *
+   * @param database the database containing user data
+   * @param objectMapper the Jackson mapper shared with the server
+   * @param readMode how `getUsers` should turn documents into JSON
+   */
+  public UserController(MongoDatabase database, ObjectMapper objectMapper, UserReadMode readMode) {
+    this(database, objectMapper, readMode, null);
+  }
+
+  /**
+   * Construct a controller for users.
+   *
+   * @param database the database containing user data
+   * @param objectMapper the Jackson mapper shared with the server
+   * @param readMode how `getUsers` should turn documents into JSON
+   * @param readRepository a separate copy of the users to answer reads from,
+   *   or `null` to read from Mongo. A separate copy is filled with the users
+   *   in Mongo when the controller is constructed (unless it fills itself, see
+   *   `UserRepository.refreshesItself`), and kept up to date as users are
+   *   added, updated, and deleted.
+   */
+  public UserController(MongoDatabase database, ObjectMapper objectMapper, UserReadMode readMode,
+      UserRepository readRepository) {
+    this(database, objectMapper, readMode, readRepository, SlowQueryLog.disabled(), ResultLimits.DEFAULT);
+  }
+
+  /**
+   * Construct a controller for users.
+   *
+   * @param database the database containing user data
+   * @param objectMapper the Jackson mapper shared with the server
+   * @param readMode how `getUsers` should turn documents into JSON
+   * @param readRepository a separate copy of the users to answer reads from,
+   *   or `null` to read from Mongo. A separate copy is filled with the users
+   *   in Mongo when the controller is constructed (unless it fills itself, see
+   *   `UserRepository.refreshesItself`), and kept up to date as users are
+   *   added, updated, and deleted.
+   * @param slowQueryLog where to record the user queries that are slow
+   * @param resultLimits the largest lists of users (or companies) we'll send
+   */
+  public UserController(MongoDatabase database, ObjectMapper objectMapper, UserReadMode readMode,
+      UserRepository readRepository, SlowQueryLog slowQueryLog, ResultLimits resultLimits) {
+    this.readMode = readMode;
+    this.slowQueryLog = slowQueryLog;
+    this.resultLimits = resultLimits;
+    this.objectMapper = objectMapper;
+    responseMappers = ResponseFormat.createMappers(objectMapper);
+    userCollection = userCollection(database, objectMapper);
+    // `Server.configureDatabase` already registers the `UserCodec`, but we add it
+    // here as well so this also works with databases that weren't set up that way.
+    codecUserCollection = database.getCollection("users", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(database.getCodecRegistry()));
+    rawUserCollection = database.getCollection("users", RawBsonDocument.class);
+    changeLog = new UserChangeLog(database, readRepository);
+    idempotencyKeys = new UserIdempotencyKeys(database);
+    createIndexes();
+
+    if (readRepository != null) {
+      userRepository = readRepository;
+      if (!userRepository.refreshesItself()) {
+        userRepository.saveAll(userCollection.find());
+      }
+    } else {
+      userRepository = new MongoUserRepository(readMode == UserReadMode.CODEC ? codecUserCollection : userCollection,
+        slowQueryLog);
+    }
+  }
+
+  /**
+   * Build the MongoJack collection of users, for the controllers that write users.
+   *
+   * @param database the database containing user data
+   * @param objectMapper the Jackson mapper shared with the server
+   * @return the `users` collection
+   */
+  static JacksonMongoCollection<User> userCollection(MongoDatabase database, ObjectMapper objectMapper) {
+    // MongoJack adds its own (BSON-specific) modules to the mapper it's given,
+    // so we give it a copy of the shared mapper. That way it gets all the same
+    // settings without those modules leaking into the JSON we send to clients.
+    return JacksonMongoCollection.builder()
+      .withObjectMapper(ObjectMapperConfigurer.configureObjectMapper(objectMapper.copy()))
+      .build(
         database,
         "users",
         User.class,
         UuidRepresentation.STANDARD);
   }
 
+  /**
+   * Create the indexes the user endpoints rely on (if they don't already exist).
+   *
+   *   - A unique, case-insensitive index on `email`, so the same person
+   *     can't be added twice (e.g., when a client retries an `addNewUser`).
+   *   - An index for each of the other fields `getUsers` can sort by
+   *     (see `UserQueryPlanner`).
+   *   - A TTL index on the `UserIdempotencyKeys` so they're forgotten.
+   *   - The indexes for the `UserChangeLog`.
+   *
+   * If the unique index can't be built because the existing data already
+   * has duplicate emails, we log that and carry on without it.
+   */
+  private void createIndexes() {
+    try {
+      userCollection.createIndex(Indexes.ascending("email"),
+        new IndexOptions().name("email_unique").unique(true).collation(EMAIL_COLLATION));
+    } catch (MongoCommandException e) {
+      LOGGER.warn("Couldn't create the unique index on user emails; are there duplicate emails?", e);
+    }
+    UserQueryPlanner.createIndexes(userCollection);
+    idempotencyKeys.createIndexes();
+    changeLog.createIndexes();
+  }
+
   /**
    * Set the JSON body of the response to be the single user
    * specified by the `id` parameter in the request
    *
+   * Like the other read endpoints, this can respond in one of the binary
+   * formats instead of JSON if the `Accept` header asks for it (see
+   * `ResponseFormat`).
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUser(Context ctx) {
-    String id = ctx.pathParam("id");
-    User user;
+    ObjectId id = parseUserId(ctx.pathParam("id"));
+    // If other requests are already fetching this user, we just wait
+    // for their result instead of asking the database again. The shared
+    // fetch runs with the deadline of the request that started it.
+    User user = userFetches.load(id, userId -> userRepository.findById(userId.toHexString()));
 
-    try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
-    } catch (IllegalArgumentException e) {
-      throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
-    }
     if (user == null) {
       throw new NotFoundResponse("The requested user was not found");
     } else {
-      ctx.json(user);
+      respond(ctx, user);
       ctx.status(HttpStatus.OK);
     }
   }
 
+  /**
+   * Set the JSON body of the response to be the users with the IDs
+   * listed in the JSON body of the request (e.g., `{"ids": ["...", "..."]}`).
+   *
+   * All the users are fetched with a single query, so this is much cheaper
+   * than making a `GET /api/users/{id}` request for each one. The response is
+   * a list of `UserBatchResult`s in the same order as the requested IDs; IDs
+   * that don't match any user have `found` set to `false` and a `null` user.
+   *
+   * At most `MAX_BATCH_SIZE` IDs can be requested at once, and every ID must
+   * be a legal Mongo Object ID.
+   *
+   * @param ctx a Javalin HTTP context that provides the IDs
+   *   in the JSON body of the request
+   */
+  public void getUsersByIds(Context ctx) {
+    List<ObjectId> ids = parseUserIds(ctx.bodyAsClass(UserIdList.class), MAX_BATCH_SIZE);
+
+    List<String> hexIds = new ArrayList<>(ids.size());
+    for (ObjectId id : ids) {
+      hexIds.add(id.toHexString());
+    }
+    Map<String, User> usersById = new HashMap<>();
+    for (User user : userRepository.findByIds(hexIds)) {
+      usersById.put(user._id, user);
+    }
+
+    ArrayList<UserBatchResult> results = new ArrayList<>();
+    for (ObjectId id : ids) {
+      UserBatchResult result = new UserBatchResult();
+      result._id = id.toHexString();
+      result.user = usersById.get(result._id);
+      result.found = result.user != null;
+      results.add(result);
+    }
+
+    respond(ctx, results);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Convert a user ID from a request into a Mongo Object ID.
+   *
+   * @param id the user ID (as a hex string) from the request
+   * @return the corresponding Object ID
+   * @throws BadRequestResponse if `id` isn't a legal Object ID
+   */
+  private static ObjectId parseUserId(String id) {
+    if (id == null || !ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
+    }
+    return new ObjectId(id);
+  }
+
+  /**
+   * Convert a list of user IDs from a request body into Mongo Object IDs,
+   * making sure there's at least one and no more than `maxIds` of them.
+   *
+   * @param idList the user IDs (as hex strings) from the request
+   * @param maxIds the most IDs allowed in a single request
+   * @return the corresponding Object IDs, in the same order
+   * @throws BadRequestResponse if the list is missing, empty, too long,
+   *   or contains an illegal ID
+   */
+  static List<ObjectId> parseUserIds(UserIdList idList, int maxIds) {
+    if (idList == null || idList.ids == null || idList.ids.isEmpty()) {
+      throw new BadRequestResponse("The request must include a non-empty list of user ids.");
+    }
+    if (idList.ids.size() > maxIds) {
+      throw new BadRequestResponse("At most " + maxIds + " user ids can be used at once; you provided "
+        + idList.ids.size());
+    }
+    List<ObjectId> ids = new ArrayList<>(idList.ids.size());
+    for (String id : idList.ids) {
+      ids.add(parseUserId(id));
+    }
+    return ids;
+  }
+
   /**
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
    *
+   * The list can't be larger than the `resultLimits`; if it would be, the
+   * response is a 413 ("Content Too Large") asking for a page at a time
+   * (with `limit` and `offset`) instead. The users are written as JSON as
+   * they're read from the database, so we find out (and stop) as soon as
+   * the list gets too large, rather than after reading everything.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    Bson combinedFilter = constructFilter(ctx);
-    Bson sortingOrder = constructSortingOrder(ctx);
-
-    // All three of the find, sort, and into steps happen "in parallel" inside the
-    // database system. So MongoDB is going to find the users with the specified
-    // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
-
-    // Set the JSON body of the response to be the list of users returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
+    UserQuery query = constructQuery(ctx);
+    // We never need more than one user past the limit to know the list is too long.
+    if (query.limit == null || query.limit > resultLimits.maxResults()) {
+      query.limit = resultLimits.maxResults() + 1;
+    }
+
+    ResponseFormat format = responseFormat(ctx);
+    byte[] body = serialize(ctx, "User[]", () -> {
+      ResultArrayWriter users = new ResultArrayWriter(responseMappers.get(format), resultLimits, USERS_PAGING_HINT);
+      if (readMode == UserReadMode.RAW && format == ResponseFormat.JSON) {
+        // Raw JSON always comes straight from Mongo, whichever repository we're using.
+        rawUsersJson(query, users);
+      } else {
+        // Write each of the users from the repository into the array.
+        userRepository.forEach(query, users::add);
+      }
+      return users.toByteArray();
+    });
+    ctx.contentType(format.contentType());
+    ctx.result(body);
 
     // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
   }
 
   /**
-   * Construct a Bson filter document to use in the `find` method based on the
-   * query parameters from the context.
+   * Set the JSON body of the response to be the number of users matching
+   * the filters in the query parameters (the same ones `getUsers` uses),
+   * e.g., `{"count": 12}`.
+   *
+   * With an in-memory snapshot of the users this is just the cardinality
+   * of an intersection of bitmaps, so no users are fetched or built.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserCount(Context ctx) {
+    respond(ctx, Map.of("count", userRepository.count(constructQuery(ctx))));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be the number of users matching
+   * the filters in the query parameters, in total and broken down by
+   * role and by company (see `UserFacets`).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserFacets(Context ctx) {
+    respond(ctx, userRepository.facets(constructQuery(ctx)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Work out which format to respond in from the request's `Accept` header
+   * (see `ResponseFormat`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the format to respond in
+   */
+  private static ResponseFormat responseFormat(Context ctx) {
+    // The response depends on the `Accept` header, so caches need to know that.
+    ctx.header(Header.VARY, Header.ACCEPT);
+    return ResponseFormat.negotiate(ctx.header(Header.ACCEPT));
+  }
+
+  /**
+   * Set the body of the response to be `body`, in the format the
+   * request asked for (JSON unless it asked for something else).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param body the object to send
+   */
+  private void respond(Context ctx, Object body) {
+    ResponseFormat format = responseFormat(ctx);
+    if (format == ResponseFormat.JSON) {
+      ctx.json(body);
+      return;
+    }
+    ctx.contentType(format.contentType());
+    ctx.result(serialize(ctx, body.getClass().getSimpleName(), () -> {
+      try {
+        return responseMappers.get(format).writeValueAsBytes(body);
+      } catch (JsonProcessingException e) {
+        throw new UncheckedIOException(e);
+      }
+    }));
+  }
+
+  /**
+   * Write a response body with `write`, in a "serialize" span (see
+   * `TracingJsonMapper.traced`) if the request is being traced. The bodies
+   * we write ourselves don't go through the server's JSON mapper, which is
+   * what would otherwise make that span.
+   *
+   * Since the list endpoints write their results as they read them, their
+   * spans include reading the results (the database commands show up as
+   * child spans).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param name what's being written, e.g., `User[]`
+   * @param write writes the body
+   * @return the body
+   */
+  private static byte[] serialize(Context ctx, String name, Supplier<byte[]> write) {
+    return ctx.jsonMapper() instanceof TracingJsonMapper tracing ? tracing.traced(name, write) : write.get();
+  }
+
+  /**
+   * Write the users matching `query` (sorted and paged as it asks) to a JSON
+   * array, directly from the raw BSON documents in the database.
+   *
+   * This skips building `User` objects altogether, so there's only one
+   * conversion (BSON to JSON) per document instead of two.
+   *
+   * @param query the query for the users to include
+   * @param users the JSON array to write the users to
+   */
+  private void rawUsersJson(UserQuery query, ResultArrayWriter users) {
+    Bson filter = MongoUserRepository.filter(query);
+    slowQueryLog.timeEach("find", filter, MongoUserRepository.sort(query),
+      documents -> UserQueryPlanner.plan(rawUserCollection.find(filter), query).forEach(documents),
+      (RawBsonDocument document) -> users.addRaw(document.toJson(RAW_JSON_SETTINGS)),
+      () -> UserQueryPlanner.plan(rawUserCollection.find(filter), query).explain(ExplainVerbosity.EXECUTION_STATS));
+  }
+
+  /**
+   * Construct a `UserQuery` based on the query parameters from the context.
    *
    * This checks for the presence of the `age`, `company`, and `role` query
-   * parameters and constructs a filter document that will match users with
-   * the specified values for those fields.
+   * parameters and sets up filters that will match users with the specified
+   * values for those fields (see `constructFilters`).
+   *
+   * It also checks for the `sortby` and `sortorder` query parameters, which
+   * say which field to sort the users by and in which order. If the `sortby`
+   * query parameter is not present, it defaults to "name". If the `sortorder`
+   * query parameter is not present, it defaults to "asc".
+   *
+   * Finally, the optional `limit` and `offset` query parameters ask for a
+   * single page of the results: `offset` users are skipped, and then at
+   * most `limit` users are returned.
    *
    * @param ctx a Javalin HTTP context, which contains the query parameters
-   *    used to construct the filter
-   * @return a Bson filter document that can be used in the `find` method
-   *   to filter the database collection of users
+   *    used to construct the query
+   * @return a `UserQuery` that can be used to find users in the `userRepository`
+   *   (or turned into Mongo filter and sort documents with `MongoUserRepository`)
    */
-  private Bson constructFilter(Context ctx) {
-    List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
+  private UserQuery constructQuery(Context ctx) {
+    UserQuery query = constructFilters(ctx, userValidator);
+
+    // Only fields with an index can be used for sorting (see `UserQueryPlanner`).
+    query.sortBy = UserQueryPlanner.requireSortField(Objects.requireNonNullElse(ctx.queryParam("sortby"), "name"));
+    query.descending = "desc".equals(ctx.queryParam("sortorder"));
+
+    readPage(ctx, query);
+    return query;
+  }
 
+  /**
+   * Construct a `UserQuery` with just the filters from the `age`, `company`,
+   * and `role` query parameters (if they're there).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param userValidator checks the age and role are legal
+   * @return a `UserQuery` matching the users with those values
+   */
+  static UserQuery constructFilters(Context ctx, UserValidator userValidator) {
+    UserQuery query = new UserQuery();
     if (ctx.queryParamMap().containsKey(AGE_KEY)) {
-      int targetAge = ctx.queryParamAsClass(AGE_KEY, Integer.class)
-        .check(it -> it > 0, "User's age must be greater than zero; you provided " + ctx.queryParam(AGE_KEY))
-        .check(it -> it < REASONABLE_AGE_LIMIT,
-          "User's age must be less than " + REASONABLE_AGE_LIMIT + "; you provided " + ctx.queryParam(AGE_KEY))
-        .get();
-      filters.add(eq(AGE_KEY, targetAge));
+      query.age = userValidator.requireLegalAge(AGE_KEY, ctx.queryParamAsClass(AGE_KEY, Integer.class).get());
     }
     if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
-      Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(COMPANY_KEY)), Pattern.CASE_INSENSITIVE);
-      filters.add(regex(COMPANY_KEY, pattern));
+      query.company = ctx.queryParam(COMPANY_KEY);
     }
     if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
-      String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
-        .check(it -> it.matches(ROLE_REGEX), "User must have a legal user role")
+      query.role = ctx.queryParamAsClass(ROLE_KEY, String.class)
+        .check(userValidator::isLegalRole, "User must have a legal user role")
         .get();
-      filters.add(eq(ROLE_KEY, role));
     }
-
-    // Combine the list of filters into a single filtering document.
-    Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
-
-    return combinedFilter;
+    return query;
   }
 
   /**
-   * Construct a Bson sorting document to use in the `sort` method based on the
-   * query parameters from the context.
+   * Set the `limit` and `offset` of `query` from the query parameters
+   * with those names (if they're there).
    *
-   * This checks for the presence of the `sortby` and `sortorder` query
-   * parameters and constructs a sorting document that will sort users by
-   * the specified field in the specified order. If the `sortby` query
-   * parameter is not present, it defaults to "name". If the `sortorder`
-   * query parameter is not present, it defaults to "asc".
-   *
-   * @param ctx a Javalin HTTP context, which contains the query parameters
-   *   used to construct the sorting order
-   * @return a Bson sorting document that can be used in the `sort` method
-   *  to sort the database collection of users
-   */
-  private Bson constructSortingOrder(Context ctx) {
-    // Sort the results. Use the `sortby` query param (default "name")
-    // as the field to sort by, and the query param `sortorder` (default
-    // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+   * @param ctx a Javalin HTTP context
+   * @param query the query to set the page of
+   */
+  private static void readPage(Context ctx, UserQuery query) {
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      query.limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+        .check(limit -> limit > 0, "The limit must be a positive number")
+        .get();
+    }
+    if (ctx.queryParamMap().containsKey(OFFSET_KEY)) {
+      query.offset = ctx.queryParamAsClass(OFFSET_KEY, Integer.class)
+        .check(offset -> offset >= 0, "The offset can't be negative")
+        .get();
+    }
   }
 
   /**
@@ -190,18 +619,45 @@ public class UserController implements Controller {
    * @param ctx a Javalin HTTP context that provides the query parameters
    *   used to sort the results. We support either sorting by company name
    *   (in either `asc` or `desc` order) or by the number of users in the
-   *   company (`count`, also in either `asc` or `desc` order).
+   *   company (`count`, also in either `asc` or `desc` order). Any other
+   *   `sortBy` or `sortOrder` is a bad request. The companies can also be
+   *   paged with `limit` and `offset` (like `getUsers`), which is needed
+   *   once there are too many to send at once (see `resultLimits`).
    */
   public void getUsersGroupedByCompany(Context ctx) {
     // We'll support sorting the results either by company name (in either `asc` or `desc` order)
     // or by the number of users in the company (`count`, also in either `asc` or `desc` order).
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
+    String sortBy = UserQueryPlanner.requireGroupSortField(
+      Objects.requireNonNullElse(ctx.queryParam("sortBy"), "company"));
     if (sortBy.equals("company")) {
+      // After grouping, the company name is the `_id` of each group
       sortBy = "_id";
     }
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
+    if (!sortOrder.equals("asc") && !sortOrder.equals("desc")) {
+      throw new BadRequestResponse("The sortOrder must be either asc or desc");
+    }
     Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+    UserQuery page = new UserQuery();
+    readPage(ctx, page);
 
+    ResponseFormat format = responseFormat(ctx);
+    ctx.contentType(format.contentType());
+    ObjectMapper mapper = responseMappers.get(format);
+    ctx.result(serialize(ctx, "UserByCompany[]", () -> groupByCompany(sortingOrder, page, mapper)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Group all the users by company (see `getUsersGroupedByCompany`).
+   *
+   * @param sortingOrder the order to sort the companies in
+   * @param page the page (`offset` and `limit`) of companies to include
+   * @param mapper the mapper for the format to write the companies in
+   * @return an array of the companies, each with its users' names and IDs
+   * @throws HttpResponseException (413) if the array would be too large
+   */
+  private byte[] groupByCompany(Bson sortingOrder, UserQuery page, ObjectMapper mapper) {
     // The `UserByCompany` class is a simple class that has fields for the company
     // name, the number of users in that company, and a list of user names and IDs
     // (using the `UserIdName` class to store the user names and IDs).
@@ -210,48 +666,83 @@ public class UserController implements Controller {
     // names and IDs for each user in each company. We'll then convert the results
     // of the aggregation pipeline to `UserByCompany` objects.
 
-    ArrayList<UserByCompany> matchingUsers = userCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$company")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
+    // The following aggregation pipeline groups users by company, and
+    // then counts the number of users in each company. It also collects
+    // the user names and IDs for each user in each company.
+    List<Bson> pipeline = new ArrayList<>(List.of(
+      // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
+      new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
+      // Group the users by company, and count the number of users in each company
+      new Document("$group", new Document("_id", "$company")
+        // Count the number of users in each company
+        .append("count", new Document("$sum", 1))
+        // Collect the user names and IDs for each user in each company
+        .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
+      // Sort the results. Use the `sortby` query param (default "company")
+      // as the field to sort by, and the query param `sortorder` (default
+      // "asc") to specify the sort order.
+      new Document("$sort", sortingOrder)
+    ));
+    // Get the requested page of companies, and never more than one past the
+    // most we can send (which is enough to know there are too many).
+    if (page.offset > 0) {
+      pipeline.add(Aggregates.skip(page.offset));
+    }
+    int mostToRead = resultLimits.maxResults() + 1;
+    pipeline.add(Aggregates.limit(page.limit == null ? mostToRead : Math.min(page.limit, mostToRead)));
+
+    ResultArrayWriter companies = new ResultArrayWriter(mapper, resultLimits, COMPANIES_PAGING_HINT);
+    // The grouping reads every user, so the filter is empty.
+    // Each company is written as JSON as soon as it's read (which isn't counted
+    // as part of the query's time).
+    slowQueryLog.timeEach("aggregate", new Document(), sortingOrder,
+      groups -> userCollection
         // Convert the results of the aggregation pipeline to UserGroupResult objects
         // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
         // to convert the results to, and the JacksonMongoCollection will do this for us.
-        UserByCompany.class
-      )
-      .into(new ArrayList<>());
-
-    ctx.json(matchingUsers);
-    ctx.status(HttpStatus.OK);
+        .aggregate(pipeline, UserByCompany.class)
+        // The sort is on the (small) grouped results, so there's no index to hint,
+        // but we still don't let the aggregation run for too long.
+        .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS)
+        .forEach(groups),
+      (UserByCompany company) -> companies.add(company),
+      () -> userCollection.aggregate(pipeline, Document.class).explain(ExplainVerbosity.EXECUTION_STATS));
+    return companies.toByteArray();
   }
 
   /**
    * Add a new user using information from the context
    * (as long as the information gives "legal" values to User fields)
    *
+   * Adding users is idempotent in two ways, so retries (e.g., from a load
+   * balancer) are cheap and safe:
+   *
+   *   - Emails are unique (ignoring case), so trying to add a user with an
+   *     email that's already in use responds with 409 (`HttpStatus.CONFLICT`)
+   *     and the `id` of the existing user.
+   *   - If the request has an `Idempotency-Key` header, the key is reserved
+   *     before the user is added and the response is remembered (see
+   *     `UserIdempotencyKeys`). Any repeat of the request with that key gets
+   *     the same response without adding anything, even if the first request
+   *     hasn't finished yet. Reusing a key for a different user responds with
+   *     422 (`HttpStatus.UNPROCESSABLE_CONTENT`).
+   *
    * @param ctx a Javalin HTTP context that provides the user info
    *  in the JSON body of the request
    */
   public void addNewUser(Context ctx) {
+    String idempotencyKey = ctx.header(IDEMPOTENCY_KEY_HEADER);
+    if (idempotencyKey != null
+        && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+      throw new BadRequestResponse("The " + IDEMPOTENCY_KEY_HEADER + " header must have between 1 and "
+        + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+    }
+
     /*
-     * The follow chain of statements uses the Javalin validator system
-     * to verify that instance of `User` provided in this context is
-     * a "legal" user. It checks the following things (in order):
+     * Javalin's body validator turns the JSON body into a `User` (failing
+     * with a `ValidationException` if the body isn't a legal `User`), and
+     * the `userValidator` then checks that the user has legal values. It checks
+     * the following things (in order):
      *    - The user has a value for the name (`usr.name != null`)
      *    - The user name is not blank (`usr.name.length > 0`)
      *    - The provided email is valid (matches EMAIL_REGEX)
@@ -259,41 +750,158 @@ public class UserController implements Controller {
      *    - The provided age is < REASONABLE_AGE_LIMIT
      *    - The provided role is valid (one of "admin", "editor", or "viewer")
      *    - A non-blank company is provided
-     * If any of these checks fail, the Javalin system will throw a
-     * `BadRequestResponse` with an appropriate error message.
+     * If any of these checks fail, it will throw a `ValidationException`
+     * listing all the problems, which Javalin turns into a 400 response.
      */
-    String body = ctx.body();
-    User newUser = ctx.bodyValidator(User.class)
-      .check(usr -> usr.name != null && usr.name.length() > 0,
-        "User must have a non-empty user name; body was " + body)
-      .check(usr -> usr.email.matches(EMAIL_REGEX),
-        "User must have a legal email; body was " + body)
-      .check(usr -> usr.age > 0,
-        "User's age must be greater than zero; body was " + body)
-      .check(usr -> usr.age < REASONABLE_AGE_LIMIT,
-        "User's age must be less than " + REASONABLE_AGE_LIMIT + "; body was " + body)
-      .check(usr -> usr.role.matches(ROLE_REGEX),
-        "User must have a legal user role; body was " + body)
-      .check(usr -> usr.company != null && usr.company.length() > 0,
-        "User must have a non-empty company name; body was " + body)
-      .get();
+    User newUser = userValidator.requireValid(ctx.bodyValidator(User.class).get());
+
+    if (idempotencyKey != null) {
+      Document previous = idempotencyKeys.reserve(idempotencyKey, requestHash(newUser));
+      if (previous != null) {
+        // We've already handled this request, so just repeat the response.
+        ctx.json(Map.of("id", previous.getString("userId")));
+        ctx.status(previous.getInteger("status"));
+        return;
+      }
+    }
 
     // Generate a user avatar (you won't need this part for todos)
     newUser.avatar = generateAvatar(newUser.email);
 
     // Add the new user to the database
-    userCollection.insertOne(newUser);
+    String id;
+    HttpStatus status;
+    try {
+      userCollection.insertOne(newUser);
+      changeLog.inserted(List.of(newUser));
+      id = newUser._id;
+      // 201 (`HttpStatus.CREATED`) is the HTTP code for when we successfully
+      // create a new resource (a user in this case).
+      // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
+      // for a description of the various response codes.
+      status = HttpStatus.CREATED;
+    } catch (MongoWriteException e) {
+      if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+        releaseIdempotencyKey(idempotencyKey);
+        throw e;
+      }
+      // There's already a user with this email, so we point the client at
+      // that user instead of adding another one.
+      User existing = userCollection.find(eq("email", newUser.email))
+        .collation(EMAIL_COLLATION)
+        .maxTime(UserQueryPlanner.maxTimeMillis(), TimeUnit.MILLISECONDS)
+        .first();
+      if (existing == null) {
+        // The other user was deleted in the meantime, so the client can just try again.
+        releaseIdempotencyKey(idempotencyKey);
+        throw e;
+      }
+      id = existing._id;
+      status = HttpStatus.CONFLICT;
+    } catch (RuntimeException e) {
+      releaseIdempotencyKey(idempotencyKey);
+      throw e;
+    }
 
-    // Set the JSON response to be the `_id` of the newly created user.
+    if (idempotencyKey != null) {
+      idempotencyKeys.complete(idempotencyKey, id, status.getCode());
+    }
+
+    // Set the JSON response to be the `_id` of the newly created user
+    // (or of the existing user with the same email).
     // This gives the client the opportunity to know the ID of the new user,
     // which it can then use to perform further operations (e.g., a GET request
     // to get and display the details of the new user).
-    ctx.json(Map.of("id", newUser._id));
-    // 201 (`HttpStatus.CREATED`) is the HTTP code for when we successfully
-    // create a new resource (a user in this case).
-    // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
-    // for a description of the various response codes.
-    ctx.status(HttpStatus.CREATED);
+    ctx.json(Map.of("id", id));
+    ctx.status(status);
+  }
+
+  /**
+   * A hash of the user a request asks to add, so we can tell whether a
+   * request that reuses an `Idempotency-Key` is a retry of the same request.
+   *
+   * The hash is of the user as we parsed it (before we add anything like the
+   * avatar), so retries that format the JSON differently still match.
+   *
+   * @param newUser the (validated) user in the request
+   * @return the hex SHA-256 hash of the user
+   */
+  private String requestHash(User newUser) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(digest.digest(objectMapper.writeValueAsBytes(newUser)));
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform has to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Give up the reservation of an `Idempotency-Key` after the request
+   * failed, so a retry doesn't have to wait for it.
+   *
+   * @param idempotencyKey the key, or `null` if the request didn't have one
+   */
+  private void releaseIdempotencyKey(String idempotencyKey) {
+    if (idempotencyKey != null) {
+      idempotencyKeys.release(idempotencyKey);
+    }
+  }
+
+  /**
+   * Update some of the fields of the user specified by the `id` parameter
+   * in the request, using the fields and values in the JSON body of the
+   * request (e.g., `{"role": "editor"}`).
+   *
+   * Only the fields in the body are validated and changed (with a single
+   * `$set`), so the user keeps their `_id`. The fields that can be changed
+   * are listed in `UserValidator.UPDATABLE_FIELDS`, and are checked the same way as in
+   * `addNewUser`. The `avatar` is regenerated only when the `email` changes.
+   *
+   * @param ctx a Javalin HTTP context that provides the changes
+   *   in the JSON body of the request
+   */
+  @SuppressWarnings("unchecked")
+  public void updateUser(Context ctx) {
+    ObjectId id = parseUserId(ctx.pathParam("id"));
+    Map<String, Object> fields = ctx.bodyAsClass(Map.class);
+    if (fields == null || fields.isEmpty()) {
+      throw new BadRequestResponse("The request must include at least one field to update.");
+    }
+    List<String> errors = userValidator.validateUpdate(fields);
+    if (!errors.isEmpty()) {
+      throw new BadRequestResponse(String.join("; ", errors));
+    }
+
+    List<Bson> updates = new ArrayList<>();
+    for (Map.Entry<String, Object> field : fields.entrySet()) {
+      updates.add(Updates.set(field.getKey(), field.getValue()));
+    }
+    if (fields.containsKey("email")) {
+      updates.add(Updates.set("avatar", generateAvatar((String) fields.get("email"))));
+    }
+
+    UpdateResult updateResult;
+    try {
+      updateResult = UserQueryPlanner.withDeadline(codecUserCollection)
+        .updateOne(eq("_id", id), Updates.combine(updates));
+    } catch (MongoWriteException e) {
+      if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+        throw e;
+      }
+      throw new ConflictResponse("Another user already has the email " + fields.get("email"));
+    }
+    if (updateResult.getMatchedCount() != 1) {
+      throw new NotFoundResponse("The requested user was not found");
+    }
+    if (updateResult.getModifiedCount() > 0) {
+      changeLog.updated(id.toHexString());
+    }
+
+    ctx.json(Map.of("id", id.toHexString()));
+    ctx.status(HttpStatus.OK);
   }
 
   /**
@@ -303,7 +911,8 @@ public class UserController implements Controller {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
+    DeleteResult deleteResult = UserQueryPlanner.withDeadline(codecUserCollection)
+      .deleteOne(eq("_id", new ObjectId(id)));
     // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
     if (deleteResult.getDeletedCount() != 1) {
       ctx.status(HttpStatus.NOT_FOUND);
@@ -312,6 +921,7 @@ public class UserController implements Controller {
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    changeLog.deleted(List.of(id));
     ctx.status(HttpStatus.OK);
   }
 
@@ -328,7 +938,7 @@ public class UserController implements Controller {
    * @param email the email to generate an avatar for
    * @return a URI pointing to an avatar image
    */
-  String generateAvatar(String email) {
+  public String generateAvatar(String email) {
     String avatar;
     try {
       // generate unique md5 code for identicon
@@ -356,25 +966,103 @@ public class UserController implements Controller {
     return result.toString();
   }
 
+  /**
+   * Run the main shapes of user query (a page of users, filtered and sorted
+   * lists, counts, facets, lookups by ID, and the grouping by company), and
+   * turn the results into JSON, `rounds` times (or until `timeLimitMillis`
+   * is up). The facets and the grouping by company read every user, so
+   * they're only run in the first `WARM_UP_FULL_SCAN_ROUNDS` rounds.
+   *
+   * This opens connections to the database, loads the Mongo, MongoJack, and
+   * Jackson classes involved, and gives the JIT a chance to compile the hot
+   * paths before real requests arrive. Nothing is written to the database.
+   * If the database can't be reached we log that and give up on warming up;
+   * the requests themselves will then report the problem.
+   *
+   * @param rounds how many times to run the queries
+   * @param timeLimitMillis the longest (in milliseconds) to keep running them
+   */
+  @Override
+  public void warmUp(int rounds, long timeLimitMillis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeLimitMillis);
+    UserQuery firstPage = new UserQuery();
+    firstPage.limit = WARM_UP_PAGE_SIZE;
+    UserQuery byRole = new UserQuery();
+    byRole.role = UserRole.VIEWER.roleName();
+    byRole.sortBy = AGE_KEY;
+    byRole.limit = WARM_UP_PAGE_SIZE;
+    UserQuery byCompany = new UserQuery();
+    byCompany.company = "a";
+    byCompany.sortBy = COMPANY_KEY;
+    byCompany.limit = WARM_UP_PAGE_SIZE;
+
+    try {
+      for (int round = 0; round < rounds && System.nanoTime() - deadline < 0; round++) {
+        List<User> users = userRepository.find(firstPage);
+        objectMapper.writeValueAsBytes(users);
+        objectMapper.writeValueAsBytes(userRepository.find(byRole));
+        objectMapper.writeValueAsBytes(userRepository.find(byCompany));
+        userRepository.count(byRole);
+        if (!users.isEmpty()) {
+          userRepository.findById(users.get(0)._id);
+          userRepository.findByIds(users.stream().map(user -> user._id).toList());
+        }
+        if (readMode == UserReadMode.RAW) {
+          rawUsersJson(firstPage, new ResultArrayWriter(objectMapper, resultLimits, USERS_PAGING_HINT));
+        }
+        if (round < WARM_UP_FULL_SCAN_ROUNDS) {
+          objectMapper.writeValueAsBytes(userRepository.facets(byCompany));
+          groupByCompany(Sorts.ascending("_id"), firstPage, objectMapper);
+        }
+      }
+    } catch (MongoException | JsonProcessingException e) {
+      LOGGER.warn("Couldn't warm up the user queries", e);
+    }
+    // The first (cold) runs of each query are often slow, but they
+    // aren't the slow queries anyone will be looking for.
+    slowQueryLog.clear();
+  }
+
+  /**
+   * Stop whatever the repository we read from runs in the background
+   * (e.g., the `UserSnapshotRefresher` behind a `SnapshotUserRepository`).
+   */
+  @Override
+  public void close() {
+    userRepository.close();
+  }
+
   /**
    * Sets up routes for the `user` collection endpoints.
    * A UserController instance handles the user endpoints,
    * and the addRoutes method adds the routes to this controller.
    *
    * These endpoints are:
+   *   - `GET /api/users/count?age=NUMBER&company=STRING&role=STRING`
+   *       - Count the users matching the (optional) filters
+   *   - `GET /api/users/facets?age=NUMBER&company=STRING&role=STRING`
+   *       - Count the users matching the (optional) filters by role and by company
    *   - `GET /api/users/:id`
    *       - Get the specified user
+   *   - `POST /api/users/batchGet`
+   *       - Get several users at once; the IDs are in the JSON body of the request
    *   - `GET /api/users?age=NUMBER&company=STRING&name=STRING`
    *      - List users, filtered using query parameters
    *      - `age`, `company`, and `name` are optional query parameters
    *   - `GET /api/usersByCompany`
    *     - Get user names and IDs, possibly filtered, grouped by company
+   *   - `PATCH /api/users/:id`
+   *      - Update some fields of the specified user
+   *      - The changed fields are in the JSON body of the HTTP request
    *   - `DELETE /api/users/:id`
    *      - Delete the specified user
    *   - `POST /api/users`
    *      - Create a new user
    *      - The user info is in the JSON body of the HTTP request
    *
+   * The feed of changes to the users and the bulk requests have their own
+   * controllers (`UserChangesController` and `UserBulkController`).
+   *
    * GROUPS SHOULD CREATE THEIR OWN CONTROLLERS THAT IMPLEMENT THE
    * `Controller` INTERFACE FOR WHATEVER DATA THEY'RE WORKING WITH.
    * You'll then implement the `addRoutes` method for that controller,
@@ -386,6 +1074,12 @@ public class UserController implements Controller {
    */
   @Override
   public void addRoutes(Javalin server) {
+    // Count the users matching the filters, in total and by role and
+    // company. These need to come before `API_USER_BY_ID` so that `count`
+    // and `facets` aren't treated as user IDs.
+    server.get(API_USERS_COUNT, this::getUserCount);
+    server.get(API_USERS_FACETS, this::getUserFacets);
+
     // Get the specified user
     server.get(API_USER_BY_ID, this::getUser);
 
@@ -395,10 +1089,18 @@ public class UserController implements Controller {
     // Get the users, possibly filtered, grouped by company
     server.get("/api/usersByCompany", this::getUsersGroupedByCompany);
 
+    // Get several users by ID with the IDs in the JSON body of the HTTP
+    // request
+    server.post(API_USERS_BATCH_GET, this::getUsersByIds);
+
     // Add new user with the user info being in the JSON body
     // of the HTTP request
     server.post(API_USERS, this::addNewUser);
 
+    // Update some fields of the specified user, with the changed
+    // fields being in the JSON body of the HTTP request
+    server.patch(API_USER_BY_ID, this::updateUser);
+
     // Delete the specified user
     server.delete(API_USER_BY_ID, this::deleteUser);
   }
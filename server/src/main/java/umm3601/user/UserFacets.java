@@ -0,0 +1,17 @@
+package umm3601.user;
+
+import java.util.Map;
+
+/**
+ * The number of users matching a query, broken down by role and by company
+ * (e.g., to show next to the filters in the client).
+ *
+ * Every `UserRepository` lists the roles and companies in sorted order
+ * (as a `TreeMap`), so the facets look the same whichever one answered.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class UserFacets {
+  public long total;
+  public Map<String, Long> roles;
+  public Map<String, Long> companies;
+}
@@ -0,0 +1,9 @@
+package umm3601.user;
+
+import java.util.List;
+
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class UserIdList {
+  // The user IDs (as hex strings) that a request refers to
+  public List<String> ids;
+}
@@ -0,0 +1,195 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Updates;
+
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.UnprocessableContentResponse;
+
+/**
+ * The `Idempotency-Key`s of the `addNewUser` requests we've seen, so a
+ * retry of a request gets the same response instead of adding the user
+ * again.
+ *
+ * A request reserves its key (in the `userIdempotencyKeys` collection)
+ * before it does anything, and records its response there when it's done.
+ * Since the key is the `_id` of the reservation, only one request can hold
+ * it, even if the retries arrive at different instances of the server at
+ * the same time. A request that finds the key already reserved either
+ * repeats the recorded response, or (if the first request is still going)
+ * waits a little while for it to finish.
+ *
+ * Each reservation also has a hash of the request, so a key that's reused
+ * for a different request is rejected rather than answered with the
+ * response to the old one.
+ */
+public class UserIdempotencyKeys {
+
+  // How long we remember the outcome of a request with an `Idempotency-Key`.
+  // Mongo's TTL monitor runs about once a minute, so keys may live a little longer.
+  static final long IDEMPOTENCY_KEY_TTL_HOURS = 24;
+  // How long a request waits for another request with the same key to finish,
+  // and how often it checks whether it has.
+  static final long DEFAULT_WAIT_MILLIS = 5_000;
+  static final long POLL_MILLIS = 50;
+  // How long a reservation can stay pending before we assume the request
+  // that made it died, and let a retry take it over.
+  static final long PENDING_TIMEOUT_SECONDS = 60;
+
+  static final String STATE_PENDING = "pending";
+  static final String STATE_DONE = "done";
+
+  private final MongoCollection<Document> keyCollection;
+  private final long waitMillis;
+
+  /**
+   * Construct the idempotency keys, waiting up to `DEFAULT_WAIT_MILLIS` for
+   * requests that are still in progress.
+   *
+   * @param database the database containing user data
+   */
+  public UserIdempotencyKeys(MongoDatabase database) {
+    this(database, DEFAULT_WAIT_MILLIS);
+  }
+
+  /**
+   * Construct the idempotency keys.
+   *
+   * @param database the database containing user data
+   * @param waitMillis how long `reserve` waits for another request with the
+   *   same key to finish
+   */
+  public UserIdempotencyKeys(MongoDatabase database, long waitMillis) {
+    this.waitMillis = waitMillis;
+    keyCollection = database.getCollection("userIdempotencyKeys");
+  }
+
+  /**
+   * Create a TTL index on the keys so they're forgotten after
+   * `IDEMPOTENCY_KEY_TTL_HOURS` (if it doesn't already exist).
+   */
+  public void createIndexes() {
+    keyCollection.createIndex(Indexes.ascending("createdAt"),
+      new IndexOptions().expireAfter(IDEMPOTENCY_KEY_TTL_HOURS, TimeUnit.HOURS));
+  }
+
+  /**
+   * Reserve `key` for a request, or find the response to an earlier request
+   * with the same key.
+   *
+   * @param key the `Idempotency-Key` of the request
+   * @param requestHash a hash of the request (see `UserController.addNewUser`)
+   * @return `null` if the key is now reserved for this request (which must
+   *   then call `complete` or `release`), or the finished reservation of an
+   *   earlier request, with the `userId` and `status` it responded with
+   * @throws UnprocessableContentResponse if the key was used for a different request
+   * @throws ConflictResponse if the earlier request with this key still
+   *   hasn't finished after waiting for it
+   */
+  public Document reserve(String key, String requestHash) {
+    long giveUpAt = System.currentTimeMillis() + waitMillis;
+    while (true) {
+      Date now = new Date();
+      try {
+        keyCollection.insertOne(new Document("_id", key)
+          .append("requestHash", requestHash)
+          .append("state", STATE_PENDING)
+          .append("createdAt", now));
+        return null;
+      } catch (MongoWriteException e) {
+        if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+          throw e;
+        }
+      }
+
+      Document previous = keyCollection.find(eq("_id", key)).first();
+      if (previous == null) {
+        // It expired (or was released) in the meantime, so try again.
+        continue;
+      }
+      if (!requestHash.equals(previous.getString("requestHash"))) {
+        throw new UnprocessableContentResponse("The " + UserController.IDEMPOTENCY_KEY_HEADER
+          + " " + key + " was already used for a different request");
+      }
+      if (STATE_DONE.equals(previous.getString("state"))) {
+        return previous;
+      }
+      if (takeOverIfAbandoned(previous, now)) {
+        return null;
+      }
+      if (System.currentTimeMillis() >= giveUpAt) {
+        throw stillInProgress(key);
+      }
+      try {
+        Thread.sleep(POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw stillInProgress(key);
+      }
+    }
+  }
+
+  private static ConflictResponse stillInProgress(String key) {
+    return new ConflictResponse("A request with the " + UserController.IDEMPOTENCY_KEY_HEADER
+      + " " + key + " is still in progress; try again later");
+  }
+
+  /**
+   * Take over a pending reservation that's been pending for longer than
+   * `PENDING_TIMEOUT_SECONDS`, on the assumption that the request that
+   * made it died before it could finish (or release it).
+   *
+   * @param pending the pending reservation
+   * @param now the current time
+   * @return true if the reservation now belongs to this request
+   */
+  private boolean takeOverIfAbandoned(Document pending, Date now) {
+    Date createdAt = pending.getDate("createdAt");
+    if (now.getTime() - createdAt.getTime() < TimeUnit.SECONDS.toMillis(PENDING_TIMEOUT_SECONDS)) {
+      return false;
+    }
+    // Only one of the requests that find it abandoned gets it.
+    return keyCollection.updateOne(
+      and(eq("_id", pending.get("_id")), eq("state", STATE_PENDING), eq("createdAt", createdAt)),
+      Updates.set("createdAt", now)).getModifiedCount() == 1;
+  }
+
+  /**
+   * Record the response to the request `key` is reserved for, so retries
+   * get the same response.
+   *
+   * @param key the `Idempotency-Key` of the request
+   * @param userId the ID of the user in the response
+   * @param status the HTTP status of the response
+   */
+  public void complete(String key, String userId, int status) {
+    keyCollection.updateOne(eq("_id", key), Updates.combine(
+      Updates.set("state", STATE_DONE),
+      Updates.set("userId", userId),
+      Updates.set("status", status),
+      Updates.set("createdAt", new Date())));
+  }
+
+  /**
+   * Give up the reservation of `key` (e.g., because the request failed), so
+   * a retry can try again straight away.
+   *
+   * @param key the `Idempotency-Key` of the request
+   */
+  public void release(String key) {
+    keyCollection.deleteOne(and(eq("_id", key), eq("state", STATE_PENDING)));
+  }
+}
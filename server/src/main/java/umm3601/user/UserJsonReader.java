@@ -0,0 +1,142 @@
+package umm3601.user;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Reads users from the JSON body of a request as a stream.
+ *
+ * `ctx.body()` (and so `ctx.bodyValidator()`) reads the entire body into
+ * a `String` before parsing it, which is fine for a single user but wasteful
+ * for large bulk requests. This instead parses users one at a time straight
+ * from the request's input stream with a Jackson `JsonParser`, so:
+ *
+ *   - The raw body is never held in memory all at once.
+ *   - Malformed JSON is rejected as soon as the parser reaches it.
+ *   - Bodies bigger than `maxBodyBytes` are rejected (with a 413) as
+ *     soon as we've read that many bytes.
+ */
+public class UserJsonReader {
+
+  private final ObjectMapper mapper;
+  private final long maxBodyBytes;
+
+  /**
+   * Construct a reader for user JSON.
+   *
+   * @param mapper the Jackson mapper used to turn JSON objects into `User`s
+   * @param maxBodyBytes the largest request body (in bytes) we'll read
+   */
+  public UserJsonReader(ObjectMapper mapper, long maxBodyBytes) {
+    this.mapper = mapper;
+    this.maxBodyBytes = maxBodyBytes;
+  }
+
+  /**
+   * Check the `Content-Length` of a request (if there is one) so we can
+   * reject a body that's too large before reading any of it.
+   *
+   * @param contentLength the `Content-Length` of the request, or a negative
+   *   number if it's unknown
+   * @throws HttpResponseException (413) if the body is too large
+   */
+  public void checkContentLength(long contentLength) {
+    if (contentLength > maxBodyBytes) {
+      throw tooLarge();
+    }
+  }
+
+  /**
+   * Read a JSON array of users from `body`, handing each user to `onUser`
+   * as soon as it's been parsed.
+   *
+   * `onUser` can throw (e.g., a `ValidationException` for an illegal user)
+   * to stop reading the rest of the body.
+   *
+   * @param body the request body
+   * @param onUser what to do with each user as it's read
+   * @throws BadRequestResponse if the body isn't a JSON array of users
+   * @throws HttpResponseException (413) if the body is too large
+   */
+  public void readUsers(InputStream body, Consumer<User> onUser) {
+    try (JsonParser parser = mapper.getFactory().createParser(new LimitedInputStream(body))) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new BadRequestResponse("The request body must be a JSON array of users");
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        onUser.accept(mapper.readValue(parser, User.class));
+      }
+      if (parser.currentToken() != JsonToken.END_ARRAY || parser.nextToken() != null) {
+        throw new BadRequestResponse("The request body must be a JSON array of users");
+      }
+    } catch (BodyTooLargeException e) {
+      throw tooLarge();
+    } catch (JsonProcessingException e) {
+      throw new BadRequestResponse("The request body isn't legal JSON for a list of users: " + e.getOriginalMessage());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private HttpResponseException tooLarge() {
+    return new HttpResponseException(HttpStatus.CONTENT_TOO_LARGE.getCode(),
+      "The request body must be at most " + maxBodyBytes + " bytes");
+  }
+
+  /**
+   * Thrown when a body is too large. This is an `IOException` (rather than,
+   * e.g., an `HttpResponseException`) because Jackson passes `IOException`s
+   * from the underlying stream through unchanged, but wraps most others.
+   */
+  private static final class BodyTooLargeException extends IOException {
+  }
+
+  /**
+   * An input stream that fails (with a `BodyTooLargeException`) once more
+   * than `maxBodyBytes` have been read from it.
+   */
+  private final class LimitedInputStream extends FilterInputStream {
+    private long bytesRead;
+
+    LimitedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        count(n);
+      }
+      return n;
+    }
+
+    private void count(int n) throws BodyTooLargeException {
+      bytesRead += n;
+      if (bytesRead > maxBodyBytes) {
+        throw new BodyTooLargeException();
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package umm3601.user;
+
+import java.util.List;
+
+/**
+ * A query for users, as used by `UserRepository.find`.
+ *
+ * Each of the filters (`age`, `company`, and `role`) is optional; a `null`
+ * filter matches every user. `company` matches any company that contains
+ * it, ignoring case, while `age` and `role` have to match exactly. The
+ * results are sorted by the `sortBy` field, in descending order if
+ * `descending` is set.
+ *
+ * Results can also be paged: the first `offset` matching users are skipped,
+ * and at most `limit` users are returned (all of them if `limit` is `null`).
+ * `limit` should be positive, since Mongo treats a limit of 0 as no limit.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class UserQuery {
+  public Integer age;
+  public String company;
+  public String role;
+  public String sortBy = "name";
+  public boolean descending;
+  public int offset;
+  public Integer limit;
+
+  /**
+   * Does this query have any filters (i.e., might it not match every user)?
+   *
+   * @return true if at least one of `age`, `company`, or `role` is set
+   */
+  public boolean hasFilters() {
+    return age != null || company != null || role != null;
+  }
+
+  /**
+   * Get the page of `items` this query asks for (see `offset` and `limit`).
+   *
+   * @param <T> the type of the items
+   * @param items all the (sorted) items matching this query
+   * @return the items in the requested page
+   */
+  public <T> List<T> page(List<T> items) {
+    int from = Math.min(offset, items.size());
+    int to = limit == null ? items.size() : Math.min(items.size(), from + limit);
+    return items.subList(from, to);
+  }
+}
@@ -0,0 +1,183 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.RequestDeadline;
+
+/**
+ * Decides how the user queries should run in Mongo, so that no request
+ * can trigger a runaway collection scan or in-memory sort.
+ *
+ *   - Users can only be sorted by the fields in `SORT_INDEXES`, each of
+ *     which has an index; any other `sortby` is rejected up front (a typo
+ *     used to silently sort the whole collection in memory).
+ *   - A `find` that doesn't filter on an indexed field is given a `hint`
+ *     to use the index for its sort field, so the results come out of the
+ *     index already in order. With a role or age filter, Mongo is left to
+ *     choose, since that filter's index usually narrows things down more.
+ *   - Every query gets a `maxTimeMS`, so Mongo gives up on (and the client
+ *     gets an error for) any query that still manages to take too long.
+ *     Writes get the same limit through `withDeadline`.
+ */
+public final class UserQueryPlanner {
+
+  // The longest (in milliseconds) Mongo may spend on a single user query.
+  public static final long DEFAULT_MAX_TIME_MS = 5_000;
+
+  // The fields `getUsersGroupedByCompany` can sort by.
+  public static final List<String> GROUP_SORT_FIELDS = List.of("company", "count");
+
+  // The fields users can be sorted by, and the indexes that serve those sorts.
+  // Email's (unique) index ignores case, so sorting by email has to use the
+  // same collation for Mongo to be able to use that index. That index may not
+  // exist (`UserController` can't create it while there are duplicate emails),
+  // so it's never hinted.
+  private static final Map<String, IndexModel> SORT_INDEXES = new LinkedHashMap<>();
+
+  // Sorting by email always uses the email collation, and a collation
+  // applies to the whole query, so a role filter can't use the (plain) role
+  // index then. This index, with the same collation, serves both the role
+  // filter and the email sort.
+  private static final IndexModel ROLE_EMAIL_INDEX = new IndexModel(Indexes.ascending("role", "email"),
+    new IndexOptions().name("role_1_email_1").collation(UserController.EMAIL_COLLATION));
+
+  static {
+    SORT_INDEXES.put("name", index("name"));
+    SORT_INDEXES.put("age", index("age"));
+    SORT_INDEXES.put("company", index("company"));
+    SORT_INDEXES.put("role", index("role"));
+    SORT_INDEXES.put("email", new IndexModel(Indexes.ascending("email"),
+      new IndexOptions().name("email_unique").unique(true).collation(UserController.EMAIL_COLLATION)));
+    SORT_INDEXES.put("_id", new IndexModel(Indexes.ascending("_id"), new IndexOptions().name("_id_")));
+  }
+
+  private UserQueryPlanner() {
+  }
+
+  private static IndexModel index(String field) {
+    return new IndexModel(Indexes.ascending(field), new IndexOptions().name(field + "_1"));
+  }
+
+  /**
+   * Make sure `field` is one of the fields users can be sorted by.
+   *
+   * @param field the requested sort field
+   * @return `field`, if it's allowed
+   * @throws BadRequestResponse if users can't be sorted by `field`
+   */
+  public static String requireSortField(String field) {
+    if (!SORT_INDEXES.containsKey(field)) {
+      throw new BadRequestResponse("Users can't be sorted by " + field
+        + "; they can be sorted by " + String.join(", ", SORT_INDEXES.keySet()));
+    }
+    return field;
+  }
+
+  /**
+   * Make sure `field` is one of the fields company groups can be sorted by.
+   *
+   * @param field the requested sort field
+   * @return `field`, if it's allowed
+   * @throws BadRequestResponse if company groups can't be sorted by `field`
+   */
+  public static String requireGroupSortField(String field) {
+    if (!GROUP_SORT_FIELDS.contains(field)) {
+      throw new BadRequestResponse("Companies can't be sorted by " + field
+        + "; they can be sorted by " + String.join(", ", GROUP_SORT_FIELDS));
+    }
+    return field;
+  }
+
+  /**
+   * Create the indexes the planned queries rely on (if they don't already
+   * exist): the sort indexes and `ROLE_EMAIL_INDEX`. The unique email index
+   * is created by `UserController`, since it has to cope with existing
+   * duplicates.
+   *
+   * @param collection the collection of users
+   */
+  public static void createIndexes(MongoCollection<?> collection) {
+    List<IndexModel> indexes = new ArrayList<>();
+    for (Map.Entry<String, IndexModel> entry : SORT_INDEXES.entrySet()) {
+      if (!entry.getKey().equals("email") && !entry.getKey().equals("_id")) {
+        indexes.add(entry.getValue());
+      }
+    }
+    indexes.add(ROLE_EMAIL_INDEX);
+    collection.createIndexes(indexes);
+  }
+
+  /**
+   * Plan a `find` for `query`: sort it, limit how long it can run, and apply
+   * the requested page.
+   *
+   * If the query doesn't filter by role or age (the filters with indexes of
+   * their own), it's hinted to use the index for the sort field. Sorting by
+   * email always uses the email index's collation, so emails come out in the
+   * same (case-insensitive) order whatever the filters; with a role filter,
+   * Mongo can use `ROLE_EMAIL_INDEX` for that. (Roles are always lower case,
+   * so comparing them with the collation doesn't change which users match.)
+   *
+   * @param <T> the type of the results
+   * @param find the `find` for the users matching `query`
+   * @param query the query being run
+   * @return `find`, ready to be run
+   */
+  public static <T> FindIterable<T> plan(FindIterable<T> find, UserQuery query) {
+    IndexOptions index = SORT_INDEXES.get(requireSortField(query.sortBy)).getOptions();
+    find.sort(MongoUserRepository.sort(query))
+      .maxTime(maxTimeMillis(), TimeUnit.MILLISECONDS);
+    if (index.getCollation() != null) {
+      find.collation(index.getCollation());
+    } else if (query.role == null && query.age == null) {
+      find.hintString(index.getName());
+    }
+    return MongoUserRepository.page(find, query);
+  }
+
+  /**
+   * @return options for counting users that limit how long the count can run
+   */
+  public static CountOptions countOptions() {
+    return new CountOptions().maxTime(maxTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * How long a user query may run: `DEFAULT_MAX_TIME_MS`, or less if the
+   * current request is close to its deadline (see `RequestDeadline`).
+   *
+   * @return the `maxTimeMS` to use for a query, in milliseconds
+   */
+  public static long maxTimeMillis() {
+    return RequestDeadline.maxTimeMillis(DEFAULT_MAX_TIME_MS);
+  }
+
+  /**
+   * The collection, limited to `maxTimeMillis` per operation, for the writes
+   * (updates and deletes), which unlike finds have no `maxTime` of their own.
+   *
+   * The driver sends the limit to Mongo as `maxTimeMS` and gives up with a
+   * `MongoOperationTimeoutException` once it's passed. MongoJack's
+   * collections don't support this, so `collection` has to be one of the
+   * driver's own.
+   *
+   * @param <T> the type of the documents in the collection
+   * @param collection a collection of users
+   * @return the same collection, with the current request's time limit
+   */
+  public static <T> MongoCollection<T> withDeadline(MongoCollection<T> collection) {
+    return collection.withTimeout(maxTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,23 @@
+package umm3601.user;
+
+/**
+ * The different ways `UserController.getUsers` can turn the documents in
+ * the database into the JSON it sends back.
+ */
+public enum UserReadMode {
+  /**
+   * Map the BSON to `User`s with MongoJack, and then the `User`s to JSON
+   * with Jackson. This is the default.
+   */
+  JACKSON,
+  /**
+   * Map the BSON to `User`s with the hand-written `UserCodec`, and then
+   * the `User`s to JSON with Jackson.
+   */
+  CODEC,
+  /**
+   * Don't build `User`s at all: convert each raw BSON document straight
+   * to JSON.
+   */
+  RAW
+}
@@ -0,0 +1,117 @@
+package umm3601.user;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Somewhere users are stored, and the queries the user endpoints need
+ * to make against them.
+ *
+ * `MongoUserRepository` is the real thing, backed by the `users` collection.
+ * `InMemoryUserRepository` keeps everything in memory, which is handy for
+ * tests and load tests that don't have a database, and as a read cache in
+ * front of Mongo (see `UserController`).
+ */
+public interface UserRepository {
+
+  /**
+   * Find the user with the given ID.
+   *
+   * @param id the user's ID (as a hex string)
+   * @return the user, or `null` if there's no user with that ID
+   */
+  User findById(String id);
+
+  /**
+   * Find all the users with the given IDs. IDs that don't match any
+   * user are ignored, and the users may be in any order.
+   *
+   * @param ids the users' IDs (as hex strings)
+   * @return the users with those IDs
+   */
+  List<User> findByIds(Collection<String> ids);
+
+  /**
+   * Find all the users matching `query`, sorted as it asks.
+   *
+   * @param query the filters and sort order to use
+   * @return the matching users
+   */
+  List<User> find(UserQuery query);
+
+  /**
+   * Hand each of the users matching `query` (sorted as it asks) to
+   * `action`, one at a time. Repositories that have to read the users from
+   * somewhere (like Mongo) hand them over as they're read, rather than
+   * reading them all first, and stop reading if `action` throws.
+   *
+   * @param query the filters, sort order, and page to use
+   * @param action what to do with each user
+   */
+  default void forEach(UserQuery query, Consumer<? super User> action) {
+    find(query).forEach(action);
+  }
+
+  /**
+   * Count the users matching the filters in `query`.
+   *
+   * @param query the filters to use (the sort order is ignored)
+   * @return the number of matching users
+   */
+  long count(UserQuery query);
+
+  /**
+   * Count the users matching the filters in `query`, broken down
+   * by role and by company.
+   *
+   * @param query the filters to use (the sort order is ignored)
+   * @return the counts for the matching users
+   */
+  UserFacets facets(UserQuery query);
+
+  /**
+   * Save `user`, replacing any existing user with the same ID.
+   *
+   * @param user the user to save; its `_id` must be set
+   */
+  void save(User user);
+
+  /**
+   * Save all of the given users (see `save`).
+   *
+   * @param users the users to save
+   */
+  default void saveAll(Iterable<User> users) {
+    for (User user : users) {
+      save(user);
+    }
+  }
+
+  /**
+   * Delete all the users with the given IDs. IDs that don't match any
+   * user are ignored.
+   *
+   * @param ids the IDs (as hex strings) of the users to delete
+   */
+  void deleteByIds(Collection<String> ids);
+
+  /**
+   * Whether the repository keeps itself in step with the `users` collection
+   * (like a `SnapshotUserRepository` with a `UserSnapshotRefresher`), so it
+   * already holds all the users and doesn't need filling by whoever uses it.
+   * By default it doesn't.
+   *
+   * @return whether the repository keeps itself up to date
+   */
+  default boolean refreshesItself() {
+    return false;
+  }
+
+  /**
+   * Stop anything the repository runs in the background (e.g., keeping
+   * itself up to date). By default there's nothing to stop.
+   */
+  default void close() {
+  }
+}
@@ -0,0 +1,46 @@
+package umm3601.user;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The legal roles a user can have.
+ *
+ * Roles are stored (and sent to and from clients) as their lowercase
+ * names, e.g., `"admin"`.
+ */
+public enum UserRole {
+  ADMIN,
+  EDITOR,
+  VIEWER;
+
+  // Lookup table from the lowercase role names to the roles, so checking
+  // a role is a single hash lookup (rather than, e.g., matching a regex).
+  private static final Map<String, UserRole> BY_NAME = new HashMap<>();
+
+  static {
+    for (UserRole role : values()) {
+      BY_NAME.put(role.roleName(), role);
+    }
+  }
+
+  /**
+   * The name of this role as it's stored in the database.
+   *
+   * @return the lowercase name of this role, e.g., `"admin"`
+   */
+  public String roleName() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Find the role with the given (lowercase) name.
+   *
+   * @param name the name of the role, e.g., `"admin"`
+   * @return the matching role, or `null` if `name` isn't a legal role
+   */
+  public static UserRole fromName(String name) {
+    return name == null ? null : BY_NAME.get(name);
+  }
+}
@@ -0,0 +1,420 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * An immutable, column-oriented copy of all the users.
+ *
+ * Instead of keeping a `User` object per user, each field is stored in its own
+ * array, indexed by the user's "ordinal" (their position in the snapshot):
+ *   - `age` is a primitive `int[]`.
+ *   - `role` and `company` are dictionary encoded: each distinct value is
+ *     stored once, and users just hold the (`byte` or `int`) code for theirs.
+ *   - There's a (compressed, "Roaring") bitmap of the users with each role,
+ *     each age, and each company, so any combination of filters is just an
+ *     intersection of a few bitmaps.
+ *   - For each field, the ordinals of all the users sorted by that field,
+ *     so sorted (and paged) results never need a sort of their own.
+ *
+ * This keeps the snapshot compact and makes the filters `getUsers` supports
+ * very cheap to answer. Counts and facets come straight from the cardinality
+ * of those intersections, and `User` objects are only built for the users
+ * that end up in the results.
+ *
+ * Since it's immutable, a snapshot can be read by any number of threads;
+ * changes are made by building a new snapshot (see `withChanges`). The new
+ * snapshot keeps the order the unchanged users were already sorted in, so a
+ * change only has to sort the users it adds, rather than everyone.
+ */
+public final class UserSnapshot {
+
+  // The code we use for users with no role or company.
+  private static final int NO_CODE = -1;
+
+  // The new ordinal of a user that `withChanges` drops.
+  private static final int DROPPED = -1;
+
+  // The fields we keep pre-sorted orderings for; these are all the fields of a `User`.
+  private static final List<String> SORTABLE_FIELDS =
+    List.of("_id", "name", "age", "company", "email", "avatar", "role");
+
+  private final int size;
+  private final String[] ids;
+  private final String[] names;
+  private final String[] emails;
+  private final String[] avatars;
+  private final int[] ages;
+  private final Map<Integer, RoaringBitmap> ageBitmaps = new HashMap<>();
+
+  private final String[] roleDictionary;
+  private final byte[] roleCodes;
+  private final RoaringBitmap[] roleBitmaps;
+
+  private final String[] companyDictionary;
+  // The company names in lowercase, for case-insensitive company filters.
+  private final String[] companyDictionaryLower;
+  private final int[] companyCodes;
+  private final RoaringBitmap[] companyBitmaps;
+
+  private final Map<String, Integer> ordinalsById;
+
+  // For each field in `SORTABLE_FIELDS`, the ordinals of all the users
+  // sorted (ascending) by that field. These are built once per snapshot,
+  // so requests never have to sort anything.
+  private final Map<String, int[]> sortedOrdinals = new HashMap<>();
+
+  /**
+   * Build a snapshot of `users`. The first users in the list may already be
+   * sorted: `keptOrders` holds, for each field in `SORTABLE_FIELDS`, the
+   * ordinals of those first users in order (and is empty if there are none).
+   */
+  private UserSnapshot(List<User> users, Map<String, int[]> keptOrders) {
+    size = users.size();
+    ids = new String[size];
+    names = new String[size];
+    emails = new String[size];
+    avatars = new String[size];
+    ages = new int[size];
+    roleCodes = new byte[size];
+    companyCodes = new int[size];
+    ordinalsById = new HashMap<>(size * 2);
+
+    Map<String, Integer> roleCodesByName = new HashMap<>();
+    Map<String, Integer> companyCodesByName = new HashMap<>();
+    List<RoaringBitmap> roleSets = new ArrayList<>();
+    List<RoaringBitmap> companySets = new ArrayList<>();
+
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      User user = users.get(ordinal);
+      ids[ordinal] = user._id;
+      names[ordinal] = user.name;
+      emails[ordinal] = user.email;
+      avatars[ordinal] = user.avatar;
+      ages[ordinal] = user.age;
+      ageBitmaps.computeIfAbsent(user.age, age -> new RoaringBitmap()).add(ordinal);
+      ordinalsById.put(user._id, ordinal);
+
+      int roleCode = encode(user.role, roleCodesByName, roleSets, ordinal);
+      if (roleCode > Byte.MAX_VALUE) {
+        throw new IllegalArgumentException("Too many different user roles for a snapshot");
+      }
+      roleCodes[ordinal] = (byte) roleCode;
+      companyCodes[ordinal] = encode(user.company, companyCodesByName, companySets, ordinal);
+    }
+
+    roleDictionary = dictionary(roleCodesByName);
+    roleBitmaps = roleSets.toArray(new RoaringBitmap[0]);
+    companyDictionary = dictionary(companyCodesByName);
+    companyBitmaps = companySets.toArray(new RoaringBitmap[0]);
+    companyDictionaryLower = new String[companyDictionary.length];
+    for (int code = 0; code < companyDictionary.length; code++) {
+      companyDictionaryLower[code] = companyDictionary[code].toLowerCase(Locale.ROOT);
+    }
+
+    for (String field : SORTABLE_FIELDS) {
+      int[] kept = keptOrders.getOrDefault(field, new int[0]);
+      Comparator<Integer> order = sortOrder(field);
+      int[] added = IntStream.range(kept.length, size).boxed()
+        .sorted(order)
+        .mapToInt(Integer::intValue)
+        .toArray();
+      sortedOrdinals.put(field, merge(kept, added, order));
+    }
+  }
+
+  /**
+   * Build a snapshot of the given users.
+   *
+   * @param users the users to include; each must have a distinct `_id`
+   * @return a snapshot of those users
+   */
+  public static UserSnapshot of(Collection<User> users) {
+    return new UserSnapshot(new ArrayList<>(users), Map.of());
+  }
+
+  /**
+   * Build a new snapshot with some users saved (added, or replacing the
+   * users with the same IDs) and others deleted.
+   *
+   * The unchanged users keep their places in each of this snapshot's sorted
+   * orderings, and only the saved users have to be sorted and merged in, so
+   * this takes time proportional to the number of users (rather than the
+   * `n log n` of sorting them all again, for each field).
+   *
+   * @param saved the users to save; each must have a distinct `_id`
+   * @param deleted the IDs of the users to delete
+   * @return the new snapshot
+   */
+  public UserSnapshot withChanges(Collection<User> saved, Collection<String> deleted) {
+    Set<String> deletedIds = new HashSet<>(deleted);
+    Set<String> dropped = new HashSet<>(deletedIds);
+    for (User user : saved) {
+      dropped.add(user._id);
+    }
+    List<User> users = new ArrayList<>(size + saved.size());
+    int[] newOrdinals = new int[size];
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      if (dropped.contains(ids[ordinal])) {
+        newOrdinals[ordinal] = DROPPED;
+      } else {
+        newOrdinals[ordinal] = users.size();
+        users.add(user(ordinal));
+      }
+    }
+    int keptCount = users.size();
+    for (User user : saved) {
+      if (!deletedIds.contains(user._id)) {
+        users.add(user);
+      }
+    }
+
+    Map<String, int[]> keptOrders = new HashMap<>();
+    for (String field : SORTABLE_FIELDS) {
+      int[] kept = new int[keptCount];
+      int next = 0;
+      for (int ordinal : sortedOrdinals.get(field)) {
+        if (newOrdinals[ordinal] != DROPPED) {
+          kept[next++] = newOrdinals[ordinal];
+        }
+      }
+      keptOrders.put(field, kept);
+    }
+    return new UserSnapshot(users, keptOrders);
+  }
+
+  /**
+   * Merge two arrays of ordinals that are each sorted by `order`. Where they
+   * tie, the ordinals from `first` come first.
+   */
+  private static int[] merge(int[] first, int[] second, Comparator<Integer> order) {
+    if (first.length == 0) {
+      return second;
+    }
+    int[] merged = new int[first.length + second.length];
+    int i = 0;
+    int j = 0;
+    for (int k = 0; k < merged.length; k++) {
+      if (j == second.length || i < first.length && order.compare(first[i], second[j]) <= 0) {
+        merged[k] = first[i++];
+      } else {
+        merged[k] = second[j++];
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Get the dictionary code for `value`, adding it to the dictionary if it's
+   * new, and mark `ordinal` in that value's bitmap.
+   */
+  private static int encode(String value, Map<String, Integer> codes, List<RoaringBitmap> bitmaps, int ordinal) {
+    if (value == null) {
+      return NO_CODE;
+    }
+    int code = codes.computeIfAbsent(value, key -> {
+      bitmaps.add(new RoaringBitmap());
+      return bitmaps.size() - 1;
+    });
+    bitmaps.get(code).add(ordinal);
+    return code;
+  }
+
+  private static String[] dictionary(Map<String, Integer> codes) {
+    String[] dictionary = new String[codes.size()];
+    codes.forEach((value, code) -> dictionary[code] = value);
+    return dictionary;
+  }
+
+  /**
+   * @return the number of users in the snapshot
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the user with the given ID.
+   *
+   * @param id the user's ID
+   * @return a new `User` with that user's data, or `null` if there's no such user
+   */
+  public User findById(String id) {
+    Integer ordinal = ordinalsById.get(id);
+    return ordinal == null ? null : user(ordinal);
+  }
+
+  /**
+   * Get all the users in the snapshot, in snapshot order.
+   *
+   * @return new `User`s for everyone in the snapshot
+   */
+  public List<User> users() {
+    List<User> users = new ArrayList<>(size);
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      users.add(user(ordinal));
+    }
+    return users;
+  }
+
+  /**
+   * Find the users matching `query`, sorted and paged as it asks. This
+   * follows the same rules as `MongoUserRepository`.
+   *
+   * Rather than sorting the matching users, this walks through the
+   * pre-sorted ordinals for the `sortBy` field (backwards for descending
+   * order) and keeps the ones that match, stopping as soon as it has
+   * the page of users it needs.
+   *
+   * @param query the filters, sort order, and page to use
+   * @return new `User`s for the matching users
+   */
+  public List<User> find(UserQuery query) {
+    RoaringBitmap matches = matching(query);
+    int limit = query.limit == null ? Integer.MAX_VALUE : query.limit;
+    int toSkip = query.offset;
+    List<User> users = new ArrayList<>(Math.min(limit, matches.getCardinality()));
+
+    int[] order = sortedOrdinals.get(query.sortBy);
+    if (order == null) {
+      // Mongo treats every user as having a missing value for fields that don't
+      // exist, which leaves them in no particular order, so we use snapshot order.
+      order = matches.toArray();
+    }
+    for (int i = 0; i < order.length && users.size() < limit; i++) {
+      int ordinal = order[query.descending ? order.length - 1 - i : i];
+      if (matches.contains(ordinal)) {
+        if (toSkip > 0) {
+          toSkip--;
+        } else {
+          users.add(user(ordinal));
+        }
+      }
+    }
+    return users;
+  }
+
+  /**
+   * Count the users matching `query`, without building any `User`s.
+   *
+   * @param query the filters to use
+   * @return the number of matching users
+   */
+  public long count(UserQuery query) {
+    return matching(query).getLongCardinality();
+  }
+
+  /**
+   * Count the users matching `query`, broken down by role and by company.
+   *
+   * @param query the filters to use
+   * @return the counts for the matching users
+   */
+  public UserFacets facets(UserQuery query) {
+    RoaringBitmap matches = matching(query);
+    UserFacets facets = new UserFacets();
+    facets.total = matches.getLongCardinality();
+    facets.roles = facetCounts(matches, roleDictionary, roleBitmaps);
+    facets.companies = facetCounts(matches, companyDictionary, companyBitmaps);
+    return facets;
+  }
+
+  private static Map<String, Long> facetCounts(RoaringBitmap matches, String[] dictionary, RoaringBitmap[] bitmaps) {
+    // Sorted by value, like the other repositories' facets (rather than in dictionary order)
+    Map<String, Long> counts = new TreeMap<>();
+    for (int code = 0; code < dictionary.length; code++) {
+      long count = RoaringBitmap.andCardinality(matches, bitmaps[code]);
+      if (count > 0) {
+        counts.put(dictionary[code], count);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Get the bitmap of ordinals of the users matching the filters in `query`.
+   */
+  private RoaringBitmap matching(UserQuery query) {
+    List<RoaringBitmap> filters = new ArrayList<>();
+    if (query.role != null) {
+      filters.add(roleBitmap(query.role));
+    }
+    if (query.age != null) {
+      filters.add(ageBitmaps.getOrDefault(query.age, new RoaringBitmap()));
+    }
+    if (query.company != null) {
+      // Company filters match any company containing the given text,
+      // so we combine the bitmaps for all the companies that do.
+      String company = query.company.toLowerCase(Locale.ROOT);
+      List<RoaringBitmap> companies = new ArrayList<>();
+      for (int code = 0; code < companyDictionaryLower.length; code++) {
+        if (companyDictionaryLower[code].contains(company)) {
+          companies.add(companyBitmaps[code]);
+        }
+      }
+      filters.add(FastAggregation.or(companies.toArray(new RoaringBitmap[0])));
+    }
+    return switch (filters.size()) {
+      case 0 -> RoaringBitmap.bitmapOfRange(0, size);
+      // Nobody changes the bitmap we return, so a lone filter's bitmap can be used as is
+      case 1 -> filters.get(0);
+      default -> FastAggregation.and(filters.toArray(new RoaringBitmap[0]));
+    };
+  }
+
+  private RoaringBitmap roleBitmap(String role) {
+    for (int code = 0; code < roleDictionary.length; code++) {
+      if (roleDictionary[code].equals(role)) {
+        return roleBitmaps[code];
+      }
+    }
+    return new RoaringBitmap();
+  }
+
+  /**
+   * Get a comparator that orders ordinals by the given field (which must
+   * be one of the `SORTABLE_FIELDS`). Like Mongo, missing (`null`) values come
+   * first and strings are compared by their characters.
+   */
+  private Comparator<Integer> sortOrder(String field) {
+    Comparator<String> strings = Comparator.nullsFirst(Comparator.naturalOrder());
+    return switch (field) {
+      case "_id" -> Comparator.comparing(ordinal -> ids[ordinal], strings);
+      case "name" -> Comparator.comparing(ordinal -> names[ordinal], strings);
+      case "age" -> Comparator.comparingInt(ordinal -> ages[ordinal]);
+      case "company" -> Comparator.comparing(ordinal -> decode(companyDictionary, companyCodes[ordinal]), strings);
+      case "email" -> Comparator.comparing(ordinal -> emails[ordinal], strings);
+      case "avatar" -> Comparator.comparing(ordinal -> avatars[ordinal], strings);
+      case "role" -> Comparator.comparing(ordinal -> decode(roleDictionary, roleCodes[ordinal]), strings);
+      default -> throw new IllegalArgumentException("Can't sort users by " + field);
+    };
+  }
+
+  private static String decode(String[] dictionary, int code) {
+    return code == NO_CODE ? null : dictionary[code];
+  }
+
+  private User user(int ordinal) {
+    User user = new User();
+    user._id = ids[ordinal];
+    user.name = names[ordinal];
+    user.age = ages[ordinal];
+    user.company = decode(companyDictionary, companyCodes[ordinal]);
+    user.email = emails[ordinal];
+    user.avatar = avatars[ordinal];
+    user.role = decode(roleDictionary, roleCodes[ordinal]);
+    return user;
+  }
+}
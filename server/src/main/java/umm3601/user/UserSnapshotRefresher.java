@@ -0,0 +1,161 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+/**
+ * Keeps a `SnapshotUserRepository` in step with the `users` collection.
+ *
+ * The refresher watches the collection with a change stream and reloads the
+ * snapshot whenever anything changes (a burst of changes causes just one
+ * reload). Change streams need a replica set, so when they aren't available
+ * (e.g., a standalone development `mongod`) it falls back to reloading the
+ * snapshot every `pollIntervalMillis` instead.
+ *
+ * Writes made through `UserController` are mirrored into the repository right
+ * away; the refresher is what picks up changes made by anyone else. A reload
+ * that was reading from Mongo while a write was mirrored might have missed
+ * that write, so it's thrown away (see `SnapshotUserRepository.replaceAll`)
+ * and tried again.
+ */
+public class UserSnapshotRefresher implements Runnable, AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UserSnapshotRefresher.class);
+
+  private final MongoCollection<User> userCollection;
+  private final SnapshotUserRepository repository;
+  private final long pollIntervalMillis;
+
+  private volatile boolean running;
+  private Thread thread;
+  // The change stream we're watching, or `null` if we're polling instead.
+  private MongoChangeStreamCursor<ChangeStreamDocument<Document>> changes;
+  // Whether the last reload was thrown away, so we still need another one.
+  private boolean stale;
+
+  /**
+   * Construct a refresher for `repository`.
+   *
+   * @param userCollection the collection to load users from
+   * @param repository the repository to keep up to date
+   * @param pollIntervalMillis how often to reload if change streams aren't available
+   */
+  public UserSnapshotRefresher(MongoCollection<User> userCollection, SnapshotUserRepository repository,
+      long pollIntervalMillis) {
+    this.userCollection = userCollection;
+    this.repository = repository;
+    this.pollIntervalMillis = pollIntervalMillis;
+  }
+
+  /**
+   * Load the initial snapshot, and then start keeping it up to
+   * date in a background (daemon) thread. Closing the repository
+   * stops the refresher.
+   *
+   * The change stream is opened before the users are loaded, so it
+   * covers anything that changes while they're loading, and one load
+   * is all it takes to get going.
+   */
+  public synchronized void start() {
+    repository.refreshedBy(this);
+    try {
+      changes = userCollection.watch(Document.class).cursor();
+    } catch (MongoException e) {
+      LOGGER.info("Change streams aren't available ({}); reloading the user snapshot every {}ms instead",
+        e.getMessage(), pollIntervalMillis);
+    }
+    stale = !reload();
+    running = true;
+    thread = new Thread(this, "user-snapshot-refresher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Replace the repository's snapshot with the current contents of the
+   * collection, unless a write was mirrored into the repository while we
+   * were reading them.
+   *
+   * @return whether the snapshot was replaced
+   */
+  boolean reload() {
+    long version = repository.version();
+    List<User> users = userCollection.find().into(new ArrayList<>());
+    if (repository.replaceAll(users, version)) {
+      return true;
+    }
+    LOGGER.debug("A write was made while reloading the user snapshot; reloading again");
+    return false;
+  }
+
+  @Override
+  public void run() {
+    if (changes == null) {
+      pollForChanges();
+      return;
+    }
+    try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changes) {
+      watchChanges(cursor);
+    } catch (MongoException e) {
+      if (running) {
+        LOGGER.warn("Lost the change stream; reloading the user snapshot every {}ms instead",
+          pollIntervalMillis, e);
+        pollForChanges();
+      }
+    }
+  }
+
+  private void watchChanges(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+    while (running) {
+      if (stale || cursor.tryNext() != null) {
+        // Skip past the rest of this burst of changes, since one reload covers them all.
+        int count = 0;
+        while (cursor.tryNext() != null) {
+          count++;
+        }
+        if (!running) {
+          return;
+        }
+        LOGGER.debug("Reloading the user snapshot after {} more changes", count);
+        stale = !reload();
+      }
+    }
+  }
+
+  private void pollForChanges() {
+    while (running) {
+      try {
+        Thread.sleep(pollIntervalMillis);
+        reload();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (MongoException e) {
+        // We'll try again next time around, and keep serving the old snapshot until then.
+        LOGGER.warn("Couldn't reload the user snapshot", e);
+      }
+    }
+  }
+
+  /**
+   * Stop keeping the snapshot up to date.
+   */
+  @Override
+  public synchronized void close() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+    } else if (changes != null) {
+      changes.close();
+    }
+  }
+}
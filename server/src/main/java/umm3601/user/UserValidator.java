@@ -0,0 +1,197 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Checks that users, and changes to users, have legal values.
+ *
+ * The same `UserValidator` is shared by all the places that accept user
+ * data (adding users, updating users, and filtering users), so the rules
+ * only live in one place. The checks are written to be cheap, since they
+ * run on every request:
+ *
+ *   - The email pattern is compiled once, rather than on every call
+ *     as `String.matches()` would do.
+ *   - Roles are checked with a lookup in `UserRole` rather than a regex.
+ *   - Error messages are only built for checks that actually fail.
+ *   - All the checks are made in a single pass, so the client hears
+ *     about every problem at once.
+ */
+public class UserValidator {
+
+  // The key Javalin uses for errors in the body of a request; we use the
+  // same key so our errors look just like the ones from `ctx.bodyValidator()`.
+  static final String REQUEST_BODY_KEY = "REQUEST_BODY";
+
+  static final int REASONABLE_AGE_LIMIT = 150;
+
+  // The fields that can be changed by an update. The `_id` can never
+  // change, and the `avatar` is always generated from the `email`.
+  static final Set<String> UPDATABLE_FIELDS = Set.of(
+    "name", UserController.AGE_KEY, UserController.COMPANY_KEY, "email", UserController.ROLE_KEY);
+
+  private static final Pattern EMAIL_PATTERN = Pattern.compile(UserController.EMAIL_REGEX);
+
+  /**
+   * Check whether `email` is a legal email address.
+   *
+   * @param email the email address to check
+   * @return `true` if `email` is legal
+   */
+  public boolean isLegalEmail(String email) {
+    return email != null && EMAIL_PATTERN.matcher(email).matches();
+  }
+
+  /**
+   * Check whether `role` is the name of a legal `UserRole`.
+   *
+   * @param role the role name to check
+   * @return `true` if `role` is legal
+   */
+  public boolean isLegalRole(String role) {
+    return UserRole.fromName(role) != null;
+  }
+
+  /**
+   * Check all the fields of a user (e.g., one that's about to be added).
+   *
+   * The checks are, in order:
+   *    - The user has a non-empty name
+   *    - The email is legal (matches `EMAIL_REGEX`)
+   *    - The age is > 0 and < `REASONABLE_AGE_LIMIT`
+   *    - The role is legal (one of "admin", "editor", or "viewer")
+   *    - The user has a non-empty company
+   *
+   * @param user the user to check
+   * @return a list of everything wrong with `user` (empty if it's fine)
+   */
+  public List<ValidationError<Object>> validate(User user) {
+    List<ValidationError<Object>> errors = new ArrayList<>();
+    if (isEmpty(user.name)) {
+      errors.add(error("User must have a non-empty user name", user.name));
+    }
+    if (!isLegalEmail(user.email)) {
+      errors.add(error("User must have a legal email; you provided " + user.email, user.email));
+    }
+    String ageError = ageError(user.age);
+    if (ageError != null) {
+      errors.add(error(ageError, user.age));
+    }
+    if (!isLegalRole(user.role)) {
+      errors.add(error("User must have a legal user role; you provided " + user.role, user.role));
+    }
+    if (isEmpty(user.company)) {
+      errors.add(error("User must have a non-empty company name", user.company));
+    }
+    return errors;
+  }
+
+  /**
+   * Check all the fields of a user, throwing a `ValidationException`
+   * listing every problem if there are any.
+   *
+   * @param user the user to check
+   * @return `user`, if it's legal
+   * @throws ValidationException if `user` isn't legal
+   */
+  public User requireValid(User user) {
+    return requireValid(user, REQUEST_BODY_KEY);
+  }
+
+  /**
+   * Check all the fields of a user, throwing a `ValidationException`
+   * listing every problem (under `key`) if there are any.
+   *
+   * @param user the user to check
+   * @param key the key to list the problems under, e.g., which
+   *   user in a bulk request this is
+   * @return `user`, if it's legal
+   * @throws ValidationException if `user` isn't legal
+   */
+  public User requireValid(User user, String key) {
+    List<ValidationError<Object>> errors = validate(user);
+    if (!errors.isEmpty()) {
+      throw new ValidationException(Map.of(key, errors));
+    }
+    return user;
+  }
+
+  /**
+   * Check that `age` is a legal age, throwing a `ValidationException`
+   * (with the error listed under `key`) if it isn't.
+   *
+   * @param key the name of the parameter the age came from
+   * @param age the age to check
+   * @return `age`, if it's legal
+   * @throws ValidationException if `age` isn't legal
+   */
+  public int requireLegalAge(String key, int age) {
+    String ageError = ageError(age);
+    if (ageError != null) {
+      throw new ValidationException(Map.of(key, List.of(error(ageError, age))));
+    }
+    return age;
+  }
+
+  /**
+   * Check the fields in an update to a user, using the same rules as
+   * `validate`, but only for the fields that are actually present.
+   *
+   * @param fields the fields (and their new values) being updated
+   * @return a list of everything wrong with the update (empty if it's fine)
+   */
+  public List<String> validateUpdate(Map<String, Object> fields) {
+    List<String> errors = new ArrayList<>();
+    for (Map.Entry<String, Object> field : fields.entrySet()) {
+      String name = field.getKey();
+      Object value = field.getValue();
+      if (!UPDATABLE_FIELDS.contains(name)) {
+        errors.add("The field " + name + " can't be updated");
+      } else if (name.equals(UserController.AGE_KEY)) {
+        if (!(value instanceof Integer age)) {
+          errors.add("User's age must be a number; you provided " + value);
+        } else if (ageError(age) != null) {
+          errors.add(ageError(age));
+        }
+      } else if (!(value instanceof String text) || text.isEmpty()) {
+        errors.add("User must have a non-empty " + name + "; you provided " + value);
+      } else if (name.equals("email") && !isLegalEmail(text)) {
+        errors.add("User must have a legal email; you provided " + text);
+      } else if (name.equals(UserController.ROLE_KEY) && !isLegalRole(text)) {
+        errors.add("User must have a legal user role; you provided " + text);
+      }
+    }
+    return errors;
+  }
+
+  /**
+   * Describe what (if anything) is wrong with an age.
+   *
+   * @param age the age to check
+   * @return a description of the problem, or `null` if `age` is legal
+   */
+  private static String ageError(int age) {
+    if (age <= 0) {
+      return "User's age must be greater than zero; you provided " + age;
+    }
+    if (age >= REASONABLE_AGE_LIMIT) {
+      return "User's age must be less than " + REASONABLE_AGE_LIMIT + "; you provided " + age;
+    }
+    return null;
+  }
+
+  private static boolean isEmpty(String text) {
+    return text == null || text.isEmpty();
+  }
+
+  private static ValidationError<Object> error(String message, Object value) {
+    return new ValidationError<>(message, Map.of(), value);
+  }
+}
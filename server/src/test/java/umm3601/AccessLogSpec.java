@@ -0,0 +1,125 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Tests for the `AccessLog` (and the `MongoCommandTimer` it uses).
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AccessLogSpec {
+
+  @Mock
+  private Context ctx;
+
+  @Mock
+  private AccessLogWriter writer;
+
+  @Captor
+  private ArgumentCaptor<AccessLogEvent> eventCaptor;
+
+  private MongoCommandTimer mongoTimer;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    mongoTimer = new MongoCommandTimer();
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users/{id}");
+    when(ctx.path()).thenReturn("/api/users/588935f57546a2daea44de7c");
+    when(ctx.statusCode()).thenReturn(200);
+  }
+
+  private static CommandSucceededEvent succeeded(long millis) {
+    CommandSucceededEvent event = mock(CommandSucceededEvent.class);
+    when(event.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(millis));
+    return event;
+  }
+
+  @Test
+  void logsRequests() {
+    mongoTimer.reset();
+    mongoTimer.commandSucceeded(succeeded(2));
+    mongoTimer.commandSucceeded(succeeded(3));
+    new AccessLog(writer, mongoTimer, 1.0).log(ctx, 12.5f);
+
+    verify(writer).append(eventCaptor.capture());
+    AccessLogEvent event = eventCaptor.getValue();
+    assertEquals("GET", event.method());
+    assertEquals("/api/users/{id}", event.route());
+    assertEquals(200, event.status());
+    assertEquals(12.5, event.latencyMillis());
+    assertEquals(5.0, event.mongoMillis());
+    // The mocked context doesn't have a Jetty response
+    assertEquals(-1, event.responseBytes());
+  }
+
+  @Test
+  void logsThePathForUnmatchedRequests() {
+    when(ctx.endpointHandlerPath()).thenReturn("");
+    new AccessLog(writer, mongoTimer, 1.0).log(ctx, 1f);
+    verify(writer).append(eventCaptor.capture());
+    assertEquals("/api/users/588935f57546a2daea44de7c", eventCaptor.getValue().route());
+  }
+
+  @Test
+  void logsThePathForRequestsRejectedBeforeMatching() {
+    when(ctx.endpointHandlerPath()).thenThrow(new IllegalStateException("In a before handler"));
+    new AccessLog(writer, mongoTimer, 1.0).log(ctx, 1f);
+    verify(writer).append(eventCaptor.capture());
+    assertEquals("/api/users/588935f57546a2daea44de7c", eventCaptor.getValue().route());
+  }
+
+  @Test
+  void samplesSuccessfulRequestsButAlwaysLogsErrors() {
+    AccessLog accessLog = new AccessLog(writer, mongoTimer, 0.0);
+    accessLog.log(ctx, 1f);
+    verify(writer, never()).append(any());
+
+    when(ctx.statusCode()).thenReturn(503);
+    accessLog.log(ctx, 1f);
+    verify(writer).append(any());
+  }
+
+  @Test
+  void mongoTimeStartsFromZeroForEachRequest() {
+    mongoTimer.commandSucceeded(succeeded(7));
+    CommandFailedEvent failed = mock(CommandFailedEvent.class);
+    when(failed.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(1));
+    mongoTimer.commandFailed(failed);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(8), mongoTimer.elapsedNanos());
+
+    mongoTimer.reset();
+    assertEquals(0, mongoTimer.elapsedNanos());
+  }
+
+  @Test
+  void registersAndCloses() {
+    Javalin server = mock(Javalin.class);
+    AccessLog accessLog = new AccessLog(writer, mongoTimer, 1.0);
+    accessLog.register(server);
+    verify(server).before(any());
+    accessLog.close();
+    verify(writer).close();
+  }
+}
@@ -0,0 +1,69 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the `AccessLogWriter`, which writes access log events
+ * as JSON lines from a background thread.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AccessLogWriterSpec {
+
+  private static AccessLogEvent event(int status) {
+    return new AccessLogEvent(1_700_000_000_000L, "GET", "/api/users/{id}", status, 12.5, 3.25, 321);
+  }
+
+  @Test
+  void writesEventsAsJsonLines() throws IOException {
+    StringWriter out = new StringWriter();
+    AccessLogWriter writer = new AccessLogWriter(out, 16);
+    writer.start();
+    assertTrue(writer.append(event(200)));
+    assertTrue(writer.append(event(404)));
+    writer.close();
+
+    String[] lines = out.toString().split("\n");
+    assertEquals(2, lines.length);
+    JsonNode first = new ObjectMapper().readTree(lines[0]);
+    assertEquals(1_700_000_000_000L, first.get("timestamp").asLong());
+    assertEquals("GET", first.get("method").asText());
+    assertEquals("/api/users/{id}", first.get("route").asText());
+    assertEquals(200, first.get("status").asInt());
+    assertEquals(12.5, first.get("latencyMs").asDouble());
+    assertEquals(3.25, first.get("mongoMs").asDouble());
+    assertEquals(321, first.get("responseBytes").asLong());
+    assertEquals(404, new ObjectMapper().readTree(lines[1]).get("status").asInt());
+  }
+
+  @Test
+  void dropsEventsWhenTheBufferIsFull() throws IOException {
+    StringWriter out = new StringWriter();
+    // Not started, so nothing is taken off the buffer
+    AccessLogWriter writer = new AccessLogWriter(out, 2);
+    assertTrue(writer.append(event(200)));
+    assertTrue(writer.append(event(200)));
+    assertFalse(writer.append(event(200)));
+    assertFalse(writer.append(event(200)));
+
+    writer.write(List.of(event(500)));
+    String[] lines = out.toString().split("\n");
+    assertEquals(2, lines.length);
+    assertEquals(2, new ObjectMapper().readTree(lines[1]).get("dropped").asLong());
+  }
+
+  @Test
+  void closingAWriterThatNeverStartedIsFine() throws IOException {
+    new AccessLogWriter(new StringWriter(), 2).close();
+  }
+}
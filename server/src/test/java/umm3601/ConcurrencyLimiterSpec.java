@@ -0,0 +1,88 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `ConcurrencyLimiter`, which adapts the number of
+ * requests allowed in flight to how long they're taking.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ConcurrencyLimiterSpec {
+
+  private static final long FAST = 1_000_000;
+  private static final long SLOW = 50_000_000;
+
+  /**
+   * Take every available permit, and then give them all back, each
+   * reporting that it took `rttNanos`.
+   */
+  private static int fillAndRelease(ConcurrencyLimiter limiter, long rttNanos) {
+    int acquired = 0;
+    while (limiter.tryAcquire()) {
+      acquired++;
+    }
+    for (int i = 0; i < acquired; i++) {
+      limiter.release(rttNanos);
+    }
+    return acquired;
+  }
+
+  @Test
+  void rejectsRequestsOverTheLimit() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+    assertTrue(limiter.tryAcquire());
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    assertEquals(2, limiter.inFlight());
+
+    limiter.release(FAST);
+    assertEquals(1, limiter.inFlight());
+    assertTrue(limiter.tryAcquire());
+  }
+
+  @Test
+  void limitGrowsWhileLatencyIsSteady() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 50);
+    for (int i = 0; i < 20; i++) {
+      fillAndRelease(limiter, FAST);
+    }
+    assertTrue(limiter.limit() > 4, "Limit should grow, but was " + limiter.limit());
+    assertTrue(limiter.limit() <= 50);
+  }
+
+  @Test
+  void limitShrinksWhenLatencyRises() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 50);
+    for (int i = 0; i < 5; i++) {
+      fillAndRelease(limiter, FAST);
+    }
+    int before = limiter.limit();
+    for (int i = 0; i < 5; i++) {
+      fillAndRelease(limiter, SLOW);
+    }
+    assertTrue(limiter.limit() < before, "Limit should shrink from " + before + ", but was " + limiter.limit());
+    assertTrue(limiter.limit() >= 2);
+  }
+
+  @Test
+  void limitDoesNotGrowWhenMostlyIdle() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 50);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.release(FAST);
+    }
+    assertEquals(10, limiter.limit());
+  }
+
+  @Test
+  void rejectsInconsistentLimits() {
+    assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(5, 0, 10));
+    assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(5, 6, 10));
+    assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(11, 1, 10));
+  }
+}
@@ -0,0 +1,75 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.config.JettyConfig;
+
+/**
+ * Tests for the `JettySettings`, which set up the server's Jetty connector.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class JettySettingsSpec {
+
+  private final JettySettings h2c = new JettySettings(true, 64, 1, 2, 5_000, 8 * 1024);
+
+  @Test
+  void speaksOnlyHttp11ByDefault() {
+    List<ConnectionFactory> factories = JettySettings.DEFAULT.connectionFactories(new HttpConfiguration());
+    assertEquals(1, factories.size());
+    assertInstanceOf(HttpConnectionFactory.class, factories.get(0));
+  }
+
+  @Test
+  void speaksH2cAfterHttp11() {
+    List<ConnectionFactory> factories = h2c.connectionFactories(new HttpConfiguration());
+    assertEquals(2, factories.size());
+    assertInstanceOf(HttpConnectionFactory.class, factories.get(0));
+    HTTP2CServerConnectionFactory http2 = assertInstanceOf(HTTP2CServerConnectionFactory.class, factories.get(1));
+    assertEquals(64, http2.getMaxConcurrentStreams());
+    assertEquals(5_000, http2.getStreamIdleTimeout());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void appliesToJavalinsJettyConfig() {
+    JettyConfig jetty = mock(JettyConfig.class);
+    h2c.apply(jetty, 4567);
+    assertEquals(4567, jetty.defaultPort);
+
+    ArgumentCaptor<Consumer<HttpConfiguration>> httpConfigCaptor = ArgumentCaptor.forClass(Consumer.class);
+    verify(jetty).modifyHttpConfiguration(httpConfigCaptor.capture());
+    HttpConfiguration httpConfig = new HttpConfiguration();
+    httpConfigCaptor.getValue().accept(httpConfig);
+    assertEquals(8 * 1024, httpConfig.getOutputBufferSize());
+
+    ArgumentCaptor<BiFunction<org.eclipse.jetty.server.Server, HttpConfiguration, Connector>> connectorCaptor =
+      ArgumentCaptor.forClass(BiFunction.class);
+    verify(jetty).addConnector(connectorCaptor.capture());
+    Connector connector = connectorCaptor.getValue().apply(new org.eclipse.jetty.server.Server(), httpConfig);
+
+    ServerConnector serverConnector = assertInstanceOf(ServerConnector.class, connector);
+    assertEquals(4567, serverConnector.getPort());
+    assertEquals(1, serverConnector.getAcceptors());
+    assertEquals(2, serverConnector.getSelectorManager().getSelectorCount());
+    assertEquals(5_000, serverConnector.getIdleTimeout());
+    assertInstanceOf(HttpConnectionFactory.class, serverConnector.getDefaultConnectionFactory());
+    assertNotNull(serverConnector.getConnectionFactory(HTTP2CServerConnectionFactory.class));
+  }
+}
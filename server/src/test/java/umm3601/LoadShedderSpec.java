@@ -0,0 +1,113 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.GatewayTimeoutResponse;
+import io.javalin.http.HandlerType;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Tests for the `LoadShedder` (and the `RequestDeadline`s it sets up).
+ */
+@SuppressWarnings({ "MagicNumber" })
+class LoadShedderSpec {
+
+  @Mock
+  private Context ctx;
+
+  // The request attributes set on the mocked context
+  private Map<String, Object> attributes;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    attributes = new HashMap<>();
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.endpointHandlerPath()).thenReturn("/api/usersByCompany");
+    when(ctx.attribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArgument(0)));
+    doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+      .when(ctx).attribute(anyString(), any());
+  }
+
+  @AfterEach
+  void teardownEach() {
+    RequestDeadline.clear();
+  }
+
+  @Test
+  void admitsRequestsUpToTheLimit() {
+    LoadShedder loadShedder = new LoadShedder(1, 10, 10_000);
+    loadShedder.admit(ctx);
+    ConcurrencyLimiter limiter = loadShedder.limiterFor("GET /api/usersByCompany");
+    assertEquals(1, limiter.inFlight());
+    assertTrue(RequestDeadline.maxTimeMillis(60_000) <= 10_000);
+
+    // A second request to the same route is over the limit
+    Context other = mock(Context.class);
+    when(other.method()).thenReturn(HandlerType.GET);
+    when(other.endpointHandlerPath()).thenReturn("/api/usersByCompany");
+    assertThrows(ServiceUnavailableResponse.class, () -> loadShedder.admit(other));
+    verify(other).header("Retry-After", String.valueOf(LoadShedder.RETRY_AFTER_SECONDS));
+
+    // Finishing the first request frees up its permit and clears the deadline
+    loadShedder.finish(ctx);
+    assertEquals(0, limiter.inFlight());
+    assertEquals(60_000, RequestDeadline.maxTimeMillis(60_000));
+
+    // Finishing again (or finishing a rejected request) doesn't release anything
+    loadShedder.finish(ctx);
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  void healthChecksAreNeverShed() {
+    LoadShedder loadShedder = new LoadShedder(1, 10, 10_000);
+    when(ctx.endpointHandlerPath()).thenReturn("/api/health/ready");
+    loadShedder.admit(ctx);
+    loadShedder.admit(ctx);
+    assertEquals(0, loadShedder.limiterFor("GET /api/health/ready").inFlight());
+    loadShedder.finish(ctx);
+  }
+
+  @Test
+  void routesHaveTheirOwnLimiters() {
+    LoadShedder loadShedder = new LoadShedder(1, 10, 10_000);
+    assertSame(loadShedder.limiterFor("GET /api/users"), loadShedder.limiterFor("GET /api/users"));
+    assertNotSame(loadShedder.limiterFor("GET /api/users"), loadShedder.limiterFor("GET /api/usersByCompany"));
+  }
+
+  @Test
+  void expiredDeadlineStopsDatabaseCalls() {
+    RequestDeadline.start(-1);
+    assertThrows(GatewayTimeoutResponse.class, () -> RequestDeadline.maxTimeMillis(5_000));
+  }
+
+  @Test
+  void registersHandlers() {
+    Javalin server = mock(Javalin.class);
+    new LoadShedder(1, 10, 10_000).register(server);
+    verify(server).beforeMatched(any());
+    verify(server).after(any());
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import umm3601.user.User;
+
+/**
+ * Tests for the shared Jackson configuration in `ObjectMappers`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ObjectMappersSpec {
+
+  @Test
+  void registersBlackbird() {
+    ObjectMapper mapper = ObjectMappers.createObjectMapper();
+    assertTrue(mapper.getRegisteredModuleIds().contains(new BlackbirdModule().getTypeId()));
+  }
+
+  @Test
+  void skipsBlackbirdInNativeImages() {
+    System.setProperty("org.graalvm.nativeimage.imagecode", "runtime");
+    try {
+      assertTrue(ObjectMappers.isNativeImage());
+      ObjectMapper mapper = ObjectMappers.createObjectMapper();
+      assertFalse(mapper.getRegisteredModuleIds().contains(new BlackbirdModule().getTypeId()));
+    } finally {
+      System.clearProperty("org.graalvm.nativeimage.imagecode");
+    }
+    assertFalse(ObjectMappers.isNativeImage());
+  }
+
+  @Test
+  void disablesUnneededFeatures() {
+    ObjectMapper mapper = ObjectMappers.createObjectMapper();
+    assertFalse(mapper.getFactory().isEnabled(JsonFactory.Feature.INTERN_FIELD_NAMES));
+    assertFalse(mapper.isEnabled(SerializationFeature.FAIL_ON_EMPTY_BEANS));
+  }
+
+  @Test
+  void createsNewMappers() {
+    assertNotSame(ObjectMappers.createObjectMapper(), ObjectMappers.createObjectMapper());
+  }
+
+  @Test
+  void roundTripsUsers() throws IOException {
+    ObjectMapper mapper = ObjectMappers.createObjectMapper();
+    User user = new User();
+    user._id = "588935f57546a2daea44de7c";
+    user.name = "Connie Stewart";
+    user.age = 25;
+    user.company = "OHMNET";
+    user.email = "conniestewart@ohmnet.com";
+    user.role = "admin";
+    user.avatar = "https://gravatar.com/avatar/abc?d=identicon";
+
+    User copy = mapper.readValue(mapper.writeValueAsString(user), User.class);
+
+    assertEquals(user._id, copy._id);
+    assertEquals(user.name, copy.name);
+    assertEquals(user.age, copy.age);
+    assertEquals(user.company, copy.company);
+    assertEquals(user.email, copy.email);
+    assertEquals(user.role, copy.role);
+    assertEquals(user.avatar, copy.avatar);
+  }
+}
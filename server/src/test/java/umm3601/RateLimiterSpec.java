@@ -0,0 +1,132 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests for the `RateLimiter`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RateLimiterSpec {
+
+  @Mock
+  private Context ctx;
+
+  private RateLimiter rateLimiter;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    long now = System.nanoTime();
+    // Two requests, then one every 10 seconds, for most routes;
+    // one request, then one every 100 seconds, for the expensive route
+    rateLimiter = new RateLimiter(new TokenBuckets(0.1, 2, now), new TokenBuckets(0.01, 1, now),
+      Set.of("/api/usersByCompany"), Set.of("reporting-service"), TrustedProxies.parse("10.0.0.254"));
+    when(ctx.ip()).thenReturn("10.0.0.1");
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users");
+  }
+
+  @Test
+  void rejectsClientsOverTheirBudget() {
+    rateLimiter.limit(ctx);
+    rateLimiter.limit(ctx);
+
+    HttpResponseException exception = assertThrows(HttpResponseException.class, () -> rateLimiter.limit(ctx));
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS.getCode(), exception.getStatus());
+    verify(ctx).header("Retry-After", "10");
+  }
+
+  @Test
+  void expensiveRoutesHaveTheirOwnBudget() {
+    when(ctx.endpointHandlerPath()).thenReturn("/api/usersByCompany");
+    rateLimiter.limit(ctx);
+    assertThrows(HttpResponseException.class, () -> rateLimiter.limit(ctx));
+    verify(ctx).header("Retry-After", "100");
+
+    // The client still has its budget for everything else
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users");
+    rateLimiter.limit(ctx);
+    rateLimiter.limit(ctx);
+  }
+
+  @Test
+  void apiKeysHaveTheirOwnBudget() {
+    rateLimiter.limit(ctx);
+    rateLimiter.limit(ctx);
+
+    // Same IP address, but identifying itself with an API key
+    when(ctx.header(RateLimiter.API_KEY_HEADER)).thenReturn("reporting-service");
+    rateLimiter.limit(ctx);
+    rateLimiter.limit(ctx);
+    assertThrows(HttpResponseException.class, () -> rateLimiter.limit(ctx));
+  }
+
+  @Test
+  void unknownApiKeysShareTheirAddressesBudget() {
+    rateLimiter.limit(ctx);
+    when(ctx.header(RateLimiter.API_KEY_HEADER)).thenReturn("made-up-key");
+    rateLimiter.limit(ctx);
+    when(ctx.header(RateLimiter.API_KEY_HEADER)).thenReturn("another-made-up-key");
+    assertThrows(HttpResponseException.class, () -> rateLimiter.limit(ctx));
+  }
+
+  @Test
+  void proxiedClientsHaveTheirOwnBudgets() {
+    when(ctx.ip()).thenReturn("10.0.0.254");
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("203.0.113.7");
+    rateLimiter.limit(ctx);
+    rateLimiter.limit(ctx);
+    assertThrows(HttpResponseException.class, () -> rateLimiter.limit(ctx));
+
+    // A different client behind the same proxy isn't affected
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("203.0.113.8");
+    rateLimiter.limit(ctx);
+    rateLimiter.limit(ctx);
+  }
+
+  @Test
+  void forwardingHeadersFromUntrustedClientsAreIgnored() {
+    rateLimiter.limit(ctx);
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("203.0.113.7");
+    rateLimiter.limit(ctx);
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("203.0.113.8");
+    assertThrows(HttpResponseException.class, () -> rateLimiter.limit(ctx));
+  }
+
+  @Test
+  void parsesApiKeys() {
+    assertEquals(Set.of("a", "b"), RateLimiter.parseApiKeys(" a, b,,"));
+    assertEquals(Set.of(), RateLimiter.parseApiKeys(""));
+  }
+
+  @Test
+  void healthChecksAreNeverLimited() {
+    when(ctx.endpointHandlerPath()).thenReturn("/api/health/live");
+    for (int i = 0; i < 10; i++) {
+      rateLimiter.limit(ctx);
+    }
+  }
+
+  @Test
+  void registersBeforeMatchedHandler() {
+    Javalin server = mock(Javalin.class);
+    rateLimiter.register(server);
+    verify(server).beforeMatched(any());
+  }
+}
@@ -0,0 +1,94 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `RequestCoalescer`, which lets concurrent loads
+ * of the same key share a single fetch.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RequestCoalescerSpec {
+
+  @Test
+  void loadsValue() {
+    RequestCoalescer<String, Integer> coalescer = new RequestCoalescer<>();
+    assertEquals(5, coalescer.load("hello", String::length));
+    assertEquals(0, coalescer.inFlightCount());
+  }
+
+  @Test
+  void loadsNullValue() {
+    RequestCoalescer<String, Integer> coalescer = new RequestCoalescer<>();
+    assertNull(coalescer.load("missing", key -> null));
+  }
+
+  @Test
+  void concurrentLoadsOfSameKeyShareOneFetch() throws Exception {
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+    AtomicInteger fetches = new AtomicInteger();
+    CountDownLatch fetchStarted = new CountDownLatch(1);
+    CountDownLatch finishFetch = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = executor.submit(() -> coalescer.load("id", key -> {
+        fetches.incrementAndGet();
+        fetchStarted.countDown();
+        try {
+          finishFetch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return "user";
+      }));
+      assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+      assertEquals(1, coalescer.inFlightCount());
+
+      // The first load is still running, so this one should wait for it
+      // rather than calling its own loader.
+      Future<String> second = executor.submit(() -> coalescer.load("id", key -> {
+        fetches.incrementAndGet();
+        return "other";
+      }));
+      finishFetch.countDown();
+
+      assertEquals("user", first.get(5, TimeUnit.SECONDS));
+      String secondResult = second.get(5, TimeUnit.SECONDS);
+      // The second load either shared the first fetch, or (if it started
+      // after the first one finished) did its own.
+      assertTrue(secondResult.equals("user") && fetches.get() == 1
+          || secondResult.equals("other") && fetches.get() == 2);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, coalescer.inFlightCount());
+  }
+
+  @Test
+  void failuresArePassedOnAndNotRemembered() {
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>();
+    IllegalStateException failure = new IllegalStateException("boom");
+
+    IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> {
+      coalescer.load("id", key -> {
+        throw failure;
+      });
+    });
+    assertSame(failure, thrown);
+    assertEquals(0, coalescer.inFlightCount());
+    assertEquals("ok", coalescer.load("id", key -> "ok"));
+  }
+}
@@ -0,0 +1,133 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Tests for the `RequestDrainer`, which lets requests in flight finish
+ * before the server shuts down.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RequestDrainerSpec {
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    Map<String, Object> attributes = new HashMap<>();
+    when(ctx.path()).thenReturn("/api/users/bulk");
+    when(ctx.attribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArgument(0)));
+    doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+      .when(ctx).attribute(anyString(), any());
+  }
+
+  @Test
+  void countsRequestsInFlight() {
+    RequestDrainer drainer = new RequestDrainer(1_000);
+    drainer.start(ctx);
+    assertEquals(1, drainer.inFlight());
+    drainer.finish(ctx);
+    assertEquals(0, drainer.inFlight());
+    // Finishing twice doesn't count twice
+    drainer.finish(ctx);
+    assertEquals(0, drainer.inFlight());
+  }
+
+  @Test
+  void drainWaitsForRequestsInFlight() throws Exception {
+    RequestDrainer drainer = new RequestDrainer(5_000);
+    drainer.start(ctx);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Boolean> drained = executor.submit(drainer::drain);
+      // Give the drain a moment to start waiting
+      while (!drainer.isDraining()) {
+        Thread.sleep(1);
+      }
+      assertFalse(drained.isDone());
+
+      drainer.finish(ctx);
+      assertTrue(drained.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void keepsServingDuringTheReadinessDelay() throws Exception {
+    RequestDrainer drainer = new RequestDrainer(50, 1_000);
+    long start = System.nanoTime();
+    drainer.awaitReadinessDelay();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    assertFalse(drainer.isDraining());
+    drainer.start(ctx);
+    assertEquals(1, drainer.inFlight());
+  }
+
+  @Test
+  void drainGivesUpAtTheDeadline() throws Exception {
+    RequestDrainer drainer = new RequestDrainer(20);
+    drainer.start(ctx);
+    assertFalse(drainer.drain());
+    assertEquals(1, drainer.inFlight());
+  }
+
+  @Test
+  void rejectsNewRequestsWhileDraining() throws Exception {
+    RequestDrainer drainer = new RequestDrainer(1_000);
+    assertTrue(drainer.drain());
+
+    assertThrows(ServiceUnavailableResponse.class, () -> drainer.start(ctx));
+    verify(ctx).header("Connection", "close");
+    assertEquals(0, drainer.inFlight());
+    // The rejected request isn't counted when it finishes
+    drainer.finish(ctx);
+    assertEquals(0, drainer.inFlight());
+  }
+
+  @Test
+  void healthChecksWorkWhileDraining() throws Exception {
+    RequestDrainer drainer = new RequestDrainer(1_000);
+    drainer.drain();
+    when(ctx.path()).thenReturn("/api/health/ready");
+    drainer.start(ctx);
+    drainer.finish(ctx);
+    assertEquals(0, drainer.inFlight());
+  }
+
+  @Test
+  void registersHandlers() {
+    Javalin server = mock(Javalin.class);
+    new RequestDrainer(1_000).register(server);
+    verify(server).before(any());
+    verify(server).after(any());
+  }
+}
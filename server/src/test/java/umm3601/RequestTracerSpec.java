@@ -0,0 +1,276 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoException;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+
+/**
+ * Tests for the `RequestTracer`, and the child spans that the
+ * `MongoCommandTracer` and `TracingJsonMapper` add to its spans.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RequestTracerSpec {
+
+  @Mock
+  private Context ctx;
+
+  private InMemorySpanExporter exporter;
+  private OpenTelemetrySdk openTelemetry;
+  private RequestTracer requestTracer;
+  private MongoCommandTracer mongoTracer;
+  private TracingJsonMapper jsonMapper;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    Map<String, Object> attributes = new HashMap<>();
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.path()).thenReturn("/api/users");
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users");
+    when(ctx.statusCode()).thenReturn(200);
+    when(ctx.attribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArgument(0)));
+    doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+      .when(ctx).attribute(anyString(), any());
+
+    exporter = InMemorySpanExporter.create();
+    openTelemetry = OpenTelemetrySdk.builder()
+      .setTracerProvider(SdkTracerProvider.builder().addSpanProcessor(SimpleSpanProcessor.create(exporter)).build())
+      .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+      .build();
+    requestTracer = new RequestTracer(openTelemetry);
+    mongoTracer = new MongoCommandTracer(openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME));
+    jsonMapper = new TracingJsonMapper(new ObjectMapper(), openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME));
+  }
+
+  @AfterEach
+  void teardownEach() {
+    requestTracer.close();
+  }
+
+  private static CommandStartedEvent started(int requestId, BsonDocument command) {
+    CommandStartedEvent event = mock(CommandStartedEvent.class);
+    when(event.getRequestId()).thenReturn(requestId);
+    when(event.getCommandName()).thenReturn(command.getFirstKey());
+    when(event.getDatabaseName()).thenReturn("dev");
+    when(event.getCommand()).thenReturn(command);
+    return event;
+  }
+
+  private static CommandSucceededEvent succeeded(int requestId) {
+    CommandSucceededEvent event = mock(CommandSucceededEvent.class);
+    when(event.getRequestId()).thenReturn(requestId);
+    return event;
+  }
+
+  private SpanData span(String name) {
+    return exporter.getFinishedSpanItems().stream()
+      .filter(span -> span.getName().equals(name))
+      .findFirst()
+      .orElseThrow();
+  }
+
+  @Test
+  void registersHandlers() {
+    Javalin server = mock(Javalin.class);
+    requestTracer.register(server);
+    verify(server).before(any());
+    verify(server).after(any());
+  }
+
+  @Test
+  void tracesRequestsWithTheirDatabaseCommandsAndSerialization() {
+    when(ctx.endpointHandlerPath()).thenReturn("/api/users/{id}");
+    when(ctx.path()).thenReturn("/api/users/588935f57546a2daea44de7c");
+    requestTracer.start(ctx);
+    assertTrue(Span.current().getSpanContext().isValid());
+
+    mongoTracer.commandStarted(started(1, new BsonDocument("find", new BsonString("users"))));
+    assertEquals(1, mongoTracer.inFlight());
+    mongoTracer.commandSucceeded(succeeded(1));
+    assertEquals(0, mongoTracer.inFlight());
+    jsonMapper.toJsonStream(Map.of("name", "Chris"), Map.class);
+
+    requestTracer.finish(ctx);
+    assertFalse(Span.current().getSpanContext().isValid());
+
+    SpanData request = span("GET /api/users/{id}");
+    assertEquals(SpanKind.SERVER, request.getKind());
+    assertEquals("/api/users/{id}", request.getAttributes().get(AttributeKey.stringKey("http.route")));
+    assertEquals("/api/users/588935f57546a2daea44de7c",
+      request.getAttributes().get(AttributeKey.stringKey("url.path")));
+    assertEquals(200L, request.getAttributes().get(AttributeKey.longKey("http.response.status_code")));
+    assertEquals(StatusCode.UNSET, request.getStatus().getStatusCode());
+
+    SpanData find = span("find users");
+    assertEquals(SpanKind.CLIENT, find.getKind());
+    assertEquals(request.getSpanId(), find.getParentSpanId());
+    assertEquals("users", find.getAttributes().get(AttributeKey.stringKey("db.collection.name")));
+    assertEquals("dev", find.getAttributes().get(AttributeKey.stringKey("db.namespace")));
+
+    SpanData serialize = span("serialize " + Map.of("name", "Chris").getClass().getSimpleName());
+    assertEquals(request.getSpanId(), serialize.getParentSpanId());
+    assertEquals(16L, serialize.getAttributes().get(AttributeKey.longKey("json.bytes")));
+  }
+
+  @Test
+  void joinsTheCallersTrace() {
+    when(ctx.headerMap()).thenReturn(Map.of("traceparent", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"));
+    when(ctx.header("traceparent")).thenReturn("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+    requestTracer.start(ctx);
+    requestTracer.finish(ctx);
+
+    SpanData request = span("GET /api/users");
+    assertEquals("0af7651916cd43dd8448eb211c80319c", request.getTraceId());
+    assertEquals("b7ad6b7169203331", request.getParentSpanId());
+  }
+
+  @Test
+  void marksServerErrors() {
+    when(ctx.statusCode()).thenReturn(503);
+    requestTracer.start(ctx);
+    mongoTracer.commandStarted(started(2, new BsonDocument("delete", new BsonString("users"))));
+    CommandFailedEvent failed = mock(CommandFailedEvent.class);
+    when(failed.getRequestId()).thenReturn(2);
+    when(failed.getThrowable()).thenReturn(new MongoException("Oops"));
+    mongoTracer.commandFailed(failed);
+    requestTracer.finish(ctx);
+
+    assertEquals(StatusCode.ERROR, span("GET /api/users").getStatus().getStatusCode());
+    SpanData delete = span("delete users");
+    assertEquals(StatusCode.ERROR, delete.getStatus().getStatusCode());
+    assertEquals(1, delete.getEvents().size());
+  }
+
+  @Test
+  void skipsCommandsOutsideOfRequests() {
+    mongoTracer.commandStarted(started(3, new BsonDocument("find", new BsonString("users"))));
+    mongoTracer.commandSucceeded(succeeded(3));
+    CommandFailedEvent failed = mock(CommandFailedEvent.class);
+    when(failed.getRequestId()).thenReturn(3);
+    mongoTracer.commandFailed(failed);
+    assertEquals(0, mongoTracer.inFlight());
+    assertTrue(exporter.getFinishedSpanItems().isEmpty());
+  }
+
+  @Test
+  void namesCommandsWithoutACollection() {
+    requestTracer.start(ctx);
+    mongoTracer.commandStarted(started(4, new BsonDocument("ping", new BsonInt32(1))));
+    mongoTracer.commandSucceeded(succeeded(4));
+    requestTracer.finish(ctx);
+    assertEquals("ping", span("ping").getAttributes().get(AttributeKey.stringKey("db.operation.name")));
+  }
+
+  @Test
+  void skipsHealthChecks() {
+    when(ctx.path()).thenReturn("/api/health/live");
+    requestTracer.start(ctx);
+    requestTracer.finish(ctx);
+    assertTrue(exporter.getFinishedSpanItems().isEmpty());
+  }
+
+  @Test
+  void jsonMapperTracesSerialization() throws IOException {
+    requestTracer.start(ctx);
+    assertEquals("[1,2]", jsonMapper.toJsonString(List.of(1, 2), List.class));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    jsonMapper.writeToOutputStream(Stream.of(1, 2), out);
+    assertEquals("[1,2]", out.toString(StandardCharsets.UTF_8));
+    requestTracer.finish(ctx);
+    // The list and the stream, plus the request itself
+    assertEquals(3, exporter.getFinishedSpanItems().size());
+  }
+
+  @Test
+  void jsonMapperIsUnchangedForUntracedRequests() throws IOException {
+    assertEquals("[1,2]", jsonMapper.toJsonString(List.of(1, 2), List.class));
+    assertEquals("{\"a\":1}", new String(jsonMapper.toJsonStream(Map.of("a", 1), Map.class).readAllBytes(),
+      StandardCharsets.UTF_8));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    jsonMapper.writeToOutputStream(Stream.of(1, 2), out);
+    assertEquals("[1,2]", out.toString(StandardCharsets.UTF_8));
+    Map<String, Integer> read = jsonMapper.fromJsonString("{\"a\":1}", Map.class);
+    assertEquals(Map.of("a", 1), read);
+    Map<String, Integer> streamed = jsonMapper.fromJsonStream(
+      new ByteArrayInputStream("{\"b\":2}".getBytes(StandardCharsets.UTF_8)), Map.class);
+    assertEquals(Map.of("b", 2), streamed);
+    assertTrue(exporter.getFinishedSpanItems().isEmpty());
+  }
+
+  @Test
+  void jsonMapperRecordsSerializationErrors() {
+    requestTracer.start(ctx);
+    // Jackson can't serialize a bare `Object`
+    assertThrows(UncheckedIOException.class, () -> jsonMapper.toJsonStream(new Object(), Object.class));
+    requestTracer.finish(ctx);
+    assertEquals(1, span("serialize Object").getEvents().size());
+  }
+
+  @Test
+  void jsonMapperTracesResponsesWrittenElsewhere() {
+    byte[] body = "[1,2]".getBytes(StandardCharsets.UTF_8);
+    // Untraced requests just get the body
+    assertEquals(body, jsonMapper.traced("User[]", () -> body));
+    assertTrue(exporter.getFinishedSpanItems().isEmpty());
+
+    requestTracer.start(ctx);
+    assertEquals(body, jsonMapper.traced("User[]", () -> body));
+    assertThrows(IllegalStateException.class, () -> jsonMapper.traced("UserByCompany[]", () -> {
+      throw new IllegalStateException("Too many companies");
+    }));
+    requestTracer.finish(ctx);
+
+    SpanData request = span("GET /api/users");
+    SpanData users = span("serialize User[]");
+    assertEquals(request.getSpanId(), users.getParentSpanId());
+    assertEquals(5L, users.getAttributes().get(AttributeKey.longKey("json.bytes")));
+    assertEquals(1, span("serialize UserByCompany[]").getEvents().size());
+  }
+}
@@ -0,0 +1,118 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import umm3601.user.ResultArrayWriter;
+import umm3601.user.ResultLimits;
+import umm3601.user.User;
+
+/**
+ * Tests for `ResponseFormat`, which picks the format of a response
+ * from the request's `Accept` header.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ResponseFormatSpec {
+
+  @Test
+  void defaultsToJson() {
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate(null));
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate(""));
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate("*/*"));
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate("application/*"));
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate("text/plain"));
+    // What browsers send
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate(
+      "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8"));
+  }
+
+  @Test
+  void picksTheRequestedFormat() {
+    assertEquals(ResponseFormat.SMILE, ResponseFormat.negotiate("application/x-jackson-smile"));
+    assertEquals(ResponseFormat.CBOR, ResponseFormat.negotiate("Application/CBOR"));
+    assertEquals(ResponseFormat.MESSAGE_PACK, ResponseFormat.negotiate("application/msgpack"));
+    assertEquals(ResponseFormat.MESSAGE_PACK, ResponseFormat.negotiate("application/x-msgpack"));
+  }
+
+  @Test
+  void prefersHigherQualities() {
+    assertEquals(ResponseFormat.CBOR, ResponseFormat.negotiate("application/json;q=0.5, application/cbor"));
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate("application/cbor;q=0.5, */*"));
+    // With equal qualities, the first one listed wins
+    assertEquals(ResponseFormat.SMILE, ResponseFormat.negotiate("application/x-jackson-smile, application/cbor"));
+    // `q=0` means "not this"
+    assertEquals(ResponseFormat.JSON, ResponseFormat.negotiate("application/cbor;q=0"));
+    // A malformed `q` counts as 1
+    assertEquals(ResponseFormat.CBOR, ResponseFormat.negotiate("application/json;q=0.9, application/cbor;q=x"));
+  }
+
+  @Test
+  void createsAMapperForEachFormat() throws IOException {
+    ObjectMapper jsonMapper = ObjectMappers.createObjectMapper();
+    Map<ResponseFormat, ObjectMapper> mappers = ResponseFormat.createMappers(jsonMapper);
+    assertEquals(ResponseFormat.values().length, mappers.size());
+    assertSame(jsonMapper, mappers.get(ResponseFormat.JSON));
+
+    User user = new User();
+    user._id = "588935f57546a2daea44de7c";
+    user.name = "Connie Stewart";
+    user.age = 25;
+    user.company = "OHMNET";
+    byte[] json = jsonMapper.writeValueAsBytes(user);
+
+    for (ResponseFormat format : ResponseFormat.values()) {
+      ObjectMapper mapper = mappers.get(format);
+      assertTrue(mapper.getRegisteredModuleIds().contains(new BlackbirdModule().getTypeId()), format.name());
+
+      byte[] bytes = mapper.writeValueAsBytes(user);
+      User copy = mapper.readValue(bytes, User.class);
+      assertEquals(user._id, copy._id);
+      assertEquals(user.name, copy.name);
+      assertEquals(user.age, copy.age);
+      // The binary formats are all smaller than JSON
+      if (format != ResponseFormat.JSON) {
+        assertTrue(bytes.length < json.length, format.name());
+      }
+    }
+  }
+
+  @Test
+  void binaryPagesAreSmallerThanJson() {
+    // A page of users like the ones in `ResponseFormatBenchmark`
+    Map<ResponseFormat, ObjectMapper> mappers = ResponseFormat.createMappers(ObjectMappers.createObjectMapper());
+    Map<ResponseFormat, Integer> sizes = new EnumMap<>(ResponseFormat.class);
+    for (ResponseFormat format : ResponseFormat.values()) {
+      ResultArrayWriter writer = new ResultArrayWriter(mappers.get(format), ResultLimits.DEFAULT, "");
+      for (int i = 0; i < 100; i++) {
+        User user = new User();
+        user._id = String.format("%024x", i);
+        user.name = "User " + i;
+        user.age = 20 + i % 50;
+        user.company = "Company " + i % 10;
+        user.email = "user" + i + "@example.com";
+        user.role = "viewer";
+        user.avatar = "https://gravatar.com/avatar/" + i + "?d=identicon";
+        writer.add(user);
+      }
+      sizes.put(format, writer.toByteArray().length);
+    }
+
+    int json = sizes.get(ResponseFormat.JSON);
+    for (ResponseFormat format : List.of(ResponseFormat.SMILE, ResponseFormat.CBOR, ResponseFormat.MESSAGE_PACK)) {
+      assertTrue(sizes.get(format) < json, format + ": " + sizes);
+    }
+    // Smile writes each field name once, rather than once per user
+    assertTrue(sizes.get(ResponseFormat.SMILE) < sizes.get(ResponseFormat.CBOR), sizes.toString());
+  }
+}
@@ -0,0 +1,98 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for `TokenBuckets`, the lock-free per-client token buckets
+ * used by the `RateLimiter`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class TokenBucketsSpec {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void allowsABurstAndThenTheRate() {
+    long now = 0;
+    TokenBuckets buckets = new TokenBuckets(10, 3, now);
+    assertEquals(0, buckets.tryAcquire("a", now));
+    assertEquals(0, buckets.tryAcquire("a", now));
+    assertEquals(0, buckets.tryAcquire("a", now));
+
+    // The bucket is empty, and the next token comes in a tenth of a second
+    assertEquals(SECOND / 10, buckets.tryAcquire("a", now));
+    assertEquals(0, buckets.tryAcquire("a", now + SECOND / 10));
+
+    // Other clients have their own buckets
+    assertEquals(0, buckets.tryAcquire("b", now));
+  }
+
+  @Test
+  void refillsUpToTheBurstSize() {
+    TokenBuckets buckets = new TokenBuckets(10, 2, 0);
+    // After a long idle spell the bucket only holds 2 tokens
+    long later = 100 * SECOND;
+    assertEquals(0, buckets.tryAcquire("a", later));
+    assertEquals(0, buckets.tryAcquire("a", later));
+    assertTrue(buckets.tryAcquire("a", later) > 0);
+  }
+
+  @Test
+  void evictsFullBuckets() {
+    TokenBuckets buckets = new TokenBuckets(10, 2, 0);
+    buckets.tryAcquire("a", 0);
+    buckets.tryAcquire("b", 0);
+    assertEquals(2, buckets.size());
+
+    // Still refilling, so nothing is dropped
+    buckets.evictIdle(SECOND / 20);
+    assertEquals(2, buckets.size());
+
+    buckets.evictIdle(SECOND);
+    assertEquals(0, buckets.size());
+  }
+
+  @Test
+  void sweepsIdleBucketsAsRequestsComeIn() {
+    TokenBuckets buckets = new TokenBuckets(10, 2, 0);
+    buckets.tryAcquire("a", 0);
+    // The sweep happens on the first request after the sweep interval
+    buckets.tryAcquire("b", 60 * SECOND);
+    assertEquals(1, buckets.size());
+  }
+
+  @Test
+  void concurrentRequestsNeverExceedTheBurst() throws Exception {
+    TokenBuckets buckets = new TokenBuckets(1, 50, 0);
+    AtomicInteger allowed = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      for (int i = 0; i < 400; i++) {
+        executor.submit(() -> {
+          if (buckets.tryAcquire("a", 0) == 0) {
+            allowed.incrementAndGet();
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+    assertEquals(50, allowed.get());
+  }
+
+  @Test
+  void rejectsIllegalSettings() {
+    assertThrows(IllegalArgumentException.class, () -> new TokenBuckets(0, 1, 0));
+    assertThrows(IllegalArgumentException.class, () -> new TokenBuckets(1, 0, 0));
+  }
+}
@@ -0,0 +1,116 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+
+/**
+ * Tests for setting up tracing (`Tracing`), and for writing spans to a
+ * file (`FileSpanExporter`).
+ */
+@SuppressWarnings({ "MagicNumber" })
+class TracingSpec {
+
+  @Test
+  void noExporterMeansNoTracing() throws IOException {
+    try (OpenTelemetrySdk openTelemetry = Tracing.create("none", Tracing.DEFAULT_OTLP_ENDPOINT, "unused", 1.0)) {
+      Span span = openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME).spanBuilder("request").startSpan();
+      assertFalse(span.isRecording());
+      span.end();
+    }
+  }
+
+  @Test
+  void createsAnOtlpExporter() throws IOException {
+    try (OpenTelemetrySdk openTelemetry = Tracing.create("otlp", Tracing.DEFAULT_OTLP_ENDPOINT, "unused", 1.0)) {
+      Span span = openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME).spanBuilder("request").startSpan();
+      assertTrue(span.isRecording());
+    }
+  }
+
+  @Test
+  void rejectsUnknownExporters() {
+    assertThrows(IllegalArgumentException.class,
+      () -> Tracing.create("carrier-pigeon", Tracing.DEFAULT_OTLP_ENDPOINT, "unused", 1.0));
+  }
+
+  @Test
+  void writesSpansToAFile(@TempDir Path tempDir) throws IOException {
+    Path traceFile = tempDir.resolve("traces.jsonl");
+    try (OpenTelemetrySdk openTelemetry = Tracing.create("file", Tracing.DEFAULT_OTLP_ENDPOINT,
+        traceFile.toString(), 1.0)) {
+      Tracer tracer = openTelemetry.getTracer(Tracing.INSTRUMENTATION_NAME);
+      Span parent = tracer.spanBuilder("GET /api/users").startSpan();
+      try (Scope scope = parent.makeCurrent()) {
+        tracer.spanBuilder("find users")
+          .setAttribute("db.collection.name", "users")
+          .setAttribute("count", 3L)
+          .setAttribute("ratio", 0.5)
+          .setAttribute("cached", true)
+          .startSpan()
+          .end();
+      }
+      parent.end();
+    }
+
+    List<String> lines = Files.readAllLines(traceFile);
+    assertEquals(2, lines.size());
+    ObjectMapper objectMapper = new ObjectMapper();
+    JsonNode child = objectMapper.readTree(lines.get(0));
+    JsonNode parent = objectMapper.readTree(lines.get(1));
+    assertEquals("find users", child.get("name").asText());
+    assertEquals("INTERNAL", child.get("kind").asText());
+    assertEquals("UNSET", child.get("status").asText());
+    assertEquals(parent.get("traceId").asText(), child.get("traceId").asText());
+    assertEquals(parent.get("spanId").asText(), child.get("parentSpanId").asText());
+    assertFalse(parent.has("parentSpanId"));
+    assertTrue(child.get("durationMicros").asLong() >= 0);
+    JsonNode attributes = child.get("attributes");
+    assertEquals("users", attributes.get("db.collection.name").asText());
+    assertEquals(3, attributes.get("count").asLong());
+    assertEquals(0.5, attributes.get("ratio").asDouble());
+    assertTrue(attributes.get("cached").asBoolean());
+  }
+
+  @Test
+  void reportsWriteFailures() throws IOException {
+    Writer broken = new Writer() {
+      @Override
+      public void write(char[] chars, int offset, int length) throws IOException {
+        throw new IOException("Disk full");
+      }
+
+      @Override
+      public void flush() throws IOException {
+        throw new IOException("Disk full");
+      }
+
+      @Override
+      public void close() throws IOException {
+        throw new IOException("Disk full");
+      }
+    };
+    FileSpanExporter exporter = new FileSpanExporter(broken);
+    assertFalse(exporter.export(List.of()).isSuccess());
+    assertFalse(exporter.flush().isSuccess());
+    assertFalse(exporter.shutdown().isSuccess());
+  }
+}
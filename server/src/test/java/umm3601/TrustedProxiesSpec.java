@@ -0,0 +1,93 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+
+/**
+ * Tests for `TrustedProxies`.
+ */
+class TrustedProxiesSpec {
+
+  @Mock
+  private Context ctx;
+
+  private TrustedProxies trustedProxies;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    trustedProxies = TrustedProxies.parse("172.16.0.0/12, 10.0.0.5, fd00::/8");
+  }
+
+  @Test
+  void matchesAddressesAndBlocks() {
+    assertTrue(trustedProxies.isTrusted("10.0.0.5"));
+    assertFalse(trustedProxies.isTrusted("10.0.0.6"));
+    assertTrue(trustedProxies.isTrusted("172.16.0.1"));
+    assertTrue(trustedProxies.isTrusted("172.31.255.255"));
+    assertFalse(trustedProxies.isTrusted("172.32.0.1"));
+    assertTrue(trustedProxies.isTrusted("fd12::1"));
+    assertFalse(trustedProxies.isTrusted("fe80::1"));
+    assertFalse(trustedProxies.isTrusted("not-an-address"));
+  }
+
+  @Test
+  void trustsNothingByDefault() {
+    TrustedProxies none = TrustedProxies.parse("");
+    assertFalse(none.isTrusted("127.0.0.1"));
+
+    when(ctx.ip()).thenReturn("127.0.0.1");
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("203.0.113.7");
+    assertEquals("127.0.0.1", none.clientAddress(ctx));
+  }
+
+  @Test
+  void rejectsBadProxies() {
+    assertThrows(IllegalArgumentException.class, () -> TrustedProxies.parse("caddy"));
+    assertThrows(IllegalArgumentException.class, () -> TrustedProxies.parse("10.0.0.0/33"));
+    assertThrows(IllegalArgumentException.class, () -> TrustedProxies.parse("10.0.0.0/x"));
+  }
+
+  @Test
+  void usesTheAddressOfDirectClients() {
+    when(ctx.ip()).thenReturn("203.0.113.7");
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("198.51.100.1");
+    when(ctx.header(TrustedProxies.REAL_IP_HEADER)).thenReturn("198.51.100.2");
+    assertEquals("203.0.113.7", trustedProxies.clientAddress(ctx));
+  }
+
+  @Test
+  void usesTheLastUntrustedForwardedAddress() {
+    when(ctx.ip()).thenReturn("172.18.0.3");
+    // The client made up the first address; our two proxies added the other two
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("198.51.100.1, 203.0.113.7, 10.0.0.5");
+    assertEquals("203.0.113.7", trustedProxies.clientAddress(ctx));
+  }
+
+  @Test
+  void stopsAtGarbageInForwardedAddresses() {
+    when(ctx.ip()).thenReturn("10.0.0.5");
+    when(ctx.header(TrustedProxies.FORWARDED_FOR_HEADER)).thenReturn("203.0.113.7, example.com");
+    assertEquals("10.0.0.5", trustedProxies.clientAddress(ctx));
+  }
+
+  @Test
+  void fallsBackToRealIp() {
+    when(ctx.ip()).thenReturn("10.0.0.5");
+    when(ctx.header(TrustedProxies.REAL_IP_HEADER)).thenReturn("203.0.113.7");
+    assertEquals("203.0.113.7", trustedProxies.clientAddress(ctx));
+
+    when(ctx.header(TrustedProxies.REAL_IP_HEADER)).thenReturn("example.com");
+    assertEquals("10.0.0.5", trustedProxies.clientAddress(ctx));
+  }
+}
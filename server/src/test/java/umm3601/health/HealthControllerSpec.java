@@ -0,0 +1,71 @@
+package umm3601.health;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests for the `HealthController`.
+ */
+class HealthControllerSpec {
+
+  @Mock
+  private Context ctx;
+
+  private HealthController healthController;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    healthController = new HealthController();
+  }
+
+  @Test
+  void isAlwaysLive() {
+    healthController.getLive(ctx);
+
+    verify(ctx).json(Map.of("status", "live"));
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void isNotReadyUntilToldSo() {
+    assertFalse(healthController.isReady());
+    healthController.getReady(ctx);
+
+    verify(ctx).json(Map.of("status", "unavailable"));
+    verify(ctx).status(HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
+  @Test
+  void isReadyOnceToldSo() {
+    healthController.setReady(true);
+    assertTrue(healthController.isReady());
+    healthController.getReady(ctx);
+
+    verify(ctx).json(Map.of("status", "ready"));
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin server = mock(Javalin.class);
+    healthController.addRoutes(server);
+    verify(server).get(eq(HealthController.API_HEALTH_LIVE), any());
+    verify(server).get(eq(HealthController.API_HEALTH_READY), any());
+  }
+}
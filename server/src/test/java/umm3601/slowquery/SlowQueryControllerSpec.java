@@ -0,0 +1,76 @@
+package umm3601.slowquery;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.UnauthorizedResponse;
+
+/**
+ * Tests for the `SlowQueryController`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SlowQueryControllerSpec {
+
+  @Mock
+  private Context ctx;
+
+  private SlowQueryLog slowQueryLog;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    slowQueryLog = new SlowQueryLog(0, 0, 10, Runnable::run);
+    slowQueryLog.time("find", new Document(), null, () -> 1, Document::new);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin server = mock(Javalin.class);
+    new SlowQueryController(slowQueryLog, null).addRoutes(server);
+    verify(server).get(eq(SlowQueryController.API_SLOW_QUERIES), any());
+    verify(server).delete(eq(SlowQueryController.API_SLOW_QUERIES), any());
+  }
+
+  @Test
+  void getsSlowQueries() {
+    new SlowQueryController(slowQueryLog, null).getSlowQueries(ctx);
+    verify(ctx).json(slowQueryLog.recent());
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void clearsSlowQueries() {
+    new SlowQueryController(slowQueryLog, null).clearSlowQueries(ctx);
+    assertTrue(slowQueryLog.recent().isEmpty());
+    verify(ctx).status(HttpStatus.NO_CONTENT);
+  }
+
+  @Test
+  void needsTheAdminTokenIfThereIsOne() {
+    SlowQueryController controller = new SlowQueryController(slowQueryLog, "s3cret");
+    assertThrows(UnauthorizedResponse.class, () -> controller.getSlowQueries(ctx));
+
+    when(ctx.header(SlowQueryController.ADMIN_TOKEN_HEADER)).thenReturn("guess");
+    assertThrows(UnauthorizedResponse.class, () -> controller.clearSlowQueries(ctx));
+
+    when(ctx.header(SlowQueryController.ADMIN_TOKEN_HEADER)).thenReturn("s3cret");
+    controller.getSlowQueries(ctx);
+    verify(ctx).json(List.copyOf(slowQueryLog.recent()));
+  }
+}
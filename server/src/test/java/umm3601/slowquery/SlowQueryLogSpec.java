@@ -0,0 +1,185 @@
+package umm3601.slowquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Tests for the `SlowQueryLog`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SlowQueryLogSpec {
+
+  // What `explain("executionStats")` says about a `find` that used an index
+  private static final Document IXSCAN_EXPLAIN = Document.parse("""
+    {"queryPlanner": {"winningPlan": {"stage": "FETCH",
+       "inputStage": {"stage": "IXSCAN", "indexName": "age_1"}}},
+     "executionStats": {"nReturned": 3, "totalKeysExamined": 3, "totalDocsExamined": 3}}
+    """);
+
+  // ... and about an aggregation that had to read the whole collection
+  private static final Document COLLSCAN_EXPLAIN = Document.parse("""
+    {"stages": [{"$cursor": {
+       "queryPlanner": {"winningPlan": {"stage": "PROJECTION_SIMPLE", "inputStage": {"stage": "COLLSCAN"}}},
+       "executionStats": {"nReturned": 1000, "totalKeysExamined": 0, "totalDocsExamined": 1000}}},
+      {"$group": {}}]}
+    """);
+
+  @Test
+  void recordsSlowQueries() {
+    SlowQueryLog log = new SlowQueryLog(0, 0, 10, Runnable::run);
+    assertEquals("results", log.time("find", Filters.eq("role", "admin"), Sorts.ascending("age"),
+      () -> "results", () -> IXSCAN_EXPLAIN));
+
+    List<SlowQuery> recent = log.recent();
+    assertEquals(1, recent.size());
+    SlowQuery query = recent.get(0);
+    assertEquals("find", query.operation);
+    assertEquals("{\"role\": \"admin\"}", query.filter);
+    assertEquals("{\"age\": 1}", query.sort);
+    assertTrue(query.durationMillis >= 0);
+    assertTrue(query.timestamp > 0);
+    assertFalse(query.explained);
+    assertNull(query.plan);
+  }
+
+  @Test
+  void recordsFailedQueries() {
+    SlowQueryLog log = new SlowQueryLog(0, 0, 10, Runnable::run);
+    MongoException exception = assertThrows(MongoException.class,
+      () -> log.time("find", new Document(), null, () -> {
+        throw new MongoException("operation exceeded time limit");
+      }, () -> IXSCAN_EXPLAIN));
+    assertEquals("operation exceeded time limit", exception.getMessage());
+
+    SlowQuery query = log.recent().get(0);
+    assertTrue(query.failed);
+    assertEquals("operation exceeded time limit", query.error);
+  }
+
+  @Test
+  void leavesOutTheTimeSpentHandlingResults() {
+    // Handling each result takes 50ms, but reading them takes no time at all
+    SlowQueryLog log = new SlowQueryLog(40, 0, 10, Runnable::run);
+    List<Integer> handled = new ArrayList<>();
+    log.timeEach("find", new Document(), null, results -> List.of(1, 2).forEach(results), (Integer result) -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      handled.add(result);
+    }, () -> IXSCAN_EXPLAIN);
+    assertEquals(List.of(1, 2), handled);
+    assertTrue(log.recent().isEmpty());
+
+    // Stopping part way through is still recorded, but it's only a failed
+    // query if it's the query (rather than the handling) that fails
+    SlowQueryLog everything = new SlowQueryLog(0, 0, 10, Runnable::run);
+    assertThrows(IllegalStateException.class, () -> everything.timeEach("find", new Document(), null,
+      results -> List.of(1, 2).forEach(results), (Integer result) -> {
+        throw new IllegalStateException("Too large");
+      }, () -> IXSCAN_EXPLAIN));
+    assertFalse(everything.recent().get(0).failed);
+
+    assertThrows(MongoException.class, () -> everything.timeEach("find", new Document(), null,
+      results -> {
+        throw new MongoException("Cursor not found");
+      }, (Integer result) -> { }, () -> IXSCAN_EXPLAIN));
+    assertTrue(everything.recent().get(0).failed);
+  }
+
+  @Test
+  void ignoresQuickQueries() {
+    SlowQueryLog log = new SlowQueryLog(60_000, 1, 10, Runnable::run);
+    log.time("find", new Document(), null, () -> 1, () -> IXSCAN_EXPLAIN);
+    assertTrue(log.recent().isEmpty());
+
+    SlowQueryLog disabled = SlowQueryLog.disabled();
+    disabled.time("find", new Document(), null, () -> 1, () -> IXSCAN_EXPLAIN);
+    assertTrue(disabled.recent().isEmpty());
+  }
+
+  @Test
+  void explainsSampledQueries() {
+    SlowQueryLog log = new SlowQueryLog(0, 1, 10, Runnable::run);
+    log.time("find", new Document("age", 25), null, () -> 1, () -> IXSCAN_EXPLAIN);
+    SlowQuery query = log.recent().get(0);
+    assertNull(query.sort);
+    assertTrue(query.explained);
+    assertEquals("IXSCAN", query.plan);
+    assertEquals(List.of("FETCH", "IXSCAN"), query.stages);
+    assertEquals("age_1", query.index);
+    assertEquals(3, query.docsExamined);
+    assertEquals(3, query.keysExamined);
+    assertEquals(3, query.returned);
+  }
+
+  @Test
+  void findsCollectionScansInAggregations() {
+    SlowQuery query = new SlowQuery();
+    SlowQueryLog.describePlan(query, COLLSCAN_EXPLAIN);
+    assertEquals("COLLSCAN", query.plan);
+    assertNull(query.index);
+    assertEquals(1000, query.docsExamined);
+    assertEquals(0, query.keysExamined);
+  }
+
+  @Test
+  void describesOtherPlans() {
+    SlowQuery query = new SlowQuery();
+    SlowQueryLog.describePlan(query, Document.parse("{\"queryPlanner\": {\"winningPlan\": {\"stage\": \"EOF\"}}}"));
+    assertEquals("EOF", query.plan);
+    assertNull(query.docsExamined);
+
+    SlowQuery unknown = new SlowQuery();
+    SlowQueryLog.describePlan(unknown, new Document("ok", 1));
+    assertTrue(unknown.explained);
+    assertNull(unknown.plan);
+    assertTrue(unknown.stages.isEmpty());
+  }
+
+  @Test
+  void recordsExplainFailures() {
+    SlowQueryLog log = new SlowQueryLog(0, 1, 10, Runnable::run);
+    log.time("find", new Document(), null, () -> 1, () -> {
+      throw new MongoException("explain failed");
+    });
+    assertEquals("explain failed", log.recent().get(0).explainError);
+  }
+
+  @Test
+  void keepsOnlyTheMostRecentQueries() {
+    SlowQueryLog log = new SlowQueryLog(0, 0, 2, Runnable::run);
+    for (String operation : List.of("find", "count", "aggregate")) {
+      log.time(operation, new Document(), null, () -> 1, () -> IXSCAN_EXPLAIN);
+    }
+    assertEquals(List.of("aggregate", "count"), log.recent().stream().map(query -> query.operation).toList());
+
+    log.clear();
+    assertTrue(log.recent().isEmpty());
+  }
+
+  @Test
+  void explainsInTheBackground() throws InterruptedException {
+    SlowQueryLog log = new SlowQueryLog(0, 1, 10);
+    log.time("find", new Document(), null, () -> 1, () -> IXSCAN_EXPLAIN);
+    // The query only shows up once it's been explained
+    while (log.recent().isEmpty()) {
+      Thread.sleep(1);
+    }
+    assertEquals("IXSCAN", log.recent().get(0).plan);
+  }
+}
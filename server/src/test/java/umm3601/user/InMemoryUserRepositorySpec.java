@@ -0,0 +1,176 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `InMemoryUserRepository`. Unlike `UserControllerSpec`,
+ * these don't need a running MongoDB.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class InMemoryUserRepositorySpec {
+
+  private InMemoryUserRepository repository;
+
+  private static User user(String id, String name, int age, String company, String role) {
+    User user = new User();
+    user._id = id;
+    user.name = name;
+    user.age = age;
+    user.company = company;
+    user.email = name.toLowerCase() + "@example.com";
+    user.role = role;
+    return user;
+  }
+
+  private static List<String> names(List<User> users) {
+    return users.stream().map(user -> user.name).collect(Collectors.toList());
+  }
+
+  @BeforeEach
+  void setupEach() {
+    repository = new InMemoryUserRepository();
+    repository.saveAll(List.of(
+      user("1", "Chris", 25, "UMM", "admin"),
+      user("2", "Pat", 37, "IBM", "editor"),
+      user("3", "Jamie", 37, "OHMNET", "viewer"),
+      user("4", "Sam", 45, "OHMNET", "viewer")));
+  }
+
+  @Test
+  void findsEveryoneSortedByName() {
+    assertEquals(List.of("Chris", "Jamie", "Pat", "Sam"), names(repository.find(new UserQuery())));
+  }
+
+  @Test
+  void sortsDescendingByOtherFields() {
+    UserQuery query = new UserQuery();
+    query.sortBy = "age";
+    query.descending = true;
+    List<User> users = repository.find(query);
+    assertEquals(45, users.get(0).age);
+    assertEquals(25, users.get(3).age);
+
+    query.sortBy = "noSuchField";
+    assertEquals(4, repository.find(query).size());
+  }
+
+  @Test
+  void filtersByAgeRoleAndCompany() {
+    UserQuery query = new UserQuery();
+    query.age = 37;
+    assertEquals(List.of("Jamie", "Pat"), names(repository.find(query)));
+
+    query.role = "viewer";
+    assertEquals(List.of("Jamie"), names(repository.find(query)));
+
+    UserQuery companyQuery = new UserQuery();
+    companyQuery.company = "ohm";
+    assertEquals(List.of("Jamie", "Sam"), names(repository.find(companyQuery)));
+
+    companyQuery.role = "admin";
+    assertTrue(repository.find(companyQuery).isEmpty());
+
+    UserQuery noMatches = new UserQuery();
+    noMatches.age = 99;
+    assertTrue(repository.find(noMatches).isEmpty());
+  }
+
+  @Test
+  void findsByIds() {
+    assertEquals("Pat", repository.findById("2").name);
+    assertNull(repository.findById("nope"));
+    assertEquals(List.of("Chris", "Sam"), names(repository.findByIds(List.of("1", "nope", "4"))));
+  }
+
+  @Test
+  void savingReindexesUsers() {
+    User sam = user("4", "Sam", 46, "Frogs", "admin");
+    repository.save(sam);
+
+    // The repository keeps its own copy
+    assertNotSame(sam, repository.findById("4"));
+
+    UserQuery oldCompany = new UserQuery();
+    oldCompany.company = "OHMNET";
+    assertEquals(List.of("Jamie"), names(repository.find(oldCompany)));
+
+    UserQuery newRole = new UserQuery();
+    newRole.role = "admin";
+    assertEquals(List.of("Chris", "Sam"), names(repository.find(newRole)));
+
+    UserQuery oldAge = new UserQuery();
+    oldAge.age = 45;
+    assertTrue(repository.find(oldAge).isEmpty());
+  }
+
+  @Test
+  void deletesUsers() {
+    repository.deleteByIds(List.of("3", "4", "nope"));
+    assertNull(repository.findById("3"));
+
+    UserQuery query = new UserQuery();
+    query.company = "OHMNET";
+    assertTrue(repository.find(query).isEmpty());
+    assertEquals(List.of("Chris", "Pat"), names(repository.find(new UserQuery())));
+  }
+
+  @Test
+  void handlesUsersWithMissingFields() {
+    User unknown = new User();
+    unknown._id = "5";
+    repository.save(unknown);
+
+    UserQuery byCompany = new UserQuery();
+    byCompany.company = "OHMNET";
+    assertEquals(2, repository.find(byCompany).size());
+    // Missing names sort first, as in Mongo
+    assertNull(repository.find(new UserQuery()).get(0).name);
+
+    repository.deleteByIds(List.of("5"));
+    assertEquals(4, repository.find(new UserQuery()).size());
+  }
+
+  @Test
+  void countsAndFacets() {
+    UserQuery query = new UserQuery();
+    query.company = "OHMNET";
+    assertEquals(2, repository.count(query));
+
+    UserFacets facets = repository.facets(query);
+    assertEquals(2, facets.total);
+    assertEquals(Map.of("viewer", 2L), facets.roles);
+    assertEquals(Map.of("OHMNET", 2L), facets.companies);
+
+    User unknown = new User();
+    unknown._id = "5";
+    repository.save(unknown);
+    facets = repository.facets(new UserQuery());
+    assertEquals(5, facets.total);
+    assertEquals(4, facets.roles.values().stream().mapToLong(Long::longValue).sum());
+  }
+
+  @Test
+  void pagesThroughSortedUsers() {
+    UserQuery query = new UserQuery();
+    query.offset = 1;
+    query.limit = 2;
+    assertEquals(List.of("Jamie", "Pat"), names(repository.find(query)));
+
+    query.offset = 10;
+    assertTrue(repository.find(query).isEmpty());
+
+    query.offset = 3;
+    query.limit = null;
+    assertEquals(List.of("Sam"), names(repository.find(query)));
+  }
+}
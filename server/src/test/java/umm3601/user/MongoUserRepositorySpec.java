@@ -0,0 +1,270 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.http.GatewayTimeoutResponse;
+import umm3601.RequestDeadline;
+import umm3601.slowquery.SlowQuery;
+import umm3601.slowquery.SlowQueryLog;
+
+/**
+ * Tests for the `MongoUserRepository`, using a collection read and
+ * written with the `UserCodec`.
+ *
+ * Most of the repository is also exercised (through the MongoJack
+ * collection) by `UserControllerSpec`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class MongoUserRepositorySpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<User> userCollection;
+  private MongoUserRepository repository;
+  private String samsId;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  private static User user(String name, int age, String company, String role) {
+    User user = new User();
+    user._id = new ObjectId().toHexString();
+    user.name = name;
+    user.age = age;
+    user.company = company;
+    user.email = name.toLowerCase() + "@example.com";
+    user.role = role;
+    return user;
+  }
+
+  @BeforeEach
+  void setupEach() {
+    userCollection = db.getCollection("repositoryUsers", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(db.getCodecRegistry()));
+    userCollection.drop();
+    UserQueryPlanner.createIndexes(userCollection);
+    repository = new MongoUserRepository(userCollection);
+
+    User sam = user("Sam", 45, "OHMNET", "viewer");
+    samsId = sam._id;
+    repository.saveAll(List.of(
+      user("Chris", 25, "UMM", "admin"),
+      user("Pat", 37, "IBM", "editor"),
+      sam));
+  }
+
+  @Test
+  void findsAndSorts() {
+    UserQuery query = new UserQuery();
+    query.sortBy = "age";
+    query.descending = true;
+    List<String> names = repository.find(query).stream().map(user -> user.name).collect(Collectors.toList());
+    assertEquals(List.of("Sam", "Pat", "Chris"), names);
+
+    UserQuery filtered = new UserQuery();
+    filtered.company = "ohm";
+    filtered.role = "viewer";
+    filtered.age = 45;
+    assertEquals(List.of("Sam"), repository.find(filtered).stream().map(user -> user.name).toList());
+  }
+
+  @Test
+  void sortsByEmailWithoutTheEmailIndex() {
+    // This collection doesn't have the unique email index, so it mustn't be hinted
+    UserQuery query = new UserQuery();
+    query.sortBy = "email";
+    assertEquals(List.of("Chris", "Pat", "Sam"), repository.find(query).stream().map(user -> user.name).toList());
+
+    query.role = "viewer";
+    query.descending = true;
+    assertEquals(List.of("Sam"), repository.find(query).stream().map(user -> user.name).toList());
+  }
+
+  @Test
+  void sortsByEmailIgnoringCaseWithARoleFilter() {
+    User lower = user("Alex", 30, "UMM", "viewer");
+    lower.email = "alex@example.com";
+    User upper = user("Bo", 30, "UMM", "viewer");
+    upper.email = "BO@example.com";
+    repository.saveAll(List.of(upper, lower));
+
+    UserQuery query = new UserQuery();
+    query.sortBy = "email";
+    query.role = "viewer";
+    // Without the email collation, "BO" would sort before "alex"
+    assertEquals(List.of("Alex", "Bo", "Sam"), repository.find(query).stream().map(user -> user.name).toList());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void plansEmailSortsWithTheEmailCollationWhateverTheFilters() {
+    FindIterable<User> find = mock(FindIterable.class, Mockito.RETURNS_SELF);
+    UserQuery query = new UserQuery();
+    query.sortBy = "email";
+    query.role = "viewer";
+    query.age = 45;
+
+    UserQueryPlanner.plan(find, query);
+
+    verify(find).collation(UserController.EMAIL_COLLATION);
+    // The email index may not exist, so it's never hinted
+    verify(find, Mockito.never()).hintString(any());
+  }
+
+  @Test
+  void createsACollatedRoleAndEmailIndex() {
+    Document index = userCollection.listIndexes()
+      .into(new ArrayList<>())
+      .stream()
+      .filter(candidate -> "role_1_email_1".equals(candidate.getString("name")))
+      .findFirst()
+      .orElseThrow();
+    assertEquals(new Document("role", 1).append("email", 1), index.get("key", Document.class));
+    assertNotNull(index.get("collation"));
+  }
+
+  @Test
+  void exactFilterMatchesWholeCompanies() {
+    UserQuery query = new UserQuery();
+    query.company = "ohm";
+    assertEquals(0, userCollection.countDocuments(MongoUserRepository.exactFilter(query)));
+    query.company = "ohmnet";
+    assertEquals(1, userCollection.countDocuments(MongoUserRepository.exactFilter(query)));
+    // Regex characters in the company name are just characters
+    query.company = ".*";
+    assertEquals(0, userCollection.countDocuments(MongoUserRepository.exactFilter(query)));
+  }
+
+  @Test
+  void savesOverExistingUsers() {
+    User sam = repository.findById(samsId);
+    sam.role = "admin";
+    repository.save(sam);
+
+    assertEquals("admin", repository.findById(samsId).role);
+    assertEquals(3, userCollection.countDocuments());
+  }
+
+  @Test
+  void deletesUsers() {
+    repository.deleteByIds(List.of(samsId, new ObjectId().toHexString()));
+
+    assertNull(repository.findById(samsId));
+    assertEquals(2, userCollection.countDocuments());
+    assertEquals(0, repository.findByIds(List.of(samsId)).size());
+  }
+
+  @Test
+  void lookupsByIdStopAtTheRequestDeadline() {
+    // A request that has already run out of time doesn't get to ask Mongo for anything.
+    RequestDeadline.start(-1);
+    try {
+      assertThrows(GatewayTimeoutResponse.class, () -> repository.findById(samsId));
+      assertThrows(GatewayTimeoutResponse.class, () -> repository.findByIds(List.of(samsId)));
+    } finally {
+      RequestDeadline.clear();
+    }
+    assertEquals("Sam", repository.findById(samsId).name);
+  }
+
+  @Test
+  void countsAndFacets() {
+    UserQuery query = new UserQuery();
+    assertEquals(3, repository.count(query));
+
+    query.company = "m";
+    UserFacets facets = repository.facets(query);
+    assertEquals(3, facets.total);
+    assertEquals(Map.of("admin", 1L, "editor", 1L, "viewer", 1L), facets.roles);
+    assertEquals(Map.of("UMM", 1L, "IBM", 1L, "OHMNET", 1L), facets.companies);
+  }
+
+  @Test
+  void facetsAreInTheSameOrderForEveryRepository() {
+    // The users were saved in the order UMM, IBM, OHMNET, which isn't sorted
+    List<User> users = repository.find(new UserQuery());
+    InMemoryUserRepository inMemory = new InMemoryUserRepository();
+    inMemory.saveAll(users);
+    SnapshotUserRepository snapshot = new SnapshotUserRepository();
+    snapshot.replaceAll(userCollection.find());
+
+    for (UserRepository other : List.of(repository, inMemory, snapshot)) {
+      UserFacets facets = other.facets(new UserQuery());
+      String name = other.getClass().getSimpleName();
+      assertEquals(List.of("admin", "editor", "viewer"), List.copyOf(facets.roles.keySet()), name);
+      assertEquals(List.of("IBM", "OHMNET", "UMM"), List.copyOf(facets.companies.keySet()), name);
+    }
+  }
+
+  @Test
+  void recordsAndExplainsSlowQueries() {
+    // Every query is "slow", and explained right away
+    SlowQueryLog slowQueryLog = new SlowQueryLog(0, 1, 10, Runnable::run);
+    MongoUserRepository logged = new MongoUserRepository(userCollection, slowQueryLog);
+
+    UserQuery byAge = new UserQuery();
+    byAge.sortBy = "age";
+    assertEquals(3, logged.find(byAge).size());
+    SlowQuery find = slowQueryLog.recent().get(0);
+    assertEquals("find", find.operation);
+    assertEquals("{\"age\": 1}", find.sort);
+    assertTrue(find.explained);
+    // The planner hints the index for the sort
+    assertEquals("IXSCAN", find.plan);
+    assertEquals("age_1", find.index);
+    assertEquals(3, find.returned);
+
+    logged.facets(new UserQuery());
+    // A count, then counts by role and by company
+    List<SlowQuery> facets = slowQueryLog.recent();
+    assertEquals(List.of("aggregate", "aggregate", "count", "find"),
+      facets.stream().map(query -> query.operation).toList());
+    // With no filters, the count has to look at every user
+    assertEquals("COLLSCAN", facets.get(2).plan);
+    assertEquals(3, facets.get(2).docsExamined);
+  }
+}
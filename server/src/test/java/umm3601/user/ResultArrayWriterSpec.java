@@ -0,0 +1,131 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests for the `ResultArrayWriter`, which writes the arrays for the
+ * user list endpoints without letting them get too large.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ResultArrayWriterSpec {
+
+  private static final String HINT = "ask for less";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private static User user(String name) {
+    User user = new User();
+    user.name = name;
+    user.age = 25;
+    user.company = "UMM";
+    user.email = name.toLowerCase() + "@this.that";
+    user.role = "viewer";
+    return user;
+  }
+
+  private static String json(ResultArrayWriter writer) {
+    return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void writesEmptyArray() {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, ResultLimits.DEFAULT, HINT);
+    assertEquals("[]", json(writer));
+  }
+
+  @Test
+  void writesResultsInOrder() throws Exception {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, ResultLimits.DEFAULT, HINT);
+    writer.add(user("Chris"));
+    writer.add(user("Pat"));
+
+    User[] users = mapper.readValue(json(writer), User[].class);
+    assertEquals(2, users.length);
+    assertEquals("Chris", users[0].name);
+    assertEquals("Pat", users[1].name);
+  }
+
+  @Test
+  void writesRawResults() {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, ResultLimits.DEFAULT, HINT);
+    writer.addRaw("{\"name\":\"Chris\"}");
+    writer.addRaw("{\"name\":\"Pat\"}");
+    assertEquals("[{\"name\":\"Chris\"},{\"name\":\"Pat\"}]", json(writer));
+  }
+
+  @Test
+  void allowsExactlyMaxResults() {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, new ResultLimits(2, 1024), HINT);
+    writer.addRaw("1");
+    writer.addRaw("2");
+    assertEquals("[1,2]", json(writer));
+  }
+
+  @Test
+  void growsPastItsFirstBuffer() throws Exception {
+    // Enough users to fill the writer's first buffer a few times over
+    User[] expected = new User[1000];
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, new ResultLimits(1000, 1024 * 1024), HINT);
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = user("User" + i);
+      writer.add(expected[i]);
+    }
+    assertEquals(mapper.writeValueAsString(expected), json(writer));
+  }
+
+  @Test
+  void rejectsTooManyResults() {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, new ResultLimits(2, 1024 * 1024), HINT);
+    writer.add(user("Chris"));
+    writer.add(user("Pat"));
+
+    HttpResponseException e = assertThrows(HttpResponseException.class, () -> writer.add(user("Sam")));
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), e.getStatus());
+    assertTrue(e.getMessage().endsWith(HINT));
+    assertEquals(Map.of("maxResults", "2", "maxBytes", "1048576"), e.getDetails());
+  }
+
+  @Test
+  void rejectsTooManyBytes() {
+    ResultArrayWriter unlimited = new ResultArrayWriter(mapper, ResultLimits.DEFAULT, HINT);
+    unlimited.add(user("Chris"));
+    int oneUser = unlimited.toByteArray().length;
+
+    // Room for one user, but not two
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, new ResultLimits(100, oneUser + 8), HINT);
+    writer.add(user("Chris"));
+
+    HttpResponseException e = assertThrows(HttpResponseException.class, () -> writer.add(user("Pat")));
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), e.getStatus());
+    assertEquals(String.valueOf(oneUser + 8), e.getDetails().get("maxBytes"));
+  }
+
+  @Test
+  void rejectsTooManyRawBytes() {
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, new ResultLimits(100, 8), HINT);
+    writer.addRaw("\"abc\"");
+
+    assertThrows(HttpResponseException.class, () -> writer.addRaw("\"def\""));
+  }
+
+  @Test
+  void rejectsClosingBracketPastTheLimit() {
+    // `[` and `"abcd"` fit in 7 bytes, but the closing `]` doesn't
+    ResultArrayWriter writer = new ResultArrayWriter(mapper, new ResultLimits(100, 7), HINT);
+    writer.addRaw("\"abcd\"");
+
+    assertThrows(HttpResponseException.class, writer::toByteArray);
+  }
+}
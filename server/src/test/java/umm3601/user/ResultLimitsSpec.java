@@ -0,0 +1,199 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.Validation;
+import umm3601.ObjectMappers;
+import umm3601.slowquery.SlowQueryLog;
+
+/**
+ * Tests that `getUsers` and `getUsersGroupedByCompany` won't send more
+ * results than their `ResultLimits` allow, but will send pages that fit.
+ *
+ * The rest of the controller is tested by `UserControllerSpec`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ResultLimitsSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private static JavalinJackson javalinJackson = new JavalinJackson();
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<byte[]> resultCaptor;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  private static Document user(String name, int age, String company, String role) {
+    return new Document()
+        .append("name", name)
+        .append("age", age)
+        .append("company", company)
+        .append("email", name.toLowerCase() + "@example.com")
+        .append("role", role);
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    MongoCollection<Document> userDocuments = db.getCollection("users");
+    userDocuments.drop();
+    userDocuments.insertMany(List.of(
+        user("Chris", 25, "UMM", "admin"),
+        user("Pat", 37, "IBM", "editor"),
+        user("Jamie", 37, "OHMNET", "viewer"),
+        user("Sam", 45, "OHMNET", "viewer")));
+  }
+
+  /**
+   * Read back a JSON array of users written by `getUsers`.
+   */
+  private static List<User> users(byte[] json) {
+    return Arrays.asList(javalinJackson.fromJsonString(new String(json, StandardCharsets.UTF_8), User[].class));
+  }
+
+  /**
+   * Read back a JSON array of companies written by `getUsersGroupedByCompany`.
+   */
+  private static List<UserByCompany> companies(byte[] json) {
+    return Arrays.asList(
+      javalinJackson.fromJsonString(new String(json, StandardCharsets.UTF_8), UserByCompany[].class));
+  }
+
+  /**
+   * A controller that won't send more than `maxResults` users (or companies).
+   */
+  private static UserController limitedController(UserReadMode readMode, int maxResults) {
+    return new UserController(db, ObjectMappers.createObjectMapper(), readMode, null, SlowQueryLog.disabled(),
+      new ResultLimits(maxResults, ResultLimits.DEFAULT_MAX_BYTES));
+  }
+
+  @Test
+  void getUsersRejectsTooManyUsers() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    for (UserReadMode readMode : UserReadMode.values()) {
+      UserController controller = limitedController(readMode, 3);
+      HttpResponseException exception = assertThrows(HttpResponseException.class, () -> controller.getUsers(ctx));
+      assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), exception.getStatus(), readMode.name());
+      assertEquals("3", exception.getDetails().get("maxResults"));
+    }
+    verify(ctx, Mockito.never()).result(any(byte[].class));
+  }
+
+  @Test
+  void getUsersAllowsPagesWithinTheLimit() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.OFFSET_KEY, Arrays.asList(new String[] {"1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.OFFSET_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.OFFSET_KEY, Integer.class, "1"));
+
+    // Skipping one of the four users leaves exactly three
+    limitedController(UserReadMode.JACKSON, 3).getUsers(ctx);
+
+    verify(ctx).result(resultCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    List<String> names = users(resultCaptor.getValue()).stream().map(user -> user.name).toList();
+    assertEquals(List.of("Jamie", "Pat", "Sam"), names);
+  }
+
+  @Test
+  void getUsersRejectsLimitsAboveTheMax() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {"1000"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.LIMIT_KEY, Integer.class, "1000"));
+
+    UserController controller = limitedController(UserReadMode.JACKSON, 2);
+    assertThrows(HttpResponseException.class, () -> controller.getUsers(ctx));
+  }
+
+  @Test
+  void getUsersGroupedByCompanyRejectsTooManyCompanies() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    UserController controller = limitedController(UserReadMode.JACKSON, 2);
+    HttpResponseException exception = assertThrows(HttpResponseException.class,
+      () -> controller.getUsersGroupedByCompany(ctx));
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), exception.getStatus());
+    assertTrue(exception.getMessage().contains("companies"));
+  }
+
+  @Test
+  void canGetPageOfCompanies() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {"2"}));
+    queryParams.put(UserController.OFFSET_KEY, Arrays.asList(new String[] {"1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.LIMIT_KEY, Integer.class, "2"));
+    when(ctx.queryParamAsClass(UserController.OFFSET_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.OFFSET_KEY, Integer.class, "1"));
+
+    // Two companies per page is within the limit, even though all three aren't
+    limitedController(UserReadMode.JACKSON, 2).getUsersGroupedByCompany(ctx);
+
+    verify(ctx).result(resultCaptor.capture());
+    List<String> companies = companies(resultCaptor.getValue()).stream().map(company -> company._id).toList();
+    assertEquals(List.of("OHMNET", "UMM"), companies);
+  }
+}
@@ -0,0 +1,319 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.GatewayTimeoutResponse;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import io.javalin.validation.ValidationException;
+import umm3601.ObjectMappers;
+import umm3601.RequestDeadline;
+
+/**
+ * Tests adding and deleting many users at once with `UserBulkController`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserBulkControllerSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private ObjectId samsId;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<Map<String, Long>> countCaptor;
+
+  @Captor
+  private ArgumentCaptor<Map<String, List<Object>>> bulkResultCaptor;
+
+  // The `UserController` creates the indexes (e.g., the unique index on
+  // emails) and generates the avatars for the bulk controller.
+  private UserController userController;
+  private UserBulkController bulkController;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  private static Document user(String name, int age, String company, String email) {
+    return new Document()
+        .append("name", name)
+        .append("age", age)
+        .append("company", company)
+        .append("email", email)
+        .append("role", "viewer");
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    MongoCollection<Document> userDocuments = db.getCollection("users");
+    userDocuments.drop();
+    db.getCollection("userChanges").drop();
+    db.getCollection("userIdempotencyKeys").drop();
+    samsId = new ObjectId();
+    userDocuments.insertMany(List.of(
+        user("Chris", 25, "UMM", "chris@this.that"),
+        user("Pat", 37, "IBM", "pat@something.com"),
+        user("Jamie", 37, "OHMNET", "jamie@frogs.com"),
+        user("Sam", 45, "OHMNET", "sam@frogs.com").append("_id", samsId)));
+
+    userController = new UserController(db);
+    bulkController = new UserBulkController(db, ObjectMappers.createObjectMapper(),
+      UserBulkController.DEFAULT_MAX_BULK_BODY_BYTES, null, userController::generateAvatar);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    bulkController.addRoutes(mockServer);
+    verify(mockServer, Mockito.times(2)).post(any(), any());
+    verify(mockServer).delete(any(), any());
+  }
+
+  @Test
+  void addNewUsersInBulk() throws IOException {
+    String newUsersJson = """
+        [
+          {"name": "Alex", "age": 30, "company": "UMM", "email": "alex@this.that", "role": "editor"},
+          {"name": "Another Sam", "age": 25, "company": "UMM", "email": "Sam@Frogs.com", "role": "viewer"},
+          {"name": "Robin", "age": 41, "company": "IBM", "email": "robin@something.com", "role": "admin"}
+        ]
+        """;
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(newUsersJson.getBytes(StandardCharsets.UTF_8)));
+
+    bulkController.addNewUsers(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+    List<Object> ids = bulkResultCaptor.getValue().get("ids");
+    assertEquals(3, ids.size());
+    // The second user has Sam's email, so they shouldn't have been added
+    assertNull(ids.get(1));
+    assertEquals(List.of(1), bulkResultCaptor.getValue().get("duplicates"));
+    Document alex = db.getCollection("users").find(eq("_id", new ObjectId((String) ids.get(0)))).first();
+    assertEquals("Alex", alex.get("name"));
+    assertNotNull(alex.get("avatar"));
+    assertEquals(6, db.getCollection("users").countDocuments());
+    // Only the users that were added show up in the change log
+    assertEquals(2, db.getCollection("userChanges").countDocuments(eq("op", UserChangeLog.CHANGE_OP_INSERT)));
+  }
+
+
+  @Test
+  void addNewUsersInBulkWithAnIllegalUser() throws IOException {
+    String newUsersJson = """
+        [
+          {"name": "Alex", "age": 30, "company": "UMM", "email": "alex@this.that", "role": "editor"},
+          {"name": "Robin", "age": 41, "company": "IBM", "email": "robin@something.com", "role": "invalidrole"}
+        ]
+        """;
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(newUsersJson.getBytes(StandardCharsets.UTF_8)));
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> {
+      bulkController.addNewUsers(ctx);
+    });
+
+    // The problem should be reported against the second user, and nobody should be added
+    String exceptionMessage = exception.getErrors().get("REQUEST_BODY[1]").get(0).toString();
+    assertTrue(exceptionMessage.contains("invalidrole"));
+    assertEquals(4, db.getCollection("users").countDocuments());
+  }
+
+
+  @Test
+  void addNewUsersInBulkWithNoUsers() throws IOException {
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      bulkController.addNewUsers(ctx);
+    });
+  }
+
+
+  @Test
+  void addNewUsersInBulkWithTooLargeBody() throws IOException {
+    UserBulkController smallController = new UserBulkController(db, ObjectMappers.createObjectMapper(), 10, null,
+      userController::generateAvatar);
+    when(ctx.contentLength()).thenReturn(11);
+
+    HttpResponseException exception = assertThrows(HttpResponseException.class, () -> {
+      smallController.addNewUsers(ctx);
+    });
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), exception.getStatus());
+    // We shouldn't have even looked at the body
+    verify(ctx, Mockito.never()).bodyInputStream();
+  }
+
+
+  @Test
+  void deleteUsersByCompany() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+
+    bulkController.deleteUsers(ctx);
+
+    verify(ctx).json(countCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(2L, countCaptor.getValue().get("deleted"));
+    assertEquals(0, db.getCollection("users").countDocuments(eq("company", "OHMNET")));
+    assertEquals(2, db.getCollection("users").countDocuments());
+    // Both deletions should be in the change log for delta syncs
+    assertEquals(2, db.getCollection("userChanges").countDocuments(eq("op", UserChangeLog.CHANGE_OP_DELETE)));
+  }
+
+
+  @Test
+  void deleteUsersByCompanyMatchesTheWholeName() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"ohm"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("ohm");
+
+    bulkController.deleteUsers(ctx);
+
+    // "ohm" is only part of "OHMNET", so nobody is deleted (or logged as deleted)
+    verify(ctx).json(countCaptor.capture());
+    assertEquals(0L, countCaptor.getValue().get("deleted"));
+    assertEquals(4, db.getCollection("users").countDocuments());
+    assertEquals(0, db.getCollection("userChanges").countDocuments());
+  }
+
+
+  @Test
+  void deleteUsersWithoutFilters() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    assertThrows(BadRequestResponse.class, () -> {
+      bulkController.deleteUsers(ctx);
+    });
+
+    // Nobody should have been deleted
+    assertEquals(4, db.getCollection("users").countDocuments());
+  }
+
+
+  @Test
+  void deleteUsersAfterTheRequestDeadline() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+
+    RequestDeadline.start(-1);
+    try {
+      assertThrows(GatewayTimeoutResponse.class, () -> {
+        bulkController.deleteUsers(ctx);
+      });
+    } finally {
+      RequestDeadline.clear();
+    }
+
+    // The request ran out of time before it could delete anybody
+    assertEquals(4, db.getCollection("users").countDocuments());
+    assertEquals(0, db.getCollection("userChanges").countDocuments());
+  }
+
+
+  @Test
+  void deleteUsersByIds() throws IOException {
+    UserIdList idList = new UserIdList();
+    idList.ids = List.of(samsId.toHexString(), new ObjectId().toHexString());
+    when(ctx.bodyAsClass(UserIdList.class)).thenReturn(idList);
+
+    bulkController.deleteUsersByIds(ctx);
+
+    verify(ctx).json(countCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(1L, countCaptor.getValue().get("deleted"));
+    assertEquals(0, db.getCollection("users").countDocuments(eq("_id", samsId)));
+    assertEquals(3, db.getCollection("users").countDocuments());
+  }
+
+
+  @Test
+  void deleteUsersByIdsInSeveralBatches() throws IOException {
+    // Add enough users that deleting them takes more than one batch
+    List<Document> extraUsers = new ArrayList<>();
+    for (int i = 0; i < UserBulkController.DELETE_BATCH_SIZE + 10; i++) {
+      extraUsers.add(new Document()
+          .append("name", "Temp " + i)
+          .append("age", 30)
+          .append("company", "TEMPS")
+          .append("email", "temp" + i + "@temps.com")
+          .append("role", "viewer"));
+    }
+    db.getCollection("users").insertMany(extraUsers);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"TEMPS"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("TEMPS");
+
+    bulkController.deleteUsers(ctx);
+
+    verify(ctx).json(countCaptor.capture());
+    assertEquals((long) UserBulkController.DELETE_BATCH_SIZE + 10, countCaptor.getValue().get("deleted"));
+    assertEquals(4, db.getCollection("users").countDocuments());
+  }
+
+}
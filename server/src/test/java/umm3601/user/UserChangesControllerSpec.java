@@ -0,0 +1,271 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
+
+/**
+ * Tests the feed of changes to the users in `UserChangesController`. The
+ * changes themselves are made through a `UserController`, which records
+ * them in the `UserChangeLog`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserChangesControllerSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  // Used to translate between JSON and POJOs.
+  private static JavalinJackson javalinJackson = new JavalinJackson();
+
+  private ObjectId samsId;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<UserChanges> userChangesCaptor;
+
+  private UserController userController;
+  private UserChangesController changesController;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  private static Document user(String name, int age, String company, String email) {
+    return new Document()
+        .append("name", name)
+        .append("age", age)
+        .append("company", company)
+        .append("email", email)
+        .append("role", "viewer");
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    MongoCollection<Document> userDocuments = db.getCollection("users");
+    userDocuments.drop();
+    db.getCollection("userChanges").drop();
+    db.getCollection("userIdempotencyKeys").drop();
+    samsId = new ObjectId();
+    userDocuments.insertMany(List.of(
+        user("Chris", 25, "UMM", "chris@this.that"),
+        user("Pat", 37, "IBM", "pat@something.com"),
+        user("Jamie", 37, "OHMNET", "jamie@frogs.com"),
+        user("Sam", 45, "OHMNET", "sam@frogs.com").append("_id", samsId)));
+
+    userController = new UserController(db);
+    changesController = new UserChangesController(db);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    changesController.addRoutes(mockServer);
+    verify(mockServer).get(any(), any());
+  }
+
+  @Test
+  void getUserChangesWithoutTokenReturnsAllUsers() throws IOException {
+    changesController.getUserChanges(ctx);
+
+    verify(ctx).json(userChangesCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    UserChanges changes = userChangesCaptor.getValue();
+    assertEquals(db.getCollection("users").countDocuments(), changes.inserted.size());
+    assertEquals(0, changes.deleted.size());
+    // With no changes logged yet, the token is (about) the database's current time
+    long tokenSeconds = new BsonTimestamp(Long.parseLong(changes.token)).getTime();
+    assertTrue(Math.abs(System.currentTimeMillis() / 1000 - tokenSeconds) < 60);
+  }
+
+  @Test
+  void getUserChangesReportsInsertsAndDeletes() throws IOException {
+    // Do a full sync to get a token
+    changesController.getUserChanges(ctx);
+    verify(ctx).json(userChangesCaptor.capture());
+    String token = userChangesCaptor.getValue().token;
+
+    // Delete Sam and add a new user after we got the token
+    Context deleteCtx = mock(Context.class);
+    when(deleteCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(deleteCtx);
+    String taylorJson = """
+        {"name": "Taylor", "age": 30, "company": "UMM", "email": "taylor@this.that", "role": "editor"}
+        """;
+    Context addCtx = mock(Context.class);
+    when(addCtx.bodyValidator(User.class)).then(value -> new BodyValidator<User>(taylorJson, User.class,
+      () -> javalinJackson.fromJsonString(taylorJson, User.class)));
+    userController.addNewUser(addCtx);
+
+    Context syncCtx = mock(Context.class);
+    when(syncCtx.queryParam(UserChangesController.SINCE_KEY)).thenReturn(token);
+    changesController.getUserChanges(syncCtx);
+
+    ArgumentCaptor<UserChanges> captor = ArgumentCaptor.forClass(UserChanges.class);
+    verify(syncCtx).json(captor.capture());
+    verify(syncCtx).status(HttpStatus.OK);
+    UserChanges changes = captor.getValue();
+    assertEquals(1, changes.inserted.size());
+    assertEquals("Taylor", changes.inserted.get(0).name);
+    assertEquals(List.of(samsId.toHexString()), changes.deleted);
+    assertNotEquals(token, changes.token);
+  }
+
+  @Test
+  void getUserChangesWithNoChangesKeepsToken() throws IOException {
+    changesController.getUserChanges(ctx);
+    verify(ctx).json(userChangesCaptor.capture());
+    String token = userChangesCaptor.getValue().token;
+
+    Context syncCtx = mock(Context.class);
+    when(syncCtx.queryParam(UserChangesController.SINCE_KEY)).thenReturn(token);
+    changesController.getUserChanges(syncCtx);
+
+    ArgumentCaptor<UserChanges> captor = ArgumentCaptor.forClass(UserChanges.class);
+    verify(syncCtx).json(captor.capture());
+    assertEquals(0, captor.getValue().inserted.size());
+    assertEquals(0, captor.getValue().deleted.size());
+    assertEquals(token, captor.getValue().token);
+  }
+
+  @Test
+  void getUserChangesWithBadToken() throws IOException {
+    when(ctx.queryParam(UserChangesController.SINCE_KEY)).thenReturn("bad");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      changesController.getUserChanges(ctx);
+    });
+  }
+
+  @Test
+  void getUserChangesWithExpiredToken() throws IOException {
+    when(ctx.queryParam(UserChangesController.SINCE_KEY))
+      .thenReturn(String.valueOf(new BsonTimestamp(1, 0).getValue()));
+
+    HttpResponseException exception = assertThrows(HttpResponseException.class, () -> {
+      changesController.getUserChanges(ctx);
+    });
+    assertEquals(HttpStatus.GONE.getCode(), exception.getStatus());
+  }
+
+  @Test
+  void getUserChangesReportsUpdates() throws IOException {
+    changesController.getUserChanges(ctx);
+    verify(ctx).json(userChangesCaptor.capture());
+    String token = userChangesCaptor.getValue().token;
+
+    Context updateCtx = mock(Context.class);
+    when(updateCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(updateCtx.bodyAsClass(Map.class)).thenReturn(Map.of(UserController.ROLE_KEY, "editor"));
+    userController.updateUser(updateCtx);
+
+    Context syncCtx = mock(Context.class);
+    when(syncCtx.queryParam(UserChangesController.SINCE_KEY)).thenReturn(token);
+    changesController.getUserChanges(syncCtx);
+
+    ArgumentCaptor<UserChanges> captor = ArgumentCaptor.forClass(UserChanges.class);
+    verify(syncCtx).json(captor.capture());
+    UserChanges changes = captor.getValue();
+    assertEquals(0, changes.inserted.size());
+    assertEquals(0, changes.deleted.size());
+    assertEquals(1, changes.updated.size());
+    assertEquals("editor", changes.updated.get(0).role);
+  }
+
+
+  @Test
+  void getUserChangesPagesFullSync() throws IOException {
+    UserChangesController pagingController = new UserChangesController(db,
+      new ResultLimits(3, ResultLimits.DEFAULT_MAX_BYTES));
+
+    pagingController.getUserChanges(ctx);
+    verify(ctx).json(userChangesCaptor.capture());
+    UserChanges firstPage = userChangesCaptor.getValue();
+    assertEquals(3, firstPage.inserted.size());
+    assertNotNull(firstPage.cursor);
+
+    Context nextCtx = mock(Context.class);
+    when(nextCtx.queryParam(UserChangesController.CURSOR_KEY)).thenReturn(firstPage.cursor);
+    pagingController.getUserChanges(nextCtx);
+    ArgumentCaptor<UserChanges> captor = ArgumentCaptor.forClass(UserChanges.class);
+    verify(nextCtx).json(captor.capture());
+    UserChanges lastPage = captor.getValue();
+    assertEquals(1, lastPage.inserted.size());
+    assertNull(lastPage.cursor);
+    // Every page has the token from the start of the sync
+    assertEquals(firstPage.token, lastPage.token);
+
+    // Between them, the pages have every user exactly once
+    Set<String> ids = new HashSet<>();
+    firstPage.inserted.forEach(user -> ids.add(user._id));
+    lastPage.inserted.forEach(user -> ids.add(user._id));
+    assertEquals(db.getCollection("users").countDocuments(), ids.size());
+  }
+
+  @Test
+  void getUserChangesWithBadCursor() throws IOException {
+    when(ctx.queryParam(UserChangesController.CURSOR_KEY)).thenReturn("12345:not-an-id");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      changesController.getUserChanges(ctx);
+    });
+  }
+}
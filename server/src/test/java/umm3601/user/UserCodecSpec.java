@@ -0,0 +1,98 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+
+/**
+ * Tests for the hand-written BSON `UserCodec`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserCodecSpec {
+
+  private final UserCodec codec = new UserCodec();
+
+  private BsonDocument encode(User user) {
+    BsonDocument document = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(document), user, EncoderContext.builder().build());
+    return document;
+  }
+
+  private User decode(BsonDocument document) {
+    return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+  }
+
+  @Test
+  void roundTripsUsers() {
+    User user = new User();
+    user._id = new ObjectId().toHexString();
+    user.name = "Connie Stewart";
+    user.age = 25;
+    user.company = "OHMNET";
+    user.email = "conniestewart@ohmnet.com";
+    user.avatar = "https://gravatar.com/avatar/abc?d=identicon";
+    user.role = "admin";
+
+    BsonDocument document = encode(user);
+    assertEquals(new BsonObjectId(new ObjectId(user._id)), document.get("_id"));
+    assertEquals(new BsonInt32(25), document.get("age"));
+
+    User copy = decode(document);
+    assertEquals(user, copy);
+    assertEquals(user.name, copy.name);
+    assertEquals(user.age, copy.age);
+    assertEquals(user.company, copy.company);
+    assertEquals(user.email, copy.email);
+    assertEquals(user.avatar, copy.avatar);
+    assertEquals(user.role, copy.role);
+  }
+
+  @Test
+  void leavesOutMissingFields() {
+    User user = new User();
+    user.name = "No ID";
+
+    BsonDocument document = encode(user);
+    assertFalse(document.containsKey("_id"));
+    assertFalse(document.containsKey("email"));
+    assertEquals(new BsonString("No ID"), document.get("name"));
+  }
+
+  @Test
+  void ignoresNullsAndUnknownFields() {
+    BsonDocument document = new BsonDocument()
+      .append("name", new BsonString("Pat"))
+      .append("email", BsonNull.VALUE)
+      .append("favoriteColor", new BsonString("green"))
+      .append("age", new BsonInt32(37));
+
+    User user = decode(document);
+    assertEquals("Pat", user.name);
+    assertEquals(37, user.age);
+    assertNull(user.email);
+    assertNull(user._id);
+  }
+
+  @Test
+  void registryUsesUserCodec() {
+    CodecRegistry registry = UserCodec.withUserCodec(MongoClientSettings.getDefaultCodecRegistry());
+    assertSame(UserCodec.class, registry.get(User.class).getClass());
+    assertEquals(User.class, codec.getEncoderClass());
+  }
+}
@@ -0,0 +1,157 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import umm3601.ObjectMappers;
+import umm3601.ResponseFormat;
+
+/**
+ * Tests that the `UserController` read endpoints respond in the format
+ * the request's `Accept` header asks for (see `ResponseFormat`).
+ *
+ * The rest of the controller is tested by `UserControllerSpec`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserControllerFormatSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private UserController userController;
+  private ObjectId samsId;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<byte[]> resultCaptor;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  private static Document user(String name, int age, String company, String role) {
+    return new Document()
+        .append("name", name)
+        .append("age", age)
+        .append("company", company)
+        .append("email", name.toLowerCase() + "@example.com")
+        .append("role", role);
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    MongoCollection<Document> userDocuments = db.getCollection("users");
+    userDocuments.drop();
+    samsId = new ObjectId();
+    userDocuments.insertMany(List.of(
+        user("Chris", 25, "UMM", "admin"),
+        user("Pat", 37, "IBM", "editor"),
+        user("Jamie", 37, "OHMNET", "viewer"),
+        user("Sam", 45, "OHMNET", "viewer").append("_id", samsId)));
+
+    userController = new UserController(db);
+  }
+
+  @Test
+  void getUsersInTheRequestedFormat() throws IOException {
+    Map<ResponseFormat, ObjectMapper> mappers = ResponseFormat.createMappers(ObjectMappers.createObjectMapper());
+
+    for (UserReadMode readMode : UserReadMode.values()) {
+      for (ResponseFormat format : List.of(ResponseFormat.SMILE, ResponseFormat.CBOR, ResponseFormat.MESSAGE_PACK)) {
+        Context formatCtx = mock(Context.class);
+        when(formatCtx.queryParamMap()).thenReturn(Collections.emptyMap());
+        when(formatCtx.header(Header.ACCEPT)).thenReturn(format.contentType());
+        ArgumentCaptor<byte[]> bytesCaptor = ArgumentCaptor.forClass(byte[].class);
+
+        new UserController(db, ObjectMappers.createObjectMapper(), readMode)
+          .getUsers(formatCtx);
+
+        verify(formatCtx).contentType(format.contentType());
+        verify(formatCtx).header(Header.VARY, Header.ACCEPT);
+        verify(formatCtx).result(bytesCaptor.capture());
+        User[] users = mappers.get(format).readValue(bytesCaptor.getValue(), User[].class);
+        assertEquals(db.getCollection("users").countDocuments(), users.length, readMode + " " + format);
+        assertEquals("Chris", users[0].name);
+      }
+    }
+  }
+
+  @Test
+  void getUserInTheRequestedFormat() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.header(Header.ACCEPT)).thenReturn("application/msgpack, application/json;q=0.5");
+    ArgumentCaptor<byte[]> bytesCaptor = ArgumentCaptor.forClass(byte[].class);
+
+    userController.getUser(ctx);
+
+    verify(ctx, Mockito.never()).json(any());
+    verify(ctx).contentType(ResponseFormat.MESSAGE_PACK.contentType());
+    verify(ctx).result(bytesCaptor.capture());
+    ObjectMapper mapper = ResponseFormat.createMappers(ObjectMappers.createObjectMapper())
+      .get(ResponseFormat.MESSAGE_PACK);
+    assertEquals("Sam", mapper.readValue(bytesCaptor.getValue(), User.class).name);
+  }
+
+  @Test
+  void getUsersGroupedByCompanyInTheRequestedFormat() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.header(Header.ACCEPT)).thenReturn(ResponseFormat.SMILE.contentType());
+
+    userController.getUsersGroupedByCompany(ctx);
+
+    verify(ctx).contentType(ResponseFormat.SMILE.contentType());
+    verify(ctx).result(resultCaptor.capture());
+    ObjectMapper mapper = ResponseFormat.createMappers(ObjectMappers.createObjectMapper()).get(ResponseFormat.SMILE);
+    UserByCompany[] companies = mapper.readValue(resultCaptor.getValue(), UserByCompany[].class);
+    assertEquals(3, companies.length);
+    assertEquals("IBM", companies[0]._id);
+  }
+}
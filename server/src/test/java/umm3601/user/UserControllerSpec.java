@@ -2,18 +2,24 @@ package umm3601.user;
 
 import static com.mongodb.client.model.Filters.eq;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,15 +52,21 @@ import com.mongodb.client.MongoDatabase;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
+import io.javalin.http.GatewayTimeoutResponse;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.http.UnprocessableContentResponse;
 import io.javalin.json.JavalinJackson;
 import io.javalin.validation.BodyValidator;
 import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationError;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import umm3601.ObjectMappers;
+import umm3601.RequestDeadline;
+import umm3601.ResponseFormat;
 
 /**
  * Tests the logic of the UserController
@@ -92,8 +104,11 @@ class UserControllerSpec {
   @Mock
   private Context ctx;
 
+  // `getUsers` and `getUsersGroupedByCompany` write their JSON arrays
+  // themselves (see `ResultArrayWriter`), so we capture the bytes passed to
+  // `ctx.result(…)` and read them back with `users(…)` or `companies(…)`.
   @Captor
-  private ArgumentCaptor<ArrayList<User>> userArrayListCaptor;
+  private ArgumentCaptor<byte[]> resultCaptor;
 
   @Captor
   private ArgumentCaptor<User> userCaptor;
@@ -101,6 +116,12 @@ class UserControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<ArrayList<UserBatchResult>> batchResultCaptor;
+
+  @Captor
+  private ArgumentCaptor<Map<String, Long>> countCaptor;
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -137,6 +158,8 @@ class UserControllerSpec {
     // Setup database
     MongoCollection<Document> userDocuments = db.getCollection("users");
     userDocuments.drop();
+    db.getCollection("userChanges").drop();
+    db.getCollection("userIdempotencyKeys").drop();
     List<Document> testUsers = new ArrayList<>();
     testUsers.add(
         new Document()
@@ -179,6 +202,21 @@ class UserControllerSpec {
     userController = new UserController(db);
   }
 
+  /**
+   * Read back a JSON array of users written by `getUsers`.
+   */
+  private static List<User> users(byte[] json) {
+    return Arrays.asList(javalinJackson.fromJsonString(new String(json, StandardCharsets.UTF_8), User[].class));
+  }
+
+  /**
+   * Read back a JSON array of companies written by `getUsersGroupedByCompany`.
+   */
+  private static List<UserByCompany> companies(byte[] json) {
+    return Arrays.asList(
+      javalinJackson.fromJsonString(new String(json, StandardCharsets.UTF_8), UserByCompany[].class));
+  }
+
   @Test
   void addsRoutes() {
     Javalin mockServer = mock(Javalin.class);
@@ -200,26 +238,26 @@ class UserControllerSpec {
     userController.getUsers(ctx);
 
     // We are going to capture an argument to a function, and the type of
-    // that argument will be of type ArrayList<User> (we said so earlier
-    // using a Mockito annotation like this):
+    // that argument will be of type byte[] (the JSON array of users; we said
+    // so earlier using a Mockito annotation like this):
     // @Captor
-    // private ArgumentCaptor<ArrayList<User>> userArrayListCaptor;
+    // private ArgumentCaptor<byte[]> resultCaptor;
     // We only want to declare that captor once and let the annotation
     // help us accomplish reassignment of the value for the captor
     // We reset the values of our annotated declarations using the command
     // `MockitoAnnotations.openMocks(this);` in our @BeforeEach
 
-    // Specifically, we want to pay attention to the ArrayList<User> that
-    // is passed as input when ctx.json is called --- what is the argument
-    // that was passed? We capture it and can refer to it later.
-    verify(ctx).json(userArrayListCaptor.capture());
+    // Specifically, we want to pay attention to the JSON that is passed
+    // as input when ctx.result is called --- what is the argument that
+    // was passed? We capture it and can refer to it later.
+    verify(ctx).result(resultCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
     // Check that the database collection holds the same number of documents
-    // as the size of the captured List<User>
+    // as the number of users in the captured JSON
     assertEquals(
         db.getCollection("users").countDocuments(),
-        userArrayListCaptor.getValue().size());
+        users(resultCaptor.getValue()).size());
   }
 
   /**
@@ -242,9 +280,9 @@ class UserControllerSpec {
    *      with the (`String`) parameter value `"37"`.
    *    - We then call `userController.getUsers(ctx)` to run the code
    *      being tested with the constructed context `ctx`.
-   *    - We also use the `userListArrayCaptor` (defined above)
-   *      to capture the `ArrayList<User>` that the code under test
-   *      passes to `ctx.json(…)`. We can then confirm that the
+   *    - We also use the `resultCaptor` (defined above)
+   *      to capture the JSON that the code under test
+   *      passes to `ctx.result(…)`. We can then confirm that the
    *      correct list of users (i.e., all the users with age 37)
    *      is passed in to be returned in the context.
    *    - Now we can use a variety of assertions to confirm that
@@ -290,18 +328,18 @@ class UserControllerSpec {
 
     // Confirm that the code being tested calls `ctx.json(…)`, and capture whatever
     // is passed in as the argument when `ctx.json()` is called.
-    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).result(resultCaptor.capture());
     // Confirm that the code under test calls `ctx.status(HttpStatus.OK)` is called.
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that we get back two users.
-    assertEquals(2, userArrayListCaptor.getValue().size());
+    assertEquals(2, users(resultCaptor.getValue()).size());
     // Confirm that both users have age 37.
-    for (User user : userArrayListCaptor.getValue()) {
+    for (User user : users(resultCaptor.getValue())) {
       assertEquals(targetAge, user.age);
     }
     // Generate a list of the names of the returned users.
-    List<String> names = userArrayListCaptor.getValue().stream().map(user -> user.name).collect(Collectors.toList());
+    List<String> names = users(resultCaptor.getValue()).stream().map(user -> user.name).collect(Collectors.toList());
     // Confirm that the returned `names` contain the two names of the
     // 37-year-olds.
     assertTrue(names.contains("Jamie"));
@@ -504,13 +542,129 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).result(resultCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (User user : userArrayListCaptor.getValue()) {
+    for (User user : users(resultCaptor.getValue())) {
+      assertEquals("OHMNET", user.company);
+    }
+  }
+
+  @Test
+  void canGetUsersWithCompanyUsingCodec() throws IOException {
+    UserController codecController = new UserController(db, ObjectMappers.createObjectMapper(), UserReadMode.CODEC);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+
+    codecController.getUsers(ctx);
+
+    verify(ctx).result(resultCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+
+    List<User> users = users(resultCaptor.getValue());
+    assertEquals(2, users.size());
+    for (User user : users) {
+      assertEquals("OHMNET", user.company);
+    }
+    User sam = users.stream().filter(user -> user._id.equals(samsId.toHexString())).findFirst().get();
+    assertEquals("Sam", sam.name);
+    assertEquals(45, sam.age);
+    assertEquals("sam@frogs.com", sam.email);
+  }
+
+  @Test
+  void canGetUsersAsRawJson() throws IOException {
+    UserController rawController = new UserController(db, ObjectMappers.createObjectMapper(), UserReadMode.RAW);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+    ArgumentCaptor<byte[]> jsonCaptor = ArgumentCaptor.forClass(byte[].class);
+
+    rawController.getUsers(ctx);
+
+    verify(ctx).contentType(ResponseFormat.JSON.contentType());
+    verify(ctx).result(jsonCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+
+    // The raw JSON should read back as the same users the other modes return
+    List<User> users = users(jsonCaptor.getValue());
+    assertEquals(2, users.size());
+    for (User user : users) {
       assertEquals("OHMNET", user.company);
     }
+    User sam = users.stream().filter(user -> user._id.equals(samsId.toHexString())).findFirst().get();
+    assertEquals("Sam", sam.name);
+    assertEquals(45, sam.age);
+  }
+
+  @Test
+  void warmUpDoesNotChangeAnything() {
+    long users = db.getCollection("users").countDocuments();
+    long changes = db.getCollection("userChanges").countDocuments();
+
+    userController.warmUp(3, 10_000);
+    new UserController(db, ObjectMappers.createObjectMapper(), UserReadMode.RAW).warmUp(3, 10_000);
+
+    assertEquals(users, db.getCollection("users").countDocuments());
+    assertEquals(changes, db.getCollection("userChanges").countDocuments());
+  }
+
+  @Test
+  void warmUpCopesWithNoUsers() {
+    db.getCollection("users").deleteMany(new Document());
+    userController.warmUp(1, 10_000);
+    assertEquals(0, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  void warmUpStopsWhenItsTimeIsUp() {
+    assertTimeout(Duration.ofSeconds(10), () -> userController.warmUp(Integer.MAX_VALUE, 100));
+  }
+
+  @Test
+  void rawJsonForNoUsersIsEmptyArray() throws IOException {
+    UserController rawController = new UserController(db, ObjectMappers.createObjectMapper(), UserReadMode.RAW);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"NoSuchCompany"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("NoSuchCompany");
+
+    rawController.getUsers(ctx);
+
+    verify(ctx).result("[]".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void canGetUsersSortedByEmail() throws IOException {
+    // Sorting by email uses the (case-insensitive) unique email index
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam("sortby")).thenReturn("email");
+    when(ctx.queryParam("sortorder")).thenReturn("desc");
+
+    userController.getUsers(ctx);
+
+    verify(ctx).result(resultCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    List<String> emails = users(resultCaptor.getValue()).stream().map(user -> user.email.toLowerCase()).toList();
+    List<String> expected = new ArrayList<>(emails);
+    expected.sort(Collections.reverseOrder());
+    assertEquals(expected, emails);
+  }
+
+  @Test
+  void getUsersRejectsUnknownSortField() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam("sortby")).thenReturn("nmae");
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+
+    assertTrue(exception.getMessage().contains("nmae"));
   }
 
   @Test
@@ -522,11 +676,11 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).result(resultCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
     // Confirm that all the users passed to `json` work for OHMNET.
-    for (User user : userArrayListCaptor.getValue()) {
+    for (User user : users(resultCaptor.getValue())) {
       assertEquals("OHMNET", user.company);
     }
   }
@@ -546,9 +700,9 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).result(resultCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(2, userArrayListCaptor.getValue().size());
+    assertEquals(2, users(resultCaptor.getValue()).size());
   }
 
   @Test
@@ -572,10 +726,10 @@ class UserControllerSpec {
 
     userController.getUsers(ctx);
 
-    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).result(resultCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(1, userArrayListCaptor.getValue().size());
-    for (User user : userArrayListCaptor.getValue()) {
+    assertEquals(1, users(resultCaptor.getValue()).size());
+    for (User user : users(resultCaptor.getValue())) {
       assertEquals(targetCompanyString, user.company);
       assertEquals(targetAge, user.age);
     }
@@ -617,20 +771,17 @@ class UserControllerSpec {
     assertEquals("The requested user was not found", exception.getMessage());
   }
 
-  @Captor
-  private ArgumentCaptor<ArrayList<UserByCompany>> userByCompanyListCaptor;
-
   @Test
   void testGetUsersGroupedByCompany() {
     when(ctx.queryParam("sortBy")).thenReturn("company");
     when(ctx.queryParam("sortOrder")).thenReturn("asc");
     userController.getUsersGroupedByCompany(ctx);
 
-    // Capture the argument to `ctx.json()`
-    verify(ctx).json(userByCompanyListCaptor.capture());
+    // Capture the argument to `ctx.result()`
+    verify(ctx).result(resultCaptor.capture());
 
-    // Get the value that was passed to `ctx.json()`
-    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+    // Read back the JSON that was passed to `ctx.result()`
+    List<UserByCompany> result = companies(resultCaptor.getValue());
 
     // There are 3 companies in the test data, so we should have 3 entries in the
     // result.
@@ -663,11 +814,11 @@ class UserControllerSpec {
     when(ctx.queryParam("sortOrder")).thenReturn("desc");
     userController.getUsersGroupedByCompany(ctx);
 
-    // Capture the argument to `ctx.json()`
-    verify(ctx).json(userByCompanyListCaptor.capture());
+    // Capture the argument to `ctx.result()`
+    verify(ctx).result(resultCaptor.capture());
 
-    // Get the value that was passed to `ctx.json()`
-    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+    // Read back the JSON that was passed to `ctx.result()`
+    List<UserByCompany> result = companies(resultCaptor.getValue());
 
     // There are 3 companies in the test data, so we should have 3 entries in the
     // result.
@@ -692,11 +843,11 @@ class UserControllerSpec {
     when(ctx.queryParam("sortOrder")).thenReturn("asc");
     userController.getUsersGroupedByCompany(ctx);
 
-    // Capture the argument to `ctx.json()`
-    verify(ctx).json(userByCompanyListCaptor.capture());
+    // Capture the argument to `ctx.result()`
+    verify(ctx).result(resultCaptor.capture());
 
-    // Get the value that was passed to `ctx.json()`
-    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+    // Read back the JSON that was passed to `ctx.result()`
+    List<UserByCompany> result = companies(resultCaptor.getValue());
 
     // There are 3 companies in the test data, so we should have 3 entries in the
     // result.
@@ -723,6 +874,25 @@ class UserControllerSpec {
     assertEquals(2, ohmnet.count);
   }
 
+  @Test
+  void getUsersGroupedByCompanyRejectsUnknownSortField() {
+    when(ctx.queryParam("sortBy")).thenReturn("name");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsersGroupedByCompany(ctx);
+    });
+  }
+
+  @Test
+  void getUsersGroupedByCompanyRejectsUnknownSortOrder() {
+    when(ctx.queryParam("sortBy")).thenReturn("count");
+    when(ctx.queryParam("sortOrder")).thenReturn("up");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsersGroupedByCompany(ctx);
+    });
+  }
+
   @Test
   void addUser() throws IOException {
     // Create a new user to add
@@ -1183,4 +1353,419 @@ class UserControllerSpec {
     // Assert
     assertEquals("https://gravatar.com/avatar/?d=mp", avatar);
   }
+
+  @Test
+  void getUsersByIdsReturnsResultsInRequestOrder() throws IOException {
+    String missingId = new ObjectId().toHexString();
+    UserIdList idList = new UserIdList();
+    idList.ids = List.of(missingId, samsId.toHexString());
+    when(ctx.bodyAsClass(UserIdList.class)).thenReturn(idList);
+
+    userController.getUsersByIds(ctx);
+
+    verify(ctx).json(batchResultCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    ArrayList<UserBatchResult> results = batchResultCaptor.getValue();
+    assertEquals(2, results.size());
+    assertEquals(missingId, results.get(0)._id);
+    assertFalse(results.get(0).found);
+    assertNull(results.get(0).user);
+    assertEquals(samsId.toHexString(), results.get(1)._id);
+    assertTrue(results.get(1).found);
+    assertEquals("Sam", results.get(1).user.name);
+  }
+
+  @Test
+  void getUsersByIdsWithBadId() throws IOException {
+    UserIdList idList = new UserIdList();
+    idList.ids = List.of(samsId.toHexString(), "bad");
+    when(ctx.bodyAsClass(UserIdList.class)).thenReturn(idList);
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsersByIds(ctx);
+    });
+    assertEquals("The requested user id wasn't a legal Mongo Object ID.", exception.getMessage());
+  }
+
+  @Test
+  void getUsersByIdsWithNoIds() throws IOException {
+    when(ctx.bodyAsClass(UserIdList.class)).thenReturn(new UserIdList());
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsersByIds(ctx);
+    });
+  }
+
+  @Test
+  void getUsersByIdsWithTooManyIds() throws IOException {
+    UserIdList idList = new UserIdList();
+    idList.ids = new ArrayList<>();
+    for (int i = 0; i <= UserController.MAX_BATCH_SIZE; i++) {
+      idList.ids.add(new ObjectId().toHexString());
+    }
+    when(ctx.bodyAsClass(UserIdList.class)).thenReturn(idList);
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsersByIds(ctx);
+    });
+  }
+
+  @Test
+  void addUserWithDuplicateEmail() throws IOException {
+    // Sam's email, but with different capitalization
+    String newUserJson = """
+        {
+          "name": "Another Sam",
+          "age": 25,
+          "company": "testers",
+          "email": "SAM@frogs.com",
+          "role": "viewer"
+        }
+        """;
+    when(ctx.bodyValidator(User.class))
+        .then(value -> new BodyValidator<User>(newUserJson, User.class,
+                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+
+    userController.addNewUser(ctx);
+
+    // We should get Sam's ID back with a 409, and nobody should be added.
+    verify(ctx).json(mapCaptor.capture());
+    verify(ctx).status(HttpStatus.CONFLICT);
+    assertEquals(samsId.toHexString(), mapCaptor.getValue().get("id"));
+    assertEquals(4, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  void addUserWithIdempotencyKeyTwice() throws IOException {
+    User newUser = new User();
+    newUser.name = "Test User";
+    newUser.age = 25;
+    newUser.company = "testers";
+    newUser.email = "test@example.com";
+    newUser.role = "viewer";
+    String newUserJson = javalinJackson.toJsonString(newUser, User.class);
+
+    when(ctx.header(UserController.IDEMPOTENCY_KEY_HEADER)).thenReturn("retry-me");
+    when(ctx.bodyValidator(User.class))
+        .then(value -> new BodyValidator<User>(newUserJson, User.class,
+                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    userController.addNewUser(ctx);
+    verify(ctx).json(mapCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+    String firstId = mapCaptor.getValue().get("id");
+
+    // Retrying with the same key (and body) should give the same response
+    // without adding anyone.
+    Context retryCtx = mock(Context.class);
+    when(retryCtx.header(UserController.IDEMPOTENCY_KEY_HEADER)).thenReturn("retry-me");
+    when(retryCtx.bodyValidator(User.class))
+        .then(value -> new BodyValidator<User>(newUserJson, User.class,
+                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    userController.addNewUser(retryCtx);
+
+    ArgumentCaptor<Map<String, String>> retryCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(retryCtx).json(retryCaptor.capture());
+    verify(retryCtx).status(HttpStatus.CREATED.getCode());
+    assertEquals(firstId, retryCaptor.getValue().get("id"));
+    assertEquals(5, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  void addDifferentUserWithSameIdempotencyKey() throws IOException {
+    User newUser = new User();
+    newUser.name = "Test User";
+    newUser.age = 25;
+    newUser.company = "testers";
+    newUser.email = "test@example.com";
+    newUser.role = "viewer";
+    String newUserJson = javalinJackson.toJsonString(newUser, User.class);
+
+    when(ctx.header(UserController.IDEMPOTENCY_KEY_HEADER)).thenReturn("reused");
+    when(ctx.bodyValidator(User.class))
+        .then(value -> new BodyValidator<User>(newUserJson, User.class,
+                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    userController.addNewUser(ctx);
+    verify(ctx).status(HttpStatus.CREATED);
+
+    // Reusing the key for someone else is an error, not a replay of the first response.
+    newUser.email = "other@example.com";
+    String otherUserJson = javalinJackson.toJsonString(newUser, User.class);
+    Context otherCtx = mock(Context.class);
+    when(otherCtx.header(UserController.IDEMPOTENCY_KEY_HEADER)).thenReturn("reused");
+    when(otherCtx.bodyValidator(User.class))
+        .then(value -> new BodyValidator<User>(otherUserJson, User.class,
+                        () -> javalinJackson.fromJsonString(otherUserJson, User.class)));
+
+    assertThrows(UnprocessableContentResponse.class, () -> {
+      userController.addNewUser(otherCtx);
+    });
+    assertEquals(5, db.getCollection("users").countDocuments());
+  }
+
+  @Test
+  void addUserWithTooLongIdempotencyKey() throws IOException {
+    when(ctx.header(UserController.IDEMPOTENCY_KEY_HEADER))
+        .thenReturn("k".repeat(UserController.MAX_IDEMPOTENCY_KEY_LENGTH + 1));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.addNewUser(ctx);
+    });
+  }
+
+  @Test
+  void updateUserRole() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of(UserController.ROLE_KEY, "admin"));
+
+    userController.updateUser(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    Document sam = db.getCollection("users").find(eq("_id", samsId)).first();
+    assertEquals("admin", sam.get(UserController.ROLE_KEY));
+    // Nothing else should have changed
+    assertEquals("Sam", sam.get("name"));
+    assertEquals(45, sam.get(UserController.AGE_KEY));
+    assertEquals("https://gravatar.com/avatar/08b7610b558a4cbbd20ae99072801f4d?d=identicon", sam.get("avatar"));
+  }
+
+  @Test
+  void updateUserAfterTheRequestDeadline() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of(UserController.ROLE_KEY, "admin"));
+
+    RequestDeadline.start(-1);
+    try {
+      assertThrows(GatewayTimeoutResponse.class, () -> {
+        userController.updateUser(ctx);
+      });
+    } finally {
+      RequestDeadline.clear();
+    }
+
+    Document sam = db.getCollection("users").find(eq("_id", samsId)).first();
+    assertEquals("viewer", sam.get(UserController.ROLE_KEY));
+  }
+
+  @Test
+  void updateUserEmailRegeneratesAvatar() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of("email", "sam@toads.com", UserController.AGE_KEY, 46));
+
+    userController.updateUser(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    Document sam = db.getCollection("users").find(eq("_id", samsId)).first();
+    assertEquals("sam@toads.com", sam.get("email"));
+    assertEquals(46, sam.get(UserController.AGE_KEY));
+    assertEquals(userController.generateAvatar("sam@toads.com"), sam.get("avatar"));
+  }
+
+  @Test
+  void updateUserWithInvalidFields() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of(
+        UserController.ROLE_KEY, "invalidrole",
+        UserController.AGE_KEY, 150,
+        "avatar", "https://example.com/me.png"));
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> {
+      userController.updateUser(ctx);
+    });
+
+    // All of the problems should be reported at once
+    assertTrue(exception.getMessage().contains("invalidrole"));
+    assertTrue(exception.getMessage().contains("150"));
+    assertTrue(exception.getMessage().contains("avatar"));
+    Document sam = db.getCollection("users").find(eq("_id", samsId)).first();
+    assertEquals("viewer", sam.get(UserController.ROLE_KEY));
+  }
+
+  @Test
+  void updateUserWithNoFields() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of());
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.updateUser(ctx);
+    });
+  }
+
+  @Test
+  void updateNonexistentUser() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of("name", "Nobody"));
+
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.updateUser(ctx);
+    });
+  }
+
+  @Test
+  void updateUserToDuplicateEmail() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of("email", "Jamie@frogs.com"));
+
+    assertThrows(ConflictResponse.class, () -> {
+      userController.updateUser(ctx);
+    });
+  }
+
+  @Test
+  void inMemoryReadsMatchMongo() throws IOException {
+    InMemoryUserRepository repository = new InMemoryUserRepository();
+    UserController cachedController = new UserController(db, ObjectMappers.createObjectMapper(),
+      UserReadMode.JACKSON, repository);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"ohm"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("ohm");
+
+    cachedController.getUsers(ctx);
+    userController.getUsers(ctx);
+
+    verify(ctx, times(2)).result(resultCaptor.capture());
+    List<List<User>> results = resultCaptor.getAllValues().stream().map(UserControllerSpec::users).toList();
+    assertEquals(2, results.get(0).size());
+    assertEquals(results.get(1).stream().map(user -> user._id).collect(Collectors.toList()),
+      results.get(0).stream().map(user -> user._id).collect(Collectors.toList()));
+  }
+
+  @Test
+  void inMemoryCopyFollowsWrites() throws IOException {
+    InMemoryUserRepository repository = new InMemoryUserRepository();
+    UserController cachedController = new UserController(db, ObjectMappers.createObjectMapper(),
+      UserReadMode.JACKSON, repository);
+    assertEquals("viewer", repository.findById(samsId.toHexString()).role);
+
+    // Updates
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyAsClass(Map.class)).thenReturn(Map.of(UserController.ROLE_KEY, "admin"));
+    cachedController.updateUser(ctx);
+    assertEquals("admin", repository.findById(samsId.toHexString()).role);
+
+    // Inserts
+    User newUser = new User();
+    newUser.name = "Test User";
+    newUser.age = 25;
+    newUser.company = "testers";
+    newUser.email = "test@example.com";
+    newUser.role = "viewer";
+    String newUserJson = javalinJackson.toJsonString(newUser, User.class);
+    when(ctx.bodyValidator(User.class))
+      .thenReturn(new BodyValidator<User>(newUserJson, User.class,
+                    () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    cachedController.addNewUser(ctx);
+    // `updateUser` and `addNewUser` both respond with `{"id": ...}`
+    verify(ctx, times(2)).json(mapCaptor.capture());
+    String newId = mapCaptor.getValue().get("id");
+    assertEquals("Test User", repository.findById(newId).name);
+
+    // Deletes, both one at a time and by filter
+    cachedController.deleteUser(ctx);
+    assertNull(repository.findById(samsId.toHexString()));
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"testers"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("testers");
+    new UserBulkController(db, ObjectMappers.createObjectMapper(), UserBulkController.DEFAULT_MAX_BULK_BODY_BYTES,
+      repository, cachedController::generateAvatar).deleteUsers(ctx);
+    assertNull(repository.findById(newId));
+  }
+
+  @Test
+  void canCountUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+
+    userController.getUserCount(ctx);
+
+    verify(ctx).json(countCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(2L, countCaptor.getValue().get("count"));
+  }
+
+  @Test
+  void canGetUserFacets() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    ArgumentCaptor<UserFacets> facetsCaptor = ArgumentCaptor.forClass(UserFacets.class);
+
+    userController.getUserFacets(ctx);
+
+    verify(ctx).json(facetsCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    UserFacets facets = facetsCaptor.getValue();
+    assertEquals(4, facets.total);
+    assertEquals(Map.of("admin", 1L, "editor", 1L, "viewer", 2L), facets.roles);
+    assertEquals(Map.of("UMM", 1L, "IBM", 1L, "OHMNET", 2L), facets.companies);
+  }
+
+  @Test
+  void canGetPageOfUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {"2"}));
+    queryParams.put(UserController.OFFSET_KEY, Arrays.asList(new String[] {"1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.LIMIT_KEY, Integer.class, "2"));
+    when(ctx.queryParamAsClass(UserController.OFFSET_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.OFFSET_KEY, Integer.class, "1"));
+
+    userController.getUsers(ctx);
+
+    verify(ctx).result(resultCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    // The users sorted by name are Chris, Jamie, Pat, and Sam
+    List<String> names = users(resultCaptor.getValue()).stream().map(user -> user.name).collect(Collectors.toList());
+    assertEquals(List.of("Jamie", "Pat"), names);
+  }
+
+  @Test
+  void canGetPageOfRawUsers() throws IOException {
+    UserController rawController = new UserController(db, ObjectMappers.createObjectMapper(), UserReadMode.RAW);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {"1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.SORT_ORDER_KEY)).thenReturn("desc");
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.LIMIT_KEY, Integer.class, "1"));
+    ArgumentCaptor<byte[]> jsonCaptor = ArgumentCaptor.forClass(byte[].class);
+
+    rawController.getUsers(ctx);
+
+    verify(ctx).result(jsonCaptor.capture());
+    List<User> users = users(jsonCaptor.getValue());
+    assertEquals(1, users.size());
+    assertEquals("Sam", users.get(0).name);
+  }
+
+  @Test
+  void rejectsIllegalPages() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, Arrays.asList(new String[] {"0"}));
+    queryParams.put(UserController.OFFSET_KEY, Arrays.asList(new String[] {"-1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.LIMIT_KEY, Integer.class, "0"));
+    when(ctx.queryParamAsClass(UserController.OFFSET_KEY, Integer.class))
+      .thenReturn(validation.validator(UserController.OFFSET_KEY, Integer.class, "-1"));
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertEquals("The limit must be a positive number",
+      exception.getErrors().get(UserController.LIMIT_KEY).get(0).getMessage());
+
+    queryParams.remove(UserController.LIMIT_KEY);
+    exception = assertThrows(ValidationException.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertEquals("The offset can't be negative",
+      exception.getErrors().get(UserController.OFFSET_KEY).get(0).getMessage());
+  }
 }
@@ -0,0 +1,124 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.UnprocessableContentResponse;
+
+/**
+ * Tests reserving and completing `Idempotency-Key`s with `UserIdempotencyKeys`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserIdempotencyKeysSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> keyCollection;
+
+  // Doesn't wait for requests that are still in progress, so the tests don't either.
+  private UserIdempotencyKeys keys;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    keyCollection = db.getCollection("userIdempotencyKeys");
+    keyCollection.drop();
+    keys = new UserIdempotencyKeys(db, 0);
+    keys.createIndexes();
+  }
+
+  @Test
+  void firstRequestReservesTheKey() {
+    assertNull(keys.reserve("key", "hash"));
+
+    Document reservation = keyCollection.find(new Document("_id", "key")).first();
+    assertNotNull(reservation);
+    assertEquals(UserIdempotencyKeys.STATE_PENDING, reservation.getString("state"));
+    assertEquals("hash", reservation.getString("requestHash"));
+  }
+
+  @Test
+  void retriesGetTheRecordedResponse() {
+    assertNull(keys.reserve("key", "hash"));
+    keys.complete("key", "some-user", 201);
+
+    Document previous = keys.reserve("key", "hash");
+    assertNotNull(previous);
+    assertEquals("some-user", previous.getString("userId"));
+    assertEquals(201, previous.getInteger("status"));
+  }
+
+  @Test
+  void reusingAKeyForADifferentRequestIsRejected() {
+    assertNull(keys.reserve("key", "hash"));
+    keys.complete("key", "some-user", 201);
+
+    assertThrows(UnprocessableContentResponse.class, () -> keys.reserve("key", "other-hash"));
+  }
+
+  @Test
+  void retriesOfARequestInProgressAreRejectedAfterWaiting() {
+    assertNull(keys.reserve("key", "hash"));
+
+    assertThrows(ConflictResponse.class, () -> keys.reserve("key", "hash"));
+  }
+
+  @Test
+  void releasedKeysCanBeReservedAgain() {
+    assertNull(keys.reserve("key", "hash"));
+    keys.release("key");
+
+    assertNull(keys.reserve("key", "hash"));
+  }
+
+  @Test
+  void abandonedReservationsAreTakenOver() {
+    Date longAgo = new Date(System.currentTimeMillis()
+      - TimeUnit.SECONDS.toMillis(UserIdempotencyKeys.PENDING_TIMEOUT_SECONDS + 1));
+    keyCollection.insertOne(new Document("_id", "key")
+      .append("requestHash", "hash")
+      .append("state", UserIdempotencyKeys.STATE_PENDING)
+      .append("createdAt", longAgo));
+
+    assertNull(keys.reserve("key", "hash"));
+    // But only once
+    assertThrows(ConflictResponse.class, () -> keys.reserve("key", "hash"));
+  }
+}
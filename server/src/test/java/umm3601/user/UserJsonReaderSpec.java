@@ -0,0 +1,117 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests for the `UserJsonReader`, which streams users
+ * out of the JSON body of a request.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserJsonReaderSpec {
+
+  private static final String TWO_USERS = """
+      [
+        {"name": "Chris", "age": 25, "company": "UMM", "email": "chris@this.that", "role": "admin"},
+        {"name": "Pat", "age": 37, "company": "IBM", "email": "pat@something.com", "role": "editor"}
+      ]
+      """;
+
+  private final UserJsonReader reader = new UserJsonReader(new ObjectMapper(), 1024);
+
+  private static InputStream body(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void readsUsersInOrder() {
+    List<User> users = new ArrayList<>();
+    reader.readUsers(body(TWO_USERS), users::add);
+
+    assertEquals(2, users.size());
+    assertEquals("Chris", users.get(0).name);
+    assertEquals(37, users.get(1).age);
+  }
+
+  @Test
+  void readsEmptyArray() {
+    List<User> users = new ArrayList<>();
+    reader.readUsers(body("[]"), users::add);
+    assertEquals(0, users.size());
+  }
+
+  @Test
+  void rejectsNonArray() {
+    assertThrows(BadRequestResponse.class, () -> {
+      reader.readUsers(body("{\"name\": \"Chris\"}"), user -> { });
+    });
+  }
+
+  @Test
+  void rejectsArrayOfNonObjects() {
+    assertThrows(BadRequestResponse.class, () -> {
+      reader.readUsers(body("[1, 2]"), user -> { });
+    });
+  }
+
+  @Test
+  void rejectsMalformedJsonAsSoonAsItIsReached() {
+    List<User> users = new ArrayList<>();
+    assertThrows(BadRequestResponse.class, () -> {
+      reader.readUsers(body("[{\"name\": \"Chris\"}, {\"name\": ]"), users::add);
+    });
+    // The first user was read before we reached the bad JSON
+    assertEquals(1, users.size());
+  }
+
+  @Test
+  void rejectsBodyThatIsTooLarge() {
+    UserJsonReader smallReader = new UserJsonReader(new ObjectMapper(), 100);
+
+    HttpResponseException exception = assertThrows(HttpResponseException.class, () -> {
+      smallReader.readUsers(body(TWO_USERS), user -> { });
+    });
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), exception.getStatus());
+  }
+
+  @Test
+  void rejectsContentLengthThatIsTooLarge() {
+    reader.checkContentLength(-1);
+    reader.checkContentLength(1024);
+
+    HttpResponseException exception = assertThrows(HttpResponseException.class, () -> {
+      reader.checkContentLength(1025);
+    });
+    assertEquals(HttpStatus.CONTENT_TOO_LARGE.getCode(), exception.getStatus());
+  }
+
+  @Test
+  void passesOnReadFailures() {
+    InputStream broken = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("connection reset");
+      }
+    };
+
+    assertThrows(UncheckedIOException.class, () -> {
+      reader.readUsers(broken, user -> { });
+    });
+  }
+}
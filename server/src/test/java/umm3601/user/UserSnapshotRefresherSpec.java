@@ -0,0 +1,111 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests for the `UserSnapshotRefresher`. Depending on whether the test
+ * database supports change streams, these exercise either the change stream
+ * or the polling fallback; either way the snapshot should catch up.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserSnapshotRefresherSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<User> userCollection;
+  private SnapshotUserRepository repository;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  private static User user(String name) {
+    User user = new User();
+    user._id = new ObjectId().toHexString();
+    user.name = name;
+    user.age = 30;
+    user.company = "OHMNET";
+    user.email = name.toLowerCase() + "@example.com";
+    user.role = "viewer";
+    return user;
+  }
+
+  @BeforeEach
+  void setupEach() {
+    userCollection = db.getCollection("snapshotUsers", User.class)
+      .withCodecRegistry(UserCodec.withUserCodec(db.getCodecRegistry()));
+    userCollection.drop();
+    userCollection.insertOne(user("Chris"));
+    repository = new SnapshotUserRepository();
+  }
+
+  @Test
+  void reloadsFromTheCollection() {
+    UserSnapshotRefresher refresher = new UserSnapshotRefresher(userCollection, repository, 1000);
+    refresher.reload();
+    assertEquals(1, repository.snapshot().size());
+  }
+
+  @Test
+  void stopsWhenTheRepositoryIsClosed() throws InterruptedException {
+    UserSnapshotRefresher refresher = new UserSnapshotRefresher(userCollection, repository, 20);
+    refresher.start();
+    assertTrue(repository.refreshesItself());
+    assertEquals(1, repository.snapshot().size());
+
+    repository.close();
+    User pat = user("Pat");
+    userCollection.insertOne(pat);
+    Thread.sleep(500);
+    assertNull(repository.findById(pat._id));
+  }
+
+  @Test
+  void picksUpChanges() throws InterruptedException {
+    try (UserSnapshotRefresher refresher = new UserSnapshotRefresher(userCollection, repository, 20)) {
+      refresher.start();
+      assertEquals(1, repository.snapshot().size());
+
+      User pat = user("Pat");
+      userCollection.insertOne(pat);
+
+      // Give the refresher (up to) a few seconds to notice
+      for (int i = 0; i < 250 && repository.findById(pat._id) == null; i++) {
+        Thread.sleep(20);
+      }
+      assertNotNull(repository.findById(pat._id));
+    }
+  }
+}
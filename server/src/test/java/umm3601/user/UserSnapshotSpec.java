@@ -0,0 +1,223 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the column-oriented `UserSnapshot` and the
+ * `SnapshotUserRepository` built on it.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserSnapshotSpec {
+
+  private SnapshotUserRepository repository;
+
+  private static User user(String id, String name, int age, String company, String role) {
+    User user = new User();
+    user._id = id;
+    user.name = name;
+    user.age = age;
+    user.company = company;
+    user.email = name.toLowerCase() + "@example.com";
+    user.avatar = "https://gravatar.com/avatar/" + id;
+    user.role = role;
+    return user;
+  }
+
+  private static List<String> names(List<User> users) {
+    return users.stream().map(user -> user.name).collect(Collectors.toList());
+  }
+
+  @BeforeEach
+  void setupEach() {
+    repository = new SnapshotUserRepository();
+    repository.replaceAll(List.of(
+      user("1", "Chris", 25, "UMM", "admin"),
+      user("2", "Pat", 37, "IBM", "editor"),
+      user("3", "Jamie", 37, "OHMNET", "viewer"),
+      user("4", "Sam", 45, "OHMNET", "viewer")));
+  }
+
+  @Test
+  void rebuildsUsers() {
+    User sam = repository.findById("4");
+    assertEquals("Sam", sam.name);
+    assertEquals(45, sam.age);
+    assertEquals("OHMNET", sam.company);
+    assertEquals("sam@example.com", sam.email);
+    assertEquals("https://gravatar.com/avatar/4", sam.avatar);
+    assertEquals("viewer", sam.role);
+    assertNull(repository.findById("nope"));
+    assertEquals(4, repository.snapshot().size());
+  }
+
+  @Test
+  void filtersByAgeRoleAndCompany() {
+    UserQuery query = new UserQuery();
+    query.age = 37;
+    assertEquals(List.of("Jamie", "Pat"), names(repository.find(query)));
+
+    query.role = "viewer";
+    assertEquals(List.of("Jamie"), names(repository.find(query)));
+
+    UserQuery companyQuery = new UserQuery();
+    companyQuery.company = "oHm";
+    assertEquals(List.of("Jamie", "Sam"), names(repository.find(companyQuery)));
+
+    companyQuery.role = "admin";
+    assertTrue(repository.find(companyQuery).isEmpty());
+
+    UserQuery unknownRole = new UserQuery();
+    unknownRole.role = "wizard";
+    assertTrue(repository.find(unknownRole).isEmpty());
+  }
+
+  @Test
+  void sortsByEachField() {
+    UserQuery query = new UserQuery();
+    assertEquals(List.of("Chris", "Jamie", "Pat", "Sam"), names(repository.find(query)));
+
+    query.sortBy = "age";
+    query.descending = true;
+    assertEquals("Sam", repository.find(query).get(0).name);
+
+    query.sortBy = "company";
+    query.descending = false;
+    assertEquals(List.of("Pat", "Jamie", "Sam", "Chris"), names(repository.find(query)));
+
+    query.sortBy = "role";
+    assertEquals("Chris", repository.find(query).get(0).name);
+
+    for (String field : List.of("_id", "email", "avatar")) {
+      query.sortBy = field;
+      assertEquals("Chris", repository.find(query).get(0).name);
+    }
+
+    // Unknown fields leave the users in snapshot order
+    query.sortBy = "noSuchField";
+    assertEquals(List.of("Chris", "Pat", "Jamie", "Sam"), names(repository.find(query)));
+  }
+
+  @Test
+  void findsByIds() {
+    assertEquals(List.of("Sam", "Chris"), names(repository.findByIds(List.of("4", "nope", "1"))));
+  }
+
+  @Test
+  void appliesChanges() {
+    repository.save(user("4", "Sam", 46, "Frogs", "admin"));
+    repository.save(user("5", "Lee", 30, null, null));
+    repository.deleteByIds(List.of("1"));
+
+    assertEquals(4, repository.snapshot().size());
+    assertNull(repository.findById("1"));
+    assertEquals("Frogs", repository.findById("4").company);
+
+    UserQuery admins = new UserQuery();
+    admins.role = "admin";
+    assertEquals(List.of("Sam"), names(repository.find(admins)));
+
+    // Users without a company or role are never matched by those filters, and sort first
+    UserQuery byCompany = new UserQuery();
+    byCompany.sortBy = "company";
+    assertEquals("Lee", repository.find(byCompany).get(0).name);
+    assertNull(repository.findById("5").role);
+  }
+
+  @Test
+  void changesKeepEveryFieldSorted() {
+    repository.save(user("5", "Alex", 37, "Frogs", "admin"));
+    repository.saveAll(List.of(user("2", "Zed", 20, "Acme", null), user("6", "Kim", 50, "IBM", "viewer")));
+    repository.deleteByIds(List.of("3", "nope"));
+
+    // The changed snapshot should sort just like one built from scratch
+    UserSnapshot rebuilt = UserSnapshot.of(repository.snapshot().users());
+    for (String field : List.of("_id", "name", "age", "company", "email", "avatar", "role")) {
+      for (boolean descending : List.of(false, true)) {
+        UserQuery query = new UserQuery();
+        query.sortBy = field;
+        query.descending = descending;
+        assertEquals(names(rebuilt.find(query)), names(repository.find(query)), field);
+      }
+    }
+    UserQuery byName = new UserQuery();
+    assertEquals(List.of("Alex", "Chris", "Kim", "Sam", "Zed"), names(repository.find(byName)));
+  }
+
+  @Test
+  void skipsReloadsOlderThanAWrite() {
+    long version = repository.version();
+    repository.save(user("5", "Lee", 30, "UMM", "viewer"));
+
+    // These were "read" before Lee was saved, so they'd lose Lee
+    assertFalse(repository.replaceAll(List.of(user("1", "Chris", 25, "UMM", "admin")), version));
+    assertEquals(5, repository.snapshot().size());
+
+    assertTrue(repository.replaceAll(List.of(user("1", "Chris", 25, "UMM", "admin")), repository.version()));
+    assertEquals(1, repository.snapshot().size());
+  }
+
+  @Test
+  void rejectsTooManyRoles() {
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i <= Byte.MAX_VALUE + 1; i++) {
+      users.add(user(String.valueOf(i), "User " + i, 20, "Acme", "role" + i));
+    }
+    assertThrows(IllegalArgumentException.class, () -> UserSnapshot.of(users));
+  }
+
+  @Test
+  void countsAndFacetsWithoutBuildingUsers() {
+    UserSnapshot snapshot = repository.snapshot();
+    assertEquals(4, snapshot.count(new UserQuery()));
+
+    UserQuery query = new UserQuery();
+    query.age = 37;
+    assertEquals(2, repository.count(query));
+
+    UserFacets facets = repository.facets(query);
+    assertEquals(2, facets.total);
+    assertEquals(Map.of("editor", 1L, "viewer", 1L), facets.roles);
+    assertEquals(Map.of("IBM", 1L, "OHMNET", 1L), facets.companies);
+
+    query.company = "nobody";
+    assertEquals(0, repository.count(query));
+    assertTrue(repository.facets(query).roles.isEmpty());
+  }
+
+  @Test
+  void pagesThroughSortedUsers() {
+    UserQuery query = new UserQuery();
+    query.offset = 1;
+    query.limit = 2;
+    assertEquals(List.of("Jamie", "Pat"), names(repository.find(query)));
+
+    query.descending = true;
+    assertEquals(List.of("Pat", "Jamie"), names(repository.find(query)));
+
+    query.role = "viewer";
+    query.offset = 0;
+    query.limit = 1;
+    assertEquals(List.of("Sam"), names(repository.find(query)));
+
+    query.offset = 5;
+    query.limit = null;
+    assertTrue(repository.find(query).isEmpty());
+
+    UserQuery unsorted = new UserQuery();
+    unsorted.sortBy = "noSuchField";
+    unsorted.offset = 3;
+    assertEquals(List.of("Sam"), names(repository.find(unsorted)));
+  }
+}
@@ -0,0 +1,137 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Tests for the `UserValidator`, which checks that users
+ * (and changes to users) have legal values.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserValidatorSpec {
+
+  private UserValidator validator;
+  private User user;
+
+  @BeforeEach
+  void setupEach() {
+    validator = new UserValidator();
+    user = new User();
+    user.name = "Test User";
+    user.age = 25;
+    user.company = "testers";
+    user.email = "test@example.com";
+    user.role = "viewer";
+  }
+
+  @Test
+  void legalUserHasNoErrors() {
+    assertTrue(validator.validate(user).isEmpty());
+    assertSame(user, validator.requireValid(user));
+  }
+
+  @Test
+  void reportsEveryProblemInOrder() {
+    user.name = "";
+    user.email = "invalidemail";
+    user.age = 150;
+    user.role = "invalidrole";
+    user.company = null;
+
+    List<ValidationError<Object>> errors = validator.validate(user);
+
+    assertEquals(5, errors.size());
+    assertTrue(errors.get(0).getMessage().contains("non-empty user name"));
+    assertTrue(errors.get(1).getMessage().contains("invalidemail"));
+    assertTrue(errors.get(2).getMessage().contains("150"));
+    assertTrue(errors.get(3).getMessage().contains("invalidrole"));
+    assertTrue(errors.get(4).getMessage().contains("non-empty company name"));
+  }
+
+  @Test
+  void requireValidThrowsBodyErrors() {
+    user.age = -3;
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> {
+      validator.requireValid(user);
+    });
+    List<ValidationError<Object>> errors = exception.getErrors().get(UserValidator.REQUEST_BODY_KEY);
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0).getMessage().contains("-3"));
+  }
+
+  @Test
+  void checksRoles() {
+    assertTrue(validator.isLegalRole("admin"));
+    assertTrue(validator.isLegalRole("editor"));
+    assertTrue(validator.isLegalRole("viewer"));
+    assertFalse(validator.isLegalRole("Admin"));
+    assertFalse(validator.isLegalRole("owner"));
+    assertFalse(validator.isLegalRole(null));
+    assertEquals(UserRole.EDITOR, UserRole.fromName("editor"));
+    assertNull(UserRole.fromName("owner"));
+  }
+
+  @Test
+  void checksEmails() {
+    assertTrue(validator.isLegalEmail("sam@frogs.com"));
+    assertFalse(validator.isLegalEmail("sam at frogs.com"));
+    assertFalse(validator.isLegalEmail(null));
+  }
+
+  @Test
+  void checksAges() {
+    assertEquals(37, validator.requireLegalAge(UserController.AGE_KEY, 37));
+    ValidationException exception = assertThrows(ValidationException.class, () -> {
+      validator.requireLegalAge(UserController.AGE_KEY, 0);
+    });
+    assertTrue(exception.getErrors().get(UserController.AGE_KEY).get(0).getMessage().contains("0"));
+  }
+
+  @Test
+  void legalUpdateHasNoErrors() {
+    assertTrue(validator.validateUpdate(Map.of(
+        "name", "Pat",
+        UserController.AGE_KEY, 40,
+        UserController.COMPANY_KEY, "IBM",
+        "email", "pat@ibm.com",
+        UserController.ROLE_KEY, "admin")).isEmpty());
+  }
+
+  @Test
+  void reportsEveryProblemWithAnUpdate() {
+    List<String> errors = validator.validateUpdate(Map.of(
+        "_id", "588935f57546a2daea44de7c",
+        UserController.AGE_KEY, "old",
+        "name", "",
+        "email", "invalidemail",
+        UserController.ROLE_KEY, "invalidrole"));
+
+    assertEquals(5, errors.size());
+    assertTrue(errors.stream().anyMatch(error -> error.contains("_id")));
+    assertTrue(errors.stream().anyMatch(error -> error.contains("old")));
+    assertTrue(errors.stream().anyMatch(error -> error.contains("non-empty name")));
+    assertTrue(errors.stream().anyMatch(error -> error.contains("invalidemail")));
+    assertTrue(errors.stream().anyMatch(error -> error.contains("invalidrole")));
+  }
+
+  @Test
+  void reportsIllegalAgeInUpdate() {
+    List<String> errors = validator.validateUpdate(Map.of(UserController.AGE_KEY, 200));
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0).contains("200"));
+  }
+}